@@ -1,20 +1,27 @@
 package com.softwaregroup.digiwave.eip;
 
 import com.softwaregroup.digiwave.eip.components.servicebus.MicroserviceInstance;
+import com.softwaregroup.digiwave.eip.utils.Config;
 import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.StartupTimer;
 
 import java.lang.reflect.Constructor;
 import java.util.concurrent.*;
 
 /**
  * Executable class used to start up a new microservice instance.
+ * The microservice class is loaded in parallel with the service bus initialization and the duration of every start-up
+ * phase is logged once the instance is ready.
+ * NOTE: With DIGIWAVE_INSTANCE_EXIT_AFTER_STARTUP=true the instance stops right after starting, which is used to record
+ * the class list of the class-data sharing archive (see the 'cdsArchive' Gradle task).
  *
  * @author Boris Kostadinov
  * @version 1.0
  * @since 2019.1.0
  */
 public final class StartMicroserviceInstance {
-    private static final int POOL_SIZE = 3;
+    private static final int POOL_SIZE = Config.getSetting( "instance.poolSize", 3 );
+    private static final boolean EXIT_AFTER_STARTUP = Config.getSetting( "instance.exitAfterStartup", false );
     private static ExecutorService pool;
 
     /**
@@ -25,18 +32,43 @@ public final class StartMicroserviceInstance {
     public static void main( String[] argv ) {
         try {
             Logger.log( "Starting new microservice instance...", Logger.Severity.INFO, Logger.Threads.ESB );
+            long startupNanos = System.nanoTime();
 
             pool = Executors.newFixedThreadPool( POOL_SIZE );
 
-            // initialize the microservice based on the provided child class:
-            Class<?> microserviceClass = Class.forName( /*"com.softwaregroup.digiwave." + */System.getenv( "DIGIWAVE_SERVICE_CLASS" ) );
-            Constructor<?> constructor = microserviceClass.getConstructor();
-            MicroserviceInstance microservice = ( MicroserviceInstance ) constructor.newInstance();
+            // initialize the microservice based on the provided child class, while the service bus is initialized:
+            CompletableFuture<MicroserviceInstance> microserviceLoaded = CompletableFuture.supplyAsync( () -> {
+                long startNanos = System.nanoTime();
+                try {
+                    Class<?> microserviceClass = Class.forName( /*"com.softwaregroup.digiwave." + */System.getenv( "DIGIWAVE_SERVICE_CLASS" ) );
+                    Constructor<?> constructor = microserviceClass.getConstructor();
+                    MicroserviceInstance microservice = ( MicroserviceInstance ) constructor.newInstance();
+                    StartupTimer.record( "microserviceClass", startNanos );
+                    return microservice;
+                } catch ( Exception exception ) {
+                    throw new CompletionException( exception );
+                }
+            }, pool );
+            MicroserviceInstance microservice = microserviceLoaded.thenCombine( MicroserviceInstance.bootstrap( pool ), ( loadedMicroservice, ignored ) -> loadedMicroservice ).join();
 
             // once the microservice class is initialized, perform startup sequence:
-            microservice.start().thenRunAsync( () -> {
-                Logger.log( "Microservice instance " + MicroserviceInstance.INSTANCE_ID + " successfully started.", Logger.Severity.INFO, Logger.Threads.ESB );
-            }, pool ).join();
+            long startNanos = System.nanoTime();
+            microservice.start().thenRunAsync( () -> StartupTimer.record( "start", startNanos ), pool ).join();
+            long onStartedNanos = System.nanoTime();
+            microservice.onStarted().thenRunAsync( () -> StartupTimer.record( "onStarted", onStartedNanos ), pool ).join();
+            StartupTimer.record( "total", startupNanos );
+            Logger.log( "Microservice instance " + MicroserviceInstance.INSTANCE_ID + " successfully started: " + StartupTimer.getSummary(), Logger.Severity.INFO, Logger.Threads.ESB );
+
+            // drain and stop the microservice on SIGTERM (e.g. during a deployment) or exit:
+            Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+                Logger.log( "Stopping microservice instance " + MicroserviceInstance.INSTANCE_ID + "...", Logger.Severity.INFO, Logger.Threads.ESB );
+                microservice.stop().join();
+                shutdown();
+            }, "microservice-shutdown" ) );
+
+            if ( EXIT_AFTER_STARTUP ) {
+                System.exit( 0 );
+            }
         } catch ( Exception exception ) {
             Logger.log( "Failed to start microservice instance!", Logger.Severity.CRITICAL, Logger.Threads.ESB, exception );
             shutdown();
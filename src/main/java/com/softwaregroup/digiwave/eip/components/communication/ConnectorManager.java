@@ -1,15 +1,30 @@
 package com.softwaregroup.digiwave.eip.components.communication;
 
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceConsumer;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceAddress;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallPriority;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * A singleton class handling the connectors operation and behavior.
+ * The connectors expose the services of the EIP microservice ecosystem to external clients; they are started with the
+ * service consumer and stopped before the service bus, so their pending requests are still answered.
  *
  * @author Boris Kostadinov
  * @version 1.0
  * @since 2019.1.0
  */
-final class ConnectorManager {
+public final class ConnectorManager {
     private static ConnectorManager instance;
 
+    private HttpIngressConnector httpIngressConnector;
+    private FileIngestionConnector fileIngestionConnector;
+
     private ConnectorManager() {
     }
 
@@ -18,10 +33,84 @@ final class ConnectorManager {
      *
      * @return The ConnectorManager instance.
      */
-    static synchronized ConnectorManager getInstance() {
+    public static synchronized ConnectorManager getInstance() {
         if ( instance == null ) {
             instance = new ConnectorManager();
         }
         return instance;
     }
+
+    /**
+     * Used to get the definitions configured under a setting, e.g. the routes of a connector.
+     *
+     * @param name The name of the setting.
+     * @return The definitions by their names, in the configured order.
+     */
+    static Map<String, Map<?, ?>> getDefinitions( String name ) {
+        Map<String, Map<?, ?>> definitions = new LinkedHashMap<>();
+        Object configured = Config.getSetting( name );
+        if ( configured instanceof Map ) {
+            for ( Map.Entry<?, ?> definition : ( ( Map<?, ?> ) configured ).entrySet() ) {
+                if ( definition.getValue() instanceof Map ) {
+                    definitions.put( definition.getKey().toString(), ( Map<?, ?> ) definition.getValue() );
+                }
+            }
+        }
+        return definitions;
+    }
+
+    /**
+     * Used to get the service address of a definition: 'domain', 'alias' and optionally 'version', 'priority' and
+     * 'idempotent'.
+     *
+     * @param definition The configured definition.
+     * @return The service address.
+     */
+    static ServiceAddress getServiceAddress( Map<?, ?> definition ) {
+        ServiceAddress serviceAddress = new ServiceAddress();
+        serviceAddress.serviceDomainName = String.valueOf( definition.get( "domain" ) );
+        serviceAddress.serviceAlias = String.valueOf( definition.get( "alias" ) );
+        serviceAddress.serviceVersion = ( definition.get( "version" ) != null ) ? Integer.parseInt( definition.get( "version" ).toString() ) : 0;
+        serviceAddress.idempotent = Boolean.parseBoolean( String.valueOf( definition.get( "idempotent" ) ) );
+        if ( definition.get( "priority" ) != null ) {
+            serviceAddress.priority = ServiceCallPriority.valueOf( definition.get( "priority" ).toString().toUpperCase( Locale.ROOT ) );
+        }
+        return serviceAddress;
+    }
+
+    /**
+     * Used to start the enabled connectors.
+     *
+     * @param serviceConsumer The microservice making the service calls of the connectors.
+     */
+    public synchronized void start( ServiceConsumer serviceConsumer ) {
+        if ( HttpIngressConnector.ENABLED && httpIngressConnector == null ) {
+            HttpIngressConnector connector = new HttpIngressConnector( serviceConsumer );
+            try {
+                connector.start();
+                httpIngressConnector = connector;
+            } catch ( Exception exception ) {
+                Logger.log( "HTTP ingress connector failed to start due to an exception.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+                connector.stop();
+            }
+        }
+        if ( FileIngestionConnector.ENABLED && fileIngestionConnector == null ) {
+            fileIngestionConnector = new FileIngestionConnector( serviceConsumer );
+            fileIngestionConnector.start();
+        }
+    }
+
+    /**
+     * Used to stop the running connectors, answering their pending requests (or checkpointing their progress) first.
+     */
+    public synchronized void stop() {
+        if ( httpIngressConnector != null ) {
+            httpIngressConnector.stop();
+            httpIngressConnector = null;
+        }
+        if ( fileIngestionConnector != null ) {
+            fileIngestionConnector.stop();
+            fileIngestionConnector = null;
+        }
+    }
 }
@@ -0,0 +1,666 @@
+package com.softwaregroup.digiwave.eip.components.communication;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceConsumer;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceAddress;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallContext;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallResult;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceParams;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A connector ingesting bulk files of records, one service call per record.
+ * Every job watches an input directory for JSONL files (a JSON object per line) and CSV files (a header line naming the
+ * fields, then a record per line) and calls its service with each record as the payload. A file is memory-mapped and
+ * split at line boundaries into at least as many splits as there are parser threads, which read their splits in
+ * parallel; the calls of all splits share the in-flight window of the job.
+ * The results are written to '<file>.out.jsonl' in the output directory, a line per record with the byte offset of the
+ * record in the input file and either the payload of the result or the error. In ordered mode the lines follow the
+ * order of the records; otherwise a line is written as soon as its call completes.
+ * The progress of a file is checkpointed every 'checkpointInterval' ms: for every split the offset up to which all
+ * records are done and the length of its output written so far. A restarted instance resumes from the checkpoint, so
+ * in ordered mode no record is executed or written twice; in unordered mode the records completed past the checkpoint
+ * offset are executed again and their lines repeated (the offsets identify them). A finished input file is moved to
+ * the 'done' subdirectory of the input directory.
+ * NOTE: Files have to be moved into the input directory once they are complete. CSV values are passed as strings and
+ * may be quoted, but may not contain line breaks.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class FileIngestionConnector {
+    static final boolean ENABLED = Config.getSetting( "connectors.file.enabled", false );
+    private static final int PARALLELISM = Config.getSetting( "connectors.file.parallelism", 0 );
+    private static final int WINDOW = Config.getSetting( "connectors.file.window", 256 );
+    private static final int POLL_INTERVAL_MS = Config.getSetting( "connectors.file.pollInterval", 5000 );
+    private static final int CHECKPOINT_INTERVAL_MS = Config.getSetting( "connectors.file.checkpointInterval", 1000 );
+    private static final long MAX_SPLIT_BYTES = 1L << 30;
+    private static final String OUTPUT_SUFFIX = ".out.jsonl";
+    private static final String PART_SUFFIX = ".part-";
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String DONE_DIRECTORY = "done";
+
+    /**
+     * A configured ingestion job.
+     */
+    private static final class Job {
+        private final String name;
+        private final Path inputDirectory;
+        private final Path outputDirectory;
+        private final ServiceAddress serviceAddress;
+        private final boolean ordered;
+        private final int window;
+
+        private Job( String name, Map<?, ?> definition ) {
+            this.name = name;
+            this.inputDirectory = Paths.get( String.valueOf( definition.get( "input" ) ) );
+            this.outputDirectory = ( definition.get( "output" ) != null ) ? Paths.get( definition.get( "output" ).toString() ) : inputDirectory.resolve( "out" );
+            this.serviceAddress = ConnectorManager.getServiceAddress( definition );
+            this.ordered = ( definition.get( "ordered" ) == null ) || Boolean.parseBoolean( definition.get( "ordered" ).toString() );
+            this.window = ( definition.get( "window" ) != null ) ? Integer.parseInt( definition.get( "window" ).toString() ) : WINDOW;
+        }
+    }
+
+    /**
+     * A record whose call completed, waiting until all records before it in its split are done.
+     */
+    private static final class Done {
+        private final long end;
+        private final byte[] line;
+
+        private Done( long end, byte[] line ) {
+            this.end = end;
+            this.line = line;
+        }
+    }
+
+    /**
+     * A range of an input file read by a single parser thread, with its own part of the output.
+     */
+    private static final class Split {
+        private final int index;
+        private final long start;
+        private final long end;
+        private final TreeMap<Long, Done> done = new TreeMap<>();
+        private long watermark;
+        private long partLength;
+        private int inFlight;
+        private FileChannel part;
+        private OutputStream output;
+        private volatile IOException failure;
+
+        private Split( int index, long start, long end, long watermark, long partLength ) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.watermark = watermark;
+            this.partLength = partLength;
+        }
+    }
+
+    private final ServiceConsumer serviceConsumer;
+    private final List<Job> jobs = new ArrayList<>();
+    private final int parallelism = ( PARALLELISM > 0 ) ? PARALLELISM : Runtime.getRuntime().availableProcessors();
+    private volatile boolean stopping;
+    private ScheduledExecutorService pollers;
+    private ExecutorService parsers;
+
+    /**
+     * @param serviceConsumer The microservice making the service calls.
+     */
+    FileIngestionConnector( ServiceConsumer serviceConsumer ) {
+        this.serviceConsumer = serviceConsumer;
+        for ( Map.Entry<String, Map<?, ?>> definition : ConnectorManager.getDefinitions( "connectors.file.jobs" ).entrySet() ) {
+            jobs.add( new Job( definition.getKey(), definition.getValue() ) );
+        }
+    }
+
+    /**
+     * Used to start polling the input directories of the jobs.
+     */
+    void start() {
+        if ( jobs.isEmpty() ) {
+            return;
+        }
+        pollers = Executors.newScheduledThreadPool( jobs.size(), runnable -> {
+            Thread thread = new Thread( runnable, "file-ingestion" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        parsers = Executors.newFixedThreadPool( parallelism, runnable -> {
+            Thread thread = new Thread( runnable, "file-ingestion-parser" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        for ( Job job : jobs ) {
+            pollers.scheduleWithFixedDelay( () -> poll( job ), 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS );
+        }
+        Logger.log( "File ingestion connector started with " + jobs.size() + " job(s) and " + parallelism + " parser thread(s).", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
+    /**
+     * Used to stop the connector. No more records are read; the calls in flight complete and the progress is
+     * checkpointed, so the files are resumed on the next start.
+     */
+    void stop() {
+        stopping = true;
+        if ( pollers != null ) {
+            pollers.shutdown();
+            try {
+                if ( !pollers.awaitTermination( 60, TimeUnit.SECONDS ) ) {
+                    Logger.log( "File ingestion connector could not checkpoint all files in time.", Logger.Severity.WARNING, Logger.Threads.ESB );
+                }
+            } catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+            }
+            parsers.shutdownNow();
+        }
+        Logger.log( "File ingestion connector stopped.", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
+    /**
+     * Used to ingest the files waiting in the input directory of a job, in the order of their names.
+     *
+     * @param job The job.
+     */
+    private void poll( Job job ) {
+        try {
+            if ( !Files.isDirectory( job.inputDirectory ) ) {
+                return;
+            }
+            List<Path> files;
+            try ( Stream<Path> listed = Files.list( job.inputDirectory ) ) {
+                files = listed.filter( file -> Files.isRegularFile( file ) && ( isCsv( file ) || file.getFileName().toString().endsWith( ".jsonl" ) ) ).sorted().collect( Collectors.toList() );
+            }
+            for ( Path file : files ) {
+                if ( stopping ) {
+                    break;
+                }
+                ingest( job, file );
+            }
+        } catch ( Exception exception ) {
+            Logger.log( "File ingestion of job '" + job.name + "' failed; it is resumed with the next poll.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to ingest a file from its checkpoint (if any) until it's done or the connector stops.
+     *
+     * @param job  The job.
+     * @param file The input file.
+     * @throws Exception In case the file could not be read or the output could not be written.
+     */
+    private void ingest( Job job, Path file ) throws Exception {
+        Files.createDirectories( job.outputDirectory );
+        String fileName = file.getFileName().toString();
+        Path checkpointFile = job.outputDirectory.resolve( fileName + CHECKPOINT_SUFFIX );
+        long startNanos = System.nanoTime();
+        int splitCount;
+        try ( FileChannel input = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            long size = input.size();
+            String[] header = null;
+            long dataStart = 0;
+            if ( isCsv( file ) ) {
+                dataStart = nextLineStart( input, 0 );
+                header = parseCsv( readLine( input, 0, dataStart ) );
+            }
+            Split[] splits = loadCheckpoint( checkpointFile, size );
+            if ( splits == null ) {
+                splits = plan( input, dataStart, size );
+                Logger.log( "Ingesting file '" + file + "' in " + splits.length + " split(s).", Logger.Severity.INFO, Logger.Threads.ESB );
+            } else {
+                Logger.log( "Resuming ingestion of file '" + file + "' from its checkpoint.", Logger.Severity.INFO, Logger.Threads.ESB );
+            }
+
+            Semaphore window = new Semaphore( Math.max( 1, job.window ) );
+            List<CompletableFuture<Void>> parsed = new ArrayList<>();
+            try {
+                for ( Split split : splits ) {
+                    split.part = FileChannel.open( job.outputDirectory.resolve( fileName + PART_SUFFIX + split.index ), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+                    split.part.truncate( split.partLength );
+                    split.part.position( split.partLength );
+                    split.output = new BufferedOutputStream( Channels.newOutputStream( split.part ), 65536 );
+                    String[] fields = header;
+                    parsed.add( CompletableFuture.runAsync( () -> parse( job, input, split, fields, window ), parsers ) );
+                }
+                CompletableFuture<Void> allParsed = CompletableFuture.allOf( parsed.toArray( new CompletableFuture<?>[ 0 ] ) );
+                while ( true ) {
+                    try {
+                        allParsed.get( CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS );
+                        break;
+                    } catch ( TimeoutException exception ) {
+                        writeCheckpoint( checkpointFile, size, splits );
+                    }
+                }
+                writeCheckpoint( checkpointFile, size, splits );
+            } finally {
+                for ( Split split : splits ) {
+                    if ( split.part != null ) {
+                        split.part.close();
+                    }
+                }
+            }
+            for ( Split split : splits ) {
+                if ( split.watermark < split.end ) {
+                    return;
+                }
+            }
+            splitCount = splits.length;
+        }
+        finish( job, file, checkpointFile, splitCount, startNanos );
+    }
+
+    /**
+     * Used to read the records of a split and to call the service with each of them, within the in-flight window of
+     * the job. Returns once the calls of the split completed.
+     *
+     * @param job    The job.
+     * @param input  The input file.
+     * @param split  The split.
+     * @param header The fields of a CSV file or 'null' for a JSONL file.
+     * @param window The in-flight window of the job.
+     */
+    private void parse( Job job, FileChannel input, Split split, String[] header, Semaphore window ) {
+        try {
+            if ( split.watermark < split.end ) {
+                MappedByteBuffer buffer = input.map( FileChannel.MapMode.READ_ONLY, split.watermark, split.end - split.watermark );
+                long base = split.watermark;
+                JSONParser parser = new JSONParser();
+                while ( buffer.hasRemaining() && !stopping && split.failure == null ) {
+                    int lineStart = buffer.position();
+                    int lineEnd = lineStart;
+                    while ( lineEnd < buffer.limit() && buffer.get( lineEnd ) != '\n' ) {
+                        lineEnd++;
+                    }
+                    int next = Math.min( lineEnd + 1, buffer.limit() );
+                    if ( lineEnd > lineStart && buffer.get( lineEnd - 1 ) == '\r' ) {
+                        lineEnd--;
+                    }
+                    byte[] record = new byte[ lineEnd - lineStart ];
+                    buffer.get( record );
+                    buffer.position( next );
+                    long recordStart = base + lineStart;
+                    long recordEnd = base + next;
+                    if ( record.length == 0 ) {
+                        complete( job, split, recordStart, recordEnd, null, false, window );
+                        continue;
+                    }
+
+                    window.acquireUninterruptibly();
+                    synchronized ( split ) {
+                        split.inFlight++;
+                    }
+                    Metrics.increment( "connectors.file.records" );
+                    ServiceParams serviceParams = new ServiceParams();
+                    try {
+                        String text = new String( record, StandardCharsets.UTF_8 );
+                        serviceParams.setPayload( ( header != null ) ? toPayload( header, parseCsv( text ) ) : ( JSONObject ) parser.parse( text ) );
+                    } catch ( Exception exception ) {
+                        complete( job, split, recordStart, recordEnd, toLine( recordStart, null, "Invalid record: " + exception ), true, window );
+                        continue;
+                    }
+                    serviceConsumer.callServiceAsync( job.serviceAddress, serviceParams, new ServiceCallContext() ).whenComplete( ( result, exception ) -> {
+                        try {
+                            complete( job, split, recordStart, recordEnd, toLine( recordStart, result, exception ), true, window );
+                        } catch ( IOException ioException ) {
+                            Logger.log( "Failed to write the result of record " + recordStart + " of job '" + job.name + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, ioException );
+                        }
+                    } );
+                }
+            }
+            synchronized ( split ) {
+                while ( split.inFlight > 0 ) {
+                    split.wait();
+                }
+                if ( split.failure != null ) {
+                    throw split.failure;
+                }
+                split.output.flush();
+            }
+        } catch ( IOException | InterruptedException exception ) {
+            throw new CompletionException( exception );
+        }
+    }
+
+    /**
+     * Used to pass a done record to its split. The watermark of the split moves past all records that are done in a
+     * row; in ordered mode their lines are written as it passes them, otherwise a line is written right away.
+     * The window permit of a record is returned once its line is written, so an ordered split holds at most a window
+     * of lines waiting for a slow record. Once the output of the split fails, the lines waiting in it are dropped and
+     * all their permits are returned, so the other splits don't wait for them; the file resumes from its checkpoint.
+     *
+     * @param job         The job.
+     * @param split       The split.
+     * @param recordStart The offset of the record.
+     * @param recordEnd   The offset after the record.
+     * @param line        The output line or 'null' if the record has none (a blank line).
+     * @param called      Whether the record holds a window permit and counts as in flight.
+     * @param window      The in-flight window of the job.
+     * @throws IOException In case the output could not be written.
+     */
+    private void complete( Job job, Split split, long recordStart, long recordEnd, byte[] line, boolean called, Semaphore window ) throws IOException {
+        // a called record always has a line, so the lines written in ordered mode are the permits to return:
+        int released = ( called && !job.ordered ) ? 1 : 0;
+        try {
+            synchronized ( split ) {
+                try {
+                    if ( split.failure != null ) {
+                        released = called ? 1 : 0;
+                        return;
+                    }
+                    if ( !job.ordered && line != null ) {
+                        write( split, line );
+                        line = null;
+                    }
+                    split.done.put( recordStart, new Done( recordEnd, line ) );
+                    Done next;
+                    while ( ( next = split.done.remove( split.watermark ) ) != null ) {
+                        if ( next.line != null ) {
+                            released++;
+                            write( split, next.line );
+                        }
+                        split.watermark = next.end;
+                    }
+                } catch ( IOException exception ) {
+                    split.failure = exception;
+                    for ( Done waiting : split.done.values() ) {
+                        if ( waiting.line != null ) {
+                            released++;
+                        }
+                    }
+                    split.done.clear();
+                    throw exception;
+                } finally {
+                    if ( called ) {
+                        split.inFlight--;
+                        split.notifyAll();
+                    }
+                }
+            }
+        } finally {
+            window.release( released );
+        }
+    }
+
+    /**
+     * Used to append a line to the output of a split.
+     *
+     * @param split The split.
+     * @param line  The line.
+     * @throws IOException In case the output could not be written.
+     */
+    private static void write( Split split, byte[] line ) throws IOException {
+        split.output.write( line );
+        split.partLength += line.length;
+    }
+
+    /**
+     * Used to concatenate the outputs of the splits of a finished file, to move the file to the 'done' directory and
+     * to remove its checkpoint.
+     *
+     * @param job            The job.
+     * @param file           The input file.
+     * @param checkpointFile The checkpoint of the file.
+     * @param splitCount     The number of splits of the file.
+     * @param startNanos     The System.nanoTime() value when the ingestion (of this run) started.
+     * @throws IOException In case the output could not be written.
+     */
+    private void finish( Job job, Path file, Path checkpointFile, int splitCount, long startNanos ) throws IOException {
+        String fileName = file.getFileName().toString();
+        Path output = job.outputDirectory.resolve( fileName + OUTPUT_SUFFIX );
+        Path temporary = job.outputDirectory.resolve( fileName + OUTPUT_SUFFIX + ".tmp" );
+        List<Path> parts = new ArrayList<>();
+        for ( int index = 0; index < splitCount; index++ ) {
+            parts.add( job.outputDirectory.resolve( fileName + PART_SUFFIX + index ) );
+        }
+        try ( FileChannel target = FileChannel.open( temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            for ( Path part : parts ) {
+                try ( FileChannel source = FileChannel.open( part, StandardOpenOption.READ ) ) {
+                    long position = 0;
+                    while ( position < source.size() ) {
+                        position += source.transferTo( position, source.size() - position, target );
+                    }
+                }
+            }
+            target.force( true );
+        }
+        Files.move( temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        Files.createDirectories( job.inputDirectory.resolve( DONE_DIRECTORY ) );
+        Files.move( file, job.inputDirectory.resolve( DONE_DIRECTORY ).resolve( fileName ), StandardCopyOption.REPLACE_EXISTING );
+        for ( Path part : parts ) {
+            Files.delete( part );
+        }
+        Files.deleteIfExists( checkpointFile );
+        Logger.log( "Ingestion of file '" + file + "' completed in " + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos ) + " ms; results written to '" + output + "'.", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
+    /**
+     * Used to split a file at line boundaries.
+     *
+     * @param input     The input file.
+     * @param dataStart The offset of the first record.
+     * @param size      The size of the file.
+     * @return The splits, none of them empty.
+     * @throws IOException In case the file could not be read.
+     */
+    private Split[] plan( FileChannel input, long dataStart, long size ) throws IOException {
+        long dataSize = size - dataStart;
+        int count = ( int ) Math.max( parallelism, ( dataSize + MAX_SPLIT_BYTES - 1 ) / MAX_SPLIT_BYTES );
+        List<Split> splits = new ArrayList<>();
+        long start = dataStart;
+        for ( int idx = 1; idx <= count && start < size; idx++ ) {
+            long end = ( idx == count ) ? size : Math.max( start, nextLineStart( input, dataStart + dataSize * idx / count - 1 ) );
+            if ( end > start ) {
+                splits.add( new Split( splits.size(), start, end, start, 0 ) );
+                start = end;
+            }
+        }
+        return splits.toArray( new Split[ 0 ] );
+    }
+
+    /**
+     * Used to write the checkpoint of a file. Every split's output is flushed, so the recorded length of the output
+     * covers all the lines up to the recorded offset.
+     *
+     * @param checkpointFile The checkpoint file.
+     * @param size           The size of the input file.
+     * @param splits         The splits of the file.
+     * @throws IOException In case the checkpoint could not be written.
+     */
+    private static void writeCheckpoint( Path checkpointFile, long size, Split[] splits ) throws IOException {
+        StringBuilder checkpoint = new StringBuilder().append( size ).append( ' ' ).append( splits.length ).append( '\n' );
+        for ( Split split : splits ) {
+            synchronized ( split ) {
+                split.output.flush();
+                split.part.force( false );
+                checkpoint.append( split.start ).append( ' ' ).append( split.end ).append( ' ' ).append( split.watermark ).append( ' ' ).append( split.partLength ).append( '\n' );
+            }
+        }
+        Path temporary = checkpointFile.resolveSibling( checkpointFile.getFileName() + ".tmp" );
+        Files.write( temporary, checkpoint.toString().getBytes( StandardCharsets.UTF_8 ) );
+        Files.move( temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Used to load the checkpoint of a file.
+     *
+     * @param checkpointFile The checkpoint file.
+     * @param size           The size of the input file.
+     * @return The splits with their progress or 'null' if there is no valid checkpoint for a file of this size.
+     */
+    private static Split[] loadCheckpoint( Path checkpointFile, long size ) {
+        if ( !Files.exists( checkpointFile ) ) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines( checkpointFile, StandardCharsets.UTF_8 );
+            String[] summary = lines.get( 0 ).split( " " );
+            if ( Long.parseLong( summary[ 0 ] ) != size ) {
+                Logger.log( "Checkpoint '" + checkpointFile + "' belongs to a file of another size; the file is ingested from the start.", Logger.Severity.WARNING, Logger.Threads.ESB );
+                return null;
+            }
+            Split[] splits = new Split[ Integer.parseInt( summary[ 1 ] ) ];
+            for ( int idx = 0; idx < splits.length; idx++ ) {
+                String[] values = lines.get( idx + 1 ).split( " " );
+                splits[ idx ] = new Split( idx, Long.parseLong( values[ 0 ] ), Long.parseLong( values[ 1 ] ), Long.parseLong( values[ 2 ] ), Long.parseLong( values[ 3 ] ) );
+            }
+            return splits;
+        } catch ( Exception exception ) {
+            Logger.log( "Checkpoint '" + checkpointFile + "' is broken; the file is ingested from the start.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+            return null;
+        }
+    }
+
+    /**
+     * Used to find the start of the line following an offset.
+     *
+     * @param input    The input file.
+     * @param position The offset.
+     * @return The offset after the first line break at or after the offset, or the size of the file.
+     * @throws IOException In case the file could not be read.
+     */
+    private static long nextLineStart( FileChannel input, long position ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate( 8192 );
+        long offset = Math.max( 0, position );
+        while ( input.read( buffer, offset ) > 0 ) {
+            buffer.flip();
+            while ( buffer.hasRemaining() ) {
+                if ( buffer.get() == '\n' ) {
+                    return offset + buffer.position();
+                }
+            }
+            offset += buffer.limit();
+            buffer.clear();
+        }
+        return input.size();
+    }
+
+    /**
+     * Used to read a line of a file.
+     *
+     * @param input The input file.
+     * @param start The offset of the line.
+     * @param end   The offset after the line.
+     * @return The line without the line break.
+     * @throws IOException In case the file could not be read.
+     */
+    private static String readLine( FileChannel input, long start, long end ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate( ( int ) ( end - start ) );
+        while ( buffer.hasRemaining() && input.read( buffer, start + buffer.position() ) > 0 ) {
+            // keep reading until the whole line is in the buffer
+        }
+        return new String( buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8 ).replaceFirst( "\r?\n$", "" );
+    }
+
+    /**
+     * Used to split a CSV line into its values. Values may be quoted with '"', which is escaped by doubling it.
+     *
+     * @param line The line.
+     * @return The values.
+     */
+    private static String[] parseCsv( String line ) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for ( int idx = 0; idx < line.length(); idx++ ) {
+            char character = line.charAt( idx );
+            if ( quoted ) {
+                if ( character == '"' && idx + 1 < line.length() && line.charAt( idx + 1 ) == '"' ) {
+                    value.append( '"' );
+                    idx++;
+                } else if ( character == '"' ) {
+                    quoted = false;
+                } else {
+                    value.append( character );
+                }
+            } else if ( character == '"' ) {
+                quoted = true;
+            } else if ( character == ',' ) {
+                values.add( value.toString() );
+                value.setLength( 0 );
+            } else {
+                value.append( character );
+            }
+        }
+        values.add( value.toString() );
+        return values.toArray( new String[ 0 ] );
+    }
+
+    /**
+     * Used to build the payload of a CSV record.
+     *
+     * @param header The fields.
+     * @param values The values of the record; missing values are left out.
+     * @return The payload.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static JSONObject toPayload( String[] header, String[] values ) {
+        JSONObject payload = new JSONObject();
+        for ( int idx = 0; idx < header.length && idx < values.length; idx++ ) {
+            payload.put( header[ idx ], values[ idx ] );
+        }
+        return payload;
+    }
+
+    /**
+     * Used to build the output line of a record.
+     *
+     * @param offset    The offset of the record in the input file.
+     * @param result    The result of the call or 'null'.
+     * @param exception The exception the call failed with or 'null'.
+     * @return The line.
+     */
+    private static byte[] toLine( long offset, ServiceCallResult result, Throwable exception ) {
+        Throwable failure = ( exception != null ) ? exception : ( ( result != null ) ? result.getException() : null );
+        return toLine( offset, ( failure == null && result != null ) ? result.getPayload() : null, ( failure != null ) ? String.valueOf( failure.getMessage() ) : null );
+    }
+
+    /**
+     * Used to build the output line of a record.
+     *
+     * @param offset  The offset of the record in the input file.
+     * @param payload The payload of the result or 'null'.
+     * @param error   The error message or 'null' if the call succeeded.
+     * @return The line.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static byte[] toLine( long offset, JSONObject payload, String error ) {
+        JSONObject line = new JSONObject();
+        line.put( "offset", offset );
+        if ( error != null ) {
+            Metrics.increment( "connectors.file.errors" );
+            line.put( "error", error );
+        } else {
+            line.put( "payload", payload );
+        }
+        return ( line.toJSONString() + "\n" ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Used to check if a file holds CSV records.
+     *
+     * @param file The file.
+     * @return 'true' for a '.csv' file.
+     */
+    private static boolean isCsv( Path file ) {
+        return file.getFileName().toString().endsWith( ".csv" );
+    }
+}
@@ -0,0 +1,450 @@
+package com.softwaregroup.digiwave.eip.components.communication;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceConsumer;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceAddress;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallContext;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallResult;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceParams;
+import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An HTTP/1.1 connector exposing configured services to external clients.
+ * Every route maps a path to a service address; the JSON body of a POST request (or the query parameters of a GET
+ * request) becomes the payload of the service params and the payload of the service call result becomes the JSON body
+ * of the response. The calls are made with callServiceAsync and the responses are written once the calls complete, so
+ * the few event loop threads serve any number of connections and pending calls.
+ * A connection stays open between requests unless the client asks otherwise. A connection has at most 'maxPipelined'
+ * requests without a written response (including the ones answered right away, but waiting behind a slower one); over
+ * it, reading from the connection is paused. The responses are always written in the order of the requests. Each route
+ * admits at most 'maxConcurrent' calls at a time and answers the requests over it with 503, so a slow service can't
+ * tie up the whole connector. A service failing the call is answered with 500 and a generic message; its details are
+ * only logged.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class HttpIngressConnector {
+    static final boolean ENABLED = Config.getSetting( "connectors.http.enabled", false );
+    private static final String HOST = Config.getSetting( "connectors.http.host", "0.0.0.0" );
+    private static final int PORT = Config.getSetting( "connectors.http.port", 8080 );
+    private static final int WORKER_THREADS = Config.getSetting( "connectors.http.workerThreads", 0 );
+    private static final int MAX_CONTENT_LENGTH = Config.getSetting( "connectors.http.maxContentLength", 1048576 );
+    private static final int IDLE_TIMEOUT_MS = Config.getSetting( "connectors.http.idleTimeout", 60000 );
+    private static final int DRAIN_TIMEOUT_MS = Config.getSetting( "connectors.http.drainTimeout", 30000 );
+    private static final Config.Setting<Integer> MAX_PIPELINED = Config.setting( "connectors.http.maxPipelined", 16 );
+    private static final Config.Setting<Integer> MAX_CONCURRENT = Config.setting( "connectors.http.maxConcurrent", 1000 );
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+
+    /**
+     * A configured route.
+     */
+    private static final class Route {
+        private final String path;
+        private final ServiceAddress serviceAddress;
+        private final Integer maxConcurrent;
+        private final AtomicInteger concurrent = new AtomicInteger();
+
+        private Route( String path, Map<?, ?> definition ) {
+            this.path = path;
+            this.serviceAddress = ConnectorManager.getServiceAddress( definition );
+            this.maxConcurrent = ( definition.get( "maxConcurrent" ) != null ) ? Integer.valueOf( definition.get( "maxConcurrent" ).toString() ) : null;
+        }
+
+        /**
+         * Used to take a call slot of the route.
+         *
+         * @return 'false' if the route is at its max concurrency.
+         */
+        private boolean tryAcquire() {
+            int limit = ( maxConcurrent != null ) ? maxConcurrent : MAX_CONCURRENT.get();
+            if ( concurrent.incrementAndGet() > limit && limit > 0 ) {
+                concurrent.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Used to return a call slot of the route.
+         */
+        private void release() {
+            concurrent.decrementAndGet();
+        }
+    }
+
+    /**
+     * A response slot of a connection, filled once the call of its request completed.
+     */
+    private static final class PendingResponse {
+        private final HttpVersion version;
+        private final boolean keepAlive;
+        private FullHttpResponse response;
+
+        private PendingResponse( HttpVersion version, boolean keepAlive ) {
+            this.version = version;
+            this.keepAlive = keepAlive;
+        }
+    }
+
+    private final ServiceConsumer serviceConsumer;
+    private final Map<String, Route> routes = new HashMap<>();
+    private final ChannelGroup connections = new DefaultChannelGroup( "http-ingress", GlobalEventExecutor.INSTANCE );
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile boolean draining;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    /**
+     * @param serviceConsumer The microservice making the service calls.
+     */
+    HttpIngressConnector( ServiceConsumer serviceConsumer ) {
+        this.serviceConsumer = serviceConsumer;
+        for ( Map.Entry<String, Map<?, ?>> definition : ConnectorManager.getDefinitions( "connectors.http.routes" ).entrySet() ) {
+            routes.put( definition.getKey(), new Route( definition.getKey(), definition.getValue() ) );
+        }
+        Metrics.registerGauge( "connectors.http.connections", connections::size );
+        Metrics.registerGauge( "connectors.http.active", activeRequests::get );
+    }
+
+    /**
+     * Used to bind the connector to its port.
+     *
+     * @throws InterruptedException In case the thread was interrupted while binding.
+     */
+    void start() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup( 1, new DefaultThreadFactory( "http-ingress-boss", true ) );
+        workerGroup = new NioEventLoopGroup( WORKER_THREADS, new DefaultThreadFactory( "http-ingress-worker", true ) );
+        serverChannel = new ServerBootstrap()
+                .group( bossGroup, workerGroup )
+                .channel( NioServerSocketChannel.class )
+                .option( ChannelOption.SO_BACKLOG, 1024 )
+                .childOption( ChannelOption.TCP_NODELAY, true )
+                .childHandler( new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel( SocketChannel channel ) {
+                        connections.add( channel );
+                        channel.pipeline()
+                                .addLast( new IdleStateHandler( 0, 0, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS ) )
+                                .addLast( new HttpServerCodec() )
+                                .addLast( new HttpObjectAggregator( MAX_CONTENT_LENGTH ) )
+                                .addLast( new IngressHandler() );
+                    }
+                } )
+                .bind( HOST, PORT ).sync().channel();
+        Logger.log( "HTTP ingress connector listening on " + HOST + ":" + PORT + " with " + routes.size() + " route(s).", Logger.Severity.INFO, Logger.Threads.ESB, routes.keySet() );
+    }
+
+    /**
+     * Used to stop the connector. No more connections are accepted, the requests still arriving are refused and the
+     * pending ones are answered (up to 'drainTimeout' ms) before all connections are closed.
+     */
+    void stop() {
+        draining = true;
+        if ( serverChannel != null ) {
+            serverChannel.close().awaitUninterruptibly();
+        }
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while ( activeRequests.get() > 0 && System.currentTimeMillis() < deadline ) {
+            try {
+                Thread.sleep( 50 );
+            } catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if ( activeRequests.get() > 0 ) {
+            Logger.log( "HTTP ingress connector stopped with " + activeRequests.get() + " request(s) still pending.", Logger.Severity.WARNING, Logger.Threads.ESB );
+        }
+        connections.close().awaitUninterruptibly();
+        if ( workerGroup != null ) {
+            workerGroup.shutdownGracefully( 0, 1, TimeUnit.SECONDS ).awaitUninterruptibly();
+            bossGroup.shutdownGracefully( 0, 1, TimeUnit.SECONDS ).awaitUninterruptibly();
+        }
+        Logger.log( "HTTP ingress connector stopped.", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
+    /**
+     * The handler of a single connection. All its state is touched on the event loop of the connection only.
+     */
+    private final class IngressHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        private final ArrayDeque<PendingResponse> responses = new ArrayDeque<>();
+        private final ArrayDeque<FullHttpRequest> parked = new ArrayDeque<>();
+        private boolean closing;
+
+        @Override
+        protected void channelRead0( ChannelHandlerContext ctx, FullHttpRequest request ) {
+            if ( closing ) {
+                return;
+            }
+            if ( !parked.isEmpty() || responses.size() >= Math.max( 1, MAX_PIPELINED.get() ) ) {
+                // over the pipelining limit: hold the request and stop reading until a response is written
+                parked.add( request.retain() );
+                ctx.channel().config().setAutoRead( false );
+                return;
+            }
+            dispatch( ctx, request );
+        }
+
+        @Override
+        public void userEventTriggered( ChannelHandlerContext ctx, Object event ) throws Exception {
+            if ( event instanceof IdleStateEvent && responses.isEmpty() ) {
+                ctx.close();
+            } else {
+                super.userEventTriggered( ctx, event );
+            }
+        }
+
+        @Override
+        public void channelInactive( ChannelHandlerContext ctx ) throws Exception {
+            closing = true;
+            for ( FullHttpRequest request : parked ) {
+                request.release();
+            }
+            parked.clear();
+            super.channelInactive( ctx );
+        }
+
+        @Override
+        public void exceptionCaught( ChannelHandlerContext ctx, Throwable cause ) {
+            Logger.log( "HTTP ingress connection " + ctx.channel().remoteAddress() + " failed: " + cause, Logger.Severity.DEBUG, Logger.Threads.ESB );
+            ctx.close();
+        }
+
+        /**
+         * Used to start the service call of a request and to reserve its place among the responses of the connection.
+         *
+         * @param ctx     The channel handler context.
+         * @param request The request.
+         */
+        private void dispatch( ChannelHandlerContext ctx, FullHttpRequest request ) {
+            long startNanos = System.nanoTime();
+            Metrics.increment( "connectors.http.requests" );
+            boolean keepAlive = HttpUtil.isKeepAlive( request ) && !draining;
+            PendingResponse pending = new PendingResponse( request.protocolVersion(), keepAlive );
+            responses.add( pending );
+            if ( !keepAlive ) {
+                // nothing after this request is answered, the connection is closed after its response:
+                closing = true;
+            }
+
+            if ( !request.decoderResult().isSuccess() ) {
+                complete( ctx, pending, errorResponse( HttpResponseStatus.BAD_REQUEST, "Malformed request." ) );
+                return;
+            }
+            if ( draining ) {
+                complete( ctx, pending, errorResponse( HttpResponseStatus.SERVICE_UNAVAILABLE, "The instance is shutting down." ) );
+                return;
+            }
+            QueryStringDecoder uri = new QueryStringDecoder( request.uri() );
+            Route route = routes.get( uri.path() );
+            if ( route == null ) {
+                complete( ctx, pending, errorResponse( HttpResponseStatus.NOT_FOUND, "No route for '" + uri.path() + "'." ) );
+                return;
+            }
+            if ( !HttpMethod.POST.equals( request.method() ) && !HttpMethod.GET.equals( request.method() ) ) {
+                complete( ctx, pending, errorResponse( HttpResponseStatus.METHOD_NOT_ALLOWED, "Only GET and POST are supported." ) );
+                return;
+            }
+            ServiceParams serviceParams = new ServiceParams();
+            try {
+                serviceParams.setPayload( parsePayload( request, uri ) );
+            } catch ( ParseException | ClassCastException exception ) {
+                complete( ctx, pending, errorResponse( HttpResponseStatus.BAD_REQUEST, "The request body is not a JSON object." ) );
+                return;
+            }
+            if ( !route.tryAcquire() ) {
+                Metrics.increment( "connectors.http.rejected" );
+                FullHttpResponse response = errorResponse( HttpResponseStatus.SERVICE_UNAVAILABLE, "Too many concurrent requests for '" + route.path + "'." );
+                response.headers().set( HttpHeaderNames.RETRY_AFTER, 1 );
+                complete( ctx, pending, response );
+                return;
+            }
+
+            ServiceCallContext serviceCallContext = new ServiceCallContext();
+            serviceCallContext.authToken = request.headers().get( HttpHeaderNames.AUTHORIZATION );
+            activeRequests.incrementAndGet();
+            EventLoop eventLoop = ctx.channel().eventLoop();
+            CompletableFuture<ServiceCallResult> call;
+            try {
+                call = serviceConsumer.callServiceAsync( route.serviceAddress, serviceParams, serviceCallContext );
+            } catch ( Exception exception ) {
+                call = CompletableFuture.failedFuture( exception );
+            }
+            call.whenComplete( ( result, exception ) -> {
+                route.release();
+                activeRequests.decrementAndGet();
+                Metrics.recordLatency( "connectors.http.latency", startNanos );
+                FullHttpResponse response = toResponse( result, exception );
+                eventLoop.execute( () -> {
+                    complete( ctx, pending, response );
+                    resume( ctx );
+                } );
+            } );
+        }
+
+        /**
+         * Used to fill a response slot and to write the responses that are next in order.
+         *
+         * @param ctx      The channel handler context.
+         * @param pending  The response slot.
+         * @param response The response.
+         */
+        private void complete( ChannelHandlerContext ctx, PendingResponse pending, FullHttpResponse response ) {
+            pending.response = response;
+            boolean written = false;
+            while ( !responses.isEmpty() && responses.peek().response != null ) {
+                PendingResponse next = responses.poll();
+                if ( !ctx.channel().isActive() ) {
+                    next.response.release();
+                    continue;
+                }
+                boolean keepAlive = next.keepAlive && !draining;
+                next.response.setProtocolVersion( next.version );
+                HttpUtil.setKeepAlive( next.response, keepAlive );
+                ChannelFuture future = ctx.write( next.response );
+                written = true;
+                if ( !keepAlive ) {
+                    closing = true;
+                    future.addListener( ChannelFutureListener.CLOSE );
+                }
+            }
+            if ( written ) {
+                ctx.flush();
+            }
+        }
+
+        /**
+         * Used to dispatch the parked requests once responses were written and to resume reading when nothing is parked.
+         *
+         * @param ctx The channel handler context.
+         */
+        private void resume( ChannelHandlerContext ctx ) {
+            while ( !parked.isEmpty() && responses.size() < Math.max( 1, MAX_PIPELINED.get() ) && !closing ) {
+                FullHttpRequest request = parked.poll();
+                try {
+                    dispatch( ctx, request );
+                } finally {
+                    request.release();
+                }
+            }
+            if ( parked.isEmpty() && !closing && !ctx.channel().config().isAutoRead() ) {
+                ctx.channel().config().setAutoRead( true );
+            }
+        }
+    }
+
+    /**
+     * Used to build the payload of the service params from a request.
+     *
+     * @param request The request.
+     * @param uri     The decoded URI of the request.
+     * @return The JSON body of a POST request or the query parameters of a GET request.
+     * @throws ParseException In case the body is not valid JSON.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static JSONObject parsePayload( FullHttpRequest request, QueryStringDecoder uri ) throws ParseException {
+        if ( HttpMethod.GET.equals( request.method() ) ) {
+            JSONObject payload = new JSONObject();
+            for ( Map.Entry<String, List<String>> parameter : uri.parameters().entrySet() ) {
+                payload.put( parameter.getKey(), parameter.getValue().get( 0 ) );
+            }
+            return payload;
+        }
+        ByteBuf content = request.content();
+        if ( !content.isReadable() ) {
+            return new JSONObject();
+        }
+        return ( JSONObject ) new JSONParser().parse( content.toString( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Used to turn the outcome of a service call into a response.
+     *
+     * @param result    The result of the call.
+     * @param exception The exception the call failed with, if any.
+     * @return The response.
+     */
+    private static FullHttpResponse toResponse( ServiceCallResult result, Throwable exception ) {
+        Throwable failure = ( exception != null ) ? exception : ( ( result != null ) ? result.getException() : null );
+        if ( failure instanceof CompletionException && failure.getCause() != null ) {
+            failure = failure.getCause();
+        }
+        if ( failure != null ) {
+            Metrics.increment( "connectors.http.errors" );
+            // the messages of the failures are internal, so the client gets only a generic one:
+            Logger.log( "HTTP ingress call failed.", Logger.Severity.DEBUG, Logger.Threads.ESB, failure );
+            if ( failure instanceof TimeoutException ) {
+                return errorResponse( HttpResponseStatus.GATEWAY_TIMEOUT, "The service did not respond in time." );
+            }
+            if ( failure instanceof ServiceBusException ) {
+                if ( !( ( ServiceBusException ) failure ).isRetryable() ) {
+                    return errorResponse( HttpResponseStatus.BAD_GATEWAY, "The service could not be reached." );
+                }
+                FullHttpResponse response = errorResponse( HttpResponseStatus.SERVICE_UNAVAILABLE, "The service is overloaded." );
+                response.headers().set( HttpHeaderNames.RETRY_AFTER, 1 );
+                return response;
+            }
+            return errorResponse( HttpResponseStatus.INTERNAL_SERVER_ERROR, "The service failed to process the request." );
+        }
+        JSONObject payload = ( result != null ) ? result.getPayload() : null;
+        return jsonResponse( HttpResponseStatus.OK, ( payload != null ) ? payload.toJSONString() : "{}" );
+    }
+
+    /**
+     * Used to build an error response.
+     *
+     * @param status  The status of the response.
+     * @param message The error message.
+     * @return The response.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static FullHttpResponse errorResponse( HttpResponseStatus status, String message ) {
+        JSONObject body = new JSONObject();
+        body.put( "error", message );
+        return jsonResponse( status, body.toJSONString() );
+    }
+
+    /**
+     * Used to build a JSON response.
+     *
+     * @param status The status of the response.
+     * @param body   The JSON body.
+     * @return The response.
+     */
+    private static FullHttpResponse jsonResponse( HttpResponseStatus status, String body ) {
+        FullHttpResponse response = new DefaultFullHttpResponse( HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer( body, StandardCharsets.UTF_8 ) );
+        response.headers().set( HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE_JSON );
+        HttpUtil.setContentLength( response, response.content().readableBytes() );
+        return response;
+    }
+}
@@ -0,0 +1,188 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A pool of channels over a single shared broker connection, used to publish the service calls.
+ * Channels are not thread-safe, so every publish borrows one for its duration. Channels closed by the broker (e.g.
+ * after a failed declaration) are dropped and replaced on demand; if the pool is empty, a new channel is opened.
+ * All channels are in confirm mode, so the publishes can be flushed before the connection is closed. The pool also
+ * tracks whether the broker applies flow control to the connection, as a publish would block for as long as it does.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class ChannelPool {
+    private final ConnectionFactory connectionFactory;
+    private final int size;
+    private final BlockingQueue<Channel> idleChannels;
+    private Connection connection;
+    private volatile boolean blocked;
+
+    /**
+     * @param connectionFactory The connection factory of the message broker.
+     * @param size              The max number of idle channels kept open.
+     */
+    ChannelPool( ConnectionFactory connectionFactory, int size ) {
+        this.connectionFactory = connectionFactory;
+        this.size = Math.max( 1, size );
+        this.idleChannels = new ArrayBlockingQueue<>( this.size );
+    }
+
+    /**
+     * Used to open the connection and all idle channels ahead of the first publish.
+     *
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    void prewarm() throws IOException, TimeoutException {
+        Connection sharedConnection = getConnection();
+        while ( idleChannels.size() < size ) {
+            if ( !idleChannels.offer( openChannel( sharedConnection ) ) ) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Used to borrow a channel. It has to be given back once the caller is done with it.
+     *
+     * @return An open channel.
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    Channel borrow() throws IOException, TimeoutException {
+        Channel channel = idleChannels.poll();
+        while ( channel != null && !channel.isOpen() ) {
+            channel = idleChannels.poll();
+        }
+        return ( channel != null ) ? channel : openChannel( getConnection() );
+    }
+
+    /**
+     * Used to give back a borrowed channel.
+     *
+     * @param channel The channel returned by borrow.
+     */
+    void giveBack( Channel channel ) {
+        if ( channel.isOpen() && !idleChannels.offer( channel ) ) {
+            try {
+                channel.close();
+            } catch ( Exception exception ) {
+                Logger.log( "Failed to close a surplus channel.", Logger.Severity.DEBUG, Logger.Threads.ESB, exception );
+            }
+        }
+    }
+
+    /**
+     * Used to wait until the broker confirmed all publishes of the idle channels.
+     * NOTE: Borrowed channels are not waited for, so call this only once no more publishes are in progress.
+     *
+     * @param timeoutMillis The max time to wait for all channels.
+     * @return 'true' if all publishes were confirmed in time; 'false' if any were rejected or not confirmed.
+     */
+    boolean awaitConfirms( long timeoutMillis ) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean confirmed = true;
+        for ( Channel channel : idleChannels ) {
+            try {
+                confirmed &= channel.isOpen() && channel.waitForConfirms( Math.max( 1, deadline - System.currentTimeMillis() ) );
+            } catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch ( Exception exception ) {
+                Logger.log( "Publishes of a channel were not confirmed in time.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+                confirmed = false;
+            }
+        }
+        return confirmed;
+    }
+
+    /**
+     * Used to get the number of messages in a queue.
+     *
+     * @param queue The name of the queue.
+     * @return The number of messages ready for delivery or 0 if the queue doesn't exist.
+     */
+    long getMessageCount( String queue ) {
+        Channel channel = null;
+        try {
+            channel = borrow();
+            return channel.messageCount( queue );
+        } catch ( Exception exception ) {
+            // the broker closes the channel if the queue doesn't exist:
+            return 0;
+        } finally {
+            if ( channel != null ) {
+                giveBack( channel );
+            }
+        }
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return 'true' while the broker blocks the publishes of the shared connection (e.g. on a memory or disk alarm).
+     */
+    boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Used to close the shared connection along with all channels.
+     */
+    synchronized void close() {
+        idleChannels.clear();
+        try {
+            if ( connection != null ) {
+                connection.close();
+            }
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to close the publishing connection.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to open a new channel in confirm mode.
+     *
+     * @param sharedConnection The shared connection.
+     * @return The new channel.
+     * @throws IOException To be handled by the caller.
+     */
+    private static Channel openChannel( Connection sharedConnection ) throws IOException {
+        Channel channel = sharedConnection.createChannel();
+        channel.confirmSelect();
+        return channel;
+    }
+
+    /**
+     * Used to get the shared connection, opening a new one if it's missing or was closed for good.
+     *
+     * @return The shared connection.
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    private synchronized Connection getConnection() throws IOException, TimeoutException {
+        if ( connection == null || !connection.isOpen() ) {
+            connection = connectionFactory.newConnection( "service-bus-publisher" );
+            blocked = false;
+            connection.addBlockedListener( reason -> {
+                blocked = true;
+                Logger.log( "The broker blocked the publishing connection: " + reason, Logger.Severity.WARNING, Logger.Threads.ESB );
+            }, () -> {
+                blocked = false;
+                Logger.log( "The broker unblocked the publishing connection.", Logger.Severity.INFO, Logger.Threads.ESB );
+            } );
+        }
+        return connection;
+    }
+}
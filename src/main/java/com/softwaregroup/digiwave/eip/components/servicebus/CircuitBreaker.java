@@ -0,0 +1,180 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceAddress;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A caller-side circuit breaker guarding a single destination (service domain and alias).
+ * The outcome of every call is counted in a rolling window of one-second buckets. Once the window holds enough calls
+ * and either the error rate or the slow call rate reaches its threshold, the circuit opens and the calls fail without
+ * being sent. After the open duration a limited number of probe calls is let through (half-open): the circuit closes
+ * if they all succeed and opens again on the first failure.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class CircuitBreaker {
+    private static final Config.Setting<Boolean> ENABLED = Config.setting( "serviceBus.circuitBreaker.enabled", true );
+    private static final Config.Setting<Integer> WINDOW_SECONDS = Config.setting( "serviceBus.circuitBreaker.window", 10 );
+    private static final Config.Setting<Integer> MINIMUM_CALLS = Config.setting( "serviceBus.circuitBreaker.minimumCalls", 20 );
+    private static final Config.Setting<Double> ERROR_RATE_THRESHOLD = Config.setting( "serviceBus.circuitBreaker.errorRate", 0.5 );
+    private static final Config.Setting<Double> SLOW_CALL_RATE_THRESHOLD = Config.setting( "serviceBus.circuitBreaker.slowCallRate", 0.8 );
+    private static final Config.Setting<Integer> SLOW_CALL_MS = Config.setting( "serviceBus.circuitBreaker.slowCallDuration", 5000 );
+    private static final Config.Setting<Integer> OPEN_DURATION_MS = Config.setting( "serviceBus.circuitBreaker.openDuration", 10000 );
+    private static final Config.Setting<Integer> HALF_OPEN_PROBES = Config.setting( "serviceBus.circuitBreaker.halfOpenProbes", 3 );
+    private static final int MAX_WINDOW_SECONDS = 60;
+
+    private static final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * The states of the circuit; the ordinal is reported as the state gauge.
+     */
+    enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    private final String name;
+    private final String metricPrefix;
+    private final long[] bucketSeconds = new long[ MAX_WINDOW_SECONDS ];
+    private final int[] bucketCalls = new int[ MAX_WINDOW_SECONDS ];
+    private final int[] bucketErrors = new int[ MAX_WINDOW_SECONDS ];
+    private final int[] bucketSlowCalls = new int[ MAX_WINDOW_SECONDS ];
+    private State state = State.CLOSED;
+    private long openedOn;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    private CircuitBreaker( String name ) {
+        this.name = name;
+        this.metricPrefix = "circuitBreaker." + name + ".";
+        Metrics.registerGauge( metricPrefix + "state", () -> getState().ordinal() );
+    }
+
+    /**
+     * Used to get the circuit breaker of a destination, creating it on first use.
+     *
+     * @param serviceAddress The address of the called service.
+     * @return The circuit breaker of the service domain and alias.
+     */
+    static CircuitBreaker forDestination( ServiceAddress serviceAddress ) {
+        return circuitBreakers.computeIfAbsent( serviceAddress.serviceDomainName + "." + serviceAddress.serviceAlias, CircuitBreaker::new );
+    }
+
+    /**
+     * Used to check if a call may be sent.
+     *
+     * @return 'false' if the call has to fail immediately.
+     */
+    synchronized boolean tryAcquire() {
+        if ( !ENABLED.get() ) {
+            return true;
+        }
+        if ( state == State.OPEN ) {
+            if ( System.currentTimeMillis() - openedOn < OPEN_DURATION_MS.get() ) {
+                Metrics.increment( metricPrefix + "shortCircuited" );
+                return false;
+            }
+            transitionTo( State.HALF_OPEN );
+        }
+        if ( state == State.HALF_OPEN ) {
+            if ( probesStarted >= HALF_OPEN_PROBES.get() ) {
+                Metrics.increment( metricPrefix + "shortCircuited" );
+                return false;
+            }
+            probesStarted++;
+        }
+        return true;
+    }
+
+    /**
+     * Used to record the outcome of a call that was let through by tryAcquire.
+     *
+     * @param successful    Whether the call succeeded.
+     * @param durationNanos The duration of the call.
+     */
+    synchronized void onCompletion( boolean successful, long durationNanos ) {
+        if ( !ENABLED.get() ) {
+            return;
+        }
+        boolean slow = TimeUnit.NANOSECONDS.toMillis( durationNanos ) >= SLOW_CALL_MS.get();
+        if ( state == State.HALF_OPEN ) {
+            if ( !successful || slow ) {
+                transitionTo( State.OPEN );
+            } else if ( ++probesSucceeded >= HALF_OPEN_PROBES.get() ) {
+                transitionTo( State.CLOSED );
+            }
+            return;
+        }
+        if ( state == State.OPEN ) {
+            // a late outcome of a call sent before the circuit opened:
+            return;
+        }
+
+        int windowSeconds = Math.max( 1, Math.min( MAX_WINDOW_SECONDS, WINDOW_SECONDS.get() ) );
+        long currentSecond = TimeUnit.MILLISECONDS.toSeconds( System.currentTimeMillis() );
+        int bucket = ( int ) ( currentSecond % windowSeconds );
+        if ( bucketSeconds[ bucket ] != currentSecond ) {
+            bucketSeconds[ bucket ] = currentSecond;
+            bucketCalls[ bucket ] = 0;
+            bucketErrors[ bucket ] = 0;
+            bucketSlowCalls[ bucket ] = 0;
+        }
+        bucketCalls[ bucket ]++;
+        bucketErrors[ bucket ] += successful ? 0 : 1;
+        bucketSlowCalls[ bucket ] += slow ? 1 : 0;
+
+        int calls = 0;
+        int errors = 0;
+        int slowCalls = 0;
+        for ( int idx = 0; idx < windowSeconds; idx++ ) {
+            if ( currentSecond - bucketSeconds[ idx ] < windowSeconds ) {
+                calls += bucketCalls[ idx ];
+                errors += bucketErrors[ idx ];
+                slowCalls += bucketSlowCalls[ idx ];
+            }
+        }
+        if ( calls >= MINIMUM_CALLS.get() && ( errors >= calls * ERROR_RATE_THRESHOLD.get() || slowCalls >= calls * SLOW_CALL_RATE_THRESHOLD.get() ) ) {
+            Logger.log( "Circuit to '" + name + "' opened after " + errors + " errors and " + slowCalls + " slow calls out of " + calls + ".", Logger.Severity.WARNING, Logger.Threads.ESB );
+            transitionTo( State.OPEN );
+        }
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The current state of the circuit.
+     */
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Used to move the circuit to a new state, starting over the window or the probes.
+     *
+     * @param newState The new state.
+     */
+    private void transitionTo( State newState ) {
+        state = newState;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        if ( newState == State.OPEN ) {
+            openedOn = System.currentTimeMillis();
+        }
+        if ( newState != State.HALF_OPEN ) {
+            Arrays.fill( bucketSeconds, 0 );
+        }
+        Metrics.increment( metricPrefix + "transitions." + newState.name().toLowerCase( Locale.ROOT ) );
+        Logger.log( "Circuit to '" + name + "' is now " + newState + ".", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+}
@@ -0,0 +1,239 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Recognizes the repeated deliveries of a service request task (the same service call ID and task sequence), e.g.
+ * the redeliveries of the broker after a lost acknowledgement.
+ * The recent deliveries are kept in a bounded table in the order they arrived, each with the future of its serialized
+ * response: a repeated delivery gets the response of the first one, right away if it's completed or once the running
+ * execution completes. Entries leave the table once they are older than the window or the table is over its max
+ * entries or max response bytes; the repeated deliveries waiting for an entry that leaves are released without a
+ * response.
+ * An optional probabilistic filter remembers the deliveries for two more windows at a few bits per delivery. A delivery
+ * that is no longer in the table but probably in the filter is re-executed only if the call is idempotent.
+ * NOTE: The filter has false positives at a rate depending on its size, so a small share of new non-idempotent calls
+ * may be refused as duplicates; size it accordingly or keep it disabled.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class DeliveryDeduplicator {
+    private static final Config.Setting<Boolean> ENABLED = Config.setting( "serviceProvider.dedupe.enabled", true );
+    private static final Config.Setting<Integer> MAX_ENTRIES = Config.setting( "serviceProvider.dedupe.maxEntries", 10000 );
+    private static final Config.Setting<Long> MAX_BYTES = Config.setting( "serviceProvider.dedupe.maxBytes", 64L * 1024 * 1024 );
+    private static final Config.Setting<Integer> WINDOW_MS = Config.setting( "serviceProvider.dedupe.window", 300000 );
+    private static final int FILTER_BITS = Config.getSetting( "serviceProvider.dedupe.filterBits", 0 );
+    private static final int FILTER_HASHES = 4;
+
+    /**
+     * The identity of a single delivered task.
+     */
+    private static final class DeliveryKey {
+        private final long idHigh;
+        private final long idLow;
+        private final int taskSeq;
+
+        private DeliveryKey( ServiceCall serviceCall ) {
+            this.idHigh = serviceCall.getServiceCallIdHigh();
+            this.idLow = serviceCall.getServiceCallIdLow();
+            this.taskSeq = serviceCall.getLastTaskSeq();
+        }
+
+        @Override
+        public boolean equals( Object other ) {
+            if ( !( other instanceof DeliveryKey ) ) {
+                return false;
+            }
+            DeliveryKey key = ( DeliveryKey ) other;
+            return idHigh == key.idHigh && idLow == key.idLow && taskSeq == key.taskSeq;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = ( idHigh * 31 + idLow ) * 31 + taskSeq;
+            return ( int ) ( hash ^ ( hash >>> 32 ) );
+        }
+    }
+
+    /**
+     * A delivery in the table.
+     */
+    private static final class Delivery {
+        private final long receivedOn;
+        private final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        private int bytes;
+
+        private Delivery() {
+            this.receivedOn = System.currentTimeMillis();
+        }
+    }
+
+    private final LinkedHashMap<DeliveryKey, Delivery> deliveries = new LinkedHashMap<>();
+    private final long[][] filterGenerations;
+    private long responseBytes;
+    private long filterRotatedOn = System.currentTimeMillis();
+
+    DeliveryDeduplicator() {
+        filterGenerations = ( FILTER_BITS > 0 ) ? new long[ 2 ][ ( FILTER_BITS + 63 ) >>> 6 ] : null;
+        Metrics.registerGauge( "dedupe.entries", this::size );
+        Metrics.registerGauge( "dedupe.bytes", this::bytes );
+    }
+
+    /**
+     * Used to check a delivered service request. A first delivery is registered and its response has to be passed to
+     * complete once it's sent.
+     *
+     * @param serviceCall The ServiceCall object received from the message broker.
+     * @return 'null' for a first delivery that has to be executed; otherwise the future of the first delivery's
+     * response, which completes with 'null' if it was not executed or fails if it must not be executed again.
+     */
+    CompletableFuture<byte[]> check( ServiceCall serviceCall ) {
+        if ( !ENABLED.get() ) {
+            return null;
+        }
+        Metrics.increment( "dedupe.checked" );
+        DeliveryKey key = new DeliveryKey( serviceCall );
+        synchronized ( this ) {
+            long now = System.currentTimeMillis();
+            evict( now );
+            Delivery delivery = deliveries.get( key );
+            if ( delivery != null ) {
+                Metrics.increment( delivery.response.isDone() ? "dedupe.hits.completed" : "dedupe.hits.inFlight" );
+                return delivery.response;
+            }
+            if ( filterGenerations != null && !filterAdd( key, now ) ) {
+                Metrics.increment( "dedupe.hits.filter" );
+                if ( !serviceCall.isIdempotent() ) {
+                    return CompletableFuture.failedFuture( new ServiceBusException( "Repeated delivery of service call '" + serviceCall.getServiceCallID() + "' whose response is no longer available; it was not executed again." ) );
+                }
+            }
+            deliveries.put( key, new Delivery() );
+        }
+        return null;
+    }
+
+    /**
+     * Used to pass the sent response of a first delivery to its repeated deliveries.
+     *
+     * @param serviceCall The ServiceCall object as it was received.
+     * @param response    The serialized response as it was sent or 'null' if the request was not executed (e.g.
+     *                    handed back on drain) or its response could not be sent.
+     */
+    void complete( ServiceCall serviceCall, byte[] response ) {
+        if ( !ENABLED.get() ) {
+            return;
+        }
+        DeliveryKey key = new DeliveryKey( serviceCall );
+        Delivery delivery;
+        synchronized ( this ) {
+            delivery = ( response != null ) ? deliveries.get( key ) : deliveries.remove( key );
+            if ( delivery != null && response != null ) {
+                delivery.bytes = response.length;
+                responseBytes += response.length;
+            }
+        }
+        if ( delivery != null ) {
+            delivery.response.complete( response );
+        }
+        if ( response != null ) {
+            // the waiting repeated deliveries got the response already, even if it's too large to be kept:
+            synchronized ( this ) {
+                evict( System.currentTimeMillis() );
+            }
+        }
+    }
+
+    /**
+     * Used to remove the entries that are too old or over the max size of the table.
+     *
+     * @param now The current time in milliseconds.
+     */
+    private void evict( long now ) {
+        long oldest = now - WINDOW_MS.get();
+        int maxEntries = Math.max( 1, MAX_ENTRIES.get() );
+        long maxBytes = MAX_BYTES.get();
+        Iterator<Delivery> iterator = deliveries.values().iterator();
+        while ( iterator.hasNext() ) {
+            Delivery delivery = iterator.next();
+            if ( deliveries.size() <= maxEntries && responseBytes <= maxBytes && delivery.receivedOn >= oldest ) {
+                break;
+            }
+            iterator.remove();
+            responseBytes -= delivery.bytes;
+            // the repeated deliveries of a call still in execution are released; the first one still gets the response:
+            delivery.response.complete( null );
+        }
+    }
+
+    /**
+     * Used to add a delivery to the filter. The filter keeps two generations and starts a new one every window, so a
+     * delivery is remembered for one to two windows.
+     *
+     * @param key The key of the delivery.
+     * @param now The current time in milliseconds.
+     * @return 'false' if the delivery was probably added before.
+     */
+    private boolean filterAdd( DeliveryKey key, long now ) {
+        if ( now - filterRotatedOn >= WINDOW_MS.get() ) {
+            long[] retired = filterGenerations[ 1 ];
+            filterGenerations[ 1 ] = filterGenerations[ 0 ];
+            Arrays.fill( retired, 0 );
+            filterGenerations[ 0 ] = retired;
+            filterRotatedOn = now;
+        }
+        long hash1 = mix( key.idHigh ^ mix( key.idLow ) );
+        long hash2 = mix( hash1 ^ key.taskSeq ) | 1;
+        boolean current = true;
+        boolean previous = true;
+        for ( int idx = 0; idx < FILTER_HASHES; idx++ ) {
+            int bit = ( int ) Long.remainderUnsigned( hash1 + idx * hash2, ( long ) FILTER_BITS );
+            long mask = 1L << bit;
+            current &= ( filterGenerations[ 0 ][ bit >>> 6 ] & mask ) != 0;
+            previous &= ( filterGenerations[ 1 ][ bit >>> 6 ] & mask ) != 0;
+            filterGenerations[ 0 ][ bit >>> 6 ] |= mask;
+        }
+        return !( current || previous );
+    }
+
+    /**
+     * Used to spread the bits of a value (the finalizer of MurmurHash3).
+     *
+     * @param value The value.
+     * @return The mixed value.
+     */
+    private static long mix( long value ) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        return value ^ ( value >>> 33 );
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The number of deliveries in the table.
+     */
+    private synchronized long size() {
+        return deliveries.size();
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The bytes of the responses kept in the table.
+     */
+    private synchronized long bytes() {
+        return responseBytes;
+    }
+}
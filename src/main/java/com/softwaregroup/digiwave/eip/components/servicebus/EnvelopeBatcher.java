@@ -0,0 +1,255 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A class coalescing the publishes bound for the same queue into envelope messages.
+ * The first publish of a batch waits for at most the linger time; the batch is sent as soon as it reaches the max
+ * number of calls or bytes, or when a publish that can't be batched (e.g. one with headers) goes to the same queue, so
+ * the order of the publishes per queue is kept. A batch of a single publish is sent as a regular message. The receiver
+ * unpacks the envelope and acknowledges it as a whole once all of its calls are handed over. A batch that is left empty
+ * is removed, so the queues that are no longer published to don't accumulate.
+ * NOTE: Enable the batching only after all peers can unpack envelopes.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class EnvelopeBatcher {
+    static final Config.Setting<Boolean> ENABLED = Config.setting( "serviceBus.batching.enabled", false );
+    private static final Config.Setting<Integer> LINGER_MICROS = Config.setting( "serviceBus.batching.linger", 200 );
+    private static final Config.Setting<Integer> MAX_CALLS = Config.setting( "serviceBus.batching.maxCalls", 64 );
+    private static final Config.Setting<Integer> MAX_BYTES = Config.setting( "serviceBus.batching.maxBytes", 65536 );
+
+    private final OutboundSpool.Publisher publisher;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    /**
+     * The pending publishes of a single destination queue.
+     */
+    private static final class Batch {
+        private final String destination;
+        private final List<OutboundSpool.Publish> publishes = new ArrayList<>();
+        private int bytes;
+        private long generation;
+        private boolean removed;
+
+        private Batch( String destination ) {
+            this.destination = destination;
+        }
+    }
+
+    /**
+     * @param publisher Sends a publish (a regular one or an envelope) to the message broker.
+     */
+    EnvelopeBatcher( OutboundSpool.Publisher publisher ) {
+        this.publisher = publisher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "envelope-batcher" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Used to publish a serialized ServiceCall, either right away or as part of the pending batch of its destination.
+     * NOTE: A failed flush is thrown to the caller whose publish triggered it; the calls of the other callers in the
+     * same envelope fail on their timeout.
+     *
+     * @param publish The publish to send.
+     * @throws IOException      To be handled by caller.
+     * @throws TimeoutException To be handled by caller.
+     */
+    void publish( OutboundSpool.Publish publish ) throws IOException, TimeoutException {
+        if ( !ENABLED.get() && batches.isEmpty() ) {
+            publisher.publish( publish );
+            return;
+        }
+        while ( true ) {
+            Batch batch = batches.computeIfAbsent( publish.getDestination(), Batch::new );
+            synchronized ( batch ) {
+                if ( batch.removed ) {
+                    // the batch was left empty and removed in the meantime; a new one takes its place:
+                    continue;
+                }
+                try {
+                    add( batch, publish );
+                } finally {
+                    prune( batch );
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Used to add a publish to a batch or to send it right away, after the publishes pending in the batch.
+     * NOTE: The caller has to hold the lock of the batch.
+     *
+     * @param batch   The batch of the destination queue.
+     * @param publish The publish to send.
+     * @throws IOException      To be handled by caller.
+     * @throws TimeoutException To be handled by caller.
+     */
+    private void add( Batch batch, OutboundSpool.Publish publish ) throws IOException, TimeoutException {
+        int maxBytes = MAX_BYTES.get();
+        int length = publish.getSerializedCall().length;
+        if ( !ENABLED.get() || publish.getHeaders() != null || length >= maxBytes ) {
+            flush( batch );
+            publisher.publish( publish );
+            return;
+        }
+        if ( !batch.publishes.isEmpty() && ( batch.bytes + length > maxBytes || batch.publishes.get( 0 ).getCaptureFrameType() != publish.getCaptureFrameType() ) ) {
+            flush( batch );
+        }
+        batch.publishes.add( publish );
+        batch.bytes += length;
+        if ( batch.publishes.size() >= MAX_CALLS.get() ) {
+            flush( batch );
+        } else if ( batch.publishes.size() == 1 ) {
+            long generation = batch.generation;
+            scheduler.schedule( () -> lingerExpired( batch, generation ), LINGER_MICROS.get(), TimeUnit.MICROSECONDS );
+        }
+    }
+
+    /**
+     * Used to publish several serialized ServiceCalls and to send their batches right away, without waiting for the
+     * linger time, e.g. when the calls are forwarded from a message that is acknowledged afterwards.
+     *
+     * @param publishes The publishes to send.
+     * @throws IOException      To be handled by caller.
+     * @throws TimeoutException To be handled by caller.
+     */
+    void publishAll( List<OutboundSpool.Publish> publishes ) throws IOException, TimeoutException {
+        Set<String> destinations = new LinkedHashSet<>();
+        for ( OutboundSpool.Publish publish : publishes ) {
+            publish( publish );
+            destinations.add( publish.getDestination() );
+        }
+        for ( String destination : destinations ) {
+            Batch batch = batches.get( destination );
+            if ( batch != null ) {
+                synchronized ( batch ) {
+                    try {
+                        flush( batch );
+                    } finally {
+                        prune( batch );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Used to check if any publishes are still waiting in a batch.
+     *
+     * @return 'true' if a batch is not sent yet.
+     */
+    boolean hasPending() {
+        for ( Batch batch : batches.values() ) {
+            synchronized ( batch ) {
+                if ( !batch.publishes.isEmpty() ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Used to send the pending batches and to stop the linger timer.
+     */
+    void stop() {
+        scheduler.shutdownNow();
+        for ( Batch batch : batches.values() ) {
+            synchronized ( batch ) {
+                try {
+                    flush( batch );
+                } catch ( Exception exception ) {
+                    Logger.log( "Failed to send the last batch of queue '" + batch.destination + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+                }
+            }
+        }
+    }
+
+    /**
+     * Used to send a batch once its linger time is over, unless it was already sent in the meantime.
+     *
+     * @param batch      The batch.
+     * @param generation The generation of the batch when its first publish was added.
+     */
+    private void lingerExpired( Batch batch, long generation ) {
+        synchronized ( batch ) {
+            if ( batch.generation != generation ) {
+                return;
+            }
+            try {
+                flush( batch );
+            } catch ( Exception exception ) {
+                Logger.log( "Failed to send a batch to queue '" + batch.destination + "'; its calls will time out.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            } finally {
+                prune( batch );
+            }
+        }
+    }
+
+    /**
+     * Used to remove a batch that is left empty, e.g. after it was sent.
+     * NOTE: The caller has to hold the lock of the batch.
+     *
+     * @param batch The batch.
+     */
+    private void prune( Batch batch ) {
+        if ( batch.publishes.isEmpty() && !batch.removed ) {
+            batches.remove( batch.destination, batch );
+            batch.removed = true;
+        }
+    }
+
+    /**
+     * Used to send the pending publishes of a batch. The batch is emptied even if the sending fails.
+     * NOTE: The caller has to hold the lock of the batch.
+     *
+     * @param batch The batch to send.
+     * @throws IOException      To be handled by caller.
+     * @throws TimeoutException To be handled by caller.
+     */
+    private void flush( Batch batch ) throws IOException, TimeoutException {
+        int size = batch.publishes.size();
+        if ( size == 0 ) {
+            return;
+        }
+        OutboundSpool.Publish first = batch.publishes.get( 0 );
+        OutboundSpool.Publish publish = first;
+        if ( size > 1 ) {
+            List<byte[]> frames = new ArrayList<>( size );
+            for ( OutboundSpool.Publish pending : batch.publishes ) {
+                frames.add( pending.getSerializedCall() );
+            }
+            publish = new OutboundSpool.Publish( batch.destination, first.getQueueArguments(), null, first.getCaptureFrameType(), ServiceCallCodec.envelope( frames ) );
+        }
+        batch.publishes.clear();
+        batch.bytes = 0;
+        batch.generation++;
+        publisher.publish( publish );
+        if ( size > 1 ) {
+            Metrics.increment( "batching.envelopes" );
+            Metrics.add( "batching.calls", size );
+        }
+    }
+}
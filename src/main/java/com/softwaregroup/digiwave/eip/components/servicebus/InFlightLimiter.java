@@ -0,0 +1,182 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the number of outstanding service calls this instance has towards a single destination domain.
+ * A call over the limit never blocks a thread: depending on the overflow policy it waits for a permit in an async
+ * queue, fails immediately or takes the place of the oldest waiting call, which then fails. The waiting queue itself
+ * is bounded as well, so the memory of the caller stays flat no matter how fast the calls are produced. The waiting
+ * calls get their permits in order; a new call never overtakes them, not even after the limit was raised.
+ * Nested calls (made by a service while it's executed) are never held back: the execution calling them may be the
+ * very one a waiting call depends on, so queueing them could stall both. They still count towards the limit.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class InFlightLimiter {
+    private static final Config.Setting<Integer> LIMIT = Config.setting( "serviceBus.inFlight.limit", 0 );
+    private static final Config.Setting<Integer> MAX_WAITING = Config.setting( "serviceBus.inFlight.maxWaiting", 10000 );
+    private static final Config.Setting<OverflowPolicy> POLICY = Config.setting( "serviceBus.inFlight.policy", OverflowPolicy.WAIT );
+
+    private static final Map<String, InFlightLimiter> inFlightLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * The behaviors of a call over the in-flight limit.
+     */
+    enum OverflowPolicy {
+        /**
+         * The call waits for a permit; it fails only if the waiting queue is full.
+         */
+        WAIT,
+        /**
+         * The call fails immediately.
+         */
+        FAIL_FAST,
+        /**
+         * The call waits for a permit; if the waiting queue is full, the oldest waiting call fails instead.
+         */
+        SHED_OLDEST
+    }
+
+    private final String serviceDomainName;
+    private final String metricPrefix;
+    private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    private InFlightLimiter( String serviceDomainName ) {
+        this.serviceDomainName = serviceDomainName;
+        this.metricPrefix = "inFlight." + serviceDomainName + ".";
+        Metrics.registerGauge( metricPrefix + "calls", this::getInFlight );
+        Metrics.registerGauge( metricPrefix + "waiting", this::getWaiting );
+    }
+
+    /**
+     * Used to get the limiter of a destination domain, creating it on first use.
+     *
+     * @param serviceDomainName The destination service domain.
+     * @return The limiter of the domain.
+     */
+    static InFlightLimiter forDestination( String serviceDomainName ) {
+        return inFlightLimiters.computeIfAbsent( serviceDomainName, InFlightLimiter::new );
+    }
+
+    /**
+     * Used to acquire a permit for a new call. Every successfully acquired permit has to be released.
+     *
+     * @param nested Whether the call is made by a service execution, i.e. it has a predecessor.
+     * @return The future completes once the call may be sent or fails with a ServiceBusException if it was rejected.
+     */
+    CompletableFuture<Void> acquire( boolean nested ) {
+        CompletableFuture<Void> shed = null;
+        CompletableFuture<Void> permit;
+        List<CompletableFuture<Void>> granted;
+        synchronized ( this ) {
+            int limit = LIMIT.get();
+            granted = grantWaiting( limit );
+            if ( nested || ( waiting.isEmpty() && ( limit <= 0 || inFlight < limit ) ) ) {
+                inFlight++;
+                permit = CompletableFuture.completedFuture( null );
+            } else {
+                permit = enqueue( limit );
+                if ( permit.isCompletedExceptionally() ) {
+                    Metrics.increment( metricPrefix + "rejected" );
+                } else if ( waiting.size() > Math.max( 1, MAX_WAITING.get() ) ) {
+                    shed = waiting.poll();
+                }
+            }
+        }
+        complete( granted );
+        if ( shed != null ) {
+            Metrics.increment( metricPrefix + "shed" );
+            shed.completeExceptionally( new ServiceBusException( "In-flight limit of calls to '" + serviceDomainName + "' reached; the call was shed in favor of a newer one.", true ) );
+        }
+        return permit;
+    }
+
+    /**
+     * Used to queue a call over the limit, or to reject it, depending on the overflow policy.
+     * NOTE: The caller has to hold the lock of the limiter.
+     *
+     * @param limit The current limit.
+     * @return The permit future of the waiting call or a failed one if the call was rejected.
+     */
+    private CompletableFuture<Void> enqueue( int limit ) {
+        OverflowPolicy policy = POLICY.get();
+        int maxWaiting = MAX_WAITING.get();
+        if ( policy == OverflowPolicy.FAIL_FAST || ( policy == OverflowPolicy.WAIT && waiting.size() >= maxWaiting ) ) {
+            return CompletableFuture.failedFuture( new ServiceBusException( "In-flight limit of " + limit + " calls to '" + serviceDomainName + "' reached; the call was rejected.", true ) );
+        }
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        waiting.add( permit );
+        return permit;
+    }
+
+    /**
+     * Used to release the permit of a completed call. The free permits go to the oldest waiting calls, as many as the
+     * current limit allows (it may have changed since the calls started to wait).
+     */
+    void release() {
+        List<CompletableFuture<Void>> granted;
+        synchronized ( this ) {
+            inFlight = Math.max( 0, inFlight - 1 );
+            granted = grantWaiting( LIMIT.get() );
+        }
+        complete( granted );
+    }
+
+    /**
+     * Used to hand out the free permits to the oldest waiting calls.
+     * NOTE: The caller has to hold the lock of the limiter.
+     *
+     * @param limit The current limit.
+     * @return The permits to complete once the lock is released.
+     */
+    private List<CompletableFuture<Void>> grantWaiting( int limit ) {
+        List<CompletableFuture<Void>> granted = new ArrayList<>( 1 );
+        while ( !waiting.isEmpty() && ( limit <= 0 || inFlight < limit ) ) {
+            granted.add( waiting.poll() );
+            inFlight++;
+        }
+        return granted;
+    }
+
+    /**
+     * Used to let the granted calls continue; done outside of the lock.
+     *
+     * @param granted The granted permits.
+     */
+    private static void complete( List<CompletableFuture<Void>> granted ) {
+        for ( CompletableFuture<Void> permit : granted ) {
+            permit.complete( null );
+        }
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The number of calls holding a permit.
+     */
+    private synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The number of calls waiting for a permit.
+     */
+    private synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
@@ -0,0 +1,298 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallPriority;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the provider instance that should get a service request, based on the load reports the instances publish
+ * (see LoadReporter) and on the requests this instance sent them that are still outstanding.
+ * The load of an instance is scored as its pending work (in-flight, queued and locally outstanding calls) times its
+ * moving average execution time, so a degraded instance with slow executions gets less work than a healthy one.
+ * The request is then sent to the direct request queue of the picked instance for its priority class. Requests left
+ * there for longer than 'serviceBus.loadBalancing.directTtl' ms (as configured on the provider) are dead-lettered to
+ * the shared domain queue of the same priority class, so a stalled instance can't hold on to them.
+ * The direct queues are declared by their provider only; callers publish to them without declaring them, so the queue
+ * arguments are never mixed up between instances with different settings.
+ * NOTE: A domain is subscribed to on its first call, so the very first requests always go to the shared queue.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class LoadBalancer {
+    static final long REPORT_INTERVAL_MS = Config.getSetting( "serviceBus.loadBalancing.reportInterval", 1000L );
+    private static final long DIRECT_TTL_MS = Config.getSetting( "serviceBus.loadBalancing.directTtl", 5000L );
+    private static final Config.Setting<Mode> MODE = Config.setting( "serviceBus.loadBalancing.mode", Mode.OFF );
+    private static final int EXPIRED_REPORTS_LIMIT = 3;
+
+    private final ConnectionFactory connectionFactory;
+    private final Map<String, Map<String, LoadReport>> loadReports = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> outstandingCalls = new ConcurrentHashMap<>();
+    private Connection connection;
+    private Channel channel;
+
+    /**
+     * The supported ways of picking the target instance.
+     */
+    enum Mode {
+        /**
+         * All requests go to the shared domain queue.
+         */
+        OFF,
+        /**
+         * The less loaded of two random instances is picked.
+         */
+        POWER_OF_TWO,
+        /**
+         * The least loaded of all instances is picked.
+         */
+        LEAST_LOADED
+    }
+
+    /**
+     * The load of a provider instance as published by its LoadReporter.
+     */
+    static final class LoadReport {
+        private final String instanceID;
+        private final int inFlight;
+        private final int queueDepth;
+        private final long latencyMicros;
+        private final long receivedOn;
+
+        LoadReport( String instanceID, int inFlight, int queueDepth, long latencyMicros ) {
+            this.instanceID = instanceID;
+            this.inFlight = inFlight;
+            this.queueDepth = queueDepth;
+            this.latencyMicros = latencyMicros;
+            this.receivedOn = System.currentTimeMillis();
+        }
+
+        /**
+         * Used to encode the report for publishing.
+         *
+         * @return The encoded report.
+         */
+        byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+            try ( DataOutputStream stream = new DataOutputStream( bytes ) ) {
+                stream.writeUTF( instanceID );
+                stream.writeInt( inFlight );
+                stream.writeInt( queueDepth );
+                stream.writeLong( latencyMicros );
+            } catch ( IOException exception ) {
+                throw new UncheckedIOException( exception );
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Used to decode a received report.
+         *
+         * @param data The encoded report.
+         * @return The decoded report.
+         * @throws IOException To be handled by the caller.
+         */
+        static LoadReport decode( byte[] data ) throws IOException {
+            try ( DataInputStream stream = new DataInputStream( new ByteArrayInputStream( data ) ) ) {
+                return new LoadReport( stream.readUTF(), stream.readInt(), stream.readInt(), stream.readLong() );
+            }
+        }
+    }
+
+    /**
+     * @param connectionFactory The connection factory of the message broker.
+     */
+    LoadBalancer( ConnectionFactory connectionFactory ) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Used to pick the instance of a service domain that should get the next request.
+     *
+     * @param serviceDomainName The destination service domain.
+     * @return The ID of the picked instance or 'null' if the request should go to the shared domain queue.
+     */
+    String pickInstance( String serviceDomainName ) {
+        Mode mode = MODE.get();
+        if ( mode == Mode.OFF ) {
+            return null;
+        }
+        Map<String, LoadReport> domainReports = loadReports.get( serviceDomainName );
+        if ( domainReports == null ) {
+            subscribe( serviceDomainName );
+            return null;
+        }
+
+        long oldestReport = System.currentTimeMillis() - EXPIRED_REPORTS_LIMIT * REPORT_INTERVAL_MS;
+        List<LoadReport> candidates = new ArrayList<>( domainReports.size() );
+        for ( LoadReport loadReport : domainReports.values() ) {
+            if ( loadReport.receivedOn >= oldestReport ) {
+                candidates.add( loadReport );
+            }
+        }
+        if ( candidates.isEmpty() ) {
+            Metrics.increment( "loadBalancing.fallback" );
+            return null;
+        }
+
+        LoadReport picked;
+        if ( mode == Mode.POWER_OF_TWO && candidates.size() > 2 ) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt( candidates.size() );
+            int second = random.nextInt( candidates.size() - 1 );
+            if ( second >= first ) {
+                second++;
+            }
+            picked = ( getScore( candidates.get( first ) ) <= getScore( candidates.get( second ) ) ) ? candidates.get( first ) : candidates.get( second );
+        } else {
+            picked = candidates.get( 0 );
+            for ( LoadReport candidate : candidates ) {
+                if ( getScore( candidate ) < getScore( picked ) ) {
+                    picked = candidate;
+                }
+            }
+        }
+        outstandingCalls.computeIfAbsent( picked.instanceID, instanceID -> new AtomicInteger() ).incrementAndGet();
+        Metrics.increment( "loadBalancing.direct" );
+        return picked.instanceID;
+    }
+
+    /**
+     * Used to check if the requests are routed by load, i.e. the mode isn't OFF. The providers publish their load
+     * reports only then.
+     *
+     * @return 'true' if load balancing is enabled.
+     */
+    static boolean isEnabled() {
+        return MODE.get() != Mode.OFF;
+    }
+
+    /**
+     * Used to report that a request sent to a picked instance completed.
+     *
+     * @param instanceID The ID of the instance returned by pickInstance.
+     */
+    void release( String instanceID ) {
+        AtomicInteger outstanding = outstandingCalls.get( instanceID );
+        if ( outstanding != null ) {
+            outstanding.updateAndGet( count -> Math.max( 0, count - 1 ) );
+        }
+    }
+
+    /**
+     * Used to stop receiving load reports.
+     */
+    synchronized void stop() {
+        try {
+            if ( connection != null ) {
+                connection.close();
+            }
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to close the load balancer connection.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to get the load score of an instance; lower is better.
+     *
+     * @param loadReport The last load report of the instance.
+     * @return The score.
+     */
+    private double getScore( LoadReport loadReport ) {
+        AtomicInteger outstanding = outstandingCalls.get( loadReport.instanceID );
+        int pendingWork = loadReport.inFlight + loadReport.queueDepth + ( ( outstanding != null ) ? outstanding.get() : 0 );
+        return ( pendingWork + 1 ) * ( double ) Math.max( 1, loadReport.latencyMicros );
+    }
+
+    /**
+     * Used to start receiving the load reports of a service domain.
+     *
+     * @param serviceDomainName The service domain name.
+     */
+    private synchronized void subscribe( String serviceDomainName ) {
+        if ( loadReports.containsKey( serviceDomainName ) ) {
+            return;
+        }
+        Map<String, LoadReport> domainReports = new ConcurrentHashMap<>();
+        try {
+            if ( connection == null ) {
+                connection = connectionFactory.newConnection();
+                channel = connection.createChannel();
+            }
+            String loadExchange = getLoadExchange( serviceDomainName );
+            channel.exchangeDeclare( loadExchange, BuiltinExchangeType.FANOUT, false, true, null );
+            String loadQueue = channel.queueDeclare().getQueue();
+            channel.queueBind( loadQueue, loadExchange, "" );
+            channel.basicConsume( loadQueue, true, ( consumerTag, delivery ) -> {
+                LoadReport loadReport = LoadReport.decode( delivery.getBody() );
+                domainReports.put( loadReport.instanceID, loadReport );
+            }, consumerTag -> {
+            } );
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to subscribe to the load reports of '" + serviceDomainName + "'; its requests will go to the shared queue.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+        // also stored on failure, so a broken subscription doesn't get retried on every call:
+        loadReports.put( serviceDomainName, domainReports );
+    }
+
+    /**
+     * Used to get the fanout exchange of the load reports of a service domain.
+     *
+     * @param serviceDomainName The service domain name.
+     * @return The name of the exchange.
+     */
+    static String getLoadExchange( String serviceDomainName ) {
+        return serviceDomainName + "-load";
+    }
+
+    /**
+     * Used to get the direct request queue of a provider instance for a priority class.
+     *
+     * @param serviceDomainName The service domain of the instance.
+     * @param instanceID        The ID of the instance.
+     * @param priority          The priority class of the requests.
+     * @return The name of the queue.
+     */
+    static String getDirectQueue( String serviceDomainName, String instanceID, ServiceCallPriority priority ) {
+        return serviceDomainName + "-" + instanceID + "-requests" + priority.getQueueSuffix();
+    }
+
+    /**
+     * Used to get the arguments of a direct request queue, as declared by its provider. Expired requests are
+     * dead-lettered to the shared domain queue of the same priority class and the queue itself is removed some time
+     * after its instance is gone.
+     *
+     * @param serviceDomainName The service domain of the instance.
+     * @param priority          The priority class of the queue.
+     * @param prefix            The prefix of the argument names.
+     * @return The queue arguments.
+     */
+    static Map<String, Object> getDirectQueueArguments( String serviceDomainName, ServiceCallPriority priority, String prefix ) {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put( prefix + "x-message-ttl", DIRECT_TTL_MS );
+        arguments.put( prefix + "x-expires", DIRECT_TTL_MS * 2 );
+        arguments.put( prefix + "x-dead-letter-exchange", "" );
+        arguments.put( prefix + "x-dead-letter-routing-key", serviceDomainName + priority.getQueueSuffix() );
+        return arguments;
+    }
+}
@@ -0,0 +1,101 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Periodically publishes the load of a provider instance to the '<domain>-load' fanout exchange, where the callers
+ * pick it up to route their requests to the least loaded instance (see LoadBalancer). No reports are published while
+ * the load balancing mode is OFF, so the callers don't route to the direct queues then.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class LoadReporter {
+    private final ConnectionFactory connectionFactory;
+    private final String loadExchange;
+    private final String instanceID;
+    private final IntSupplier inFlight;
+    private final IntSupplier queueDepth;
+    private final LongSupplier latencyMicros;
+    private final ScheduledExecutorService scheduler;
+    private Connection connection;
+    private Channel channel;
+
+    /**
+     * @param connectionFactory The connection factory of the message broker.
+     * @param serviceDomainName The service domain of this instance.
+     * @param instanceID        The ID of this instance.
+     * @param inFlight          Supplies the number of service calls in processing.
+     * @param queueDepth        Supplies the number of service calls waiting for an execution slot.
+     * @param latencyMicros     Supplies the moving average of the execution time in microseconds.
+     */
+    LoadReporter( ConnectionFactory connectionFactory, String serviceDomainName, String instanceID, IntSupplier inFlight, IntSupplier queueDepth, LongSupplier latencyMicros ) {
+        this.connectionFactory = connectionFactory;
+        this.loadExchange = LoadBalancer.getLoadExchange( serviceDomainName );
+        this.instanceID = instanceID;
+        this.inFlight = inFlight;
+        this.queueDepth = queueDepth;
+        this.latencyMicros = latencyMicros;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "load-reporter" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Used to start publishing the load reports.
+     *
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    void start() throws IOException, TimeoutException {
+        connection = connectionFactory.newConnection();
+        channel = connection.createChannel();
+        channel.exchangeDeclare( loadExchange, BuiltinExchangeType.FANOUT, false, true, null );
+        scheduler.scheduleWithFixedDelay( this::report, 0, LoadBalancer.REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Used to stop publishing the load reports. The callers stop routing to this instance once its last report expires.
+     */
+    void stop() {
+        scheduler.shutdownNow();
+        try {
+            connection.close();
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to close the load reporter connection.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to publish a single load report.
+     */
+    private void report() {
+        if ( !LoadBalancer.isEnabled() ) {
+            return;
+        }
+        try {
+            LoadBalancer.LoadReport loadReport = new LoadBalancer.LoadReport( instanceID, inFlight.getAsInt(), queueDepth.getAsInt(), latencyMicros.getAsLong() );
+            // a report is worthless once the next one is due, so there is no point in keeping it around:
+            AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().expiration( String.valueOf( LoadBalancer.REPORT_INTERVAL_MS ) ).build();
+            channel.basicPublish( loadExchange, "", properties, loadReport.encode() );
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to publish the load report.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.softwaregroup.digiwave.eip.components.servicebus;
 
+import com.softwaregroup.digiwave.eip.utils.StartupTimer;
 import com.softwaregroup.digiwave.eip.utils.Tools;
 
 import java.util.UUID;
@@ -18,6 +19,21 @@ public abstract class MicroserviceInstance {
     public static final long INSTANCE_START = Tools.getUnixTimestamp();
     public static final String SERVICE_DOMAIN_NAME = System.getenv( "DIGIWAVE_SERVICE_DOMAIN_NAME" );
 
+    /**
+     * Used to initialize the service bus (Camel context and broker connections) ahead of the microservice itself, so
+     * it can run in parallel with loading the microservice class.
+     *
+     * @param executor The executor on which to initialize the service bus.
+     * @return The future completes once the service bus is ready.
+     */
+    public static CompletableFuture<Void> bootstrap( Executor executor ) {
+        return CompletableFuture.runAsync( () -> {
+            long startNanos = System.nanoTime();
+            ServiceBusDispatcher.getInstance();
+            StartupTimer.record( "serviceBus", startNanos );
+        }, executor );
+    }
+
     /**
      * Used to initialize the microservice.
      * NOTE: Override this to implement custom startup behavior.
@@ -28,6 +44,16 @@ public abstract class MicroserviceInstance {
         return CompletableFuture.completedFuture( null );
     }
 
+    /**
+     * Called once the start-up sequence of the microservice (including any overrides of start) completed.
+     * NOTE: Override this to implement custom behavior, but make sure to call the base method first.
+     *
+     * @return The default method returns nothing.
+     */
+    public CompletableFuture onStarted() {
+        return CompletableFuture.completedFuture( null );
+    }
+
     /**
      * Used to shutdown the microservice.
      * NOTE: Override this to implement custom shutdown behavior.
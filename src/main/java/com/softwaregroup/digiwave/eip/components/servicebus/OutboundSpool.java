@@ -0,0 +1,450 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.rabbitmq.client.ShutdownSignalException;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.MappedSegmentLog;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A disk-backed spool of the outbound publishes of this instance.
+ * While the broker is unreachable or blocks the publishing connection (flow control), the publishes are appended to a
+ * memory-mapped segment log instead of failing. Only connection failures are spooled; a publish the broker refuses on
+ * its channel (e.g. a queue declared with other arguments) fails right away, as a retry would fail the same way. Once
+ * anything is spooled, every later publish goes to the spool as well, so the order of the publishes is kept. A
+ * background thread replays the spooled publishes in order as soon as the broker takes them again and deletes every
+ * segment that was replayed completely. A spooled publish the broker refuses for another reason than a connection
+ * failure is parked in the 'parked' sub-directory of the spool, so it can't hold back the publishes after it.
+ * The pending records are bounded by a max number of bytes; a publish that doesn't fit fails like before. Records are
+ * flushed to the storage device on every append, on every replay tick or only by the operating system, depending on
+ * the fsync policy. The log is named after the instance ID, so the records left by a stopped instance are replayed
+ * after a restart only when the instance ID is stable (DIGIWAVE_INSTANCE_ID).
+ * NOTE: A publish is confirmed by the broker before the spool moves past it, but the replay position is kept in memory
+ * only; after a crash the records of a partially replayed segment are published again.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class OutboundSpool {
+    private static final Config.Setting<Boolean> ENABLED = Config.setting( "serviceBus.spool.enabled", true );
+    private static final Config.Setting<Long> MAX_BYTES = Config.setting( "serviceBus.spool.maxBytes", 256L * 1024 * 1024 );
+    private static final Config.Setting<FsyncPolicy> FSYNC_POLICY = Config.setting( "serviceBus.spool.fsync", FsyncPolicy.INTERVAL );
+    private static final String DIRECTORY = Config.getSetting( "serviceBus.spool.directory", "spool" );
+    private static final int SEGMENT_SIZE = Config.getSetting( "serviceBus.spool.segmentSize", 16 * 1024 * 1024 );
+    private static final long REPLAY_INTERVAL_MS = Config.getSetting( "serviceBus.spool.replayInterval", 1000L );
+    private static final byte PUBLISH_RECORD = 1;
+    private static final String PARKED_DIRECTORY = "parked";
+
+    /**
+     * The policies of flushing the spooled records to the storage device.
+     */
+    enum FsyncPolicy {
+        /**
+         * Every record is flushed before the publish returns.
+         */
+        ALWAYS,
+        /**
+         * The records are flushed on every replay tick.
+         */
+        INTERVAL,
+        /**
+         * The records are flushed by the operating system.
+         */
+        NEVER
+    }
+
+    /**
+     * A single publish of a serialized ServiceCall, as it is kept in the spool.
+     */
+    static final class Publish implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String destination;
+        private final HashMap<String, Object> queueArguments;
+        private final HashMap<String, Object> headers;
+        private final byte captureFrameType;
+        private final byte[] serializedCall;
+
+        /**
+         * @param destination      The destination queue.
+         * @param queueArguments   The arguments of a destination queue that outlives its consumers, an empty map for a
+         *                         queue declared by its consumer only or 'null' for a regular auto-deleted queue.
+         * @param headers          The message headers or 'null' if there are none.
+         * @param captureFrameType The TrafficCapture frame type under which the published frame is recorded.
+         * @param serializedCall   The serialized (uncompressed) ServiceCall.
+         */
+        Publish( String destination, Map<String, Object> queueArguments, Map<String, Object> headers, byte captureFrameType, byte[] serializedCall ) {
+            this.destination = destination;
+            this.queueArguments = ( queueArguments != null ) ? new HashMap<>( queueArguments ) : null;
+            this.headers = ( headers != null ) ? new HashMap<>( headers ) : null;
+            this.captureFrameType = captureFrameType;
+            this.serializedCall = serializedCall;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The destination queue.
+         */
+        String getDestination() {
+            return destination;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The queue arguments, an empty map for a queue that isn't declared on publish or 'null' for a regular
+         * auto-deleted queue.
+         */
+        Map<String, Object> getQueueArguments() {
+            return queueArguments;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The message headers or 'null' if there are none.
+         */
+        Map<String, Object> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The TrafficCapture frame type.
+         */
+        byte getCaptureFrameType() {
+            return captureFrameType;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The serialized ServiceCall.
+         */
+        byte[] getSerializedCall() {
+            return serializedCall;
+        }
+    }
+
+    /**
+     * The actual publishing to the broker.
+     */
+    interface Publisher {
+        /**
+         * @param publish The publish to send.
+         * @throws IOException      If the broker is unreachable.
+         * @throws TimeoutException If the broker is unreachable.
+         */
+        void publish( Publish publish ) throws IOException, TimeoutException;
+    }
+
+    private final Path directory;
+    private final String prefix;
+    private final Publisher publisher;
+    private final BooleanSupplier brokerBlocked;
+    private final BooleanSupplier awaitConfirms;
+    private final ScheduledExecutorService scheduler;
+    private MappedSegmentLog spoolLog;
+    private MappedSegmentLog parkedLog;
+    private boolean unsealedRecords;
+    private volatile long pendingBytes;
+    private Path replaySegment;
+    private int replayOffset;
+
+    /**
+     * @param prefix        The prefix of the segment files; the ID of this instance.
+     * @param publisher     Publishes to the broker.
+     * @param brokerBlocked Tells if the broker currently blocks the publishes.
+     * @param awaitConfirms Waits until the broker confirmed the publishes; tells if all of them were confirmed.
+     */
+    OutboundSpool( String prefix, Publisher publisher, BooleanSupplier brokerBlocked, BooleanSupplier awaitConfirms ) {
+        this.directory = Paths.get( DIRECTORY );
+        this.prefix = prefix;
+        this.publisher = publisher;
+        this.brokerBlocked = brokerBlocked;
+        this.awaitConfirms = awaitConfirms;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "outbound-spool" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        Metrics.registerGauge( "spool.pendingBytes", () -> pendingBytes );
+    }
+
+    /**
+     * Used to start replaying, beginning with the records left by a previous run of this instance (if any).
+     */
+    void start() {
+        try {
+            long leftBytes = 0;
+            for ( Path segmentFile : MappedSegmentLog.listSegments( directory, prefix ) ) {
+                leftBytes += sizeOf( segmentFile );
+            }
+            if ( leftBytes > 0 ) {
+                synchronized ( this ) {
+                    pendingBytes += leftBytes;
+                }
+                Logger.log( "Outbound spool holds " + leftBytes + " bytes of a previous run; they will be replayed.", Logger.Severity.INFO, Logger.Threads.ESB );
+            }
+        } catch ( IOException exception ) {
+            Logger.log( "Failed to read the outbound spool of a previous run.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+        scheduler.scheduleWithFixedDelay( this::tick, REPLAY_INTERVAL_MS, REPLAY_INTERVAL_MS, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Used to publish directly or, while the broker is not available or anything is still spooled, to spool.
+     *
+     * @param publish The publish to send.
+     * @throws IOException      If the broker is unreachable and the spool is disabled or full.
+     * @throws TimeoutException If the broker is unreachable and the spool is disabled or full.
+     */
+    void publish( Publish publish ) throws IOException, TimeoutException {
+        if ( !ENABLED.get() ) {
+            publisher.publish( publish );
+            return;
+        }
+        if ( pendingBytes == 0 && !brokerBlocked.getAsBoolean() ) {
+            try {
+                publisher.publish( publish );
+                return;
+            } catch ( IOException | TimeoutException | ShutdownSignalException exception ) {
+                if ( !isConnectionFailure( exception ) || !spool( publish, false ) ) {
+                    throw exception;
+                }
+                Logger.log( "The broker is not available; publishes are spooled until it recovers.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+                return;
+            }
+        }
+        if ( !spool( publish, true ) ) {
+            Metrics.increment( "spool.rejected" );
+            throw new IOException( "The broker is not available and the outbound spool is full." );
+        }
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return 'true' while spooled publishes wait to be replayed.
+     */
+    boolean hasPending() {
+        return pendingBytes > 0;
+    }
+
+    /**
+     * Used to stop replaying and to flush the spooled records. The records left are replayed by the next run.
+     */
+    void stop() {
+        scheduler.shutdownNow();
+        synchronized ( this ) {
+            if ( spoolLog != null ) {
+                spoolLog.close();
+                unsealedRecords = false;
+            }
+            if ( parkedLog != null ) {
+                parkedLog.close();
+            }
+        }
+    }
+
+    /**
+     * Used to append a publish to the spool.
+     *
+     * @param publish  The publish to append.
+     * @param whenBusy Append only if publishes are still spooled or the broker blocks the publishes; used to keep the
+     *                 order of a publish that didn't try the broker.
+     * @return 'false' if the spool was full; the publish was not appended.
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException If the publish was sent to the broker after all and it's not available.
+     */
+    private boolean spool( Publish publish, boolean whenBusy ) throws IOException, TimeoutException {
+        synchronized ( this ) {
+            if ( !whenBusy || pendingBytes > 0 || brokerBlocked.getAsBoolean() ) {
+                byte[] record = SerializationUtils.serialize( publish );
+                if ( pendingBytes + record.length > MAX_BYTES.get() ) {
+                    return false;
+                }
+                if ( spoolLog == null ) {
+                    spoolLog = new MappedSegmentLog( directory, prefix, SEGMENT_SIZE );
+                }
+                spoolLog.append( PUBLISH_RECORD, System.currentTimeMillis(), record );
+                if ( FSYNC_POLICY.get() == FsyncPolicy.ALWAYS ) {
+                    spoolLog.force();
+                }
+                unsealedRecords = true;
+                pendingBytes += record.length;
+                Metrics.increment( "spool.spooled" );
+                return true;
+            }
+        }
+        // the replay completed in the meantime:
+        publisher.publish( publish );
+        return true;
+    }
+
+    /**
+     * Used to flush the records and to replay as many of them as the broker takes. Runs on the spool thread only.
+     */
+    private void tick() {
+        try {
+            synchronized ( this ) {
+                if ( spoolLog != null && unsealedRecords && FSYNC_POLICY.get() == FsyncPolicy.INTERVAL ) {
+                    spoolLog.force();
+                }
+            }
+            if ( pendingBytes > 0 && !brokerBlocked.getAsBoolean() ) {
+                replay();
+            }
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to replay the outbound spool.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to replay the spooled records in order until the broker fails again or the spool is empty.
+     *
+     * @throws IOException To be handled by the caller.
+     */
+    private void replay() throws IOException {
+        // the segment in use is read up to the records written so far, while new records keep going to it:
+        List<Path> segments;
+        Path openSegment;
+        int openPosition;
+        synchronized ( this ) {
+            segments = MappedSegmentLog.listSegments( directory, prefix );
+            openSegment = ( spoolLog != null ) ? spoolLog.getSegmentFile() : null;
+            openPosition = ( spoolLog != null ) ? spoolLog.getSegmentPosition() : 0;
+        }
+        long replayedBytes = 0;
+        for ( Path segmentFile : segments ) {
+            if ( !segmentFile.equals( replaySegment ) ) {
+                replaySegment = segmentFile;
+                replayOffset = 0;
+            }
+            boolean open = segmentFile.equals( openSegment );
+            long[] segmentBytes = { 0 };
+            int offset = MappedSegmentLog.readSegment( segmentFile, replayOffset, open ? openPosition : Integer.MAX_VALUE, ( type, timestamp, data ) -> {
+                try {
+                    publisher.publish( SerializationUtils.deserialize( data ) );
+                } catch ( Exception exception ) {
+                    if ( isConnectionFailure( exception ) ) {
+                        Logger.log( "The broker is still not available; " + pendingBytes + " spooled bytes wait for it.", Logger.Severity.DEBUG, Logger.Threads.ESB, exception );
+                        return false;
+                    }
+                    park( timestamp, data, exception );
+                    segmentBytes[ 0 ] += data.length;
+                    return true;
+                }
+                segmentBytes[ 0 ] += data.length;
+                Metrics.increment( "spool.replayed" );
+                return true;
+            } );
+            // the replay moves past the publishes only once the broker confirmed them; otherwise they are replayed again:
+            if ( !awaitConfirms.getAsBoolean() ) {
+                return;
+            }
+            synchronized ( this ) {
+                pendingBytes = Math.max( 0, pendingBytes - segmentBytes[ 0 ] );
+            }
+            replayedBytes += segmentBytes[ 0 ];
+            if ( offset >= 0 ) {
+                replayOffset = offset;
+                return;
+            }
+            if ( !open ) {
+                Files.deleteIfExists( segmentFile );
+                replaySegment = null;
+                continue;
+            }
+            replayOffset = openPosition;
+            synchronized ( this ) {
+                // the spool is empty unless records were appended in the meantime; only then the segment in use is dropped:
+                if ( spoolLog != null && segmentFile.equals( spoolLog.getSegmentFile() ) && spoolLog.getSegmentPosition() == openPosition ) {
+                    spoolLog.close();
+                    spoolLog = null;
+                    unsealedRecords = false;
+                    Files.deleteIfExists( segmentFile );
+                    pendingBytes = 0;
+                    replaySegment = null;
+                }
+            }
+        }
+        Logger.log( "Outbound spool replayed " + replayedBytes + " bytes; " + pendingBytes + " bytes are still pending.", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
+    /**
+     * Used to set aside a spooled record that the broker refused for another reason than a connection failure.
+     * NOTE: The record is lost if even that fails; it's logged either way.
+     *
+     * @param timestamp The time the record was spooled.
+     * @param data      The record data.
+     * @param cause     The failure of the replay.
+     */
+    private void park( long timestamp, byte[] data, Exception cause ) {
+        Metrics.increment( "spool.parked" );
+        try {
+            synchronized ( this ) {
+                if ( parkedLog == null ) {
+                    parkedLog = new MappedSegmentLog( directory.resolve( PARKED_DIRECTORY ), prefix, SEGMENT_SIZE );
+                }
+                parkedLog.append( PUBLISH_RECORD, timestamp, data );
+                parkedLog.force();
+            }
+            Logger.log( "A spooled publish was refused by the broker and was parked in '" + directory.resolve( PARKED_DIRECTORY ) + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, cause );
+        } catch ( IOException exception ) {
+            exception.addSuppressed( cause );
+            Logger.log( "A spooled publish was refused by the broker and could not be parked; it is dropped.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to check if a failed publish is worth spooling, i.e. the connection to the broker failed, rather than the
+     * broker refusing the publish on its channel (which would fail the same way when replayed).
+     *
+     * @param exception The failure of the publish.
+     * @return 'true' if the connection failed or couldn't be opened.
+     */
+    static boolean isConnectionFailure( Throwable exception ) {
+        for ( Throwable cause = exception; cause != null; cause = cause.getCause() ) {
+            if ( cause instanceof ShutdownSignalException ) {
+                return ( ( ShutdownSignalException ) cause ).isHardError();
+            }
+        }
+        // without a shutdown signal the failure comes from the socket or the connection set-up:
+        return exception instanceof IOException || exception instanceof TimeoutException;
+    }
+
+    /**
+     * Used to get the size of the records of a segment, as they were counted when spooled.
+     *
+     * @param segmentFile The segment file.
+     * @return The total size of the record data.
+     * @throws IOException To be handled by the caller.
+     */
+    private static long sizeOf( Path segmentFile ) throws IOException {
+        long[] segmentBytes = { 0 };
+        MappedSegmentLog.readSegment( segmentFile, 0, ( type, timestamp, data ) -> {
+            segmentBytes[ 0 ] += data.length;
+            return true;
+        } );
+        return segmentBytes[ 0 ];
+    }
+}
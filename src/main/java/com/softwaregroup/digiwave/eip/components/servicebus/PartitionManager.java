@@ -0,0 +1,393 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Delivery;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Manages the partitioned request queues of a service domain.
+ * A domain with 'serviceBus.partitions.<domain>' set above 0 gets that many extra request queues. Callers that supply
+ * an affinity key send to the partition picked by jump consistent hashing of the key, so the same key always lands in
+ * the same queue and changing the partition count moves as few keys as possible.
+ * The instances of the domain announce themselves with heartbeats on a fanout exchange and every instance owns the
+ * partitions for which it wins the rendezvous hash among the live members. The ownership is recomputed whenever a
+ * member joins, leaves or misses its heartbeats. The partition queues are single-active-consumer queues, so while the
+ * ownership is moving the broker still delivers a partition to one instance at a time.
+ * A partition is handed off in order: the previous owner stops consuming it, waits for the requests of the partition it
+ * has already received and then announces the release; only then the new owner starts consuming it. If no release
+ * comes within the handoff timeout (e.g. the previous owner hangs), the new owner takes the partition anyway. A joining
+ * instance takes no partitions until it has heard the heartbeats of the other members.
+ * NOTE: The partition count is read on start-up only, as changing it moves keys between partitions while requests for
+ * them may still wait in their old queues. Change it by stopping all instances of the domain, or by draining the
+ * partition queues first.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class PartitionManager {
+    private static final long HEARTBEAT_INTERVAL_MS = Config.getSetting( "serviceBus.partitioning.heartbeatInterval", 1000L );
+    private static final int MISSED_HEARTBEATS_LIMIT = 3;
+    private static final String HEARTBEAT = "heartbeat";
+    private static final String LEAVE = "leave";
+    private static final String RELEASE = "release";
+    private static final String PARTITIONS_HEADER = "partitions";
+    private static final long HANDOFF_TIMEOUT_MS = Config.getSetting( "serviceBus.partitioning.handoffTimeout", 30000L );
+    private static final Map<String, Integer> partitionCounts = new ConcurrentHashMap<>();
+
+    private final ConnectionFactory connectionFactory;
+    private final String serviceDomainName;
+    private final String instanceID;
+    private final String membershipExchange;
+    private final Function<Set<Integer>, CompletableFuture<Void>> onAssignment;
+    private final Map<String, Long> members = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private Set<Integer> assignedPartitions = Collections.emptySet();
+    private Set<Integer> consumedPartitions = Collections.emptySet();
+    private Set<String> previousMembers;
+    private final Map<Integer, Handoff> handoffs = new HashMap<>();
+    private final Map<Integer, Handoff> releases = new HashMap<>();
+    private long settledAt;
+    private Connection connection;
+    private Channel channel;
+
+    /**
+     * A partition waiting for its release by the previous owner, or a release received before the partition was owned.
+     */
+    private static final class Handoff {
+        private final String member;
+        private final long deadline;
+
+        private Handoff( String member, long deadline ) {
+            this.member = member;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param connectionFactory The connection factory of the message broker.
+     * @param serviceDomainName The service domain of this instance.
+     * @param instanceID        The ID of this instance.
+     * @param onAssignment      Called with the partitions to consume every time they change. The returned future has to
+     *                          complete once the received requests of the partitions no longer consumed are done, so
+     *                          they can be released to their new owners.
+     */
+    PartitionManager( ConnectionFactory connectionFactory, String serviceDomainName, String instanceID, Function<Set<Integer>, CompletableFuture<Void>> onAssignment ) {
+        this.connectionFactory = connectionFactory;
+        this.serviceDomainName = serviceDomainName;
+        this.instanceID = instanceID;
+        this.membershipExchange = serviceDomainName + "-members";
+        this.onAssignment = onAssignment;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "partition-manager" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Used to join the membership of the service domain and start taking ownership of partitions.
+     *
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    void start() throws IOException, TimeoutException {
+        connection = connectionFactory.newConnection();
+        channel = connection.createChannel();
+        channel.exchangeDeclare( membershipExchange, BuiltinExchangeType.FANOUT, false, true, null );
+        String membershipQueue = channel.queueDeclare().getQueue();
+        channel.queueBind( membershipQueue, membershipExchange, "" );
+        channel.basicConsume( membershipQueue, true, ( consumerTag, delivery ) -> onMembershipMessage( delivery ), consumerTag -> {
+        } );
+        members.put( instanceID, System.currentTimeMillis() );
+        settledAt = System.currentTimeMillis() + MISSED_HEARTBEATS_LIMIT * HEARTBEAT_INTERVAL_MS;
+        scheduler.scheduleWithFixedDelay( this::heartbeat, 0, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Used to leave the membership, so the other instances take over the partitions without waiting for a timeout.
+     */
+    void stop() {
+        scheduler.shutdownNow();
+        try {
+            publish( LEAVE, null );
+            connection.close();
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to leave the partition membership of '" + serviceDomainName + "'.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to announce this instance, drop the members that stopped sending heartbeats and update the ownership. Runs
+     * on every heartbeat interval, so it also expires the handoffs that timed out.
+     */
+    private void heartbeat() {
+        try {
+            publish( HEARTBEAT, null );
+            long now = System.currentTimeMillis();
+            members.put( instanceID, now );
+            members.values().removeIf( lastSeen -> now - lastSeen > MISSED_HEARTBEATS_LIMIT * HEARTBEAT_INTERVAL_MS );
+            rebalance();
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to send the partition heartbeat of '" + serviceDomainName + "'.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to process a heartbeat, leave or release message of a member.
+     *
+     * @param delivery The received message.
+     */
+    private void onMembershipMessage( Delivery delivery ) {
+        String member = new String( delivery.getBody(), StandardCharsets.UTF_8 );
+        if ( member.equals( instanceID ) ) {
+            return;
+        }
+        boolean changed;
+        if ( RELEASE.equals( delivery.getProperties().getType() ) ) {
+            changed = onRelease( member, String.valueOf( delivery.getProperties().getHeaders().get( PARTITIONS_HEADER ) ) );
+        } else if ( LEAVE.equals( delivery.getProperties().getType() ) ) {
+            changed = ( members.remove( member ) != null );
+        } else {
+            changed = ( members.put( member, System.currentTimeMillis() ) == null );
+        }
+        if ( changed ) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Used to process the release of partitions by their previous owner.
+     *
+     * @param member     The releasing member.
+     * @param partitions The released partitions, comma separated.
+     * @return 'true' if a handoff of this instance is completed by the release.
+     */
+    private synchronized boolean onRelease( String member, String partitions ) {
+        boolean completed = false;
+        long deadline = System.currentTimeMillis() + HANDOFF_TIMEOUT_MS;
+        for ( String partition : partitions.split( "," ) ) {
+            if ( partition.isEmpty() ) {
+                continue;
+            }
+            int released = Integer.parseInt( partition );
+            Handoff handoff = handoffs.get( released );
+            if ( handoff != null && handoff.member.equals( member ) ) {
+                handoffs.remove( released );
+                completed = true;
+            } else {
+                // the partition may become owned later (e.g. before this instance has settled), so the release is kept:
+                releases.put( released, new Handoff( member, deadline ) );
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Used to recompute the partitions owned by this instance and to report the ones to consume if they changed.
+     * A newly owned partition is consumed only once its previous owner has released it; the partitions no longer owned
+     * are released once the dispatcher is done with them.
+     */
+    private synchronized void rebalance() {
+        long now = System.currentTimeMillis();
+        if ( now < settledAt ) {
+            return;
+        }
+        Set<String> currentMembers = new HashSet<>( members.keySet() );
+        if ( previousMembers == null ) {
+            // on joining, the partitions were owned by the other members:
+            previousMembers = new HashSet<>( currentMembers );
+            previousMembers.remove( instanceID );
+        }
+        releases.values().removeIf( release -> release.deadline < now );
+
+        int partitions = getPartitionCount( serviceDomainName );
+        Set<Integer> ownedPartitions = new TreeSet<>();
+        for ( int partition = 0; partition < partitions; partition++ ) {
+            if ( !instanceID.equals( getOwner( partition, currentMembers ) ) ) {
+                handoffs.remove( partition );
+                continue;
+            }
+            ownedPartitions.add( partition );
+            String previousOwner = getOwner( partition, previousMembers );
+            if ( assignedPartitions.contains( partition ) || previousOwner == null || previousOwner.equals( instanceID ) || !currentMembers.contains( previousOwner ) ) {
+                continue;
+            }
+            Handoff release = releases.remove( partition );
+            if ( release == null || !release.member.equals( previousOwner ) ) {
+                handoffs.put( partition, new Handoff( previousOwner, now + HANDOFF_TIMEOUT_MS ) );
+            }
+        }
+        for ( Iterator<Map.Entry<Integer, Handoff>> iterator = handoffs.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Integer, Handoff> handoff = iterator.next();
+            if ( handoff.getValue().deadline < now ) {
+                Logger.log( "Partition " + handoff.getKey() + " of '" + serviceDomainName + "' was not released by '" + handoff.getValue().member + "' in time; taking it over.", Logger.Severity.WARNING, Logger.Threads.ESB );
+                iterator.remove();
+            }
+        }
+        // a member that left or timed out has nothing to release:
+        handoffs.values().removeIf( handoff -> !currentMembers.contains( handoff.member ) );
+
+        Set<Integer> releasedPartitions = new TreeSet<>( assignedPartitions );
+        releasedPartitions.removeAll( ownedPartitions );
+        Set<Integer> partitionsToConsume = new TreeSet<>( ownedPartitions );
+        partitionsToConsume.removeAll( handoffs.keySet() );
+        if ( !ownedPartitions.equals( assignedPartitions ) ) {
+            Logger.log( "Instance owns " + ownedPartitions.size() + " of " + partitions + " partitions of '" + serviceDomainName + "' among " + members.size() + " members: " + ownedPartitions, Logger.Severity.INFO, Logger.Threads.ESB );
+        }
+        assignedPartitions = ownedPartitions;
+        previousMembers = currentMembers;
+        if ( partitionsToConsume.equals( consumedPartitions ) && releasedPartitions.isEmpty() ) {
+            return;
+        }
+        consumedPartitions = partitionsToConsume;
+        onAssignment.apply( Collections.unmodifiableSet( partitionsToConsume ) ).whenComplete( ( result, exception ) -> release( releasedPartitions ) );
+    }
+
+    /**
+     * Used to announce that this instance is done with partitions, so their new owners can start consuming them.
+     *
+     * @param partitions The released partitions.
+     */
+    private void release( Set<Integer> partitions ) {
+        if ( partitions.isEmpty() ) {
+            return;
+        }
+        StringJoiner joiner = new StringJoiner( "," );
+        for ( int partition : partitions ) {
+            joiner.add( String.valueOf( partition ) );
+        }
+        try {
+            publish( RELEASE, joiner.toString() );
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to release the partitions " + partitions + " of '" + serviceDomainName + "'; their new owners will take them on timeout.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to find the owner of a partition, i.e. the member winning its rendezvous hash.
+     *
+     * @param partition The partition number.
+     * @param members   The members to pick from.
+     * @return The owning member or 'null' if there are no members.
+     */
+    private static String getOwner( int partition, Set<String> members ) {
+        String owner = null;
+        long ownerScore = 0;
+        for ( String member : members ) {
+            long score = mix( hash( member ) ^ ( partition * 0x9E3779B97F4A7C15L ) );
+            if ( owner == null || Long.compareUnsigned( score, ownerScore ) > 0 || ( score == ownerScore && member.compareTo( owner ) > 0 ) ) {
+                owner = member;
+                ownerScore = score;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Used to publish a membership message of this instance.
+     *
+     * @param type       The message type.
+     * @param partitions The released partitions, comma separated; 'null' for the other message types.
+     * @throws IOException To be handled by the caller.
+     */
+    private synchronized void publish( String type, String partitions ) throws IOException {
+        AMQP.BasicProperties.Builder properties = new AMQP.BasicProperties.Builder().type( type );
+        if ( partitions != null ) {
+            properties.headers( Collections.singletonMap( PARTITIONS_HEADER, partitions ) );
+        } else {
+            properties.expiration( String.valueOf( HEARTBEAT_INTERVAL_MS ) );
+        }
+        channel.basicPublish( membershipExchange, "", properties.build(), instanceID.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Used to get the configured number of partitions of a service domain. It is read once and kept until restart.
+     *
+     * @param serviceDomainName The service domain name.
+     * @return The number of partitions; 0 if the domain is not partitioned.
+     */
+    static int getPartitionCount( String serviceDomainName ) {
+        return partitionCounts.computeIfAbsent( serviceDomainName, domain -> Math.max( 0, Config.getSetting( "serviceBus.partitions." + domain, 0 ) ) );
+    }
+
+    /**
+     * Used to get the request queue of a partition.
+     *
+     * @param serviceDomainName The service domain name.
+     * @param partition         The partition number.
+     * @return The name of the partition queue.
+     */
+    static String getPartitionQueue( String serviceDomainName, int partition ) {
+        return serviceDomainName + "-p" + partition;
+    }
+
+    /**
+     * Used to map an affinity key to a partition with jump consistent hashing.
+     *
+     * @param affinityKey The affinity key.
+     * @param partitions  The number of partitions (at least 1).
+     * @return The partition number.
+     */
+    static int getPartition( String affinityKey, int partitions ) {
+        long key = hash( affinityKey );
+        long bucket = -1;
+        long next = 0;
+        while ( next < partitions ) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = ( long ) ( ( bucket + 1 ) * ( ( double ) ( 1L << 31 ) / ( double ) ( ( key >>> 33 ) + 1 ) ) );
+        }
+        return ( int ) bucket;
+    }
+
+    /**
+     * Used to get a well distributed 64-bit hash of a string (FNV-1a over its UTF-8 bytes).
+     *
+     * @param value The string to hash.
+     * @return The hash.
+     */
+    private static long hash( String value ) {
+        long hash = 0xCBF29CE484222325L;
+        for ( byte character : value.getBytes( StandardCharsets.UTF_8 ) ) {
+            hash ^= character & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return mix( hash );
+    }
+
+    /**
+     * Used to scramble the bits of a hash (the SplitMix64 finalizer).
+     *
+     * @param value The value to scramble.
+     * @return The scrambled value.
+     */
+    private static long mix( long value ) {
+        value = ( value ^ ( value >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+        value = ( value ^ ( value >>> 27 ) ) * 0x94D049BB133111EBL;
+        return value ^ ( value >>> 31 );
+    }
+}
@@ -0,0 +1,133 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallPriority;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The local lanes of the received service requests, one per priority class.
+ * The next request is picked by smooth weighted round robin over the non-empty lanes: every lane gets a share of the
+ * picks proportional to its weight, so the interactive lane is served first most of the time but the bulk lane never
+ * starves. The weights are read from 'serviceBus.priority.weights.<priority>'.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class PriorityLanes {
+    private static final ServiceCallPriority[] PRIORITIES = ServiceCallPriority.values();
+
+    private final List<ArrayDeque<QueuedServiceCall>> lanes = new ArrayList<>( PRIORITIES.length );
+    private final List<Config.Setting<Integer>> weights = new ArrayList<>( PRIORITIES.length );
+    private final int[] currentWeights = new int[ PRIORITIES.length ];
+
+    /**
+     * A service request waiting in its lane.
+     */
+    static final class QueuedServiceCall {
+        private final ServiceCall serviceCall;
+        private final long enqueuedNanos;
+
+        private QueuedServiceCall( ServiceCall serviceCall ) {
+            this.serviceCall = serviceCall;
+            this.enqueuedNanos = System.nanoTime();
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The queued ServiceCall object.
+         */
+        ServiceCall getServiceCall() {
+            return serviceCall;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The System.nanoTime() value at which the request was queued.
+         */
+        long getEnqueuedNanos() {
+            return enqueuedNanos;
+        }
+    }
+
+    PriorityLanes() {
+        // the lanes are added in the order of the priorities, so a lane is found by the ordinal of its priority:
+        for ( ServiceCallPriority priority : PRIORITIES ) {
+            String name = priority.name().toLowerCase( Locale.ROOT );
+            lanes.add( new ArrayDeque<>() );
+            weights.add( Config.setting( "serviceBus.priority.weights." + name, priority.getDefaultWeight() ) );
+            Metrics.registerGauge( "serviceProvider.lane." + name, () -> getDepth( priority ) );
+        }
+    }
+
+    /**
+     * Used to queue a received service request in the lane of its priority class.
+     *
+     * @param serviceCall The ServiceCall object received from the message broker.
+     */
+    synchronized void offer( ServiceCall serviceCall ) {
+        lanes.get( serviceCall.getPriority().ordinal() ).add( new QueuedServiceCall( serviceCall ) );
+    }
+
+    /**
+     * Used to pick the next service request to execute.
+     *
+     * @return The picked request or 'null' if all lanes are empty.
+     */
+    synchronized QueuedServiceCall poll() {
+        int totalWeight = 0;
+        int picked = -1;
+        for ( int idx = 0; idx < lanes.size(); idx++ ) {
+            if ( lanes.get( idx ).isEmpty() ) {
+                continue;
+            }
+            int weight = Math.max( 1, weights.get( idx ).get() );
+            totalWeight += weight;
+            currentWeights[ idx ] += weight;
+            if ( picked < 0 || currentWeights[ idx ] > currentWeights[ picked ] ) {
+                picked = idx;
+            }
+        }
+        if ( picked < 0 ) {
+            return null;
+        }
+        currentWeights[ picked ] -= totalWeight;
+        QueuedServiceCall queuedServiceCall = lanes.get( picked ).poll();
+        // an emptied lane starts over, so it can't build up credit or debt while idle:
+        if ( lanes.get( picked ).isEmpty() ) {
+            currentWeights[ picked ] = 0;
+        }
+        return queuedServiceCall;
+    }
+
+    /**
+     * Used to get the number of requests waiting in a lane.
+     *
+     * @param priority The priority class of the lane.
+     * @return The number of queued requests.
+     */
+    synchronized int getDepth( ServiceCallPriority priority ) {
+        return lanes.get( priority.ordinal() ).size();
+    }
+
+    /**
+     * Used to get the number of requests waiting in all lanes.
+     *
+     * @return The number of queued requests.
+     */
+    synchronized int getTotalDepth() {
+        int depth = 0;
+        for ( ArrayDeque<QueuedServiceCall> lane : lanes ) {
+            depth += lane.size();
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,116 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.utils.Config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The delayed redelivery of the service requests rejected by an overloaded provider.
+ * A rejected request is parked in a delay queue of its request queue, which sends it back once the delay of its tier
+ * expired (a message TTL with the request queue as dead-letter target), so the broker does the waiting and no instance
+ * spins on the request in the meantime. Every rejection raises the redelivery count carried in the message headers and
+ * moves the request to the next (longer) tier. Once the max attempts are used up, the request goes to the dead-letter
+ * queue of its domain and the caller gets a failure response.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class Redelivery {
+    static final String COUNT_HEADER = "redelivery-count";
+    static final Config.Setting<Integer> MAX_ATTEMPTS = Config.setting( "serviceBus.redelivery.maxAttempts", 5 );
+    private static final Config.Setting<String> DELAYS = Config.setting( "serviceBus.redelivery.delays", "250,1000,5000,15000" );
+    private static final long MIN_DELAY_QUEUE_EXPIRY_MS = 60000;
+
+    private static volatile String parsedDelays;
+    private static volatile long[] delays;
+
+    private Redelivery() {
+    }
+
+    /**
+     * Used to get the delay before a rejected request is delivered again.
+     *
+     * @param attempt The number of the rejected delivery (starting with 1).
+     * @return The delay of the attempt's tier in milliseconds; the last tier is used for all later attempts.
+     */
+    static long getDelay( int attempt ) {
+        long[] tiers = getDelays();
+        return tiers[ Math.min( tiers.length, Math.max( 1, attempt ) ) - 1 ];
+    }
+
+    /**
+     * Used to get the delay queue of a request queue and tier.
+     *
+     * @param requestQueue The request queue the delayed requests return to.
+     * @param delay        The delay of the tier in milliseconds.
+     * @return The name of the queue.
+     */
+    static String getDelayQueue( String requestQueue, long delay ) {
+        return requestQueue + "-delay-" + delay;
+    }
+
+    /**
+     * Used to get the arguments of a delay queue. The requests are dead-lettered back to the request queue once their
+     * delay expired and the queue itself is removed some time after its last use.
+     *
+     * @param requestQueue The request queue the delayed requests return to.
+     * @param delay        The delay of the tier in milliseconds.
+     * @return The queue arguments.
+     */
+    static Map<String, Object> getDelayQueueArguments( String requestQueue, long delay ) {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put( "x-message-ttl", delay );
+        arguments.put( "x-expires", Math.max( MIN_DELAY_QUEUE_EXPIRY_MS, delay * 2 ) );
+        arguments.put( "x-dead-letter-exchange", "" );
+        arguments.put( "x-dead-letter-routing-key", requestQueue );
+        return arguments;
+    }
+
+    /**
+     * Used to get the dead-letter queue of a service domain.
+     * NOTE: The queue is never removed automatically, so the dead requests stay there until they are dealt with.
+     *
+     * @param serviceDomainName The service domain name.
+     * @return The name of the queue.
+     */
+    static String getDeadLetterQueue( String serviceDomainName ) {
+        return serviceDomainName + "-dead-letter";
+    }
+
+    /**
+     * Used to get the message headers of a rejected request.
+     *
+     * @param attempt The number of the rejected delivery (starting with 1).
+     * @return The headers carrying the redelivery count.
+     */
+    static Map<String, Object> getHeaders( int attempt ) {
+        return Collections.singletonMap( COUNT_HEADER, attempt );
+    }
+
+    /**
+     * Used to get the configured delay tiers, parsed once per configured value.
+     *
+     * @return The delays in milliseconds; never empty.
+     */
+    private static long[] getDelays() {
+        String configured = DELAYS.get();
+        if ( !configured.equals( parsedDelays ) ) {
+            long[] parsed;
+            try {
+                String[] items = configured.split( "," );
+                parsed = new long[ items.length ];
+                for ( int idx = 0; idx < items.length; idx++ ) {
+                    parsed[ idx ] = Math.max( 1, Long.parseLong( items[ idx ].trim() ) );
+                }
+            } catch ( NumberFormatException exception ) {
+                parsed = new long[]{ 1000 };
+            }
+            delays = parsed;
+            parsedDelays = configured;
+        }
+        return delays;
+    }
+}
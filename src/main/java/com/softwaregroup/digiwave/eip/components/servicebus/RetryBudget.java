@@ -0,0 +1,63 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The budget shared by the retries and hedged requests of this instance.
+ * Every service call deposits a fraction of a token and every retry or hedge has to withdraw a whole one, so the extra
+ * load they add can't exceed that fraction of the regular traffic. This keeps a failing destination from being hit by
+ * a retry storm. A small reserve lets an instance with little traffic retry as well.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class RetryBudget {
+    static final Config.Setting<Integer> MAX_ATTEMPTS = Config.setting( "serviceBus.retry.maxAttempts", 3 );
+    private static final Config.Setting<Double> BUDGET_RATIO = Config.setting( "serviceBus.retry.budgetRatio", 0.1 );
+    private static final Config.Setting<Integer> MIN_TOKENS = Config.setting( "serviceBus.retry.minTokens", 10 );
+    private static final Config.Setting<Integer> BASE_BACKOFF_MS = Config.setting( "serviceBus.retry.baseBackoff", 50 );
+    private static final Config.Setting<Integer> MAX_BACKOFF_MS = Config.setting( "serviceBus.retry.maxBackoff", 1000 );
+    private static final int MAX_TOKENS_FACTOR = 10;
+
+    private static double tokens = MIN_TOKENS.get();
+
+    private RetryBudget() {
+    }
+
+    /**
+     * Used to deposit the share of a new service call into the budget.
+     */
+    static synchronized void recordCall() {
+        tokens = Math.min( tokens + BUDGET_RATIO.get(), MIN_TOKENS.get() * ( double ) MAX_TOKENS_FACTOR );
+    }
+
+    /**
+     * Used to withdraw the token of a retry or a hedged request.
+     *
+     * @return 'false' if the budget is exhausted and the extra request must not be sent.
+     */
+    static synchronized boolean tryAcquire() {
+        if ( tokens < 1 ) {
+            Metrics.increment( "retry.budgetExhausted" );
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Used to get the delay before a retry: exponential backoff with full jitter, so the retries of many callers
+     * don't arrive in waves.
+     *
+     * @param attempt The number of the failed attempt (starting with 1).
+     * @return The delay in milliseconds.
+     */
+    static long getBackoff( int attempt ) {
+        long ceiling = Math.min( MAX_BACKOFF_MS.get(), ( long ) BASE_BACKOFF_MS.get() << Math.min( 20, attempt - 1 ) );
+        return ThreadLocalRandom.current().nextLong( ceiling + 1 );
+    }
+}
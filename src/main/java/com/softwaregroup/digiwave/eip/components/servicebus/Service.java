@@ -5,8 +5,10 @@ import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceDefinition;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceParams;
 import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
+import org.json.simple.JSONObject;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
 
 /**
  * An interface defining the frame for a Service behavior.
@@ -19,6 +21,8 @@ import java.util.concurrent.CompletableFuture;
 public interface Service extends ServiceCaller {
     /**
      * It will be called automatically by the EIP framework when the service needs to be executed asynchronously.
+     * NOTE: Run the async stages on serviceCallContext.getExecutor(); the work done on other threads is not counted
+     * in the CPU time and allocations of the execution.
      *
      * @param serviceDefinition  The ServiceDefinition object as received during service registration.
      * @param serviceParams      The ServiceParams object provided by the caller.
@@ -30,4 +34,20 @@ public interface Service extends ServiceCaller {
         result.setException( new ServiceBusException( "Service execution method not implemented!" ) );
         return CompletableFuture.completedFuture( result );
     }
+
+    /**
+     * It will be called automatically by the EIP framework when the service is called for a streamed result.
+     * The publisher is only asked for as many items as the caller is ready to accept, so a service producing the items
+     * on demand (e.g. while reading a cursor) never holds the whole result in memory.
+     * NOTE: Override this for services with large results; by default the result of executeAsync is published as a
+     * single item.
+     *
+     * @param serviceDefinition  The ServiceDefinition object as received during service registration.
+     * @param serviceParams      The ServiceParams object provided by the caller.
+     * @param serviceCallContext The ServiceCallContext that initiated this service call.
+     * @return The publisher of the result items.
+     */
+    default Flow.Publisher<JSONObject> executeStreaming( ServiceDefinition serviceDefinition, ServiceParams serviceParams, ServiceCallContext serviceCallContext ) {
+        return new SingleResultPublisher( executeAsync( serviceDefinition, serviceParams, serviceCallContext ) );
+    }
 }
@@ -4,27 +4,47 @@ import com.rabbitmq.client.*;
 import com.rabbitmq.client.Channel;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallDestination;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallPriority;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallResult;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallSource;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.StreamSignal;
+import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
 import org.apache.camel.*;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.rabbitmq.RabbitMQComponent;
+import org.apache.camel.component.rabbitmq.RabbitMQConstants;
 import org.apache.camel.impl.DefaultCamelContext;
 import org.apache.camel.spi.DataFormat;
-import org.apache.commons.lang3.SerializationUtils;
+import org.json.simple.JSONObject;
 import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.ExecutionCost;
+import com.softwaregroup.digiwave.eip.utils.IdGenerator;
 import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.LongObjectMap;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import com.softwaregroup.digiwave.eip.utils.StartupTimer;
 import com.softwaregroup.digiwave.eip.utils.Tools;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 /**
  * A singleton class handling the service call internal dispatching between the microservices.
@@ -34,26 +54,88 @@ import java.util.function.Consumer;
  * @since 2019.1.0
  */
 final class ServiceBusDispatcher {
-    // TODO: properties to be taken from config or ENV
-    private static final String MSG_BROKER_HOST = "localhost";
-    private static final int MSG_BROKER_PORT = 5672;
-    private static final String MSG_BROKER_USER = "guest";
-    private static final String MSG_BROKER_PASS = "guest";
+    private static final String MSG_BROKER_HOST = Config.getSetting( "messageBroker.host", "localhost" );
+    private static final int MSG_BROKER_PORT = Config.getSetting( "messageBroker.port", 5672 );
+    private static final String MSG_BROKER_USER = Config.getSetting( "messageBroker.user", "guest" );
+    private static final String MSG_BROKER_PASS = Config.getSetting( "messageBroker.pass", "guest" );
+    private static final Config.Setting<Integer> MSG_BROKER_PREFETCH_COUNT = Config.setting( "messageBroker.prefetchCount", 0 );
+    private static final int MSG_BROKER_CHANNEL_POOL_SIZE = Config.getSetting( "messageBroker.channelPoolSize", 8 );
+    private static final Config.Setting<Integer> SERVICE_CALL_CAPACITY = Config.setting( "serviceBus.serviceCallCapacity", 0 );
+    static final Config.Setting<Integer> CALL_TIMEOUT_MS = Config.setting( "serviceBus.callTimeout", 60000 );
+    private static final Config.Setting<Integer> DRAIN_TIMEOUT_MS = Config.setting( "serviceBus.drainTimeout", 30000 );
+    private static final Config.Setting<Boolean> HEDGING_ENABLED = Config.setting( "serviceBus.hedging.enabled", false );
+    private static final Config.Setting<Double> HEDGING_PERCENTILE = Config.setting( "serviceBus.hedging.percentile", 0.95 );
+    private static final Config.Setting<Integer> HEDGING_MIN_DELAY_MS = Config.setting( "serviceBus.hedging.minDelay", 5 );
+    private static final Config.Setting<Integer> HEDGING_MIN_SAMPLES = Config.setting( "serviceBus.hedging.minSamples", 50 );
 
     private static final String MSG_BROKER_QUEUE_REQUESTS_IN = MicroserviceInstance.SERVICE_DOMAIN_NAME;
     private static final String MSG_BROKER_QUEUE_RESPONSES_IN = MicroserviceInstance.SERVICE_DOMAIN_NAME + "-" + MicroserviceInstance.INSTANCE_ID;
     private static final String MSG_BROKER_QUEUE_RESPONSES_OUT = MicroserviceInstance.SERVICE_DOMAIN_NAME + "-" + MicroserviceInstance.INSTANCE_ID + "-completed";
     private static final String DESTINATION_QUEUE_HEADER = "dynamic-destination";
+    private static final String REQUESTS_IN_ROUTE_ID = "service-requests-in";
+    private static final String PROCESS_REQUEST_ROUTE_ID = "service-requests-process";
+    private static final String REJECT_REQUEST_ROUTE_ID = "service-requests-reject";
+    private static final String PARTITION_IN_ROUTE_ID = "service-partition-in-";
+    private static final String PARTITION_QUEUE_ARGS = "partitionQueueArgs";
+    private static final String DIRECT_IN_ROUTE_ID = "service-requests-direct-in";
+    private static final String DIRECT_QUEUE_ARGS = "directQueueArgs";
+    private static final String RESPONSES_OUT_ROUTE_ID = "service-responses-out";
+    private static final long DRAIN_POLL_MS = 100;
+    private static final long DRAIN_PROGRESS_MS = 1000;
+    private static final long SPOOL_CONFIRM_TIMEOUT_MS = 5000;
+    private static final ServiceCallSource LOCAL_SOURCE = createLocalSource();
+    private static final String[] LATENCY_METRICS = new String[ ServiceCallPriority.values().length ];
+
+    static {
+        for ( ServiceCallPriority priority : ServiceCallPriority.values() ) {
+            LATENCY_METRICS[ priority.ordinal() ] = "serviceCall.latency." + priority.name().toLowerCase( Locale.ROOT );
+        }
+    }
     private static ServiceBusDispatcher instance;
 
     private CamelContext camelContext;
-    private final int serviceCallCapacity = Config.getSetting( "serviceCallCapacity", 0 );
+    private Processor serviceRequestProcessor;
+    private Supplier<List<ServiceCall>> queuedServiceRequests;
+    private Function<Set<Integer>, CompletableFuture<Void>> partitionRequests;
+    private int activePrefetchCount;
+    private PartitionManager partitionManager;
+    private Set<Integer> ownedPartitions = Collections.emptySet();
+    private LoadBalancer loadBalancer;
+    private LoadReporter loadReporter;
+    private ChannelPool channelPool;
+    private OutboundSpool outboundSpool;
+    private EnvelopeBatcher envelopeBatcher;
+    private volatile boolean serviceRequestsStarted;
 
-    private Map<String, CompletableFuture<ServiceCallResult>> taskHandlers;
+    private LongObjectMap<TaskHandler> taskHandlers;
+    private long lastCorrelationID;
+    private Map<String, StreamReceiver> streamReceivers;
+    private Map<String, StreamSender> streamSenders;
+    private Map<String, ExecutionCost> executionCosts;
     private int serviceCallsInProcessing = 0;
 
+    /**
+     * The handler of a sent task, along with the ID of its service call, which the response has to match.
+     */
+    private static final class TaskHandler {
+        private final long serviceCallIdHigh;
+        private final long serviceCallIdLow;
+        private final CompletableFuture<ServiceCallResult> future;
+
+        private TaskHandler( ServiceCall serviceCall, CompletableFuture<ServiceCallResult> future ) {
+            this.serviceCallIdHigh = serviceCall.getServiceCallIdHigh();
+            this.serviceCallIdLow = serviceCall.getServiceCallIdLow();
+            this.future = future;
+        }
+    }
+
     private ServiceBusDispatcher() {
-        taskHandlers = new HashMap<>();
+        taskHandlers = new LongObjectMap<>( 1024 );
+        // time-based start, so the IDs of a new run don't repeat the ones a late response of a previous run carries:
+        lastCorrelationID = IdGenerator.nextHigh();
+        streamReceivers = new ConcurrentHashMap<>();
+        streamSenders = new ConcurrentHashMap<>();
+        executionCosts = new ConcurrentHashMap<>();
     }
 
     /**
@@ -75,9 +157,25 @@ final class ServiceBusDispatcher {
      * Data formatter used to serialize and deserialize the ServiceCall object when it's sent and received from the message broker.
      */
     private class ServiceCallFormat implements DataFormat {
+        private final byte captureFrameType;
+
+        /**
+         * Creates a data formatter for frames that are not captured.
+         */
+        ServiceCallFormat() {
+            this( ( byte ) 0 );
+        }
+
+        /**
+         * @param captureFrameType The TrafficCapture frame type under which the unmarshalled frames are recorded.
+         */
+        ServiceCallFormat( byte captureFrameType ) {
+            this.captureFrameType = captureFrameType;
+        }
+
         /**
          * This method should be used when a ServiceCall object is about to be sent to the message broker. It will
-         * serialize the ServiceCall and make it ready for dispatch.
+         * serialize the ServiceCall, compress it if it's large enough and make it ready for dispatch.
          *
          * @param exchange The Camel exchange object.
          * @param graph    The ServiceCall object itself.
@@ -85,20 +183,45 @@ final class ServiceBusDispatcher {
          * @throws Exception Will be handled by Camel flow.
          */
         public void marshal( Exchange exchange, Object graph, OutputStream stream ) throws Exception {
-            stream.write( SerializationUtils.serialize( ( ServiceCall ) graph ) );
+            ServiceCallCodec.Frame frame = ServiceCallCodec.compress( ServiceCallCodec.serialize( ( ServiceCall ) graph ) );
+            // the marshalled body goes to the OUT message, so the content encoding has to be stated there:
+            if ( frame.getContentEncoding() != null ) {
+                exchange.getOut().setHeader( RabbitMQConstants.CONTENT_ENCODING, frame.getContentEncoding() );
+            } else {
+                exchange.getOut().removeHeader( RabbitMQConstants.CONTENT_ENCODING );
+            }
+            stream.write( frame.getData() );
         }
 
         /**
          * This method should be used when a ServiceCall object is received from the message broker. It will
-         * deserialize the ServiceCall and make it ready for usage by the application.
+         * decompress (if needed) and deserialize the ServiceCall and make it ready for usage by the application.
+         * An envelope is unpacked into the list of its ServiceCall objects; a call that can't be deserialized is
+         * logged and left out, so the other calls of the envelope are still processed.
          *
          * @param exchange The Camel exchange object.
          * @param stream   The input stream where to receive the serialized object.
-         * @return The deserialized ServiceCall object.
+         * @return The deserialized ServiceCall object or the list of them for an envelope.
          * @throws Exception Will be handled by Camel flow.
          */
-        public ServiceCall unmarshal( Exchange exchange, InputStream stream ) throws Exception {
-            return SerializationUtils.deserialize( stream.readAllBytes() );
+        public Object unmarshal( Exchange exchange, InputStream stream ) throws Exception {
+            byte[] frame = ServiceCallCodec.decompress( stream.readAllBytes(), exchange.getIn().getHeader( RabbitMQConstants.CONTENT_ENCODING, String.class ) );
+            if ( !ServiceCallCodec.isEnvelope( frame ) ) {
+                TrafficCapture.record( captureFrameType, frame );
+                return ServiceCallCodec.deserialize( frame );
+            }
+            List<byte[]> parts = ServiceCallCodec.unpack( frame );
+            List<ServiceCall> serviceCalls = new ArrayList<>( parts.size() );
+            for ( byte[] part : parts ) {
+                TrafficCapture.record( captureFrameType, part );
+                try {
+                    serviceCalls.add( ServiceCallCodec.deserialize( part ) );
+                } catch ( Exception exception ) {
+                    Metrics.increment( "batching.failedCalls" );
+                    Logger.log( "Failed to deserialize a service call of an envelope; the other calls are not affected.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+                }
+            }
+            return serviceCalls;
         }
     }
 
@@ -118,47 +241,112 @@ final class ServiceBusDispatcher {
     }
 
     /**
-     * A specialized RouteBuilder for receiving service requests.
-     * NOTE: By default this will be automatically enabled by the ServiceProvider class on startup.
+     * A specialized RouteBuilder for the internal routes processing or rejecting the received service requests.
+     * NOTE: These routes live as long as the Camel context; only the consuming routes are recreated on a reload.
      */
-    private class ServiceRequestReceiver extends RouteBuilder {
+    private class ServiceRequestHandler extends RouteBuilder {
         private Processor processor;
 
-        ServiceRequestReceiver( Processor processor ) {
+        ServiceRequestHandler( Processor processor ) {
             this.processor = processor;
         }
 
+        /**
+         * Base configuration method.
+         * It will implement the internal Camel routes that process or reject the service requests.
+         */
+        @Override
+        public void configure() {
+            // internal route for initiating the service request processing:
+            from( "direct:process-service-request" )
+                    .routeId( PROCESS_REQUEST_ROUTE_ID )
+                    .process( isolated( processor ) );
+
+            // internal route for rejecting the service request due to heavy load:
+            from( "direct:reject-service-request" )
+                    .routeId( REJECT_REQUEST_ROUTE_ID )
+                    .process( isolated( exchange -> {
+                        Logger.log( "Service call processing capacity of " + SERVICE_CALL_CAPACITY.get() + " reached! Current load is: " + getServiceCallsCount(), Logger.Severity.NOTICE, Logger.Threads.ESB );
+                        rejectServiceRequest( exchange.getIn().getBody( ServiceCall.class ), exchange.getIn().getHeader( Redelivery.COUNT_HEADER, 0, Integer.class ) );
+                    } ) );
+        }
+    }
+
+    /**
+     * A specialized RouteBuilder for receiving service requests.
+     * NOTE: By default this will be automatically enabled by the ServiceProvider class on startup.
+     */
+    private class ServiceRequestReceiver extends RouteBuilder {
         /**
          * Base configuration method.
          * It will implement all Camel routes that are necessary for receiving service requests.
          */
         @Override
         public void configure() {
-            // route from inbound requests queue to internal processing:
-            from( ServiceBusDispatcher.assembleMsgBrokerAddress( MSG_BROKER_QUEUE_REQUESTS_IN ) )
-                    .unmarshal( new ServiceCallFormat() )
+            // routes from the inbound requests queues (one per priority lane) to internal processing:
+            for ( ServiceCallPriority priority : ServiceCallPriority.values() ) {
+                configureRequestRoute( ServiceBusDispatcher.assembleMsgBrokerAddress( MSG_BROKER_QUEUE_REQUESTS_IN + priority.getQueueSuffix() ), REQUESTS_IN_ROUTE_ID + priority.getQueueSuffix() );
+            }
+
+            // routes from the direct requests queues of this instance (one per priority lane), used by the load-aware
+            // callers; only this instance declares them, with its own arguments:
+            if ( LoadBalancer.REPORT_INTERVAL_MS > 0 ) {
+                for ( ServiceCallPriority priority : ServiceCallPriority.values() ) {
+                    String directQueue = LoadBalancer.getDirectQueue( MSG_BROKER_QUEUE_REQUESTS_IN, MicroserviceInstance.INSTANCE_ID, priority );
+                    configureRequestRoute( ServiceBusDispatcher.assembleMsgBrokerAddress( directQueue, false ) + "&args=#" + DIRECT_QUEUE_ARGS + priority.getQueueSuffix(), DIRECT_IN_ROUTE_ID + priority.getQueueSuffix() );
+                }
+            }
+        }
+
+        /**
+         * Used to configure a route from an inbound requests queue to internal processing or rejection. The calls of an
+         * envelope are processed or rejected one by one.
+         *
+         * @param address The Camel address of the queue.
+         * @param routeID The ID of the route.
+         */
+        private void configureRequestRoute( String address, String routeID ) {
+            from( address )
+                    .routeId( routeID )
+                    .autoStartup( serviceRequestsStarted )
+                    .unmarshal( new ServiceCallFormat( TrafficCapture.REQUEST_IN ) )
+                    .split( body() )
                     .choice()
                     .when( exchange -> {
                         ServiceCall serviceCall = exchange.getIn().getBody( ServiceCall.class );
+                        int serviceCallCapacity = SERVICE_CALL_CAPACITY.get();
                         return ( serviceCallCapacity == 0 || getServiceCallsCount() < serviceCallCapacity || serviceCall.getPredecessor() != null );
                     } )
                     .to( "direct:process-service-request" )
                     .otherwise()
                     .to( "direct:reject-service-request" );
+        }
+    }
 
-            // internal route for initiating the service request processing:
-            from( "direct:process-service-request" )
-                    .process( processor );
+    /**
+     * A specialized RouteBuilder for receiving the service requests of an owned partition.
+     * NOTE: Partitioned requests are never rejected due to load, as sending them back would break their order.
+     */
+    private class PartitionReceiver extends RouteBuilder {
+        private int partition;
 
-            // internal route for rejecting the service request due to heavy load:
-            from( "direct:reject-service-request" )
-                    .process( exchange -> {
-                        ServiceCall serviceCall = exchange.getIn().getBody( ServiceCall.class );
-                        Logger.log( "Service call processing capacity of " + serviceCallCapacity + " reached! Current load is: " + getServiceCallsCount(), Logger.Severity.NOTICE, Logger.Threads.ESB );
-                        exchange.getIn().setHeader( DESTINATION_QUEUE_HEADER, ServiceBusDispatcher.assembleMsgBrokerAddress( serviceCall.getDestination().serviceDomainName ) );
-                    } )
-                    .marshal( new ServiceCallFormat() )
-                    .toD( "${header." + DESTINATION_QUEUE_HEADER + "}" );
+        PartitionReceiver( int partition ) {
+            this.partition = partition;
+        }
+
+        /**
+         * Base configuration method.
+         * It will implement all Camel routes that are necessary for receiving the partition's service requests.
+         */
+        @Override
+        public void configure() {
+            // route from the partition queue to internal processing:
+            from( ServiceBusDispatcher.assemblePartitionAddress( PartitionManager.getPartitionQueue( MSG_BROKER_QUEUE_REQUESTS_IN, partition ) ) )
+                    .routeId( PARTITION_IN_ROUTE_ID + partition )
+                    .autoStartup( serviceRequestsStarted )
+                    .unmarshal( new ServiceCallFormat( TrafficCapture.REQUEST_IN ) )
+                    .split( body() )
+                    .to( "direct:process-service-request" );
         }
     }
 
@@ -173,10 +361,18 @@ final class ServiceBusDispatcher {
          */
         @Override
         public void configure() {
-            // route from private response queue to the dynamic source queue:
+            // route from private response queue to the dynamic source queue; with batching, the responses are batched
+            // again per source queue:
             from( ServiceBusDispatcher.assembleMsgBrokerAddress( MSG_BROKER_QUEUE_RESPONSES_OUT ) )
-                    .removeHeaders( "*" )
+                    .routeId( RESPONSES_OUT_ROUTE_ID )
+                    // the content encoding has to survive, or the compressed responses can't be inflated:
+                    .removeHeaders( "*", RabbitMQConstants.CONTENT_ENCODING )
                     .unmarshal( new ServiceCallFormat() )
+                    .choice()
+                    .when( exchange -> EnvelopeBatcher.ENABLED.get() )
+                    .process( exchange -> forwardServiceResponses( exchange.getIn().getBody() ) )
+                    .otherwise()
+                    .split( body() )
                     .process( exchange -> {
                         ServiceCall serviceCall = exchange.getIn().getBody( ServiceCall.class );
                         exchange.getIn().setHeader( DESTINATION_QUEUE_HEADER, ServiceBusDispatcher.assembleMsgBrokerAddress( serviceCall.getSource().serviceDomainName + "-" + serviceCall.getSource().instanceID ) );
@@ -205,8 +401,9 @@ final class ServiceBusDispatcher {
         public void configure() {
             // route from private queue for received responses to internal processing:
             from( ServiceBusDispatcher.assembleMsgBrokerAddress( MSG_BROKER_QUEUE_RESPONSES_IN ) )
-                    .unmarshal( new ServiceCallFormat() )
-                    .process( processor );
+                    .unmarshal( new ServiceCallFormat( TrafficCapture.RESPONSE_IN ) )
+                    .split( body() )
+                    .process( isolated( processor ) );
         }
     }
 
@@ -217,31 +414,164 @@ final class ServiceBusDispatcher {
      * @return The destination address as expected by Camel.
      */
     private static String assembleMsgBrokerAddress( String queue ) {
+        return assembleMsgBrokerAddress( queue, true );
+    }
+
+    /**
+     * Used to assemble the Camel address of a partition queue. Unlike the other queues, partition queues survive
+     * without consumers, so no requests are lost while the partition moves between instances.
+     *
+     * @param queue The partition queue.
+     * @return The partition address as expected by Camel.
+     */
+    private static String assemblePartitionAddress( String queue ) {
+        return assembleMsgBrokerAddress( queue, false ) + "&args=#" + PARTITION_QUEUE_ARGS;
+    }
+
+    /**
+     * Used to assemble a Camel address for the message broker.
+     *
+     * @param queue      The destination queue.
+     * @param autoDelete Whether the queue is deleted once its last consumer is gone.
+     * @return The destination address as expected by Camel.
+     */
+    private static String assembleMsgBrokerAddress( String queue, boolean autoDelete ) {
         String address = "rabbitmq:" + queue + "?queue=" + queue;
         address += "&durable=true";
         address += "&autoAck=false";
-        address += "&autoDelete=true";
+        address += "&autoDelete=" + autoDelete;
         address += "&guaranteedDeliveries=true";
+        int prefetchCount = MSG_BROKER_PREFETCH_COUNT.get();
+        if ( prefetchCount > 0 ) {
+            address += "&prefetchEnabled=true";
+            address += "&prefetchCount=" + prefetchCount;
+        }
         return address;
     }
 
     /**
      * Used to send a service call request.
+     * If hedging is enabled and the call is idempotent, a duplicate is sent when no response arrived within the
+     * configured latency percentile of the destination. The first response wins and the other one is ignored.
+     * NOTE: If no response arrives within 'serviceBus.callTimeout' ms, the future completes with a TimeoutException.
      *
      * @param serviceCall A ServiceCall object ready for dispatching.
      * @return After completing the future will provide the service call result.
      */
     CompletableFuture<ServiceCallResult> sendServiceRequest( ServiceCall serviceCall ) {
+        CompletableFuture<ServiceCallResult> primary = sendServiceTask( serviceCall );
+        long hedgeDelay = ( serviceCall.isIdempotent() && HEDGING_ENABLED.get() ) ? getHedgeDelay( serviceCall ) : -1;
+        if ( hedgeDelay < 0 ) {
+            return primary;
+        }
+
+        CompletableFuture<ServiceCallResult> firstResponse = new CompletableFuture<>();
+        primary.whenComplete( ( result, exception ) -> {
+            if ( exception != null ) {
+                firstResponse.completeExceptionally( exception );
+            } else {
+                firstResponse.complete( result );
+            }
+        } );
+        CompletableFuture.delayedExecutor( hedgeDelay, TimeUnit.MILLISECONDS ).execute( () -> {
+            if ( firstResponse.isDone() || !RetryBudget.tryAcquire() ) {
+                return;
+            }
+            // the duplicate gets its own ID, so the two calls are told apart everywhere down the line:
+            ServiceCall hedgedCall = ServiceCallCodec.deserialize( ServiceCallCodec.serialize( serviceCall ) );
+            hedgedCall.setServiceCallID( IdGenerator.nextHigh(), IdGenerator.threadNode() );
+            Metrics.increment( "hedging.sent" );
+            Logger.log( "SendServiceRequest: hedging service call '" + serviceCall.getServiceCallID() + "' after " + hedgeDelay + " ms as '" + hedgedCall.getServiceCallID() + "'", Logger.Severity.DEBUG, Logger.Threads.TRACE );
+            sendServiceTask( hedgedCall ).thenAccept( result -> {
+                // only a successful hedge can beat the primary, a failed one is ignored:
+                if ( result.getException() == null && firstResponse.complete( result ) ) {
+                    Metrics.increment( "hedging.won" );
+                }
+            } );
+        } );
+        return firstResponse;
+    }
+
+    /**
+     * Used to get the delay after which an unanswered call is hedged: the configured percentile of the latencies
+     * observed for the destination service.
+     *
+     * @param serviceCall The ServiceCall object.
+     * @return The delay in milliseconds or -1 if there are not enough latency samples yet.
+     */
+    private static long getHedgeDelay( ServiceCall serviceCall ) {
+        Metrics.Histogram latencies = Metrics.getHistogram( getLatencyMetric( serviceCall ) );
+        if ( latencies.getCount() < HEDGING_MIN_SAMPLES.get() ) {
+            return -1;
+        }
+        return Math.max( HEDGING_MIN_DELAY_MS.get(), TimeUnit.MICROSECONDS.toMillis( latencies.getPercentile( HEDGING_PERCENTILE.get() ) ) );
+    }
+
+    /**
+     * Used to get the name of the latency histogram of the destination service.
+     *
+     * @param serviceCall The ServiceCall object.
+     * @return The name of the histogram.
+     */
+    private static String getLatencyMetric( ServiceCall serviceCall ) {
+        return "serviceCall.latency." + serviceCall.getDestination().serviceDomainName + "." + serviceCall.getDestination().serviceAlias;
+    }
+
+    /**
+     * Used to send a single service call task and register its handler.
+     *
+     * @param serviceCall A ServiceCall object ready for dispatching.
+     * @return After completing the future will provide the service call result.
+     */
+    private CompletableFuture<ServiceCallResult> sendServiceTask( ServiceCall serviceCall ) {
+        serviceCall.setLastTaskSeq( serviceCall.getLastTaskSeq() + 1 );
+        // the handler has to be in place before the request is out, as the response may arrive right away:
+        CompletableFuture<ServiceCallResult> taskHandler = new CompletableFuture<>();
+        long taskID = addTaskHandler( serviceCall, taskHandler );
+        serviceCall.setCorrelationID( taskID );
+        String targetInstanceID = null;
         try {
-            serviceCall.setLastTaskSeq( serviceCall.getLastTaskSeq() + 1 );
-            enqueueServiceCall( serviceCall, serviceCall.getDestination().serviceDomainName );
+            String serviceDomainName = serviceCall.getDestination().serviceDomainName;
+            if ( isPartitioned( serviceCall ) ) {
+                enqueueServiceCall( serviceCall, getRequestQueue( serviceCall ), getPartitionQueueArguments( "" ), TrafficCapture.REQUEST_OUT );
+            } else {
+                targetInstanceID = loadBalancer.pickInstance( serviceDomainName );
+                if ( targetInstanceID != null ) {
+                    enqueueServiceCall( serviceCall, LoadBalancer.getDirectQueue( serviceDomainName, targetInstanceID, serviceCall.getPriority() ), Collections.emptyMap(), TrafficCapture.REQUEST_OUT );
+                } else {
+                    enqueueServiceCall( serviceCall, getRequestQueue( serviceCall ), null, TrafficCapture.REQUEST_OUT );
+                }
+            }
             Logger.log( "SendServiceRequest: enqueued pending service call for transaction '" + serviceCall.getTransactionID() + "'", Logger.Severity.DEBUG, Logger.Threads.TRACE, serviceCall );
 
-            String taskID = serviceCall.getServiceCallID() + "." + serviceCall.getLastTaskSeq();
-            addTaskHandler( taskID, new CompletableFuture<>() );
+            int callTimeout = CALL_TIMEOUT_MS.get();
+            if ( callTimeout > 0 ) {
+                taskHandler.orTimeout( callTimeout, TimeUnit.MILLISECONDS ).whenComplete( ( result, exception ) -> {
+                    if ( exception != null ) {
+                        removeTaskHandler( taskID );
+                    }
+                } );
+            }
 
-            return getTaskHandler( taskID );
+            long startNanos = System.nanoTime();
+            String latencyMetric = LATENCY_METRICS[ serviceCall.getPriority().ordinal() ];
+            String destinationLatencyMetric = getLatencyMetric( serviceCall );
+            String releasedInstanceID = targetInstanceID;
+            return taskHandler.whenComplete( ( result, exception ) -> {
+                Metrics.recordLatency( latencyMetric, startNanos );
+                if ( exception == null ) {
+                    Metrics.recordLatency( destinationLatencyMetric, startNanos );
+                }
+                if ( releasedInstanceID != null ) {
+                    loadBalancer.release( releasedInstanceID );
+                }
+            } );
         } catch ( Exception exception ) {
+            removeTaskHandler( taskID );
+            // the picked instance counted the call as outstanding, but it never got it:
+            if ( targetInstanceID != null ) {
+                loadBalancer.release( targetInstanceID );
+            }
             ServiceCallResult result = new ServiceCallResult();
             result.setException( exception );
             return CompletableFuture.completedFuture( result );
@@ -252,16 +582,237 @@ final class ServiceBusDispatcher {
      * Used to send a service call response.
      *
      * @param serviceCall A ServiceCall object ready for dispatching.
+     * @return The serialized response as it was sent (e.g. to answer a repeated delivery with) or 'null' if it failed.
      */
-    void sendServiceResponse( ServiceCall serviceCall ) {
+    byte[] sendServiceResponse( ServiceCall serviceCall ) {
         try {
             // update the instance ID so we can track which instance processed this request:
             serviceCall.getDestination().instanceID = MicroserviceInstance.INSTANCE_ID;
-            enqueueServiceCall( serviceCall, MSG_BROKER_QUEUE_RESPONSES_OUT );
+            // the caller already has the params, so there is no need to send them back:
+            serviceCall.getDestination().serviceParams = null;
+            byte[] frame = ServiceCallCodec.serialize( serviceCall );
+            envelopeBatcher.publish( new OutboundSpool.Publish( MSG_BROKER_QUEUE_RESPONSES_OUT, null, null, TrafficCapture.RESPONSE_OUT, frame ) );
             Logger.log( "SendServiceResponse: enqueued processed service call for transaction '" + serviceCall.getTransactionID() + "'", Logger.Severity.DEBUG, Logger.Threads.TRACE, serviceCall );
             decreaseServiceCallCount();
+            return frame;
         } catch ( Exception exception ) {
             Logger.log( "Error while trying to enqueue a service call response for transaction '" + serviceCall.getTransactionID() + "'!", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            return null;
+        }
+    }
+
+    /**
+     * Used to send a serialized service call response once more, e.g. to a repeated delivery of the request.
+     *
+     * @param frame The serialized response as returned by sendServiceResponse.
+     */
+    void sendServiceResponse( byte[] frame ) {
+        try {
+            envelopeBatcher.publish( new OutboundSpool.Publish( MSG_BROKER_QUEUE_RESPONSES_OUT, null, null, TrafficCapture.RESPONSE_OUT, frame ) );
+            decreaseServiceCallCount();
+        } catch ( Exception exception ) {
+            Logger.log( "Error while trying to enqueue a repeated service call response!", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to release a received service request that is answered by another one (e.g. a repeated delivery); it no
+     * longer counts as a service call in processing.
+     */
+    void releaseServiceRequest() {
+        decreaseServiceCallCount();
+    }
+
+    /**
+     * Used to reject a service request this instance has no capacity for. The request is parked in the delay queue of
+     * its next redelivery tier; once its attempts are used up, it goes to the dead-letter queue and the caller gets a
+     * failure response instead.
+     *
+     * @param serviceCall  The rejected ServiceCall object.
+     * @param redeliveries The number of times the request was rejected before.
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    private void rejectServiceRequest( ServiceCall serviceCall, int redeliveries ) throws IOException, TimeoutException {
+        int attempt = redeliveries + 1;
+        if ( attempt < Redelivery.MAX_ATTEMPTS.get() ) {
+            String requestQueue = getRequestQueue( serviceCall );
+            long delay = Redelivery.getDelay( attempt );
+            enqueueServiceCall( serviceCall, Redelivery.getDelayQueue( requestQueue, delay ), Redelivery.getDelayQueueArguments( requestQueue, delay ), TrafficCapture.NONE, Redelivery.getHeaders( attempt ) );
+            Metrics.increment( "redelivery.requeued" );
+            Logger.log( "RejectServiceRequest: service call for transaction '" + serviceCall.getTransactionID() + "' will be delivered again in " + delay + " ms (attempt " + attempt + ").", Logger.Severity.DEBUG, Logger.Threads.TRACE, serviceCall );
+            return;
+        }
+
+        enqueueServiceCall( serviceCall, Redelivery.getDeadLetterQueue( MSG_BROKER_QUEUE_REQUESTS_IN ), Collections.emptyMap(), TrafficCapture.NONE, Redelivery.getHeaders( attempt ) );
+        Metrics.increment( "redelivery.deadLettered" );
+        Logger.log( "Service call for transaction '" + serviceCall.getTransactionID() + "' was dead-lettered after " + attempt + " rejected deliveries.", Logger.Severity.WARNING, Logger.Threads.ESB );
+
+        ServiceBusException exception = new ServiceBusException( "Service '" + serviceCall.getDestination().serviceAlias + "' of '" + MSG_BROKER_QUEUE_REQUESTS_IN + "' is overloaded; the call was rejected " + attempt + " times.", true );
+        if ( serviceCall.getStreamSignal() == StreamSignal.REQUEST ) {
+            // a rejected stream ends before its first item:
+            sendStreamFrame( serviceCall, StreamSignal.END, 1, null, exception );
+            return;
+        }
+        serviceCall.getDestination().instanceID = MicroserviceInstance.INSTANCE_ID;
+        serviceCall.getDestination().serviceParams = null;
+        serviceCall.setResult( new ServiceCallResult() );
+        serviceCall.getResult().setException( exception );
+        serviceCall.setSuccessful( false );
+        enqueueServiceCall( serviceCall, MSG_BROKER_QUEUE_RESPONSES_OUT, null, TrafficCapture.RESPONSE_OUT );
+    }
+
+    /**
+     * Used to send the request of a streamed service call. The frames of the stream are passed to the receiver.
+     * NOTE: Streamed calls go to the shared (or partition) request queue; the load-aware routing isn't applied to them.
+     *
+     * @param serviceCall    The REQUEST frame with the initial credit.
+     * @param streamReceiver The caller side of the stream.
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    void openStream( ServiceCall serviceCall, StreamReceiver streamReceiver ) throws IOException, TimeoutException {
+        // the receiver has to be in place before the request is out, as the first chunk may arrive right away:
+        streamReceivers.put( serviceCall.getServiceCallID(), streamReceiver );
+        try {
+            enqueueServiceCall( serviceCall, getRequestQueue( serviceCall ), isPartitioned( serviceCall ) ? getPartitionQueueArguments( "" ) : null, TrafficCapture.REQUEST_OUT );
+        } catch ( IOException | TimeoutException | RuntimeException exception ) {
+            streamReceivers.remove( serviceCall.getServiceCallID() );
+            throw exception;
+        }
+        Logger.log( "OpenStream: enqueued streamed service call for transaction '" + serviceCall.getTransactionID() + "'", Logger.Severity.DEBUG, Logger.Threads.TRACE, serviceCall );
+    }
+
+    /**
+     * Used to send a CHUNK or END frame of a streamed service call back to the caller. The frame carries only what is
+     * needed for routing and matching, not the whole request.
+     *
+     * @param serviceCall The REQUEST frame of the streamed call.
+     * @param signal      The frame signal (CHUNK or END).
+     * @param streamSeq   The sequence number of the frame.
+     * @param payload     The item of a CHUNK frame.
+     * @param exception   The exception of a failed stream (END frame only).
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    void sendStreamFrame( ServiceCall serviceCall, StreamSignal signal, long streamSeq, JSONObject payload, Exception exception ) throws IOException, TimeoutException {
+        ServiceCall frame = createStreamFrame( serviceCall, serviceCall.getDestination().serviceDomainName, MicroserviceInstance.INSTANCE_ID, signal );
+        frame.setStreamSeq( streamSeq );
+        ServiceCallResult result = new ServiceCallResult();
+        result.setSuccessful( exception == null );
+        result.setException( exception );
+        result.setPayload( payload );
+        frame.setResult( result );
+        frame.setSuccessful( exception == null );
+        frame.setCompleted( signal == StreamSignal.END );
+        enqueueServiceCall( frame, MSG_BROKER_QUEUE_RESPONSES_OUT, null, TrafficCapture.RESPONSE_OUT );
+        Metrics.increment( ( signal == StreamSignal.CHUNK ) ? "stream.chunksSent" : "stream.ended" );
+    }
+
+    /**
+     * Used to send a CREDIT or CANCEL frame of a streamed service call to the providing instance.
+     *
+     * @param serviceCall        The REQUEST frame of the streamed call (or any frame of it).
+     * @param providerInstanceID The ID of the instance providing the stream.
+     * @param signal             The frame signal (CREDIT or CANCEL).
+     * @param credit             The number of additional items the caller accepts (CREDIT frame only).
+     * @throws IOException      To be handled by the caller.
+     * @throws TimeoutException To be handled by the caller.
+     */
+    void sendStreamCredit( ServiceCall serviceCall, String providerInstanceID, StreamSignal signal, long credit ) throws IOException, TimeoutException {
+        String serviceDomainName = serviceCall.getDestination().serviceDomainName;
+        ServiceCall frame = createStreamFrame( serviceCall, serviceDomainName, providerInstanceID, signal );
+        frame.setStreamCredit( credit );
+        enqueueServiceCall( frame, serviceDomainName + "-" + providerInstanceID, null, TrafficCapture.NONE );
+    }
+
+    /**
+     * Used to register the provider side of a stream, so it receives the CREDIT and CANCEL frames of the caller.
+     *
+     * @param serviceCallID The ID of the streamed service call.
+     * @param streamSender  The provider side of the stream.
+     */
+    void registerStreamSender( String serviceCallID, StreamSender streamSender ) {
+        streamSenders.put( serviceCallID, streamSender );
+    }
+
+    /**
+     * Used to release the provider side of a finished stream; it no longer counts as a service call in processing.
+     * NOTE: Called exactly once per streamed request by the StreamSender.
+     *
+     * @param serviceCallID The ID of the streamed service call.
+     */
+    void closeStreamSender( String serviceCallID ) {
+        streamSenders.remove( serviceCallID );
+        decreaseServiceCallCount();
+    }
+
+    /**
+     * Used to register the cost of a service execution in progress, so the costs reported by the responses of the
+     * calls made in its context are added to it.
+     *
+     * @param serviceCall   The service call in whose context the calls are made.
+     * @param executionCost The cost of the execution.
+     */
+    void registerExecutionCost( ServiceCall serviceCall, ExecutionCost executionCost ) {
+        executionCosts.put( serviceCall.getServiceCallID(), executionCost );
+    }
+
+    /**
+     * Used to release the cost of a finished service execution.
+     *
+     * @param serviceCall The service call in whose context the calls were made.
+     */
+    void closeExecutionCost( ServiceCall serviceCall ) {
+        executionCosts.remove( serviceCall.getServiceCallID() );
+    }
+
+    /**
+     * Used to release the caller side of a finished stream.
+     *
+     * @param serviceCallID The ID of the streamed service call.
+     */
+    void closeStreamReceiver( String serviceCallID ) {
+        streamReceivers.remove( serviceCallID );
+    }
+
+    /**
+     * Used to pass a received stream frame to its side of the stream. The chunks of a stream without a receiver (e.g.
+     * it was cancelled meanwhile) are answered with a CANCEL frame, so the provider stops sending.
+     *
+     * @param frame The received frame.
+     */
+    private void handleStreamFrame( ServiceCall frame ) {
+        String serviceCallID = frame.getServiceCallID();
+        switch ( frame.getStreamSignal() ) {
+            case CHUNK:
+            case END:
+                StreamReceiver streamReceiver = streamReceivers.get( serviceCallID );
+                if ( streamReceiver != null ) {
+                    Metrics.increment( "stream.chunksReceived" );
+                    streamReceiver.onFrame( frame );
+                } else if ( frame.getStreamSignal() == StreamSignal.CHUNK ) {
+                    try {
+                        sendStreamCredit( frame, frame.getDestination().instanceID, StreamSignal.CANCEL, 0 );
+                    } catch ( Exception exception ) {
+                        Logger.log( "Failed to cancel the orphan stream '" + serviceCallID + "'.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+                    }
+                }
+                break;
+            case CREDIT:
+            case CANCEL:
+                StreamSender streamSender = streamSenders.get( serviceCallID );
+                if ( streamSender == null ) {
+                    break;
+                }
+                if ( frame.getStreamSignal() == StreamSignal.CREDIT ) {
+                    streamSender.grant( frame.getStreamCredit() );
+                } else {
+                    streamSender.cancel();
+                }
+                break;
+            default:
+                Logger.log( "Unexpected stream frame " + frame.getStreamSignal() + " of '" + serviceCallID + "'.", Logger.Severity.WARNING, Logger.Threads.ESB );
         }
     }
 
@@ -271,40 +822,286 @@ final class ServiceBusDispatcher {
 
     /**
      * Used to initialize the Camel context and any related items. Will be executed once when the instance is first created.
+     * The publishing connection and its channels are opened in parallel with the Camel context start-up.
      */
     private void initialize() {
+        channelPool = new ChannelPool( createConnectionFactory(), MSG_BROKER_CHANNEL_POOL_SIZE );
+        outboundSpool = new OutboundSpool( MicroserviceInstance.INSTANCE_ID, this::publish, channelPool::isBlocked, () -> channelPool.awaitConfirms( SPOOL_CONFIRM_TIMEOUT_MS ) );
+        outboundSpool.start();
+        envelopeBatcher = new EnvelopeBatcher( outboundSpool::publish );
+        CompletableFuture<Void> channelsReady = CompletableFuture.runAsync( () -> {
+            long startNanos = System.nanoTime();
+            try {
+                channelPool.prewarm();
+                StartupTimer.record( "brokerChannels", startNanos );
+            } catch ( Exception exception ) {
+                Logger.log( "Failed to prewarm the broker channels; they will be opened on first use.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+            }
+        } );
         try {
+            long startNanos = System.nanoTime();
             camelContext = new DefaultCamelContext();
 
-            ConnectionFactory messageBrokerConnection = new ConnectionFactory();
-            messageBrokerConnection.setHost( MSG_BROKER_HOST );
-            messageBrokerConnection.setPort( MSG_BROKER_PORT );
-            messageBrokerConnection.setUsername( MSG_BROKER_USER );
-            messageBrokerConnection.setPassword( MSG_BROKER_PASS );
-
-            ( ( RabbitMQComponent ) camelContext.getComponent( "rabbitmq" ) ).setConnectionFactory( messageBrokerConnection );
+            ( ( RabbitMQComponent ) camelContext.getComponent( "rabbitmq" ) ).setConnectionFactory( createConnectionFactory() );
+            camelContext.getRegistry().bind( PARTITION_QUEUE_ARGS, getPartitionQueueArguments( "queue." ) );
+            for ( ServiceCallPriority priority : ServiceCallPriority.values() ) {
+                camelContext.getRegistry().bind( DIRECT_QUEUE_ARGS + priority.getQueueSuffix(), LoadBalancer.getDirectQueueArguments( MSG_BROKER_QUEUE_REQUESTS_IN, priority, "queue." ) );
+            }
+            loadBalancer = new LoadBalancer( createConnectionFactory() );
 
             camelContext.start();
+            StartupTimer.record( "camelContext", startNanos );
+            Config.onReload( this::applyConfiguration );
         } catch ( Exception exception ) {
             Logger.log( "Failed to start Apache Camel context.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
         }
+        channelsReady.join();
     }
 
     /**
-     * Used to initialize the dispatcher for ServiceProvider behavior.
+     * Used to initialize the dispatcher for ServiceProvider behavior. The service request routes are created, but they
+     * start consuming only once startServiceRequests is called.
      * NOTE: By default this is called by the ServiceProvider class upon starting.
      *
      * @param processServiceRequest A method that will be used to process incoming service requests.
+     * @param queueDepth            Supplies the number of service requests waiting for execution (for the load reports).
+     * @param latencyMicros         Supplies the moving average of the execution time (for the load reports).
+     * @param queuedRequests        Takes out the received service requests whose execution didn't start yet (on drain).
+     * @param awaitPartitions       Returns a future completing once the received requests of the given partitions are
+     *                              done (on partition handoff).
      * @throws Exception Should be handled by the caller.
      */
-    void configureServiceProvider( Consumer<ServiceCall> processServiceRequest ) throws Exception {
-        camelContext.addRoutes( new ServiceRequestReceiver( exchange -> {
+    void configureServiceProvider( Consumer<ServiceCall> processServiceRequest, IntSupplier queueDepth, LongSupplier latencyMicros, Supplier<List<ServiceCall>> queuedRequests,
+                                   Function<Set<Integer>, CompletableFuture<Void>> awaitPartitions ) throws Exception {
+        queuedServiceRequests = queuedRequests;
+        partitionRequests = awaitPartitions;
+        serviceRequestProcessor = exchange -> {
             ServiceCall serviceCall = exchange.getIn().getBody( ServiceCall.class );
             Logger.log( "ServiceRequestReceiver: received pending service call for transaction '" + serviceCall.getTransactionID() + "'", Logger.Severity.DEBUG, Logger.Threads.TRACE, serviceCall );
             increaseServiceCallsCount();
             processServiceRequest.accept( serviceCall );
-        } ) );
+        };
+        activePrefetchCount = MSG_BROKER_PREFETCH_COUNT.get();
+        camelContext.addRoutes( new ServiceRequestHandler( serviceRequestProcessor ) );
+        camelContext.addRoutes( new ServiceRequestReceiver() );
         camelContext.addRoutes( new ServiceResponseSender() );
+
+        // the partitioned mode and the partition count are picked on start-up:
+        if ( PartitionManager.getPartitionCount( MSG_BROKER_QUEUE_REQUESTS_IN ) > 0 ) {
+            partitionManager = new PartitionManager( createConnectionFactory(), MSG_BROKER_QUEUE_REQUESTS_IN, MicroserviceInstance.INSTANCE_ID, this::assignPartitions );
+        }
+
+        if ( LoadBalancer.REPORT_INTERVAL_MS > 0 ) {
+            loadReporter = new LoadReporter( createConnectionFactory(), MSG_BROKER_QUEUE_REQUESTS_IN, MicroserviceInstance.INSTANCE_ID, this::getServiceCallsCount, queueDepth, latencyMicros );
+        }
+    }
+
+    /**
+     * Used to start consuming the service requests. Until then the instance doesn't take part in the partition
+     * ownership and doesn't publish load reports either.
+     * NOTE: By default this is called by the ServiceProvider class once the microservice is started and warmed up.
+     *
+     * @throws Exception Should be handled by the caller.
+     */
+    synchronized void startServiceRequests() throws Exception {
+        if ( serviceRequestsStarted ) {
+            return;
+        }
+        serviceRequestsStarted = true;
+        for ( String routeID : getServiceRequestRouteIDs() ) {
+            camelContext.getRouteController().startRoute( routeID );
+        }
+        if ( partitionManager != null ) {
+            partitionManager.start();
+        }
+        if ( loadReporter != null ) {
+            loadReporter.start();
+        }
+    }
+
+    /**
+     * Used to stop consuming the service requests. The instance stops publishing load reports first, so the other
+     * instances route elsewhere as soon as possible. It leaves the partition ownership only once the received requests
+     * of its partitions are done (or the drain timeout is over), so the new owners don't overtake them.
+     */
+    private synchronized void stopServiceRequests() {
+        serviceRequestsStarted = false;
+        if ( loadReporter != null ) {
+            loadReporter.stop();
+            loadReporter = null;
+        }
+        for ( String routeID : getServiceRequestRouteIDs() ) {
+            try {
+                camelContext.getRouteController().stopRoute( routeID );
+            } catch ( Exception exception ) {
+                Logger.log( "Failed to stop the service request route '" + routeID + "'.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+            }
+        }
+        // the partition routes are removed, so a configuration reload during the drain can't bring them back:
+        Set<Integer> leftPartitions = ownedPartitions;
+        ownedPartitions = Collections.emptySet();
+        for ( int partition : leftPartitions ) {
+            try {
+                camelContext.getRouteController().stopRoute( PARTITION_IN_ROUTE_ID + partition );
+                camelContext.removeRoute( PARTITION_IN_ROUTE_ID + partition );
+            } catch ( Exception exception ) {
+                Logger.log( "Failed to stop the service request route of partition " + partition + ".", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+            }
+        }
+        if ( partitionManager != null ) {
+            PartitionManager leavingManager = partitionManager;
+            partitionManager = null;
+            partitionRequests.apply( leftPartitions ).orTimeout( DRAIN_TIMEOUT_MS.get(), TimeUnit.MILLISECONDS ).whenComplete( ( result, exception ) -> leavingManager.stop() );
+        }
+    }
+
+    /**
+     * Used to drain the service requests of this instance before it shuts down, so they aren't redone elsewhere:
+     * 1) stop consuming the requests;
+     * 2) hand back the received requests whose execution didn't start yet by publishing them to their request queue;
+     * 3) wait for the executions in progress and the delivery of their responses;
+     * 4) wait for the broker to confirm all publishes.
+     * Every step shares the 'serviceBus.drainTimeout' deadline; the requests still in progress after it are abandoned.
+     */
+    private void drainServiceRequests() {
+        long startNanos = System.nanoTime();
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS.get();
+        Metrics.registerGauge( "drain.inProcessing", this::getServiceCallsCount );
+        Logger.log( "Draining " + getServiceCallsCount() + " service requests in processing.", Logger.Severity.INFO, Logger.Threads.ESB );
+
+        stopServiceRequests();
+
+        int handedBack = 0;
+        if ( queuedServiceRequests != null ) {
+            for ( ServiceCall serviceCall : queuedServiceRequests.get() ) {
+                try {
+                    enqueueServiceCall( serviceCall, getRequestQueue( serviceCall ), null, TrafficCapture.NONE );
+                    Metrics.increment( "drain.handedBack" );
+                    handedBack++;
+                } catch ( Exception exception ) {
+                    Metrics.increment( "drain.lost" );
+                    Logger.log( "Failed to hand back the service call for transaction '" + serviceCall.getTransactionID() + "'!", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+                }
+                decreaseServiceCallCount();
+            }
+        }
+
+        long nextProgress = System.currentTimeMillis() + DRAIN_PROGRESS_MS;
+        while ( System.currentTimeMillis() < deadline && ( getServiceCallsCount() > 0 || hasPendingResponses() ) ) {
+            if ( System.currentTimeMillis() >= nextProgress ) {
+                Logger.log( "Draining: " + getServiceCallsCount() + " service requests still in processing.", Logger.Severity.INFO, Logger.Threads.ESB );
+                nextProgress += DRAIN_PROGRESS_MS;
+            }
+            try {
+                Thread.sleep( DRAIN_POLL_MS );
+            } catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        boolean confirmed = channelPool.awaitConfirms( Math.max( 0, deadline - System.currentTimeMillis() ) );
+        int abandoned = getServiceCallsCount();
+        Metrics.add( "drain.abandoned", abandoned );
+        Metrics.recordLatency( "drain.duration", startNanos );
+        Logger.log( "Drain completed in " + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos ) + " ms: " + handedBack + " requests handed back, "
+                + abandoned + " abandoned" + ( confirmed ? "." : ", some publishes not confirmed!" ), ( abandoned > 0 || !confirmed ) ? Logger.Severity.WARNING : Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
+    /**
+     * Used to check if any responses are still on their way out of this instance.
+     *
+     * @return 'true' if the response forwarding route still has work to do or publishes are still batched or spooled.
+     */
+    private boolean hasPendingResponses() {
+        return envelopeBatcher.hasPending() || outboundSpool.hasPending() || camelContext.getInflightRepository().size( RESPONSES_OUT_ROUTE_ID ) > 0 || channelPool.getMessageCount( MSG_BROKER_QUEUE_RESPONSES_OUT ) > 0;
+    }
+
+    /**
+     * Used to get the IDs of the routes consuming the shared and direct request queues.
+     *
+     * @return The route IDs.
+     */
+    private List<String> getServiceRequestRouteIDs() {
+        List<String> routeIDs = new ArrayList<>();
+        for ( ServiceCallPriority priority : ServiceCallPriority.values() ) {
+            routeIDs.add( REQUESTS_IN_ROUTE_ID + priority.getQueueSuffix() );
+            if ( LoadBalancer.REPORT_INTERVAL_MS > 0 ) {
+                routeIDs.add( DIRECT_IN_ROUTE_ID + priority.getQueueSuffix() );
+            }
+        }
+        return routeIDs;
+    }
+
+    /**
+     * Used to start consuming the newly owned partitions and stop consuming the ones owned by other instances now.
+     * NOTE: While draining, no partitions are consumed anymore and all of them are kept until their requests are done.
+     *
+     * @param partitions The partitions to consume.
+     * @return The future completes once the received requests of the partitions no longer consumed are done, so the
+     * partitions can be released to their new owners.
+     */
+    private synchronized CompletableFuture<Void> assignPartitions( Set<Integer> partitions ) {
+        if ( !serviceRequestsStarted ) {
+            Set<Integer> allPartitions = new HashSet<>();
+            for ( int partition = 0; partition < PartitionManager.getPartitionCount( MSG_BROKER_QUEUE_REQUESTS_IN ); partition++ ) {
+                allPartitions.add( partition );
+            }
+            return partitionRequests.apply( allPartitions );
+        }
+        Set<Integer> releasedPartitions = new HashSet<>();
+        try {
+            for ( int partition : ownedPartitions ) {
+                if ( !partitions.contains( partition ) ) {
+                    camelContext.getRouteController().stopRoute( PARTITION_IN_ROUTE_ID + partition );
+                    camelContext.removeRoute( PARTITION_IN_ROUTE_ID + partition );
+                    releasedPartitions.add( partition );
+                }
+            }
+            Set<Integer> assignedPartitions = new HashSet<>();
+            for ( int partition : partitions ) {
+                if ( !ownedPartitions.contains( partition ) ) {
+                    camelContext.addRoutes( new PartitionReceiver( partition ) );
+                }
+                assignedPartitions.add( partition );
+            }
+            ownedPartitions = assignedPartitions;
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to apply the partition assignment " + partitions + ".", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+        // the consumers of the released partitions are stopped, so no more of their requests can come in:
+        return partitionRequests.apply( releasedPartitions );
+    }
+
+    /**
+     * Used to apply the live-reloadable settings after the configuration has changed.
+     * NOTE: The service call capacity is read on every request, so only the prefetch count needs handling here. As it
+     * is a property of the consumers, the consuming request routes are recreated in order to apply it; the internal
+     * processing routes are left as they are.
+     */
+    private synchronized void applyConfiguration() {
+        int prefetchCount = MSG_BROKER_PREFETCH_COUNT.get();
+        if ( serviceRequestProcessor == null || prefetchCount == activePrefetchCount ) {
+            return;
+        }
+        try {
+            List<String> routeIDs = getServiceRequestRouteIDs();
+            for ( int partition : ownedPartitions ) {
+                routeIDs.add( PARTITION_IN_ROUTE_ID + partition );
+            }
+            for ( String routeID : routeIDs ) {
+                camelContext.getRouteController().stopRoute( routeID );
+                camelContext.removeRoute( routeID );
+            }
+            camelContext.addRoutes( new ServiceRequestReceiver() );
+            for ( int partition : ownedPartitions ) {
+                camelContext.addRoutes( new PartitionReceiver( partition ) );
+            }
+            activePrefetchCount = prefetchCount;
+            Logger.log( "Service request route restarted with prefetch count of " + prefetchCount + ".", Logger.Severity.INFO, Logger.Threads.ESB );
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to apply the new prefetch count to the service request route.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
     }
 
     /**
@@ -317,18 +1114,30 @@ final class ServiceBusDispatcher {
         camelContext.addRoutes( new ServiceResponseReceiver( exchange -> {
             ServiceCall serviceCall = exchange.getIn().getBody( ServiceCall.class );
             Logger.log( "ServiceResponseReceiver: received processed service call for transaction '" + serviceCall.getTransactionID() + "'", Logger.Severity.DEBUG, Logger.Threads.TRACE, serviceCall );
-            completeServiceCall( serviceCall );
+            if ( serviceCall.getStreamSignal() != null ) {
+                handleStreamFrame( serviceCall );
+            } else {
+                completeServiceCall( serviceCall );
+            }
         } ) );
         camelContext.addRoutes( new ServiceRequestSender() );
     }
 
     /**
-     * Used to gracefully shutdown the dispatcher.
+     * Used to gracefully shutdown the dispatcher. A service provider drains its service requests first.
      * NOTE: By default this is called by the ServiceConsumer class upon stopping.
      */
     void shutDown() {
         try {
+            if ( serviceRequestProcessor != null ) {
+                drainServiceRequests();
+            }
+            loadBalancer.stop();
+            envelopeBatcher.stop();
+            outboundSpool.stop();
+            channelPool.close();
             camelContext.stop();
+            TrafficCapture.close();
         } catch ( Exception exception ) {
             Logger.log( "Failed to stop Apache Camel context.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
         }
@@ -340,29 +1149,108 @@ final class ServiceBusDispatcher {
 
     /**
      * Utility method used to create a new ServiceCall object with proper initialization.
+     * A service call without a predecessor starts a new transaction, which shares the ID of the call. All calls of this
+     * instance share the same (read-only) source.
      *
-     * @param transactionID The ID of the parent service bus transaction.
-     * @param level         The level of the service call in terms of its position in the call tree.
-     * @param source        The source of the service call.
-     * @param destination   The destination of the service call.
+     * @param predecessor The service call in whose context the new one is made or 'null' for a new transaction.
+     * @param destination The destination of the service call.
      * @return The new ServiceCall object.
      */
-    ServiceCall createServiceCall( String transactionID, int level, ServiceCallSource source, ServiceCallDestination destination ) {
+    ServiceCall createServiceCall( ServiceCall predecessor, ServiceCallDestination destination ) {
         ServiceCall serviceCall = new ServiceCall();
-        serviceCall.setServiceCallID( "TSC-" + UUID.randomUUID().toString() );
-        serviceCall.setTransactionID( transactionID );
-        serviceCall.setCreatedOn( Tools.getUnixTimestamp() );
-        serviceCall.setLevel( level );
-        serviceCall.setCompleted( false );
-        serviceCall.setPredecessor( null );
-        serviceCall.setSuccessors( null );
-        serviceCall.setLastTaskSeq( 0 );
-        serviceCall.setSource( source );
+        long idHigh = IdGenerator.nextHigh();
+        long idLow = IdGenerator.threadNode();
+        serviceCall.setServiceCallID( idHigh, idLow );
+        if ( predecessor != null ) {
+            serviceCall.setTransactionID( predecessor.getTransactionIdHigh(), predecessor.getTransactionIdLow() );
+            serviceCall.setLevel( predecessor.getLevel() + 1 );
+            serviceCall.setPredecessor( predecessor );
+        } else {
+            serviceCall.setTransactionID( idHigh, idLow );
+        }
+        serviceCall.setCreatedOn( System.currentTimeMillis() / 1000 );
+        serviceCall.setSource( LOCAL_SOURCE );
         serviceCall.setDestination( destination );
-        serviceCall.setExecutionTime( 0 );
         return serviceCall;
     }
 
+    /**
+     * Utility method used to create the source of all service calls made by this instance.
+     *
+     * @return The new ServiceCallSource object.
+     */
+    private static ServiceCallSource createLocalSource() {
+        ServiceCallSource source = new ServiceCallSource();
+        source.instanceID = MicroserviceInstance.INSTANCE_ID;
+        source.serviceDomainName = MicroserviceInstance.SERVICE_DOMAIN_NAME;
+        return source;
+    }
+
+    /**
+     * Utility method used to create a frame of a streamed service call, carrying only the routing and matching data.
+     *
+     * @param serviceCall       The streamed service call.
+     * @param serviceDomainName The service domain of the providing instance.
+     * @param instanceID        The ID of the providing instance.
+     * @param signal            The frame signal.
+     * @return The new ServiceCall object.
+     */
+    private static ServiceCall createStreamFrame( ServiceCall serviceCall, String serviceDomainName, String instanceID, StreamSignal signal ) {
+        ServiceCallDestination destination = new ServiceCallDestination();
+        destination.serviceDomainName = serviceDomainName;
+        destination.serviceAlias = serviceCall.getDestination().serviceAlias;
+        destination.serviceVersion = serviceCall.getDestination().serviceVersion;
+        destination.instanceID = instanceID;
+        ServiceCall frame = new ServiceCall();
+        frame.setServiceCallID( serviceCall.getServiceCallIdHigh(), serviceCall.getServiceCallIdLow() );
+        frame.setTransactionID( serviceCall.getTransactionIdHigh(), serviceCall.getTransactionIdLow() );
+        frame.setCreatedOn( Tools.getUnixTimestamp() );
+        frame.setLevel( serviceCall.getLevel() );
+        frame.setPriority( serviceCall.getPriority() );
+        frame.setSource( serviceCall.getSource() );
+        frame.setDestination( destination );
+        frame.setStreamSignal( signal );
+        return frame;
+    }
+
+    /**
+     * Used to get the request queue of the service call's destination domain and priority lane.
+     *
+     * @param serviceCall The ServiceCall object.
+     * @return The name of the request queue.
+     */
+    private static String getRequestQueue( ServiceCall serviceCall ) {
+        String serviceDomainName = serviceCall.getDestination().serviceDomainName;
+        if ( isPartitioned( serviceCall ) ) {
+            // all calls of a key share one queue regardless of their priority, so they stay in order:
+            int partitions = PartitionManager.getPartitionCount( serviceDomainName );
+            return PartitionManager.getPartitionQueue( serviceDomainName, PartitionManager.getPartition( serviceCall.getAffinityKey(), partitions ) );
+        }
+        return serviceDomainName + serviceCall.getPriority().getQueueSuffix();
+    }
+
+    /**
+     * Used to check if the service call goes to a partition queue.
+     *
+     * @param serviceCall The ServiceCall object.
+     * @return 'true' if the service call has an affinity key and its destination domain is partitioned.
+     */
+    private static boolean isPartitioned( ServiceCall serviceCall ) {
+        return serviceCall.getAffinityKey() != null && PartitionManager.getPartitionCount( serviceCall.getDestination().serviceDomainName ) > 0;
+    }
+
+    /**
+     * Used to get the arguments of the partition queues.
+     *
+     * @param prefix The prefix of the argument names.
+     * @return The queue arguments.
+     */
+    private static Map<String, Object> getPartitionQueueArguments( String prefix ) {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put( prefix + "x-single-active-consumer", true );
+        return arguments;
+    }
+
     /**
      * Increment the current count of service calls in processing.
      */
@@ -388,67 +1276,182 @@ final class ServiceBusDispatcher {
     }
 
     /**
-     * Used to add a new internal task handler.
+     * Used to add a new internal task handler under a new correlation ID. The IDs are unique within this instance,
+     * which is the only one receiving the responses of its tasks.
      *
-     * @param taskID      The unique ID of the task.
+     * @param serviceCall The ServiceCall object of the task.
      * @param taskHandler The completable future object corresponding to the task.
+     * @return The correlation ID of the task, to be carried by the request and echoed by the response.
      */
-    private synchronized void addTaskHandler( String taskID, CompletableFuture<ServiceCallResult> taskHandler ) {
-        taskHandlers.put( taskID, taskHandler );
+    private synchronized long addTaskHandler( ServiceCall serviceCall, CompletableFuture<ServiceCallResult> taskHandler ) {
+        long taskID = ++lastCorrelationID;
+        taskHandlers.put( taskID, new TaskHandler( serviceCall, taskHandler ) );
+        return taskID;
     }
 
     /**
      * Used to get an existing task handler.
      *
-     * @param taskID The unique ID of the task.
-     * @return The completable future object corresponding to the task.
+     * @param taskID The correlation ID of the task.
+     * @return The handler corresponding to the task.
      */
-    private synchronized CompletableFuture<ServiceCallResult> getTaskHandler( String taskID ) {
+    private synchronized TaskHandler getTaskHandler( long taskID ) {
         return taskHandlers.get( taskID );
     }
 
     /**
      * Used to remove an existing task handler - usually after it was once completed.
      *
-     * @param taskID The unique ID of the task.
+     * @param taskID The correlation ID of the task.
      */
-    private synchronized void removeTaskHandler( String taskID ) {
+    private synchronized void removeTaskHandler( long taskID ) {
         taskHandlers.remove( taskID );
     }
 
     /**
      * Used to enqueue a ServiceCall to the message broker for processing.
      *
-     * @param serviceCall The ServiceCall object to enqueue (will be serialized).
-     * @param destination The destination queue to which to send the ServiceCall.
+     * @param serviceCall      The ServiceCall object to enqueue (will be serialized).
+     * @param destination      The destination queue to which to send the ServiceCall.
+     * @param queueArguments   The arguments of a destination queue that outlives its consumers, an empty map for a queue
+     *                         declared by its consumer only or 'null' for a regular auto-deleted queue.
+     * @param captureFrameType The TrafficCapture frame type under which the sent frame is recorded.
+     * @throws IOException      To be handled by caller.
+     * @throws TimeoutException To be handled by caller.
+     */
+    private void enqueueServiceCall( ServiceCall serviceCall, String destination, Map<String, Object> queueArguments, byte captureFrameType ) throws IOException, TimeoutException {
+        enqueueServiceCall( serviceCall, destination, queueArguments, captureFrameType, null );
+    }
+
+    /**
+     * Used to enqueue a ServiceCall to the message broker along with message headers.
+     *
+     * @param serviceCall      The ServiceCall object to enqueue (will be serialized).
+     * @param destination      The destination queue to which to send the ServiceCall.
+     * @param queueArguments   The arguments of a destination queue that outlives its consumers, an empty map for a queue
+     *                         declared by its consumer only or 'null' for a regular auto-deleted queue.
+     * @param captureFrameType The TrafficCapture frame type under which the sent frame is recorded.
+     * @param headers          The message headers or 'null' if there are none.
      * @throws IOException      To be handled by caller.
      * @throws TimeoutException To be handled by caller.
      */
-    private void enqueueServiceCall( ServiceCall serviceCall, String destination ) throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost( MSG_BROKER_HOST );
-        try ( Connection connection = factory.newConnection(); Channel channel = connection.createChannel() ) {
-            channel.queueDeclare( destination, true, false, true, null );
-            channel.basicPublish( "", destination, MessageProperties.PERSISTENT_BASIC, SerializationUtils.serialize( serviceCall ) );
+    private void enqueueServiceCall( ServiceCall serviceCall, String destination, Map<String, Object> queueArguments, byte captureFrameType, Map<String, Object> headers ) throws IOException, TimeoutException {
+        envelopeBatcher.publish( new OutboundSpool.Publish( destination, queueArguments, headers, captureFrameType, ServiceCallCodec.serialize( serviceCall ) ) );
+    }
+
+    /**
+     * Used to forward the service responses of this instance to the response queues of their callers, batched per
+     * caller. The batches are sent before returning, so the forwarded message can be acknowledged.
+     *
+     * @param body The ServiceCall object or the list of them for an envelope.
+     * @throws IOException      To be handled by caller.
+     * @throws TimeoutException To be handled by caller.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void forwardServiceResponses( Object body ) throws IOException, TimeoutException {
+        List<ServiceCall> serviceCalls = ( body instanceof List ) ? ( List<ServiceCall> ) body : Collections.singletonList( ( ServiceCall ) body );
+        List<OutboundSpool.Publish> publishes = new ArrayList<>( serviceCalls.size() );
+        for ( ServiceCall serviceCall : serviceCalls ) {
+            String destination = serviceCall.getSource().serviceDomainName + "-" + serviceCall.getSource().instanceID;
+            publishes.add( new OutboundSpool.Publish( destination, null, null, TrafficCapture.NONE, ServiceCallCodec.serialize( serviceCall ) ) );
         }
+        envelopeBatcher.publishAll( publishes );
     }
 
     /**
-     * Used to complete a ServiceCall and executeAsync its handler.
+     * Used to isolate the processing of the calls of an envelope from each other: a failed call is logged and the
+     * other calls (and the acknowledgement of the envelope) go on. A regular message fails as it did before.
+     *
+     * @param processor The processor of a single ServiceCall.
+     * @return The isolating processor.
+     */
+    private static Processor isolated( Processor processor ) {
+        return exchange -> {
+            try {
+                processor.process( exchange );
+            } catch ( Exception exception ) {
+                if ( exchange.getProperty( Exchange.SPLIT_SIZE, 1, Integer.class ) <= 1 ) {
+                    throw exception;
+                }
+                Metrics.increment( "batching.failedCalls" );
+                Logger.log( "Failed to handle a service call of an envelope; the other calls are not affected.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            }
+        };
+    }
+
+    /**
+     * Used to publish a serialized ServiceCall (or an envelope of them) to the message broker.
+     * NOTE: Called by the outbound spool, either right away or when replaying.
+     *
+     * @param publish The publish to send.
+     * @throws IOException      To be handled by caller.
+     * @throws TimeoutException To be handled by caller.
+     */
+    private void publish( OutboundSpool.Publish publish ) throws IOException, TimeoutException {
+        ServiceCallCodec.Frame frame = ServiceCallCodec.compress( publish.getSerializedCall() );
+        AMQP.BasicProperties properties = MessageProperties.PERSISTENT_BASIC.builder().contentEncoding( frame.getContentEncoding() ).headers( publish.getHeaders() ).build();
+        Channel channel = channelPool.borrow();
+        try {
+            if ( publish.getQueueArguments() == null ) {
+                channel.queueDeclare( publish.getDestination(), true, false, true, null );
+            } else if ( !publish.getQueueArguments().isEmpty() ) {
+                channel.queueDeclare( publish.getDestination(), true, false, false, publish.getQueueArguments() );
+            }
+            channel.basicPublish( "", publish.getDestination(), properties, frame.getData() );
+        } finally {
+            channelPool.giveBack( channel );
+        }
+        if ( TrafficCapture.isRecorded( publish.getCaptureFrameType() ) && ServiceCallCodec.isEnvelope( publish.getSerializedCall() ) ) {
+            for ( byte[] part : ServiceCallCodec.unpack( publish.getSerializedCall() ) ) {
+                TrafficCapture.record( publish.getCaptureFrameType(), part );
+            }
+        } else {
+            TrafficCapture.record( publish.getCaptureFrameType(), publish.getSerializedCall() );
+        }
+    }
+
+    /**
+     * Used to create a connection factory for the configured message broker.
+     *
+     * @return The new connection factory.
+     */
+    private static ConnectionFactory createConnectionFactory() {
+        ConnectionFactory connectionFactory = new ConnectionFactory();
+        connectionFactory.setHost( MSG_BROKER_HOST );
+        connectionFactory.setPort( MSG_BROKER_PORT );
+        connectionFactory.setUsername( MSG_BROKER_USER );
+        connectionFactory.setPassword( MSG_BROKER_PASS );
+        return connectionFactory;
+    }
+
+    /**
+     * Used to complete a ServiceCall and executeAsync its handler. The cost reported by the response is added to the
+     * execution in whose context the call was made, if it is still in progress on this instance.
      *
      * @param serviceCall The ServiceCall object to complete.
      */
     private void completeServiceCall( ServiceCall serviceCall ) {
-        String taskID = serviceCall.getServiceCallID() + "." + serviceCall.getLastTaskSeq();
+        long taskID = serviceCall.getCorrelationID();
         serviceCall.setLastTaskSeq( serviceCall.getLastTaskSeq() - 1 );
         serviceCall.setFinishedOn( Tools.getUnixTimestamp() );
         serviceCall.setCompleted( true );
-        CompletableFuture<ServiceCallResult> taskHandler = getTaskHandler( taskID );
+        TaskHandler taskHandler = getTaskHandler( taskID );
+        if ( taskHandler != null && ( taskHandler.serviceCallIdHigh != serviceCall.getServiceCallIdHigh() || taskHandler.serviceCallIdLow != serviceCall.getServiceCallIdLow() ) ) {
+            // e.g. a late response to a previous run of this instance; the task waiting under the ID is not its call:
+            Logger.log( "Task " + taskID + " belongs to another service call than response '" + serviceCall.getServiceCallID() + "'; the response is dropped.", Logger.Severity.WARNING, Logger.Threads.ESB, serviceCall );
+            return;
+        }
         if ( taskHandler != null ) {
-            taskHandler.complete( serviceCall.getResult() );
+            if ( serviceCall.getPredecessor() != null && !executionCosts.isEmpty() ) {
+                ExecutionCost executionCost = executionCosts.get( serviceCall.getPredecessor().getServiceCallID() );
+                if ( executionCost != null ) {
+                    executionCost.addNested( serviceCall.getCpuTime(), serviceCall.getAllocatedBytes() );
+                }
+            }
+            taskHandler.future.complete( serviceCall.getResult() );
             removeTaskHandler( taskID );
         } else {
-            Logger.log( "No handler found for a service call task with ID '" + taskID + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, serviceCall );
+            Logger.log( "No handler found for task " + taskID + " of service call '" + serviceCall.getServiceCallID() + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, serviceCall );
         }
     }
 
@@ -0,0 +1,312 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.utils.Config;
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A class encoding and decoding the frames exchanged through the message broker.
+ * Frames above the configured size threshold are compressed with the configured algorithm. The algorithm is stated in
+ * the AMQP content encoding of the message; a frame without it (e.g. from an older peer or after a hop that dropped the
+ * headers) is recognized by its compression header, or read as it is.
+ * Several frames bound for the same queue may be packed into a single envelope frame, which is compressed as a whole.
+ * NOTE: Enable the compression (and the batching) only after all peers can decode compressed frames (and envelopes).
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class ServiceCallCodec {
+    private static final Config.Setting<Integer> COMPRESSION_THRESHOLD = Config.setting( "serviceBus.compression.threshold", 0 );
+    private static final Config.Setting<Compression> COMPRESSION_ALGORITHM = Config.setting( "serviceBus.compression.algorithm", Compression.DEFLATE );
+    private static final Config.Setting<Integer> COMPRESSION_LEVEL = Config.setting( "serviceBus.compression.level", Deflater.BEST_SPEED );
+    private static final int BUFFER_SIZE = 8192;
+    // a serialized object starts with 0xACED, so an envelope can't be mistaken for a single frame:
+    private static final byte ENVELOPE_MAGIC = ( byte ) 0xEB;
+    private static final byte ENVELOPE_VERSION = 1;
+    private static final int ENVELOPE_HEADER_SIZE = 6;
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial( Deflater::new );
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial( Inflater::new );
+
+    /**
+     * The supported compression algorithms and their AMQP content encodings.
+     */
+    public enum Compression {
+        NONE( null ),
+        DEFLATE( "deflate" ),
+        GZIP( "gzip" );
+
+        private final String contentEncoding;
+
+        Compression( String contentEncoding ) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The AMQP content encoding of the algorithm ('null' for no compression).
+         */
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        /**
+         * Used to find the algorithm by its AMQP content encoding.
+         *
+         * @param contentEncoding The content encoding of a received message.
+         * @return The compression algorithm; NONE if the content encoding is missing or unknown.
+         */
+        public static Compression fromContentEncoding( String contentEncoding ) {
+            if ( contentEncoding != null ) {
+                for ( Compression compression : values() ) {
+                    if ( contentEncoding.equals( compression.contentEncoding ) ) {
+                        return compression;
+                    }
+                }
+            }
+            return NONE;
+        }
+    }
+
+    /**
+     * An encoded frame ready to be sent.
+     */
+    public static final class Frame {
+        private final byte[] data;
+        private final Compression compression;
+
+        private Frame( byte[] data, Compression compression ) {
+            this.data = data;
+            this.compression = compression;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The frame data as it goes on the wire.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The AMQP content encoding of the frame ('null' if it's not compressed).
+         */
+        public String getContentEncoding() {
+            return compression.getContentEncoding();
+        }
+    }
+
+    private ServiceCallCodec() {
+    }
+
+    /**
+     * Used to serialize an object into an uncompressed frame.
+     *
+     * @param object The object to serialize.
+     * @return The serialized object.
+     */
+    public static byte[] serialize( Serializable object ) {
+        return SerializationUtils.serialize( object );
+    }
+
+    /**
+     * Used to deserialize an uncompressed frame.
+     *
+     * @param data The serialized object.
+     * @param <T>  The expected type of the object.
+     * @return The deserialized object.
+     */
+    public static <T> T deserialize( byte[] data ) {
+        return SerializationUtils.deserialize( data );
+    }
+
+    /**
+     * Used to pack several uncompressed frames into a single envelope frame.
+     *
+     * @param frames The serialized objects, in their order of processing.
+     * @return The envelope frame.
+     */
+    public static byte[] envelope( List<byte[]> frames ) {
+        int size = ENVELOPE_HEADER_SIZE;
+        for ( byte[] frame : frames ) {
+            size += Integer.BYTES + frame.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( size );
+        buffer.put( ENVELOPE_MAGIC ).put( ENVELOPE_VERSION ).putInt( frames.size() );
+        for ( byte[] frame : frames ) {
+            buffer.putInt( frame.length ).put( frame );
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Used to check if an uncompressed frame is an envelope of several frames.
+     *
+     * @param data The uncompressed frame.
+     * @return 'true' if the frame has to be unpacked before deserializing.
+     */
+    public static boolean isEnvelope( byte[] data ) {
+        return data.length >= ENVELOPE_HEADER_SIZE && data[ 0 ] == ENVELOPE_MAGIC && data[ 1 ] == ENVELOPE_VERSION;
+    }
+
+    /**
+     * Used to unpack the frames of an envelope.
+     *
+     * @param data The uncompressed envelope frame.
+     * @return The serialized objects, in their order of processing.
+     */
+    public static List<byte[]> unpack( byte[] data ) {
+        ByteBuffer buffer = ByteBuffer.wrap( data, 2, data.length - 2 );
+        int count = buffer.getInt();
+        if ( count < 0 || count > buffer.remaining() / Integer.BYTES ) {
+            throw new IllegalStateException( "Malformed envelope of " + count + " frames." );
+        }
+        List<byte[]> frames = new ArrayList<>( count );
+        for ( int idx = 0; idx < count; idx++ ) {
+            int length = ( buffer.remaining() >= Integer.BYTES ) ? buffer.getInt() : -1;
+            if ( length < 0 || length > buffer.remaining() ) {
+                throw new IllegalStateException( "Truncated envelope at frame " + idx + " of " + count + "." );
+            }
+            byte[] frame = new byte[ length ];
+            buffer.get( frame );
+            frames.add( frame );
+        }
+        return frames;
+    }
+
+    /**
+     * Used to compress a serialized frame if it's above the configured threshold.
+     *
+     * @param data The serialized object.
+     * @return The frame to send; it stays uncompressed if it's below the threshold or compression doesn't pay off.
+     */
+    public static Frame compress( byte[] data ) {
+        int threshold = COMPRESSION_THRESHOLD.get();
+        Compression compression = COMPRESSION_ALGORITHM.get();
+        if ( threshold <= 0 || data.length < threshold || compression == Compression.NONE ) {
+            return new Frame( data, Compression.NONE );
+        }
+        return compress( data, compression, COMPRESSION_LEVEL.get() );
+    }
+
+    /**
+     * Used to compress a serialized frame with a specific algorithm regardless of the configured threshold.
+     *
+     * @param data        The serialized object.
+     * @param compression The compression algorithm.
+     * @param level       The compression level (0-9).
+     * @return The frame to send; it stays uncompressed if compression doesn't pay off.
+     */
+    public static Frame compress( byte[] data, Compression compression, int level ) {
+        byte[] compressed;
+        if ( compression == Compression.DEFLATE ) {
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setLevel( level );
+            deflater.setInput( data );
+            deflater.finish();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream( Math.max( 64, data.length / 4 ) );
+            byte[] buffer = new byte[ BUFFER_SIZE ];
+            while ( !deflater.finished() ) {
+                stream.write( buffer, 0, deflater.deflate( buffer ) );
+            }
+            compressed = stream.toByteArray();
+        } else if ( compression == Compression.GZIP ) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream( Math.max( 64, data.length / 4 ) );
+            try ( GZIPOutputStream gzip = new GZIPOutputStream( stream, BUFFER_SIZE ) {
+                {
+                    def.setLevel( level );
+                }
+            } ) {
+                gzip.write( data );
+            } catch ( IOException exception ) {
+                throw new UncheckedIOException( exception );
+            }
+            compressed = stream.toByteArray();
+        } else {
+            return new Frame( data, Compression.NONE );
+        }
+        return ( compressed.length < data.length ) ? new Frame( compressed, compression ) : new Frame( data, Compression.NONE );
+    }
+
+    /**
+     * Used to recognize a compressed frame whose content encoding got lost on the way (e.g. on a forwarding hop).
+     * A serialized object starts with 0xACED and an envelope with its own magic, so neither is mistaken for a GZIP
+     * (0x1F8B) or a zlib (DEFLATE) header.
+     *
+     * @param data The frame data as received from the wire.
+     * @return The compression algorithm of the frame; NONE for an uncompressed frame.
+     */
+    private static Compression detectCompression( byte[] data ) {
+        if ( data.length < 2 ) {
+            return Compression.NONE;
+        }
+        int first = data[ 0 ] & 0xFF;
+        int second = data[ 1 ] & 0xFF;
+        if ( first == 0x1F && second == 0x8B ) {
+            return Compression.GZIP;
+        }
+        if ( ( first & 0x0F ) == 8 && ( ( first << 8 ) | second ) % 31 == 0 ) {
+            return Compression.DEFLATE;
+        }
+        return Compression.NONE;
+    }
+
+    /**
+     * Used to decompress a received frame.
+     *
+     * @param data            The frame data as received from the wire.
+     * @param contentEncoding The AMQP content encoding of the message.
+     * @return The serialized object.
+     */
+    public static byte[] decompress( byte[] data, String contentEncoding ) {
+        try {
+            Compression compression = Compression.fromContentEncoding( contentEncoding );
+            if ( compression == Compression.NONE && contentEncoding == null ) {
+                compression = detectCompression( data );
+            }
+            switch ( compression ) {
+                case DEFLATE:
+                    Inflater inflater = inflaters.get();
+                    inflater.reset();
+                    inflater.setInput( data );
+                    ByteArrayOutputStream stream = new ByteArrayOutputStream( data.length * 4 );
+                    byte[] buffer = new byte[ BUFFER_SIZE ];
+                    while ( !inflater.finished() ) {
+                        int inflated = inflater.inflate( buffer );
+                        if ( inflated == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+                            throw new IOException( "Truncated deflate frame." );
+                        }
+                        stream.write( buffer, 0, inflated );
+                    }
+                    return stream.toByteArray();
+                case GZIP:
+                    try ( GZIPInputStream gzip = new GZIPInputStream( new ByteArrayInputStream( data ), BUFFER_SIZE ) ) {
+                        return gzip.readAllBytes();
+                    }
+                default:
+                    return data;
+            }
+        } catch ( IOException | DataFormatException exception ) {
+            throw new IllegalStateException( "Failed to decompress a '" + contentEncoding + "' frame.", exception );
+        }
+    }
+}
@@ -1,10 +1,21 @@
 package com.softwaregroup.digiwave.eip.components.servicebus;
 
+import com.rabbitmq.client.ShutdownSignalException;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.*;
+import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
 import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import org.json.simple.JSONObject;
 
-import java.util.UUID;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * An interface defining the Service Caller behavior.
@@ -17,6 +28,11 @@ import java.util.concurrent.CompletableFuture;
 interface ServiceCaller {
     /**
      * Used to call a service in the EIP microservice ecosystem asynchronously.
+     * NOTE: While the circuit breaker of the destination is open, the call fails immediately with a ServiceBusException.
+     * NOTE: Idempotent calls that failed in transport, timed out or were rejected due to overload are retried as long as
+     * the retry budget allows it; calls failed by the service itself are not.
+     * NOTE: Calls over the in-flight limit of the destination domain wait, fail or shed older calls depending on the
+     * configured overflow policy; a rejected call fails with a ServiceBusException. Nested calls are never held back.
      *
      * @param serviceAddress     The service address has to define a valid service domain name, service alias, and optionally a service version.
      * @param serviceParams      Set of parameters to provide to the called service.
@@ -24,20 +40,149 @@ interface ServiceCaller {
      * @return The future completes with the result of the service call.
      */
     default CompletableFuture<ServiceCallResult> callServiceAsync( ServiceAddress serviceAddress, ServiceParams serviceParams, ServiceCallContext serviceCallContext ) {
+        return callServiceAsync( serviceAddress, serviceParams, serviceCallContext, null );
+    }
+
+    /**
+     * Used to execute a transaction: the steps of the definition are called as soon as the steps they depend on
+     * completed, so independent steps run in parallel. The calls of the steps are recorded in the returned transaction
+     * under a root service call of the transaction, which is a successor of the calling service call (if any).
+     * NOTE: The future fails only if the definition is invalid; failed steps are reported in the transaction.
+     *
+     * @param transactionDefinition The definition of the steps, their dependencies and input mappings.
+     * @param serviceParams         The params of the transaction, available to the input mappings of the steps.
+     * @param serviceCallContext    The context in which the transaction is executed.
+     * @return The future completes with the transaction once all started steps completed.
+     */
+    default CompletableFuture<ServiceBusTransaction> executeTransactionAsync( TransactionDefinition transactionDefinition, ServiceParams serviceParams, ServiceCallContext serviceCallContext ) {
+        return new TransactionOrchestrator( transactionDefinition, serviceParams, serviceCallContext, this::callServiceAsync ).execute();
+    }
+
+    /**
+     * Used to call a service in the EIP microservice ecosystem asynchronously.
+     *
+     * @param serviceAddress     The service address has to define a valid service domain name, service alias, and optionally a service version.
+     * @param serviceParams      Set of parameters to provide to the called service.
+     * @param serviceCallContext The context in which the service call is performed.
+     * @param onPrepared         Optionally gets the ServiceCall object once it's assembled (not called if the call is
+     *                           refused before that).
+     * @return The future completes with the result of the service call.
+     */
+    private CompletableFuture<ServiceCallResult> callServiceAsync( ServiceAddress serviceAddress, ServiceParams serviceParams, ServiceCallContext serviceCallContext, Consumer<ServiceCall> onPrepared ) {
+        InFlightLimiter inFlightLimiter = InFlightLimiter.forDestination( serviceAddress.serviceDomainName );
+        return inFlightLimiter.acquire( serviceCallContext != null && serviceCallContext.serviceCall != null )
+                .thenCompose( permit -> callServiceWithinLimit( serviceAddress, serviceParams, serviceCallContext, onPrepared ).whenComplete( ( result, exception ) -> inFlightLimiter.release() ) )
+                .exceptionally( exception -> {
+                    ServiceCallResult result = new ServiceCallResult();
+                    result.setException( ( Exception ) ( ( exception instanceof CompletionException && exception.getCause() != null ) ? exception.getCause() : exception ) );
+                    return result;
+                } );
+    }
+
+    /**
+     * Used to call a service in the EIP microservice ecosystem for a streamed result.
+     * The call is sent once the subscriber requests the first items; the items arrive in order as the provider
+     * produces them, and the provider never sends more than the subscriber requested (up to the credit window).
+     * NOTE: Streamed calls go through the in-flight limiter and the circuit breaker, but they are never retried.
+     * NOTE: If no item arrives within 'serviceBus.callTimeout' ms while items were requested, the stream fails with
+     * a TimeoutException.
+     *
+     * @param serviceAddress     The service address has to define a valid service domain name, service alias, and optionally a service version.
+     * @param serviceParams      Set of parameters to provide to the called service.
+     * @param serviceCallContext The context in which the service call is performed.
+     * @return The publisher of the result items; it accepts a single subscriber.
+     */
+    default Flow.Publisher<JSONObject> callServiceStreaming( ServiceAddress serviceAddress, ServiceParams serviceParams, ServiceCallContext serviceCallContext ) {
+        return new StreamReceiver( serviceAddress, prepareServiceCall( serviceAddress, serviceParams, serviceCallContext ) );
+    }
+
+    /**
+     * Used to call a service once a permit of the in-flight limiter was acquired.
+     *
+     * @param serviceAddress     The service address has to define a valid service domain name, service alias, and optionally a service version.
+     * @param serviceParams      Set of parameters to provide to the called service.
+     * @param serviceCallContext The context in which the service call is performed.
+     * @param onPrepared         Optionally gets the ServiceCall object once it's assembled.
+     * @return The future completes with the result of the service call.
+     */
+    private CompletableFuture<ServiceCallResult> callServiceWithinLimit( ServiceAddress serviceAddress, ServiceParams serviceParams, ServiceCallContext serviceCallContext, Consumer<ServiceCall> onPrepared ) {
+        CircuitBreaker circuitBreaker = CircuitBreaker.forDestination( serviceAddress );
+        if ( !circuitBreaker.tryAcquire() ) {
+            ServiceCallResult result = new ServiceCallResult();
+            result.setException( new ServiceBusException( "Circuit to '" + serviceAddress.serviceDomainName + "." + serviceAddress.serviceAlias + "' is open; the call was not sent." ) );
+            return CompletableFuture.completedFuture( result );
+        }
+        long startNanos = System.nanoTime();
         return CompletableFuture
-                .supplyAsync( () -> prepareServiceCall( serviceAddress, serviceParams, serviceCallContext ) )
-                .thenComposeAsync( serviceCall -> ServiceBusDispatcher.getInstance().sendServiceRequest( serviceCall ) )
+                .supplyAsync( () -> {
+                    ServiceCall serviceCall = prepareServiceCall( serviceAddress, serviceParams, serviceCallContext );
+                    if ( onPrepared != null ) {
+                        onPrepared.accept( serviceCall );
+                    }
+                    return serviceCall;
+                } )
+                .thenComposeAsync( serviceCall -> {
+                    RetryBudget.recordCall();
+                    return sendWithRetries( serviceCall, 1 );
+                } )
                 .handleAsync( ( result, exception ) -> {
                     // TODO: improve the error handling here
+                    ServiceCallResult callResult = ( result != null ) ? result : new ServiceCallResult();
                     if ( exception != null ) {
                         Logger.log( "Error during attempted service call: " + exception, Logger.Severity.ERROR, Logger.Threads.ESB, exception );
-                        result.setException( ( Exception ) exception );
+                        callResult.setException( ( Exception ) exception );
                     }
-                    return result;
+                    circuitBreaker.onCompletion( callResult.getException() == null, System.nanoTime() - startNanos );
+                    return callResult;
                 } )
                 .thenApplyAsync( result -> result );
     }
 
+    /**
+     * Used to send a service call and retry it after a jittered backoff if it fails in a way a retry can fix and may be
+     * retried.
+     *
+     * @param serviceCall The ServiceCall object to send.
+     * @param attempt     The number of this attempt (starting with 1).
+     * @return The future completes with the result of the last attempt.
+     */
+    private CompletableFuture<ServiceCallResult> sendWithRetries( ServiceCall serviceCall, int attempt ) {
+        return ServiceBusDispatcher.getInstance().sendServiceRequest( serviceCall )
+                .exceptionally( exception -> {
+                    ServiceCallResult result = new ServiceCallResult();
+                    result.setException( ( Exception ) exception );
+                    return result;
+                } )
+                .thenCompose( result -> {
+                    if ( result.getException() == null || !isRetryable( result.getException() ) || !serviceCall.isIdempotent() || attempt >= RetryBudget.MAX_ATTEMPTS.get() || !RetryBudget.tryAcquire() ) {
+                        return CompletableFuture.completedFuture( result );
+                    }
+                    Metrics.increment( "retry.attempts" );
+                    Logger.log( "Retrying service call '" + serviceCall.getServiceCallID() + "' after failed attempt " + attempt + ": " + result.getException(), Logger.Severity.NOTICE, Logger.Threads.ESB );
+                    return CompletableFuture
+                            .runAsync( () -> {
+                            }, CompletableFuture.delayedExecutor( RetryBudget.getBackoff( attempt ), TimeUnit.MILLISECONDS ) )
+                            .thenCompose( ignored -> sendWithRetries( serviceCall, attempt + 1 ) );
+                } );
+    }
+
+    /**
+     * Used to check if a failed attempt may succeed when sent again: transport failures (the broker connection or
+     * channel broke), timeouts and overload rejections. Failures of the service itself would only be repeated.
+     *
+     * @param exception The exception of the failed attempt.
+     * @return 'true' if the attempt may be retried.
+     */
+    private static boolean isRetryable( Throwable exception ) {
+        while ( ( exception instanceof CompletionException || exception instanceof ExecutionException ) && exception.getCause() != null ) {
+            exception = exception.getCause();
+        }
+        if ( exception instanceof ServiceBusException ) {
+            return ( ( ServiceBusException ) exception ).isRetryable();
+        }
+        return exception instanceof TimeoutException || exception instanceof IOException || exception instanceof UncheckedIOException || exception instanceof ShutdownSignalException;
+    }
+
     /**
      * Used to assemble and prepare a new ServiceCall object.
      *
@@ -48,23 +193,23 @@ interface ServiceCaller {
      */
     private ServiceCall prepareServiceCall( ServiceAddress serviceAddress, ServiceParams serviceParams, ServiceCallContext serviceCallContext ) {
         // assemble the new service call:
-        String transactionID = ( serviceCallContext.serviceCall != null ) ? serviceCallContext.serviceCall.getTransactionID() : ( "T-" + UUID.randomUUID().toString() );
-        int level = ( serviceCallContext.serviceCall != null ) ? serviceCallContext.serviceCall.getLevel() + 1 : 0;
-        ServiceCallSource source = new ServiceCallSource();
-        source.instanceID = MicroserviceInstance.INSTANCE_ID;
-        source.serviceDomainName = MicroserviceInstance.SERVICE_DOMAIN_NAME;
         ServiceCallDestination destination = new ServiceCallDestination();
         destination.serviceAlias = serviceAddress.serviceAlias;
         destination.serviceDomainName = serviceAddress.serviceDomainName;
         destination.serviceVersion = serviceAddress.serviceVersion;
         destination.serviceParams = serviceParams;
 
-        ServiceCall serviceCall = ServiceBusDispatcher.getInstance().createServiceCall( transactionID, level, source, destination );
+        // if there is a predecessor, the new service call is linked to it and joins its transaction:
+        ServiceCall serviceCall = ServiceBusDispatcher.getInstance().createServiceCall( serviceCallContext.serviceCall, destination );
 
-        // if there is a predecessor, link it to the new service call:
-        if ( serviceCallContext.serviceCall != null ) {
-            serviceCall.setPredecessor( serviceCallContext.serviceCall );
+        // sub-calls inherit the priority class, unless the address states its own:
+        if ( serviceAddress.priority != null ) {
+            serviceCall.setPriority( serviceAddress.priority );
+        } else if ( serviceCallContext.serviceCall != null ) {
+            serviceCall.setPriority( serviceCallContext.serviceCall.getPriority() );
         }
+        serviceCall.setAffinityKey( serviceAddress.affinityKey );
+        serviceCall.setIdempotent( serviceAddress.idempotent );
 
         return serviceCall;
     }
@@ -1,5 +1,6 @@
 package com.softwaregroup.digiwave.eip.components.servicebus;
 
+import com.softwaregroup.digiwave.eip.components.communication.ConnectorManager;
 import com.softwaregroup.digiwave.eip.utils.Logger;
 
 import java.util.concurrent.CompletableFuture;
@@ -24,6 +25,7 @@ public abstract class ServiceConsumer extends MicroserviceInstance implements Se
         return super.start().thenRunAsync( () -> {
             try {
                 ServiceBusDispatcher.getInstance().configureServiceConsumer();
+                ConnectorManager.getInstance().start( this );
                 Logger.log( "Service consumer start-up sequence completed.", Logger.Severity.INFO, Logger.Threads.ESB );
             } catch ( Exception exception ) {
                 Logger.log( "Service consumer failed to start due to an exception.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
@@ -40,6 +42,8 @@ public abstract class ServiceConsumer extends MicroserviceInstance implements Se
     @Override
     public CompletableFuture stop() {
         return super.stop().thenRunAsync( () -> {
+            // the connectors answer their pending requests while the service bus is still running:
+            ConnectorManager.getInstance().stop();
             ServiceBusDispatcher.getInstance().shutDown();
             Logger.log( "Service consumer shut-down sequence completed.", Logger.Severity.INFO, Logger.Threads.ESB );
         } );
@@ -0,0 +1,37 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a Service implementation to be registered automatically by the ServiceProvider of its service domain.
+ * The annotated classes are collected at build time into a generated ServiceIndex, which creates the services through
+ * direct constructor references. Invalid endpoints (e.g. a class that doesn't implement Service or lacks a public
+ * no-argument constructor) fail the build.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+@Documented
+@Retention( RetentionPolicy.CLASS )
+@Target( ElementType.TYPE )
+public @interface ServiceEndpoint {
+    /**
+     * @return The alias under which the service is called.
+     */
+    String alias();
+
+    /**
+     * @return The version of the service.
+     */
+    int version() default 1;
+
+    /**
+     * @return The service domain providing the service; an empty domain registers the service in every domain.
+     */
+    String domain() default "";
+}
@@ -0,0 +1,43 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceDefinition;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * An interface defining an index of services known at build time.
+ * The implementations are generated from the ServiceEndpoint annotations and discovered through the ServiceLoader.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public interface ServiceIndex {
+    /**
+     * Used to get the definitions of all indexed services.
+     *
+     * @return The list of service definitions.
+     */
+    List<ServiceDefinition> getServiceDefinitions();
+
+    /**
+     * Used to create the definition of an indexed service.
+     *
+     * @param serviceDomainName The service domain providing the service (empty for every domain).
+     * @param serviceAlias      The alias of the service.
+     * @param serviceVersion    The version of the service.
+     * @param serviceClassName  The name of the Service class.
+     * @param serviceFactory    The constructor reference of the Service class.
+     * @return The new ServiceDefinition object.
+     */
+    static ServiceDefinition define( String serviceDomainName, String serviceAlias, int serviceVersion, String serviceClassName, Supplier<Service> serviceFactory ) {
+        ServiceDefinition serviceDefinition = new ServiceDefinition();
+        serviceDefinition.serviceDomainName = serviceDomainName;
+        serviceDefinition.serviceAlias = serviceAlias;
+        serviceDefinition.serviceVersion = serviceVersion;
+        serviceDefinition.serviceClassName = serviceClassName;
+        serviceDefinition.serviceFactory = serviceFactory;
+        return serviceDefinition;
+    }
+}
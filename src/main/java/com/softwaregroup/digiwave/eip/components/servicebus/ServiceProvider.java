@@ -2,31 +2,80 @@ package com.softwaregroup.digiwave.eip.components.servicebus;
 
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallContext;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallPriority;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallResult;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceDefinition;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.StreamSignal;
 import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.ExecutionCost;
 import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import com.softwaregroup.digiwave.eip.utils.StartupTimer;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * An abstract class defining a ServiceProvider behavior.
+ * The services annotated with ServiceEndpoint are registered automatically on start-up from the generated service
+ * indexes; services registered by hand have their class resolved once on registration.
+ * The service requests are consumed only after onStarted, so all services registered in overrides of start are in
+ * place (and warmed up) when the first request arrives.
  * NOTE: Extend this in order to create a microservice that both consumes other services and provides services on its own.
+ * NOTE: Custom launchers have to call onStarted once start completes.
  *
  * @author Boris Kostadinov
  * @version 1.0
  * @since 2019.1.0
  */
 public abstract class ServiceProvider extends ServiceConsumer {
+    private static final Config.Setting<Integer> EXECUTION_POOL_SIZE = Config.setting( "serviceProvider.executionPoolSize", 32 );
+    private static final int WARM_UP_ITERATIONS = Config.getSetting( "serviceProvider.warmUpIterations", 0 );
+    private static final Config.Setting<Boolean> ACCOUNTING_ENABLED = Config.setting( "serviceProvider.accounting.enabled", true );
+    private static final long COST_SETTLE_MS = 50;
+    private static final String[] QUEUE_WAIT_METRICS = new String[ ServiceCallPriority.values().length ];
+    private static final String[] EXECUTION_METRICS = new String[ ServiceCallPriority.values().length ];
+
+    static {
+        for ( ServiceCallPriority priority : ServiceCallPriority.values() ) {
+            String name = priority.name().toLowerCase( Locale.ROOT );
+            QUEUE_WAIT_METRICS[ priority.ordinal() ] = "serviceProvider.queueWait." + name;
+            EXECUTION_METRICS[ priority.ordinal() ] = "serviceProvider.execution." + name;
+        }
+    }
+
     private Map<String, Map<Integer, ServiceDefinition>> serviceInterface;
+    private PriorityLanes priorityLanes;
+    private DeliveryDeduplicator deliveryDeduplicator;
+    private Map<String, CompletableFuture<Void>> affinityChains;
+    private ThreadPoolExecutor executionPool;
+    private volatile long executionTimeEwma;
+    private final Map<ServiceDefinition, String[]> costMetrics = new ConcurrentHashMap<>();
 
     public ServiceProvider() {
         serviceInterface = new HashMap<>();
+        priorityLanes = new PriorityLanes();
+        deliveryDeduplicator = new DeliveryDeduplicator();
+        affinityChains = new ConcurrentHashMap<>();
+        int poolSize = Math.max( 1, EXECUTION_POOL_SIZE.get() );
+        executionPool = new ThreadPoolExecutor( poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>() );
+        Config.onReload( this::resizeExecutionPool );
     }
 
     /**
@@ -39,7 +88,8 @@ public abstract class ServiceProvider extends ServiceConsumer {
     public CompletableFuture start() {
         return super.start().thenRunAsync( () -> {
             try {
-                ServiceBusDispatcher.getInstance().configureServiceProvider( this::processServiceRequest );
+                registerIndexedServices();
+                ServiceBusDispatcher.getInstance().configureServiceProvider( this::processServiceRequest, priorityLanes::getTotalDepth, () -> executionTimeEwma, this::takeQueuedServiceRequests, this::awaitAffinityChains );
                 Logger.log( "Service provider start-up sequence completed.", Logger.Severity.INFO, Logger.Threads.ESB );
             } catch ( Exception exception ) {
                 Logger.log( "Service provider failed to start due to an exception.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
@@ -48,7 +98,31 @@ public abstract class ServiceProvider extends ServiceConsumer {
     }
 
     /**
-     * Used to shutdown the microservice.
+     * Used to warm up the registered services and start consuming the service requests.
+     * NOTE: Override this to implement custom behavior, but make sure to call the base method first.
+     *
+     * @return The default method returns nothing.
+     */
+    @Override
+    public CompletableFuture onStarted() {
+        return super.onStarted().thenRunAsync( () -> {
+            try {
+                if ( WARM_UP_ITERATIONS > 0 ) {
+                    long startNanos = System.nanoTime();
+                    warmUp();
+                    StartupTimer.record( "warmUp", startNanos );
+                }
+                ServiceBusDispatcher.getInstance().startServiceRequests();
+                Logger.log( "Service provider started consuming service requests.", Logger.Severity.INFO, Logger.Threads.ESB );
+            } catch ( Exception exception ) {
+                Logger.log( "Service provider failed to start consuming service requests.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            }
+        } );
+    }
+
+    /**
+     * Used to shutdown the microservice. The execution pool is shut down only after the service requests were drained
+     * by the base method.
      * NOTE: Override this to implement custom startup behavior, but make sure to call the base method first.
      *
      * @return The default shutdown method returns nothing.
@@ -56,6 +130,7 @@ public abstract class ServiceProvider extends ServiceConsumer {
     @Override
     public CompletableFuture stop() {
         return super.stop().thenRunAsync( () -> {
+            executionPool.shutdown();
             Logger.log( "Service provider shut-down sequence completed.", Logger.Severity.INFO, Logger.Threads.ESB );
         } );
     }
@@ -67,6 +142,9 @@ public abstract class ServiceProvider extends ServiceConsumer {
      */
     protected void registerService( ServiceDefinition serviceDefinition ) {
         Logger.log( "Registering service definition for service: " + serviceDefinition.serviceAlias, Logger.Severity.DEBUG, Logger.Threads.ESB, serviceDefinition );
+        if ( serviceDefinition.serviceFactory == null ) {
+            serviceDefinition.serviceFactory = resolveServiceFactory( serviceDefinition.serviceClassName );
+        }
 
         if ( !serviceInterface.containsKey( serviceDefinition.serviceAlias ) ) {
             serviceInterface.put( serviceDefinition.serviceAlias, new HashMap<>() );
@@ -86,6 +164,47 @@ public abstract class ServiceProvider extends ServiceConsumer {
         serviceInterface.replace( serviceDefinition.serviceAlias, serviceVersions );
     }
 
+    /**
+     * Used to register all services of the own service domain found in the generated service indexes.
+     */
+    private void registerIndexedServices() {
+        for ( ServiceIndex serviceIndex : ServiceLoader.load( ServiceIndex.class ) ) {
+            for ( ServiceDefinition serviceDefinition : serviceIndex.getServiceDefinitions() ) {
+                if ( serviceDefinition.serviceDomainName == null || serviceDefinition.serviceDomainName.isEmpty() || serviceDefinition.serviceDomainName.equals( SERVICE_DOMAIN_NAME ) ) {
+                    registerService( serviceDefinition );
+                }
+            }
+        }
+    }
+
+    /**
+     * Used to execute synthetic calls of all registered services that define warm-up parameters, so class loading and
+     * JIT compilation happen before the first real request. The calls of each iteration run in parallel on the
+     * execution pool; failures are logged and otherwise ignored.
+     */
+    private void warmUp() {
+        List<ServiceDefinition> serviceDefinitions = new ArrayList<>();
+        serviceInterface.values().forEach( serviceVersions -> serviceVersions.values().forEach( serviceDefinition -> {
+            if ( serviceDefinition.warmUpParams != null ) {
+                serviceDefinitions.add( serviceDefinition );
+            }
+        } ) );
+        for ( int iteration = 0; iteration < WARM_UP_ITERATIONS; iteration++ ) {
+            List<CompletableFuture<?>> warmUpCalls = new ArrayList<>();
+            for ( ServiceDefinition serviceDefinition : serviceDefinitions ) {
+                warmUpCalls.add( CompletableFuture.runAsync( () -> {
+                    try {
+                        initializeService( serviceDefinition ).executeAsync( serviceDefinition, serviceDefinition.warmUpParams, new ServiceCallContext() ).join();
+                    } catch ( Exception exception ) {
+                        Logger.log( "Warm-up call of '" + serviceDefinition.serviceAlias + "' failed.", Logger.Severity.DEBUG, Logger.Threads.ESB, exception );
+                    }
+                }, executionPool ) );
+            }
+            CompletableFuture.allOf( warmUpCalls.toArray( new CompletableFuture<?>[ 0 ] ) ).join();
+        }
+        Logger.log( "Warmed up " + serviceDefinitions.size() + " services with " + WARM_UP_ITERATIONS + " iterations.", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
     /**
      * Used to verify is the current caller has access to the service.
      * NOTE: Override this method to invoke custom functionality.
@@ -101,38 +220,172 @@ public abstract class ServiceProvider extends ServiceConsumer {
 
     /**
      * Used to process any received service requests.
+     * The request is queued in the lane of its priority class and every execution slot picks the next request across
+     * the lanes by weight, so a backlog of bulk requests doesn't delay the interactive ones. A repeated delivery of a
+     * request is not executed again, but gets the response of the first one.
      *
      * @param serviceCall The ServiceCall object received from the message broker.
      */
     private void processServiceRequest( ServiceCall serviceCall ) {
+        if ( serviceCall.getStreamSignal() != StreamSignal.REQUEST ) {
+            CompletableFuture<byte[]> firstDelivery = deliveryDeduplicator.check( serviceCall );
+            if ( firstDelivery != null ) {
+                respondToRepeatedDelivery( serviceCall, firstDelivery );
+                return;
+            }
+        }
+        String affinityKey = serviceCall.getAffinityKey();
+        if ( affinityKey != null && PartitionManager.getPartitionCount( MicroserviceInstance.SERVICE_DOMAIN_NAME ) > 0 ) {
+            processOrderedServiceRequest( affinityKey, serviceCall );
+            return;
+        }
+        priorityLanes.offer( serviceCall );
+        executionPool.execute( () -> {
+            PriorityLanes.QueuedServiceCall queuedServiceCall = priorityLanes.poll();
+            if ( queuedServiceCall == null ) {
+                return;
+            }
+            ServiceCall nextServiceCall = queuedServiceCall.getServiceCall();
+            Metrics.recordLatency( QUEUE_WAIT_METRICS[ nextServiceCall.getPriority().ordinal() ], queuedServiceCall.getEnqueuedNanos() );
+            executeAndRespond( nextServiceCall );
+        } );
+    }
+
+    /**
+     * Used to answer a repeated delivery of a service request with the response of its first delivery, once that one
+     * is sent.
+     *
+     * @param serviceCall   The repeated ServiceCall object received from the message broker.
+     * @param firstDelivery The future of the first delivery's response.
+     */
+    private void respondToRepeatedDelivery( ServiceCall serviceCall, CompletableFuture<byte[]> firstDelivery ) {
+        firstDelivery.whenComplete( ( response, exception ) -> {
+            if ( exception != null ) {
+                serviceCall.setSuccessful( false );
+                serviceCall.setResult( new ServiceCallResult() );
+                serviceCall.getResult().setException( ( Exception ) exception );
+                ServiceBusDispatcher.getInstance().sendServiceResponse( serviceCall );
+            } else if ( response != null ) {
+                ServiceBusDispatcher.getInstance().sendServiceResponse( response );
+            } else {
+                // the first delivery was not executed here, so there is nothing to answer with:
+                ServiceBusDispatcher.getInstance().releaseServiceRequest();
+            }
+        } );
+    }
+
+    /**
+     * Used to take out all service requests waiting in the priority lanes, so they can be handed back on drain.
+     * NOTE: Partitioned requests are not included; they stay in their affinity chains to keep their order.
+     *
+     * @return The ServiceCall objects whose execution didn't start yet.
+     */
+    private List<ServiceCall> takeQueuedServiceRequests() {
+        List<ServiceCall> serviceCalls = new ArrayList<>();
+        PriorityLanes.QueuedServiceCall queuedServiceCall;
+        while ( ( queuedServiceCall = priorityLanes.poll() ) != null ) {
+            serviceCalls.add( queuedServiceCall.getServiceCall() );
+            deliveryDeduplicator.complete( queuedServiceCall.getServiceCall(), null );
+        }
+        return serviceCalls;
+    }
+
+    /**
+     * Used to wait for the partitioned service requests received so far, e.g. before a partition is handed off to
+     * another instance.
+     *
+     * @param partitions The partitions whose requests to wait for.
+     * @return The future completes once the affinity chains of the partitions are done.
+     */
+    private CompletableFuture<Void> awaitAffinityChains( Set<Integer> partitions ) {
+        int partitionCount = PartitionManager.getPartitionCount( MicroserviceInstance.SERVICE_DOMAIN_NAME );
+        List<CompletableFuture<Void>> chains = new ArrayList<>();
+        affinityChains.forEach( ( affinityKey, chain ) -> {
+            if ( partitions.contains( PartitionManager.getPartition( affinityKey, partitionCount ) ) ) {
+                chains.add( chain.handle( ( result, exception ) -> null ) );
+            }
+        } );
+        return CompletableFuture.allOf( chains.toArray( new CompletableFuture<?>[ 0 ] ) );
+    }
+
+    /**
+     * Used to process a partitioned service request after all earlier requests with the same affinity key completed.
+     * Requests with different keys still run in parallel.
+     *
+     * @param affinityKey The affinity key of the service request.
+     * @param serviceCall The ServiceCall object received from the message broker.
+     */
+    private void processOrderedServiceRequest( String affinityKey, ServiceCall serviceCall ) {
+        CompletableFuture<Void> chain = affinityChains.compute( affinityKey, ( key, previous ) -> {
+            CompletableFuture<Void> predecessor = ( previous != null ) ? previous.handle( ( result, exception ) -> null ) : CompletableFuture.completedFuture( null );
+            return predecessor.thenRunAsync( () -> executeAndRespond( serviceCall ), executionPool );
+        } );
+        chain.whenComplete( ( result, exception ) -> affinityChains.remove( affinityKey, chain ) );
+    }
+
+    /**
+     * Used to execute a service request on the current execution pool thread and send back its response.
+     *
+     * @param serviceCall The ServiceCall object received from the message broker.
+     */
+    private void executeAndRespond( ServiceCall serviceCall ) {
+        if ( serviceCall.getStreamSignal() == StreamSignal.REQUEST ) {
+            executeOwnStream( serviceCall );
+            return;
+        }
+        long startNanos = System.nanoTime();
         executeOwnService( serviceCall )
-                .thenAcceptAsync( serviceCallResponse -> ServiceBusDispatcher.getInstance().sendServiceResponse( serviceCallResponse ) );
+                .thenAcceptAsync( serviceCallResponse -> {
+                    Metrics.recordLatency( EXECUTION_METRICS[ serviceCall.getPriority().ordinal() ], startNanos );
+                    updateExecutionTimeEwma( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - startNanos ) );
+                    byte[] frame = ServiceBusDispatcher.getInstance().sendServiceResponse( serviceCallResponse );
+                    deliveryDeduplicator.complete( serviceCall, frame );
+                } );
     }
 
     /**
      * Used to execute a service provided by this microservice instance.
+     * The wall clock time, the thread CPU time and the allocated bytes of the execution are attached to the response,
+     * the latter two including the costs reported by the calls the service made. The work of the service counts on the
+     * calling thread and in the async stages it runs on the executor of its context. The own costs are also aggregated
+     * per service alias and version in the metrics.
+     * NOTE: This runs on an execution pool thread and blocks it until the service completes, so the pool size bounds
+     * the number of services executed at once.
      *
      * @param serviceCall The ServiceCall object received from the message broker.
      * @return The future completes with an updated ServiceCall object ready to be returned to the requester.
      */
     private CompletableFuture<ServiceCall> executeOwnService( ServiceCall serviceCall ) {
-        return CompletableFuture.supplyAsync( () -> {
-            try {
-                ServiceDefinition serviceDefinition = identifyService( serviceCall );
-                if ( serviceDefinition != null ) {
-                    Service service = initializeService( serviceDefinition );
-                    ServiceCallContext serviceCallContext = new ServiceCallContext();
-                    serviceCallContext.serviceCall = serviceCall;
-                    return service.executeAsync( serviceDefinition, serviceCall.getDestination().serviceParams, serviceCallContext ).join();
-                } else {
-                    throw new ServiceBusException( "Service definition not found!" );
-                }
-            } catch ( Exception exception ) {
-                CompletableFuture<ServiceCallResult> future = new CompletableFuture<>();
-                future.completeExceptionally( exception );
-                return future.join();
+        CompletableFuture<ServiceCallResult> execution;
+        ExecutionCost executionCost = new ExecutionCost( ACCOUNTING_ENABLED.get() );
+        ServiceDefinition serviceDefinition = null;
+        long startNanos = System.nanoTime();
+        try {
+            serviceDefinition = identifyService( serviceCall );
+            if ( serviceDefinition != null ) {
+                Service service = initializeService( serviceDefinition );
+                ServiceCallContext serviceCallContext = new ServiceCallContext();
+                serviceCallContext.serviceCall = serviceCall;
+                serviceCallContext.executionCost = executionCost;
+                serviceCallContext.executor = executionCost.wrap( ForkJoinPool.commonPool() );
+                ServiceBusDispatcher.getInstance().registerExecutionCost( serviceCall, executionCost );
+                ServiceDefinition definition = serviceDefinition;
+                execution = CompletableFuture.completedFuture( executionCost.measure( () -> service.executeAsync( definition, serviceCall.getDestination().serviceParams, serviceCallContext ).join() ) );
+            } else {
+                throw new ServiceBusException( "Service definition not found!" );
             }
-        } ).handleAsync( ( result, exception ) -> {
+        } catch ( Exception exception ) {
+            execution = CompletableFuture.failedFuture( exception );
+        }
+        if ( serviceDefinition != null ) {
+            executionCost.awaitTasks( COST_SETTLE_MS );
+            ServiceBusDispatcher.getInstance().closeExecutionCost( serviceCall );
+            recordExecutionCost( serviceDefinition, executionCost );
+        }
+        serviceCall.setExecutionTime( ( int ) TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos ) );
+        serviceCall.setCpuTime( executionCost.getTotalCpuMicros() );
+        serviceCall.setAllocatedBytes( executionCost.getTotalAllocatedBytes() );
+        return execution.handleAsync( ( result, exception ) -> {
             if ( exception != null ) {
                 serviceCall.setSuccessful( false );
                 serviceCall.setResult( new ServiceCallResult() );
@@ -145,6 +398,74 @@ public abstract class ServiceProvider extends ServiceConsumer {
         } ).thenApplyAsync( result -> result );
     }
 
+    /**
+     * Used to start a streamed execution of a service provided by this microservice instance. The items of the service
+     * publisher are sent back as they are produced, so the execution pool thread is released right away.
+     *
+     * @param serviceCall The REQUEST frame received from the message broker.
+     */
+    private void executeOwnStream( ServiceCall serviceCall ) {
+        StreamSender streamSender = new StreamSender( serviceCall );
+        try {
+            ServiceDefinition serviceDefinition = identifyService( serviceCall );
+            if ( serviceDefinition == null ) {
+                throw new ServiceBusException( "Service definition not found!" );
+            }
+            Service service = initializeService( serviceDefinition );
+            ServiceCallContext serviceCallContext = new ServiceCallContext();
+            serviceCallContext.serviceCall = serviceCall;
+            service.executeStreaming( serviceDefinition, serviceCall.getDestination().serviceParams, serviceCallContext ).subscribe( streamSender );
+        } catch ( Exception exception ) {
+            streamSender.onError( exception );
+        }
+    }
+
+    /**
+     * Used to aggregate the own cost of a service execution per service alias and version: the total CPU time in
+     * microseconds, the total allocated bytes and the histogram of the CPU time per execution.
+     *
+     * @param serviceDefinition The definition of the executed service.
+     * @param executionCost     The cost of the execution.
+     */
+    private void recordExecutionCost( ServiceDefinition serviceDefinition, ExecutionCost executionCost ) {
+        String[] metrics = costMetrics.computeIfAbsent( serviceDefinition, definition -> {
+            String name = definition.serviceAlias + ".v" + definition.serviceVersion;
+            return new String[] { "serviceProvider.cpuTime." + name, "serviceProvider.allocatedBytes." + name, "serviceProvider.cpuPerCall." + name };
+        } );
+        long cpuMicros = executionCost.getCpuMicros();
+        Metrics.add( metrics[ 0 ], cpuMicros );
+        Metrics.add( metrics[ 1 ], executionCost.getAllocatedBytes() );
+        Metrics.getHistogram( metrics[ 2 ] ).record( cpuMicros );
+    }
+
+    /**
+     * Used to update the moving average of the execution time that is published in the load reports.
+     *
+     * @param executionTimeMicros The execution time of a service call in microseconds.
+     */
+    private synchronized void updateExecutionTimeEwma( long executionTimeMicros ) {
+        executionTimeEwma = ( executionTimeEwma == 0 ) ? executionTimeMicros : ( executionTimeEwma * 4 + executionTimeMicros ) / 5;
+    }
+
+    /**
+     * Used to apply a changed execution pool size without restarting the microservice.
+     */
+    private synchronized void resizeExecutionPool() {
+        int poolSize = Math.max( 1, EXECUTION_POOL_SIZE.get() );
+        if ( poolSize == executionPool.getMaximumPoolSize() ) {
+            return;
+        }
+        // the core size may never exceed the maximum size, so the order of the updates depends on the direction:
+        if ( poolSize > executionPool.getMaximumPoolSize() ) {
+            executionPool.setMaximumPoolSize( poolSize );
+            executionPool.setCorePoolSize( poolSize );
+        } else {
+            executionPool.setCorePoolSize( poolSize );
+            executionPool.setMaximumPoolSize( poolSize );
+        }
+        Logger.log( "Service execution pool resized to " + poolSize + " threads.", Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
     /**
      * Used to identify a service in the service interface by its alias and version (optionally).
      *
@@ -174,15 +495,40 @@ public abstract class ServiceProvider extends ServiceConsumer {
      *
      * @param serviceDefinition The ServiceDefinition object defining the service.
      * @return The new instance of the Service class.
-     * @throws ClassNotFoundException    To be handled by the caller.
-     * @throws NoSuchMethodException     To be handled by the caller.
-     * @throws IllegalAccessException    To be handled by the caller.
-     * @throws InvocationTargetException To be handled by the caller.
-     * @throws InstantiationException    To be handled by the caller.
-     */
-    private Service initializeService( ServiceDefinition serviceDefinition ) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
-        Class<?> microserviceClass = Class.forName( serviceDefinition.serviceClassName );
-        Constructor<?> constructor = microserviceClass.getConstructor();
-        return ( Service ) constructor.newInstance();
+     * @throws ServiceBusException If the service has no factory (e.g. the definition was never registered).
+     */
+    private Service initializeService( ServiceDefinition serviceDefinition ) throws ServiceBusException {
+        if ( serviceDefinition.serviceFactory == null ) {
+            throw new ServiceBusException( "Service '" + serviceDefinition.serviceAlias + "' has no service factory!" );
+        }
+        return serviceDefinition.serviceFactory.get();
+    }
+
+    /**
+     * Used to resolve the constructor of a Service class once, so it isn't looked up on every call.
+     * If the class can't be resolved, the returned factory fails every call of the service.
+     *
+     * @param serviceClassName The name of the Service class.
+     * @return The factory creating new instances of the Service class.
+     */
+    private static Supplier<Service> resolveServiceFactory( String serviceClassName ) {
+        Constructor<? extends Service> constructor;
+        try {
+            constructor = Class.forName( serviceClassName ).asSubclass( Service.class ).getConstructor();
+        } catch ( Exception exception ) {
+            Logger.log( "Service class '" + serviceClassName + "' could not be resolved.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            return () -> {
+                throw new IllegalStateException( "Service class '" + serviceClassName + "' could not be resolved.", exception );
+            };
+        }
+        return () -> {
+            try {
+                return constructor.newInstance();
+            } catch ( InvocationTargetException exception ) {
+                throw new IllegalStateException( "Service class '" + serviceClassName + "' failed to initialize.", exception.getCause() );
+            } catch ( ReflectiveOperationException exception ) {
+                throw new IllegalStateException( "Service class '" + serviceClassName + "' failed to initialize.", exception );
+            }
+        };
     }
 }
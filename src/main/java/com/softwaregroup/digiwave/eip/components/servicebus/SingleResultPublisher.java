@@ -0,0 +1,77 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallResult;
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A publisher of the payload of a single service call result, used to stream the result of a service that has no
+ * streaming implementation. It emits the payload (if there is one) and completes, or fails with the exception of the
+ * result.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class SingleResultPublisher implements Flow.Publisher<JSONObject> {
+    private final CompletableFuture<ServiceCallResult> result;
+
+    /**
+     * @param result The future of the service call result.
+     */
+    SingleResultPublisher( CompletableFuture<ServiceCallResult> result ) {
+        this.result = result;
+    }
+
+    /**
+     * Used to subscribe to the result; every subscriber gets the same result.
+     *
+     * @param subscriber The subscriber.
+     */
+    @Override
+    public void subscribe( Flow.Subscriber<? super JSONObject> subscriber ) {
+        AtomicBoolean requested = new AtomicBoolean();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        subscriber.onSubscribe( new Flow.Subscription() {
+            @Override
+            public void request( long n ) {
+                if ( n <= 0 ) {
+                    if ( !cancelled.getAndSet( true ) ) {
+                        subscriber.onError( new IllegalArgumentException( "The number of requested items has to be positive." ) );
+                    }
+                    return;
+                }
+                if ( requested.getAndSet( true ) ) {
+                    return;
+                }
+                result.whenComplete( ( callResult, exception ) -> {
+                    if ( cancelled.getAndSet( true ) ) {
+                        return;
+                    }
+                    Throwable failure = ( exception instanceof CompletionException && exception.getCause() != null ) ? exception.getCause() : exception;
+                    if ( failure == null && callResult != null ) {
+                        failure = callResult.getException();
+                    }
+                    if ( failure != null ) {
+                        subscriber.onError( failure );
+                        return;
+                    }
+                    JSONObject payload = ( callResult != null ) ? callResult.getPayload() : null;
+                    if ( payload != null ) {
+                        subscriber.onNext( payload );
+                    }
+                    subscriber.onComplete();
+                } );
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.set( true );
+            }
+        } );
+    }
+}
@@ -0,0 +1,384 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceAddress;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.StreamSignal;
+import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The caller side of a streamed service call, published to a single subscriber.
+ * The request is sent on the first demand of the subscriber. From then on the provider may send only as many items as
+ * the caller granted credit for: at most the credit window, and never more than the subscriber asked for. Credit is
+ * replenished in batches of half a window as the subscriber consumes the items, so both sides buffer at most one window.
+ * Frames are put back in order by their sequence number and delivered to the subscriber off the broker thread.
+ * NOTE: Streamed calls are neither retried nor hedged, since the subscriber may have consumed a part of the result.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class StreamReceiver implements Flow.Publisher<JSONObject>, Flow.Subscription {
+    private static final Config.Setting<Integer> WINDOW = Config.setting( "serviceBus.streaming.window", 32 );
+
+    private final ServiceAddress serviceAddress;
+    private final ServiceCall serviceCall;
+    private final ArrayDeque<JSONObject> items = new ArrayDeque<>();
+    private final Map<Long, ServiceCall> outOfOrderFrames = new TreeMap<>();
+    private Flow.Subscriber<? super JSONObject> subscriber;
+    private InFlightLimiter inFlightLimiter;
+    private CircuitBreaker circuitBreaker;
+    private String providerInstanceID;
+    private long demand;
+    private long outstandingCredit;
+    private long nextSeq = 1;
+    private long startNanos;
+    private long lastFrameNanos;
+    private boolean opened;
+    private boolean delivering;
+    private boolean finished;
+    private boolean terminated;
+    private boolean endReceived;
+    private boolean signalled;
+    private Throwable terminalError;
+
+    /**
+     * @param serviceAddress The address of the called service.
+     * @param serviceCall    The prepared service call.
+     */
+    StreamReceiver( ServiceAddress serviceAddress, ServiceCall serviceCall ) {
+        this.serviceAddress = serviceAddress;
+        this.serviceCall = serviceCall;
+    }
+
+    /**
+     * Used to subscribe to the stream; a streamed call can have only one subscriber.
+     *
+     * @param newSubscriber The subscriber.
+     */
+    @Override
+    public void subscribe( Flow.Subscriber<? super JSONObject> newSubscriber ) {
+        synchronized ( this ) {
+            if ( subscriber == null ) {
+                subscriber = newSubscriber;
+                newSubscriber.onSubscribe( this );
+                return;
+            }
+        }
+        newSubscriber.onSubscribe( new Flow.Subscription() {
+            @Override
+            public void request( long n ) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        } );
+        newSubscriber.onError( new IllegalStateException( "A streamed service call can have only one subscriber." ) );
+    }
+
+    /**
+     * Used to add to the demand of the subscriber; the first demand sends the request.
+     *
+     * @param n The number of additional items the subscriber accepts.
+     */
+    @Override
+    public void request( long n ) {
+        boolean open;
+        synchronized ( this ) {
+            if ( finished ) {
+                return;
+            }
+            if ( n <= 0 ) {
+                terminate( new IllegalArgumentException( "The number of requested items has to be positive." ) );
+                open = false;
+            } else {
+                demand = ( demand + n < 0 ) ? Long.MAX_VALUE : demand + n;
+                open = !opened;
+                opened = true;
+            }
+        }
+        if ( open ) {
+            open();
+        } else {
+            grantCredit();
+        }
+        deliver();
+    }
+
+    /**
+     * Used to cancel the stream; the provider is told to stop sending.
+     */
+    @Override
+    public void cancel() {
+        synchronized ( this ) {
+            if ( signalled ) {
+                return;
+            }
+            finished = true;
+            terminated = true;
+            signalled = true;
+            items.clear();
+        }
+        Metrics.increment( "stream.cancelled" );
+        release();
+    }
+
+    /**
+     * Used to accept a CHUNK or END frame of the stream.
+     * NOTE: Called on the broker thread; the items are delivered to the subscriber on another thread.
+     *
+     * @param frame The received frame.
+     */
+    void onFrame( ServiceCall frame ) {
+        synchronized ( this ) {
+            if ( finished ) {
+                return;
+            }
+            lastFrameNanos = System.nanoTime();
+            providerInstanceID = frame.getDestination().instanceID;
+            outOfOrderFrames.put( frame.getStreamSeq(), frame );
+            ServiceCall nextFrame;
+            while ( ( nextFrame = outOfOrderFrames.remove( nextSeq ) ) != null ) {
+                nextSeq++;
+                if ( nextFrame.getStreamSignal() == StreamSignal.CHUNK ) {
+                    if ( nextFrame.getStreamSeq() == 1 ) {
+                        Metrics.recordLatency( "stream.timeToFirstChunk", startNanos );
+                    }
+                    outstandingCredit--;
+                    JSONObject item = ( nextFrame.getResult() != null ) ? nextFrame.getResult().getPayload() : null;
+                    items.add( ( item != null ) ? item : new JSONObject() );
+                } else {
+                    terminalError = ( nextFrame.getResult() != null ) ? nextFrame.getResult().getException() : null;
+                    terminated = true;
+                    endReceived = true;
+                }
+            }
+        }
+        grantCredit();
+        ForkJoinPool.commonPool().execute( this::deliver );
+    }
+
+    /**
+     * Used to send the request once the in-flight limiter and the circuit breaker of the destination let it through.
+     */
+    private void open() {
+        InFlightLimiter limiter = InFlightLimiter.forDestination( serviceAddress.serviceDomainName );
+        limiter.acquire( serviceCall.getPredecessor() != null ).whenComplete( ( permit, exception ) -> {
+            if ( exception != null ) {
+                fail( ( exception instanceof CompletionException && exception.getCause() != null ) ? exception.getCause() : exception );
+                return;
+            }
+            CircuitBreaker breaker = CircuitBreaker.forDestination( serviceAddress );
+            boolean accepted = false;
+            boolean circuitOpen = false;
+            long initialCredit = 0;
+            synchronized ( this ) {
+                if ( !finished ) {
+                    circuitOpen = !breaker.tryAcquire();
+                    accepted = !circuitOpen;
+                }
+                if ( accepted ) {
+                    inFlightLimiter = limiter;
+                    circuitBreaker = breaker;
+                    initialCredit = Math.min( demand, Math.max( 1, WINDOW.get() ) );
+                    outstandingCredit = initialCredit;
+                    startNanos = System.nanoTime();
+                    lastFrameNanos = startNanos;
+                }
+            }
+            if ( !accepted ) {
+                limiter.release();
+                if ( circuitOpen ) {
+                    fail( new ServiceBusException( "Circuit to '" + serviceAddress.serviceDomainName + "." + serviceAddress.serviceAlias + "' is open; the call was not sent." ) );
+                }
+                return;
+            }
+            serviceCall.setStreamSignal( StreamSignal.REQUEST );
+            serviceCall.setStreamCredit( initialCredit );
+            try {
+                ServiceBusDispatcher.getInstance().openStream( serviceCall, this );
+                Metrics.increment( "stream.opened" );
+                scheduleIdleCheck( ServiceBusDispatcher.CALL_TIMEOUT_MS.get() );
+            } catch ( Exception sendException ) {
+                fail( sendException );
+            }
+        } );
+    }
+
+    /**
+     * Used to grant the provider more credit, once the subscriber's demand exceeds the credit by half a window.
+     */
+    private void grantCredit() {
+        long credit;
+        synchronized ( this ) {
+            if ( finished || terminated || providerInstanceID == null ) {
+                return;
+            }
+            int window = Math.max( 1, WINDOW.get() );
+            credit = Math.min( demand, window ) - outstandingCredit - items.size();
+            if ( credit <= 0 || ( credit < Math.max( 1, window / 2 ) && outstandingCredit > 0 ) ) {
+                return;
+            }
+            outstandingCredit += credit;
+        }
+        try {
+            ServiceBusDispatcher.getInstance().sendStreamCredit( serviceCall, providerInstanceID, StreamSignal.CREDIT, credit );
+        } catch ( Exception exception ) {
+            fail( exception );
+        }
+    }
+
+    /**
+     * Used to deliver the buffered items and the terminal signal to the subscriber. Only one thread delivers at a time,
+     * so the subscriber is never called concurrently.
+     */
+    private void deliver() {
+        synchronized ( this ) {
+            if ( delivering || subscriber == null ) {
+                return;
+            }
+            delivering = true;
+        }
+        while ( true ) {
+            JSONObject item = null;
+            Throwable error;
+            synchronized ( this ) {
+                if ( signalled ) {
+                    delivering = false;
+                    return;
+                }
+                if ( !items.isEmpty() && demand > 0 ) {
+                    item = items.poll();
+                    demand--;
+                    error = null;
+                } else if ( terminated && items.isEmpty() ) {
+                    error = terminalError;
+                    finished = true;
+                    signalled = true;
+                } else {
+                    delivering = false;
+                    return;
+                }
+            }
+            if ( item != null ) {
+                subscriber.onNext( item );
+                grantCredit();
+                continue;
+            }
+            release();
+            if ( error == null ) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError( error );
+            }
+            synchronized ( this ) {
+                delivering = false;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Used to fail the stream locally (e.g. on a timeout), dropping the buffered items.
+     *
+     * @param exception The cause of the failure.
+     */
+    private void fail( Throwable exception ) {
+        synchronized ( this ) {
+            if ( finished ) {
+                return;
+            }
+            terminate( exception );
+        }
+        Metrics.increment( "stream.failed" );
+        deliver();
+    }
+
+    /**
+     * Used to mark the stream as failed.
+     * NOTE: Has to be called while holding the lock.
+     *
+     * @param exception The cause of the failure.
+     */
+    private void terminate( Throwable exception ) {
+        terminated = true;
+        finished = true;
+        terminalError = exception;
+        items.clear();
+    }
+
+    /**
+     * Used to release the stream: unregister it, stop the provider if it didn't end the stream itself, record the
+     * outcome and release the in-flight permit.
+     */
+    private void release() {
+        String instanceID;
+        Throwable error;
+        boolean cancelRemote;
+        InFlightLimiter limiter;
+        CircuitBreaker breaker;
+        synchronized ( this ) {
+            instanceID = providerInstanceID;
+            error = terminalError;
+            cancelRemote = !endReceived;
+            limiter = inFlightLimiter;
+            breaker = circuitBreaker;
+            inFlightLimiter = null;
+            circuitBreaker = null;
+        }
+        ServiceBusDispatcher.getInstance().closeStreamReceiver( serviceCall.getServiceCallID() );
+        if ( cancelRemote && instanceID != null ) {
+            try {
+                ServiceBusDispatcher.getInstance().sendStreamCredit( serviceCall, instanceID, StreamSignal.CANCEL, 0 );
+            } catch ( Exception exception ) {
+                Logger.log( "Failed to cancel the streamed service call '" + serviceCall.getServiceCallID() + "'.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+            }
+        }
+        if ( breaker != null ) {
+            breaker.onCompletion( error == null, System.nanoTime() - startNanos );
+        }
+        if ( limiter != null ) {
+            limiter.release();
+        }
+    }
+
+    /**
+     * Used to fail the stream if the provider didn't send anything for the call timeout while it had credit.
+     *
+     * @param delayMillis The delay of the next check.
+     */
+    private void scheduleIdleCheck( long delayMillis ) {
+        if ( delayMillis <= 0 ) {
+            return;
+        }
+        CompletableFuture.delayedExecutor( delayMillis, TimeUnit.MILLISECONDS ).execute( () -> {
+            long idleMillis;
+            synchronized ( this ) {
+                if ( finished || terminated ) {
+                    return;
+                }
+                idleMillis = ( outstandingCredit > 0 ) ? TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - lastFrameNanos ) : 0;
+            }
+            long callTimeout = ServiceBusDispatcher.CALL_TIMEOUT_MS.get();
+            if ( callTimeout > 0 && idleMillis >= callTimeout ) {
+                fail( new TimeoutException( "No frame of the streamed service call '" + serviceCall.getServiceCallID() + "' arrived within " + callTimeout + " ms." ) );
+            } else {
+                scheduleIdleCheck( ( callTimeout > 0 ) ? callTimeout - idleMillis : ServiceBusDispatcher.CALL_TIMEOUT_MS.get() );
+            }
+        } );
+    }
+}
@@ -0,0 +1,173 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.StreamSignal;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The provider side of a streamed service call: subscribes to the publisher of the service and sends every item as a
+ * CHUNK frame, followed by the END frame. Items are requested only as far as the caller granted credit, so the memory
+ * of the provider doesn't depend on the size of the result. A stream that used up its credit and gets no more within
+ * 'serviceBus.callTimeout' ms (e.g. because the caller is gone) is cancelled and ended with a TimeoutException.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class StreamSender implements Flow.Subscriber<JSONObject> {
+    private final ServiceCall serviceCall;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+    private volatile long streamSeq;
+    private volatile long grantedCredit;
+    private volatile long lastCreditNanos;
+
+    /**
+     * @param serviceCall The REQUEST frame of the streamed call.
+     */
+    StreamSender( ServiceCall serviceCall ) {
+        this.serviceCall = serviceCall;
+    }
+
+    /**
+     * Used to start the stream with the initial credit of the caller.
+     *
+     * @param subscription The subscription of the service publisher.
+     */
+    @Override
+    public void onSubscribe( Flow.Subscription subscription ) {
+        if ( this.subscription != null ) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        ServiceBusDispatcher.getInstance().registerStreamSender( serviceCall.getServiceCallID(), this );
+        lastCreditNanos = System.nanoTime();
+        if ( serviceCall.getStreamCredit() > 0 ) {
+            grantedCredit = serviceCall.getStreamCredit();
+            subscription.request( serviceCall.getStreamCredit() );
+        }
+        scheduleIdleCheck( ServiceBusDispatcher.CALL_TIMEOUT_MS.get() );
+    }
+
+    /**
+     * Used to send a single item.
+     *
+     * @param item The item published by the service.
+     */
+    @Override
+    public void onNext( JSONObject item ) {
+        if ( finished.get() ) {
+            return;
+        }
+        try {
+            ServiceBusDispatcher.getInstance().sendStreamFrame( serviceCall, StreamSignal.CHUNK, ++streamSeq, item, null );
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to send a chunk of the streamed service call '" + serviceCall.getServiceCallID() + "'; the stream is cancelled.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            cancel();
+        }
+    }
+
+    /**
+     * Used to end the stream with the exception of the service.
+     *
+     * @param throwable The exception.
+     */
+    @Override
+    public void onError( Throwable throwable ) {
+        finish( ( throwable instanceof Exception ) ? ( Exception ) throwable : new RuntimeException( throwable ) );
+    }
+
+    /**
+     * Used to end the stream after the last item.
+     */
+    @Override
+    public void onComplete() {
+        finish( null );
+    }
+
+    /**
+     * Used to apply the credit granted by the caller.
+     *
+     * @param credit The number of additional items the caller accepts.
+     */
+    void grant( long credit ) {
+        Flow.Subscription currentSubscription = subscription;
+        if ( currentSubscription != null && credit > 0 && !finished.get() ) {
+            synchronized ( this ) {
+                grantedCredit += credit;
+                lastCreditNanos = System.nanoTime();
+            }
+            currentSubscription.request( credit );
+        }
+    }
+
+    /**
+     * Used to stop the stream once the caller cancelled it (or can't be reached anymore).
+     */
+    void cancel() {
+        if ( finished.compareAndSet( false, true ) ) {
+            Flow.Subscription currentSubscription = subscription;
+            if ( currentSubscription != null ) {
+                currentSubscription.cancel();
+            }
+            ServiceBusDispatcher.getInstance().closeStreamSender( serviceCall.getServiceCallID() );
+        }
+    }
+
+    /**
+     * Used to send the END frame and release the stream.
+     *
+     * @param exception The exception of the service or 'null' if the stream completed successfully.
+     */
+    private void finish( Exception exception ) {
+        if ( !finished.compareAndSet( false, true ) ) {
+            return;
+        }
+        try {
+            ServiceBusDispatcher.getInstance().sendStreamFrame( serviceCall, StreamSignal.END, ++streamSeq, null, exception );
+        } catch ( Exception sendException ) {
+            Logger.log( "Failed to send the end of the streamed service call '" + serviceCall.getServiceCallID() + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, sendException );
+        }
+        ServiceBusDispatcher.getInstance().closeStreamSender( serviceCall.getServiceCallID() );
+    }
+
+    /**
+     * Used to check after a delay if the stream is waiting for credit for longer than the call timeout.
+     *
+     * @param delayMillis The delay of the check.
+     */
+    private void scheduleIdleCheck( long delayMillis ) {
+        if ( delayMillis <= 0 ) {
+            return;
+        }
+        CompletableFuture.delayedExecutor( delayMillis, TimeUnit.MILLISECONDS ).execute( () -> {
+            if ( finished.get() ) {
+                return;
+            }
+            long idleMillis;
+            synchronized ( this ) {
+                // only a stream that used up its credit waits for the caller; a slow service is not idle:
+                idleMillis = ( streamSeq >= grantedCredit ) ? TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - lastCreditNanos ) : 0;
+            }
+            long callTimeout = ServiceBusDispatcher.CALL_TIMEOUT_MS.get();
+            if ( callTimeout > 0 && idleMillis >= callTimeout ) {
+                Logger.log( "No credit for the streamed service call '" + serviceCall.getServiceCallID() + "' arrived within " + callTimeout + " ms; the stream is cancelled.", Logger.Severity.WARNING, Logger.Threads.ESB );
+                Flow.Subscription currentSubscription = subscription;
+                if ( currentSubscription != null ) {
+                    currentSubscription.cancel();
+                }
+                finish( new TimeoutException( "No credit for the streamed service call '" + serviceCall.getServiceCallID() + "' arrived within " + callTimeout + " ms." ) );
+            } else {
+                scheduleIdleCheck( ( callTimeout > 0 ) ? callTimeout - idleMillis : ServiceBusDispatcher.CALL_TIMEOUT_MS.get() );
+            }
+        } );
+    }
+}
@@ -0,0 +1,149 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+import com.softwaregroup.digiwave.eip.utils.MappedSegmentLog;
+import com.softwaregroup.digiwave.eip.utils.Tools;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+
+/**
+ * A class handling the optional capture of the service call traffic of this microservice instance.
+ * When enabled, every ServiceCall frame sent or received by the dispatcher is appended in its serialized (uncompressed)
+ * form to a memory-mapped segment log named after the instance ID. The captured traffic can be read back for replaying.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class TrafficCapture {
+    public static final byte NONE = 0;
+    public static final byte REQUEST_IN = 1;
+    public static final byte REQUEST_OUT = 2;
+    public static final byte RESPONSE_IN = 3;
+    public static final byte RESPONSE_OUT = 4;
+
+    private static final Config.Setting<Boolean> CAPTURE_ENABLED = Config.setting( "serviceBus.capture.enabled", false );
+    private static final String CAPTURE_DIRECTORY = Config.getSetting( "serviceBus.capture.directory", "capture" );
+    private static final int CAPTURE_SEGMENT_SIZE = Config.getSetting( "serviceBus.capture.segmentSize", 64 * 1024 * 1024 );
+
+    private static volatile MappedSegmentLog captureLog;
+    private static boolean captureFailed;
+
+    /**
+     * A single captured frame.
+     */
+    public static final class Frame {
+        private final byte type;
+        private final long timestamp;
+        private final byte[] data;
+
+        private Frame( byte type, long timestamp, byte[] data ) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The frame type (one of the TrafficCapture constants).
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The capture time as unix timestamp in microseconds.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Used to decode the captured ServiceCall.
+         *
+         * @return The ServiceCall object as it was sent or received.
+         */
+        public ServiceCall getServiceCall() {
+            return ServiceCallCodec.deserialize( data );
+        }
+    }
+
+    private TrafficCapture() {
+    }
+
+    /**
+     * Used to check if the frames of a type are recorded at the moment.
+     *
+     * @param type The frame type.
+     * @return 'true' if record would keep such a frame.
+     */
+    static boolean isRecorded( byte type ) {
+        return type != NONE && CAPTURE_ENABLED.get();
+    }
+
+    /**
+     * Used to record a single frame. Failures are logged and never propagate to the caller.
+     *
+     * @param type  The frame type; frames of type NONE are never recorded.
+     * @param frame The frame as it is on the wire.
+     */
+    static void record( byte type, byte[] frame ) {
+        if ( type == NONE || !CAPTURE_ENABLED.get() ) {
+            return;
+        }
+        long timestamp = Tools.getUnixTimestampMicros();
+        try {
+            MappedSegmentLog log = captureLog;
+            if ( log == null ) {
+                log = openCaptureLog();
+            }
+            if ( log != null ) {
+                log.append( type, timestamp, frame );
+            }
+        } catch ( IOException exception ) {
+            Logger.log( "Failed to record a captured frame.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+    }
+
+    /**
+     * Used to flush and close the capture log.
+     */
+    static synchronized void close() {
+        if ( captureLog != null ) {
+            captureLog.close();
+            captureLog = null;
+        }
+    }
+
+    /**
+     * Used to read the captured frames of all instances from a capture directory.
+     *
+     * @param directory The capture directory.
+     * @param consumer  The consumer that will receive the frames.
+     * @throws IOException To be handled by the caller.
+     */
+    public static void read( Path directory, Consumer<Frame> consumer ) throws IOException {
+        MappedSegmentLog.read( directory, "", ( type, timestamp, data ) -> consumer.accept( new Frame( type, timestamp, data ) ) );
+    }
+
+    private static synchronized MappedSegmentLog openCaptureLog() throws IOException {
+        if ( captureLog == null && !captureFailed ) {
+            try {
+                captureLog = new MappedSegmentLog( Paths.get( CAPTURE_DIRECTORY ), MicroserviceInstance.INSTANCE_ID, CAPTURE_SEGMENT_SIZE );
+                Logger.log( "Traffic capture started in '" + CAPTURE_DIRECTORY + "'.", Logger.Severity.INFO, Logger.Threads.ESB );
+            } catch ( IOException exception ) {
+                captureFailed = true;
+                throw exception;
+            }
+        }
+        return captureLog;
+    }
+}
@@ -0,0 +1,349 @@
+package com.softwaregroup.digiwave.eip.components.servicebus;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.*;
+import com.softwaregroup.digiwave.eip.exceptions.ServiceBusException;
+import com.softwaregroup.digiwave.eip.utils.ExecutionCost;
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import com.softwaregroup.digiwave.eip.utils.Tools;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Executes a transaction definition as a graph of service calls.
+ * Every step starts as soon as the last of the steps it depends on completed, right on the thread completing it, and
+ * gets its inputs from the results already at hand; steps without dependencies start at once. So independent steps
+ * run in parallel and the transaction takes as long as its critical path instead of the sum of its steps.
+ * The calls are recorded in a ServiceBusTransaction: a root service call of the transaction (a successor of the calling
+ * service call, if any) followed by the calls of the steps, which are its successors and share its transaction ID.
+ * The root call carries the CPU time and the allocated bytes reported by the steps, which are also added to the cost
+ * of the calling service execution, if any.
+ * A failed step is handled according to its failure policy: no more steps are started (ABORT), the steps depending on
+ * it are skipped (SKIP_DEPENDENTS), or the dependent steps run without its inputs (CONTINUE).
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+final class TransactionOrchestrator {
+    private static final String PARAMS_SOURCE = "params";
+
+    /**
+     * The way a step's service is called: callServiceAsync with a callback getting the assembled ServiceCall object.
+     */
+    interface StepCaller {
+        CompletableFuture<ServiceCallResult> call( ServiceAddress serviceAddress, ServiceParams serviceParams, ServiceCallContext serviceCallContext, Consumer<ServiceCall> onPrepared );
+    }
+
+    /**
+     * The status of a step.
+     */
+    private enum Status {
+        PENDING, RUNNING, SUCCEEDED, FAILED, SKIPPED
+    }
+
+    /**
+     * The execution state of a step.
+     */
+    private static final class StepState {
+        private final TransactionStep step;
+        private final Set<StepState> dependencies = new LinkedHashSet<>();
+        private final List<StepState> dependents = new ArrayList<>();
+        private final AtomicInteger pendingDependencies = new AtomicInteger();
+        private volatile Status status = Status.PENDING;
+        private volatile ServiceCall serviceCall;
+        private volatile JSONObject payload;
+        private volatile String error;
+        private long startNanos;
+
+        private StepState( TransactionStep step ) {
+            this.step = step;
+        }
+    }
+
+    private final TransactionDefinition transactionDefinition;
+    private final ServiceParams serviceParams;
+    private final ServiceCallContext serviceCallContext;
+    private final StepCaller stepCaller;
+    private final Map<String, StepState> states = new LinkedHashMap<>();
+    private final AtomicInteger unsettled = new AtomicInteger();
+    private final CompletableFuture<ServiceBusTransaction> completion = new CompletableFuture<>();
+    private volatile boolean aborted;
+    private ServiceCall rootCall;
+    private final ExecutionCost transactionCost = new ExecutionCost( true );
+    private ServiceCallContext stepContext;
+    private long startNanos;
+
+    /**
+     * @param transactionDefinition The definition of the transaction.
+     * @param serviceParams         The params of the transaction.
+     * @param serviceCallContext    The context in which the transaction is executed.
+     * @param stepCaller            Calls the services of the steps.
+     */
+    TransactionOrchestrator( TransactionDefinition transactionDefinition, ServiceParams serviceParams, ServiceCallContext serviceCallContext, StepCaller stepCaller ) {
+        this.transactionDefinition = transactionDefinition;
+        this.serviceParams = serviceParams;
+        this.serviceCallContext = ( serviceCallContext != null ) ? serviceCallContext : new ServiceCallContext();
+        this.stepCaller = stepCaller;
+    }
+
+    /**
+     * Used to start the steps without dependencies.
+     *
+     * @return The future completes with the transaction once all started steps completed, or fails with a
+     * ServiceBusException if the definition is invalid.
+     */
+    CompletableFuture<ServiceBusTransaction> execute() {
+        try {
+            buildGraph();
+        } catch ( ServiceBusException exception ) {
+            return CompletableFuture.failedFuture( exception );
+        }
+        startNanos = System.nanoTime();
+        Metrics.increment( "transactions.started" );
+
+        ServiceCallDestination destination = new ServiceCallDestination();
+        destination.serviceAlias = transactionDefinition.name;
+        destination.serviceDomainName = MicroserviceInstance.SERVICE_DOMAIN_NAME;
+        destination.serviceParams = serviceParams;
+        rootCall = ServiceBusDispatcher.getInstance().createServiceCall( serviceCallContext.serviceCall, destination );
+        stepContext = new ServiceCallContext();
+        stepContext.authToken = serviceCallContext.authToken;
+        stepContext.serviceCall = rootCall;
+        ServiceBusDispatcher.getInstance().registerExecutionCost( rootCall, transactionCost );
+
+        unsettled.set( states.size() );
+        if ( states.isEmpty() ) {
+            finish();
+        }
+        for ( StepState state : states.values() ) {
+            if ( state.dependencies.isEmpty() ) {
+                launch( state );
+            }
+        }
+        return completion;
+    }
+
+    /**
+     * Used to link the steps with their dependencies and to validate the graph.
+     *
+     * @throws ServiceBusException In case a step is unnamed or duplicated, depends on an unknown step or the
+     *                             dependencies form a cycle.
+     */
+    private void buildGraph() throws ServiceBusException {
+        TransactionStep[] steps = ( transactionDefinition.steps != null ) ? transactionDefinition.steps : new TransactionStep[ 0 ];
+        for ( TransactionStep step : steps ) {
+            if ( step.name == null || step.name.isEmpty() || step.name.contains( "." ) || PARAMS_SOURCE.equals( step.name ) || step.serviceAddress == null ) {
+                throw new ServiceBusException( "Transaction '" + transactionDefinition.name + "' has a step without a valid name or service address: '" + step.name + "'." );
+            }
+            if ( states.put( step.name, new StepState( step ) ) != null ) {
+                throw new ServiceBusException( "Transaction '" + transactionDefinition.name + "' has more than one step named '" + step.name + "'." );
+            }
+        }
+        for ( StepState state : states.values() ) {
+            List<String> dependencies = new ArrayList<>();
+            if ( state.step.dependsOn != null ) {
+                dependencies.addAll( Arrays.asList( state.step.dependsOn ) );
+            }
+            if ( state.step.inputs != null ) {
+                for ( String source : state.step.inputs.values() ) {
+                    String stepName = source.split( "\\.", 2 )[ 0 ];
+                    if ( !PARAMS_SOURCE.equals( stepName ) ) {
+                        dependencies.add( stepName );
+                    }
+                }
+            }
+            for ( String dependency : dependencies ) {
+                StepState dependencyState = states.get( dependency );
+                if ( dependencyState == null ) {
+                    throw new ServiceBusException( "Step '" + state.step.name + "' of transaction '" + transactionDefinition.name + "' depends on the unknown step '" + dependency + "'." );
+                }
+                if ( state.dependencies.add( dependencyState ) ) {
+                    dependencyState.dependents.add( state );
+                }
+            }
+            state.pendingDependencies.set( state.dependencies.size() );
+        }
+
+        // every step of an acyclic graph is reached by removing the steps without pending dependencies:
+        Map<StepState, Integer> pending = new HashMap<>();
+        Deque<StepState> ready = new ArrayDeque<>();
+        for ( StepState state : states.values() ) {
+            pending.put( state, state.dependencies.size() );
+            if ( state.dependencies.isEmpty() ) {
+                ready.add( state );
+            }
+        }
+        int reached = 0;
+        while ( !ready.isEmpty() ) {
+            reached++;
+            for ( StepState dependent : ready.poll().dependents ) {
+                if ( pending.merge( dependent, -1, Integer::sum ) == 0 ) {
+                    ready.add( dependent );
+                }
+            }
+        }
+        if ( reached < states.size() ) {
+            throw new ServiceBusException( "The steps of transaction '" + transactionDefinition.name + "' have cyclic dependencies." );
+        }
+    }
+
+    /**
+     * Used to start a step whose dependencies all completed, or to skip it.
+     *
+     * @param state The step.
+     */
+    private void launch( StepState state ) {
+        boolean skip = aborted;
+        for ( StepState dependency : state.dependencies ) {
+            skip |= dependency.status == Status.SKIPPED || ( dependency.status == Status.FAILED && dependency.step.onFailure != StepFailurePolicy.CONTINUE );
+        }
+        if ( skip ) {
+            state.status = Status.SKIPPED;
+            settle( state );
+            return;
+        }
+
+        ServiceParams stepParams = new ServiceParams();
+        stepParams.setPayload( mapInputs( state.step ) );
+        state.status = Status.RUNNING;
+        state.startNanos = System.nanoTime();
+        CompletableFuture<ServiceCallResult> call;
+        try {
+            call = stepCaller.call( state.step.serviceAddress, stepParams, stepContext, serviceCall -> state.serviceCall = serviceCall );
+        } catch ( Exception exception ) {
+            call = CompletableFuture.failedFuture( exception );
+        }
+        call.whenComplete( ( result, exception ) -> {
+            Throwable failure = ( exception != null ) ? exception : result.getException();
+            if ( failure instanceof CompletionException && failure.getCause() != null ) {
+                failure = failure.getCause();
+            }
+            if ( failure != null ) {
+                state.error = String.valueOf( failure.getMessage() );
+                state.status = Status.FAILED;
+                if ( state.step.onFailure == null || state.step.onFailure == StepFailurePolicy.ABORT ) {
+                    aborted = true;
+                }
+            } else {
+                state.payload = result.getPayload();
+                state.status = Status.SUCCEEDED;
+            }
+            ServiceCall serviceCall = state.serviceCall;
+            if ( serviceCall != null ) {
+                serviceCall.setResult( result );
+                serviceCall.setSuccessful( failure == null );
+                serviceCall.setCompleted( true );
+                serviceCall.setFinishedOn( Tools.getUnixTimestamp() );
+                serviceCall.setExecutionTime( ( int ) ( ( System.nanoTime() - state.startNanos ) / 1_000_000 ) );
+            }
+            settle( state );
+        } );
+    }
+
+    /**
+     * Used to release the dependents of a completed or skipped step and to finish the transaction after its last step.
+     *
+     * @param state The step.
+     */
+    private void settle( StepState state ) {
+        for ( StepState dependent : state.dependents ) {
+            if ( dependent.pendingDependencies.decrementAndGet() == 0 ) {
+                launch( dependent );
+            }
+        }
+        if ( unsettled.decrementAndGet() == 0 ) {
+            finish();
+        }
+    }
+
+    /**
+     * Used to build the payload of a step from its input mappings.
+     *
+     * @param step The step.
+     * @return The payload; the params of the transaction if the step has no mappings.
+     */
+    @SuppressWarnings( "unchecked" )
+    private JSONObject mapInputs( TransactionStep step ) {
+        JSONObject params = ( serviceParams != null ) ? serviceParams.getPayload() : null;
+        if ( step.inputs == null || step.inputs.isEmpty() ) {
+            return ( params != null ) ? params : new JSONObject();
+        }
+        JSONObject payload = new JSONObject();
+        for ( Map.Entry<String, String> input : step.inputs.entrySet() ) {
+            String[] source = input.getValue().split( "\\.", 2 );
+            Object value = PARAMS_SOURCE.equals( source[ 0 ] ) ? params : states.get( source[ 0 ] ).payload;
+            if ( source.length > 1 ) {
+                for ( String field : source[ 1 ].split( "\\." ) ) {
+                    value = ( value instanceof Map ) ? ( ( Map<?, ?> ) value ).get( field ) : null;
+                }
+            }
+            if ( value != null ) {
+                payload.put( input.getKey(), value );
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Used to record the transaction once all steps settled.
+     */
+    @SuppressWarnings( "unchecked" )
+    private void finish() {
+        JSONObject results = new JSONObject();
+        JSONObject errors = new JSONObject();
+        JSONArray skipped = new JSONArray();
+        List<ServiceCall> serviceCalls = new ArrayList<>();
+        List<String> successors = new ArrayList<>();
+        boolean successful = true;
+        serviceCalls.add( rootCall );
+        for ( StepState state : states.values() ) {
+            if ( state.status == Status.SUCCEEDED ) {
+                results.put( state.step.name, state.payload );
+            } else if ( state.status == Status.FAILED ) {
+                errors.put( state.step.name, state.error );
+                successful &= state.step.onFailure == StepFailurePolicy.CONTINUE;
+            } else {
+                skipped.add( state.step.name );
+                successful = false;
+            }
+            if ( state.serviceCall != null ) {
+                serviceCalls.add( state.serviceCall );
+                successors.add( state.serviceCall.getServiceCallID() );
+            }
+        }
+        rootCall.setSuccessors( successors.toArray( new String[ 0 ] ) );
+        rootCall.setSuccessful( successful );
+        rootCall.setCompleted( true );
+        rootCall.setFinishedOn( Tools.getUnixTimestamp() );
+        rootCall.setExecutionTime( ( int ) ( ( System.nanoTime() - startNanos ) / 1_000_000 ) );
+        ServiceBusDispatcher.getInstance().closeExecutionCost( rootCall );
+        rootCall.setCpuTime( transactionCost.getTotalCpuMicros() );
+        rootCall.setAllocatedBytes( transactionCost.getTotalAllocatedBytes() );
+        if ( serviceCallContext.executionCost != null ) {
+            serviceCallContext.executionCost.addNested( rootCall.getCpuTime(), rootCall.getAllocatedBytes() );
+        }
+
+        JSONObject result = new JSONObject();
+        result.put( "results", results );
+        result.put( "errors", errors );
+        result.put( "skipped", skipped );
+
+        ServiceBusTransaction transaction = new ServiceBusTransaction();
+        transaction.transactionID = rootCall.getTransactionID();
+        transaction.authToken = serviceCallContext.authToken;
+        transaction.createdOn = rootCall.getCreatedOn();
+        transaction.isOpen = false;
+        transaction.isSuccessful = successful;
+        transaction.result = result;
+        transaction.serviceCalls = serviceCalls.toArray( new ServiceCall[ 0 ] );
+        Metrics.increment( successful ? "transactions.succeeded" : "transactions.failed" );
+        Metrics.recordLatency( "transactions.latency", startNanos );
+        completion.complete( transaction );
+    }
+}
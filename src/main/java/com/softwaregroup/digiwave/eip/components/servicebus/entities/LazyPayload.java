@@ -0,0 +1,253 @@
+package com.softwaregroup.digiwave.eip.components.servicebus.entities;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.softwaregroup.digiwave.eip.components.storage.ClaimCheck;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializable class defining a JSON payload that is kept in its encoded form until it's actually needed.
+ * Single fields are decoded on access with a streaming parser, without materializing the whole object. A payload
+ * that was never materialized is serialized by copying its encoded bytes, so services that only pass a payload along
+ * don't pay for decoding and re-encoding it.
+ * Payloads above the claim-check threshold are put in the blob store and only their reference is serialized. The
+ * content is fetched from the blob store when it's first accessed, and a payload that is passed along unchanged keeps
+ * its reference.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class LazyPayload implements Serializable {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper( JSON_FACTORY );
+    private static final byte INLINE = 0;
+    private static final byte CLAIM_CHECK = 1;
+
+    /**
+     * The encoded JSON. It's 'null' once the payload is materialized, as the decoded object may change after that,
+     * and until a claim-checked payload is fetched from the blob store.
+     */
+    private transient byte[] encoded;
+    /**
+     * The decoded JSON object. It's 'null' until the payload is materialized.
+     */
+    private transient JSONObject decoded;
+    /**
+     * The blob store reference of the encoded JSON. It's 'null' if the payload is not claim-checked or was materialized.
+     */
+    private transient String blobReference;
+
+    private LazyPayload( byte[] encoded, JSONObject decoded ) {
+        this.encoded = encoded;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Used to create a payload view over an already encoded JSON object.
+     *
+     * @param encoded The UTF-8 encoded JSON object. It's not copied, so it must not be changed afterwards.
+     * @return The new payload.
+     */
+    public static LazyPayload wrap( byte[] encoded ) {
+        return new LazyPayload( encoded, null );
+    }
+
+    /**
+     * Used to create a payload from a JSON object. The object will be encoded only when the payload is serialized.
+     *
+     * @param object The JSON object.
+     * @return The new payload.
+     */
+    public static LazyPayload of( JSONObject object ) {
+        return new LazyPayload( null, object );
+    }
+
+    /**
+     * Used to get a single top-level field of the payload. Only this field is decoded if the payload is not
+     * materialized yet.
+     *
+     * @param key The name of the field.
+     * @return The decoded value of the field (objects as JSONObject and arrays as JSONArray) or 'null' if the field
+     * doesn't exist.
+     */
+    public Object get( String key ) {
+        if ( decoded != null ) {
+            return decoded.get( key );
+        }
+        try ( JsonParser parser = JSON_FACTORY.createParser( fetchEncoded() ) ) {
+            if ( parser.nextToken() != JsonToken.START_OBJECT ) {
+                return null;
+            }
+            while ( parser.nextToken() == JsonToken.FIELD_NAME ) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if ( key.equals( fieldName ) ) {
+                    return toJsonSimple( OBJECT_MAPPER.readValue( parser, Object.class ) );
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch ( IOException exception ) {
+            throw new UncheckedIOException( exception );
+        }
+    }
+
+    /**
+     * Used to get the payload as a mutable JSON object, decoding it if necessary. After that the payload will be
+     * re-encoded when serialized, so any changes made to the object are sent along.
+     *
+     * @return The decoded JSON object.
+     */
+    @SuppressWarnings( "unchecked" )
+    public JSONObject materialize() {
+        if ( decoded == null ) {
+            try {
+                DataObject object = new DataObject();
+                for ( Map.Entry<?, ?> field : ( ( Map<?, ?> ) OBJECT_MAPPER.readValue( fetchEncoded(), Map.class ) ).entrySet() ) {
+                    object.put( field.getKey(), toJsonSimple( field.getValue() ) );
+                }
+                decoded = object;
+                encoded = null;
+                blobReference = null;
+            } catch ( IOException exception ) {
+                throw new UncheckedIOException( exception );
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Used to check if the payload is still in its encoded form.
+     *
+     * @return 'true' if the payload was materialized, i.e. it's no longer in its encoded form.
+     */
+    public boolean isMaterialized() {
+        return decoded != null;
+    }
+
+    /**
+     * Used to get the encoded form of the payload. If the payload is not materialized, no encoding takes place.
+     *
+     * @return The UTF-8 encoded JSON object. It must not be changed.
+     */
+    public byte[] getEncoded() {
+        if ( decoded == null ) {
+            return fetchEncoded();
+        }
+        try {
+            return OBJECT_MAPPER.writeValueAsBytes( decoded );
+        } catch ( IOException exception ) {
+            throw new UncheckedIOException( exception );
+        }
+    }
+
+    /**
+     * Used to get the encoded JSON of a payload that is not materialized, fetching it from the blob store if needed.
+     *
+     * @return The UTF-8 encoded JSON object.
+     */
+    private byte[] fetchEncoded() {
+        if ( encoded == null ) {
+            try {
+                encoded = ClaimCheck.getBlobStore().get( blobReference );
+            } catch ( IOException exception ) {
+                throw new UncheckedIOException( "Failed to fetch claim-checked payload '" + blobReference + "'.", exception );
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Used to convert a value decoded by Jackson into the json-simple types the callers of the payload expect: objects
+     * become JSONObject, arrays JSONArray and integral numbers Long, as if the JSON was parsed by json-simple.
+     *
+     * @param value The decoded value.
+     * @return The converted value.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static Object toJsonSimple( Object value ) {
+        if ( value instanceof Map ) {
+            JSONObject object = new JSONObject();
+            for ( Map.Entry<?, ?> field : ( ( Map<?, ?> ) value ).entrySet() ) {
+                object.put( field.getKey(), toJsonSimple( field.getValue() ) );
+            }
+            return object;
+        }
+        if ( value instanceof List ) {
+            JSONArray array = new JSONArray();
+            for ( Object item : ( List<?> ) value ) {
+                array.add( toJsonSimple( item ) );
+            }
+            return array;
+        }
+        if ( value instanceof Integer || value instanceof Short ) {
+            return ( ( Number ) value ).longValue();
+        }
+        return value;
+    }
+
+    private void writeObject( ObjectOutputStream stream ) throws IOException {
+        stream.defaultWriteObject();
+        if ( blobReference == null ) {
+            byte[] bytes = getEncoded();
+            if ( !ClaimCheck.isApplicable( bytes.length ) ) {
+                stream.writeByte( INLINE );
+                stream.writeInt( bytes.length );
+                stream.write( bytes );
+                return;
+            }
+            String reference = ClaimCheck.getBlobStore().put( bytes );
+            // the reference can be reused only while the content can't change anymore:
+            if ( decoded == null ) {
+                blobReference = reference;
+            }
+            stream.writeByte( CLAIM_CHECK );
+            stream.writeUTF( reference );
+            return;
+        }
+        // the payload is sent again by reference, so its blob has to live for another TTL:
+        if ( !ClaimCheck.getBlobStore().touch( blobReference ) ) {
+            if ( encoded == null ) {
+                throw new IOException( "Claim-checked payload '" + blobReference + "' has expired." );
+            }
+            ClaimCheck.getBlobStore().put( encoded );
+        }
+        stream.writeByte( CLAIM_CHECK );
+        stream.writeUTF( blobReference );
+    }
+
+    private void readObject( ObjectInputStream stream ) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        if ( stream.readByte() == CLAIM_CHECK ) {
+            blobReference = stream.readUTF();
+        } else {
+            encoded = new byte[ stream.readInt() ];
+            stream.readFully( encoded );
+        }
+    }
+
+    /**
+     * Standard stringify method.
+     *
+     * @return The string representation of the object.
+     */
+    @Override
+    public String toString() {
+        if ( decoded != null ) {
+            return "PAYLOAD { decoded }";
+        }
+        return "PAYLOAD { " + ( ( encoded != null ) ? encoded.length + " bytes" : "blob " + blobReference ) + " }";
+    }
+}
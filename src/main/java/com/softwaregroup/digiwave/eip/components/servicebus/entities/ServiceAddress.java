@@ -22,4 +22,18 @@ public final class ServiceAddress implements Serializable {
      * @serial Optional service version. If not provided, the latest version will be assumed as a target.
      */
     public int serviceVersion;
+    /**
+     * @serial Optional priority class. If not provided, the priority of the calling service call (or NORMAL) is assumed.
+     */
+    public ServiceCallPriority priority;
+    /**
+     * @serial Optional affinity key (e.g. a customer or account ID). If the destination domain is partitioned, all
+     * calls with the same key go to the same partition and are processed in order.
+     */
+    public String affinityKey;
+    /**
+     * @serial Whether the service can safely be executed more than once for the same call. Only idempotent calls are
+     * retried and hedged.
+     */
+    public boolean idempotent;
 }
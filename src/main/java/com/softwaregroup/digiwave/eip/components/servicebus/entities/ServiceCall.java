@@ -1,15 +1,35 @@
 package com.softwaregroup.digiwave.eip.components.servicebus.entities;
 
+import com.softwaregroup.digiwave.eip.utils.IdGenerator;
+
 import java.io.Serializable;
 
 /**
  * Serializable class defining a single service call.
+ * The service call and transaction IDs travel as 128-bit binary values (see IdGenerator); their string forms are
+ * rendered only when asked for, e.g. for logging.
  *
  * @author Boris Kostadinov
  * @version 1.0
  * @since 2019.1.0
  */
 public final class ServiceCall implements Serializable {
+    /**
+     * @serial The affinity key of the service call or 'null' if it has none.
+     */
+    private String affinityKey;
+    /**
+     * @serial The bytes allocated by the execution of this service call, including the calls it made.
+     */
+    private long allocatedBytes;
+    /**
+     * @serial The key under which the caller instance correlates the response of the current task with its handler.
+     */
+    private long correlationID;
+    /**
+     * @serial The CPU time of the execution of this service call in microseconds, including the calls it made.
+     */
+    private long cpuTime;
     /**
      * @serial A unix timestamp taken at creation time of the service call.
      */
@@ -19,7 +39,7 @@ public final class ServiceCall implements Serializable {
      */
     private ServiceCallDestination destination;
     /**
-     * @serial The total execution time of this service call in milliseconds.
+     * @serial The total (wall clock) execution time of this service call in milliseconds.
      */
     private int executionTime;
     /**
@@ -30,6 +50,10 @@ public final class ServiceCall implements Serializable {
      * @serial Flag to indicate if this service call has been completed.
      */
     private boolean isCompleted;
+    /**
+     * @serial Flag to indicate if the called service may be executed more than once for this service call.
+     */
+    private boolean isIdempotent;
     /**
      * @serial Indicates whether the service call is considered to have been successfully executed.
      */
@@ -42,6 +66,10 @@ public final class ServiceCall implements Serializable {
      * @serial The node level of this service call in the service call tree.
      */
     private int level;
+    /**
+     * @serial The priority class of the service call.
+     */
+    private ServiceCallPriority priority;
     /**
      * @serial The service call ID of the predecessor in the service call tree.
      */
@@ -51,21 +79,139 @@ public final class ServiceCall implements Serializable {
      */
     private ServiceCallResult result;
     /**
-     * @serial Unique service call identifier.
+     * @serial The high bits of the unique service call identifier.
+     */
+    private long serviceCallIdHigh;
+    /**
+     * @serial The low bits of the unique service call identifier.
+     */
+    private long serviceCallIdLow;
+    /**
+     * The rendered service call identifier (cached on first use).
      */
-    private String serviceCallID;
+    private transient String serviceCallID;
     /**
      * @serial The source of the service call.
      */
     private ServiceCallSource source;
+    /**
+     * @serial The number of items the provider of a streamed call may send (REQUEST and CREDIT frames only).
+     */
+    private long streamCredit;
+    /**
+     * @serial The sequence number of a CHUNK or END frame, starting with 1.
+     */
+    private long streamSeq;
+    /**
+     * @serial The frame of a streamed service call or 'null' if the call isn't streamed.
+     */
+    private StreamSignal streamSignal;
     /**
      * @serial The service call IDs of the successors in the service call tree.
      */
     private String[] successors;
     /**
-     * @serial The ID of the parent transaction.
+     * @serial The high bits of the ID of the parent transaction.
+     */
+    private long transactionIdHigh;
+    /**
+     * @serial The low bits of the ID of the parent transaction.
+     */
+    private long transactionIdLow;
+    /**
+     * The rendered ID of the parent transaction (cached on first use).
+     */
+    private transient String transactionID;
+
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public boolean isIdempotent() {
+        return isIdempotent;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param idempotent The new value for the encapsulated property.
+     */
+    public void setIdempotent( boolean idempotent ) {
+        isIdempotent = idempotent;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public String getAffinityKey() {
+        return affinityKey;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param affinityKey The new value for the encapsulated property.
+     */
+    public void setAffinityKey( String affinityKey ) {
+        this.affinityKey = affinityKey;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param allocatedBytes The new value for the encapsulated property.
+     */
+    public void setAllocatedBytes( long allocatedBytes ) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public long getCorrelationID() {
+        return correlationID;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param correlationID The new value for the encapsulated property.
+     */
+    public void setCorrelationID( long correlationID ) {
+        this.correlationID = correlationID;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param cpuTime The new value for the encapsulated property.
      */
-    private String transactionID;
+    public void setCpuTime( long cpuTime ) {
+        this.cpuTime = cpuTime;
+    }
 
     /**
      * Standard getter.
@@ -229,6 +375,24 @@ public final class ServiceCall implements Serializable {
         this.predecessor = predecessor;
     }
 
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public ServiceCallPriority getPriority() {
+        return ( priority != null ) ? priority : ServiceCallPriority.NORMAL;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param priority The new value for the encapsulated property.
+     */
+    public void setPriority( ServiceCallPriority priority ) {
+        this.priority = priority;
+    }
+
     /**
      * Standard getter.
      *
@@ -248,21 +412,45 @@ public final class ServiceCall implements Serializable {
     }
 
     /**
-     * Standard getter.
+     * Used to get the service call ID as a string.
      *
-     * @return The corresponding encapsulated property.
+     * @return The service call ID rendered with the 'TSC-' prefix.
      */
     public String getServiceCallID() {
+        if ( serviceCallID == null ) {
+            serviceCallID = IdGenerator.toString( "TSC-", serviceCallIdHigh, serviceCallIdLow );
+        }
         return serviceCallID;
     }
 
+    /**
+     * Standard getter.
+     *
+     * @return The high bits of the service call ID.
+     */
+    public long getServiceCallIdHigh() {
+        return serviceCallIdHigh;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The low bits of the service call ID.
+     */
+    public long getServiceCallIdLow() {
+        return serviceCallIdLow;
+    }
+
     /**
      * Standard setter.
      *
-     * @param serviceCallID The new value for the encapsulated property.
+     * @param high The high bits of the service call ID.
+     * @param low  The low bits of the service call ID.
      */
-    public void setServiceCallID( String serviceCallID ) {
-        this.serviceCallID = serviceCallID;
+    public void setServiceCallID( long high, long low ) {
+        serviceCallIdHigh = high;
+        serviceCallIdLow = low;
+        serviceCallID = null;
     }
 
     /**
@@ -283,6 +471,60 @@ public final class ServiceCall implements Serializable {
         this.source = source;
     }
 
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public long getStreamCredit() {
+        return streamCredit;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param streamCredit The new value for the encapsulated property.
+     */
+    public void setStreamCredit( long streamCredit ) {
+        this.streamCredit = streamCredit;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public long getStreamSeq() {
+        return streamSeq;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param streamSeq The new value for the encapsulated property.
+     */
+    public void setStreamSeq( long streamSeq ) {
+        this.streamSeq = streamSeq;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The corresponding encapsulated property.
+     */
+    public StreamSignal getStreamSignal() {
+        return streamSignal;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param streamSignal The new value for the encapsulated property.
+     */
+    public void setStreamSignal( StreamSignal streamSignal ) {
+        this.streamSignal = streamSignal;
+    }
+
     /**
      * Standard getter.
      *
@@ -307,16 +549,40 @@ public final class ServiceCall implements Serializable {
      * @return The corresponding encapsulated property.
      */
     public String getTransactionID() {
+        if ( transactionID == null ) {
+            transactionID = IdGenerator.toString( "T-", transactionIdHigh, transactionIdLow );
+        }
         return transactionID;
     }
 
+    /**
+     * Standard getter.
+     *
+     * @return The high bits of the transaction ID.
+     */
+    public long getTransactionIdHigh() {
+        return transactionIdHigh;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The low bits of the transaction ID.
+     */
+    public long getTransactionIdLow() {
+        return transactionIdLow;
+    }
+
     /**
      * Standard setter.
      *
-     * @param transactionID The new value for the encapsulated property.
+     * @param high The high bits of the transaction ID.
+     * @param low  The low bits of the transaction ID.
      */
-    public void setTransactionID( String transactionID ) {
-        this.transactionID = transactionID;
+    public void setTransactionID( long high, long low ) {
+        transactionIdHigh = high;
+        transactionIdLow = low;
+        transactionID = null;
     }
 
     /**
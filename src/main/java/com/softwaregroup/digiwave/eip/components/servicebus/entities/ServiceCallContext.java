@@ -1,6 +1,10 @@
 package com.softwaregroup.digiwave.eip.components.servicebus.entities;
 
+import com.softwaregroup.digiwave.eip.utils.ExecutionCost;
+
 import java.io.Serializable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Serializable class defining a service call context.
@@ -19,4 +23,22 @@ public final class ServiceCallContext implements Serializable {
      * @serial The ServiceCall object itself.
      */
     public ServiceCall serviceCall;
+    /**
+     * The cost of the service execution in whose context the calls are made or 'null' outside of one. Continuations
+     * of the execution run on another thread are counted when their executor is wrapped by it.
+     */
+    public transient ExecutionCost executionCost;
+    /**
+     * The executor of the async stages of the service execution, wrapped by its cost, or 'null' outside of one.
+     */
+    public transient Executor executor;
+
+    /**
+     * Used to get the executor a service runs its async stages on, so their CPU time and allocations are counted.
+     *
+     * @return The executor of the execution or the common pool outside of one (e.g. during the warm-up).
+     */
+    public Executor getExecutor() {
+        return ( executor != null ) ? executor : ForkJoinPool.commonPool();
+    }
 }
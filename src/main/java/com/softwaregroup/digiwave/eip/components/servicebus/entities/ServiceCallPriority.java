@@ -0,0 +1,50 @@
+package com.softwaregroup.digiwave.eip.components.servicebus.entities;
+
+/**
+ * Enumeration defining the priority classes of the service calls. Every class has its own lane (request queue) per
+ * service domain and the providers share their capacity between the lanes by weight.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public enum ServiceCallPriority {
+    /**
+     * Calls with a user waiting for the result.
+     */
+    INTERACTIVE( "-interactive", 8 ),
+    /**
+     * The default priority class; its lane is the service domain queue itself.
+     */
+    NORMAL( "", 4 ),
+    /**
+     * Batch and background calls.
+     */
+    BULK( "-bulk", 1 );
+
+    private final String queueSuffix;
+    private final int defaultWeight;
+
+    ServiceCallPriority( String queueSuffix, int defaultWeight ) {
+        this.queueSuffix = queueSuffix;
+        this.defaultWeight = defaultWeight;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The suffix appended to the service domain name to get the request queue of this priority class.
+     */
+    public String getQueueSuffix() {
+        return queueSuffix;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The weight used when no weight is configured for this priority class.
+     */
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+}
@@ -22,9 +22,9 @@ public class ServiceCallResult implements Serializable {
      */
     private Exception exception;
     /**
-     * @serial The payload containing the results from the service call processing.
+     * @serial The payload containing the results from the service call processing. It stays encoded until accessed.
      */
-    private JSONObject payload;
+    private LazyPayload payload;
 
     /**
      * Standard getter.
@@ -63,12 +63,13 @@ public class ServiceCallResult implements Serializable {
     }
 
     /**
-     * Standard getter.
+     * Used to get the payload as a mutable JSON object.
+     * NOTE: This decodes the whole payload. Use getPayloadView() when only reading some fields or passing it along.
      *
      * @return The payload of this result as JSON object.
      */
     public JSONObject getPayload() {
-        return payload;
+        return ( payload != null ) ? payload.materialize() : null;
     }
 
     /**
@@ -77,6 +78,24 @@ public class ServiceCallResult implements Serializable {
      * @param payload A payload to be set for this result.
      */
     public void setPayload( JSONObject payload ) {
+        this.payload = ( payload != null ) ? LazyPayload.of( payload ) : null;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The payload of this result as a lazily decoded view.
+     */
+    public LazyPayload getPayloadView() {
+        return payload;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param payload A payload view to be set for this result.
+     */
+    public void setPayloadView( LazyPayload payload ) {
         this.payload = payload;
     }
 }
@@ -1,6 +1,9 @@
 package com.softwaregroup.digiwave.eip.components.servicebus.entities;
 
+import com.softwaregroup.digiwave.eip.components.servicebus.Service;
+
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 /**
  * Serializable class defining service definition payload.
@@ -14,6 +17,19 @@ public final class ServiceDefinition implements Serializable {
     public String serviceAlias;
     public String serviceClassName;
     public int serviceVersion;
+    /**
+     * The service domain the service belongs to; used only by the ServiceIndex (empty for every domain).
+     */
+    public String serviceDomainName;
+    /**
+     * Creates the Service instances; resolved from the serviceClassName on registration if not provided.
+     */
+    public transient Supplier<Service> serviceFactory;
+    /**
+     * Optional parameters of synthetic calls executed on start-up to warm up the service before the instance starts
+     * consuming requests. Only set them for services that have no side effects.
+     */
+    public ServiceParams warmUpParams;
 
     /**
      * Standard stringify method.
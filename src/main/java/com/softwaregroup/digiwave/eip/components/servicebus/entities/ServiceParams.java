@@ -1,5 +1,7 @@
 package com.softwaregroup.digiwave.eip.components.servicebus.entities;
 
+import org.json.simple.JSONObject;
+
 import java.io.Serializable;
 
 /**
@@ -11,4 +13,45 @@ import java.io.Serializable;
  * @since 2019.1.0
  */
 public class ServiceParams implements Serializable {
+    /**
+     * @serial The payload containing the params as JSON. It stays encoded until accessed.
+     */
+    private LazyPayload payload;
+
+    /**
+     * Used to get the payload as a mutable JSON object.
+     * NOTE: This decodes the whole payload. Use getPayloadView() when only reading some fields or passing it along.
+     *
+     * @return The payload of these params as JSON object.
+     */
+    public JSONObject getPayload() {
+        return ( payload != null ) ? payload.materialize() : null;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param payload A payload to be set for these params.
+     */
+    public void setPayload( JSONObject payload ) {
+        this.payload = ( payload != null ) ? LazyPayload.of( payload ) : null;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The payload of these params as a lazily decoded view.
+     */
+    public LazyPayload getPayloadView() {
+        return payload;
+    }
+
+    /**
+     * Standard setter.
+     *
+     * @param payload A payload view to be set for these params.
+     */
+    public void setPayloadView( LazyPayload payload ) {
+        this.payload = payload;
+    }
 }
@@ -0,0 +1,25 @@
+package com.softwaregroup.digiwave.eip.components.servicebus.entities;
+
+/**
+ * Enumeration defining how a transaction proceeds once one of its steps failed.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public enum StepFailurePolicy {
+    /**
+     * No more steps are started; the steps already running complete and the transaction fails.
+     */
+    ABORT,
+    /**
+     * The steps depending on the failed step (directly or not) are skipped, the independent ones still run; the
+     * transaction fails.
+     */
+    SKIP_DEPENDENTS,
+    /**
+     * The failure is recorded, but the dependent steps run without the inputs mapped from the failed step; the
+     * transaction may still succeed.
+     */
+    CONTINUE
+}
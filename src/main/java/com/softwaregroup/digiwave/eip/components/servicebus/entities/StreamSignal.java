@@ -0,0 +1,31 @@
+package com.softwaregroup.digiwave.eip.components.servicebus.entities;
+
+/**
+ * Enumeration defining the frames of a streamed service call. Service calls that aren't streamed have no signal.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public enum StreamSignal {
+    /**
+     * The request of a streamed call, sent by the caller with the initial credit.
+     */
+    REQUEST,
+    /**
+     * A single result item, sent by the provider.
+     */
+    CHUNK,
+    /**
+     * The last frame of the stream, sent by the provider; it carries the exception if the stream failed.
+     */
+    END,
+    /**
+     * Additional credit, sent by the caller once its subscriber requested more items.
+     */
+    CREDIT,
+    /**
+     * The cancellation of the stream, sent by the caller.
+     */
+    CANCEL
+}
@@ -0,0 +1,22 @@
+package com.softwaregroup.digiwave.eip.components.servicebus.entities;
+
+import java.io.Serializable;
+
+/**
+ * Serializable class defining a transaction as a graph of steps. Steps that don't depend on each other run in
+ * parallel, so the transaction takes as long as its slowest chain of dependent steps.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class TransactionDefinition implements Serializable {
+    /**
+     * @serial The name of the transaction, recorded as the service alias of its root service call.
+     */
+    public String name;
+    /**
+     * @serial The steps of the transaction; the dependencies between them may not form a cycle.
+     */
+    public TransactionStep[] steps;
+}
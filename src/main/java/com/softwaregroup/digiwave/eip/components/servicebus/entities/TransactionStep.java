@@ -0,0 +1,37 @@
+package com.softwaregroup.digiwave.eip.components.servicebus.entities;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Serializable class defining a single step of a transaction: a service call and the steps it depends on.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class TransactionStep implements Serializable {
+    /**
+     * @serial The name of the step, unique within the transaction.
+     */
+    public String name;
+    /**
+     * @serial The address of the service called by the step.
+     */
+    public ServiceAddress serviceAddress;
+    /**
+     * @serial Optional names of the steps that have to complete before this one starts, in addition to the steps its
+     * inputs are mapped from.
+     */
+    public String[] dependsOn;
+    /**
+     * @serial Optional input mappings from a payload field of the step to its source: 'params' or 'params.<path>' for
+     * the params of the transaction, '<step>' or '<step>.<path>' for the result payload of another step (the path
+     * selects a nested field with dots). Without mappings the step gets the params of the transaction.
+     */
+    public Map<String, String> inputs;
+    /**
+     * @serial What happens to the transaction if the step fails.
+     */
+    public StepFailurePolicy onFailure = StepFailurePolicy.ABORT;
+}
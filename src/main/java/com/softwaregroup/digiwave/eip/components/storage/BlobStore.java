@@ -0,0 +1,44 @@
+package com.softwaregroup.digiwave.eip.components.storage;
+
+import java.io.IOException;
+
+/**
+ * An interface defining a store for large binary objects shared between the EIP microservice instances.
+ * NOTE: Implement this to plug a shared storage into the claim-check mechanism. The implementation needs a public
+ * constructor without arguments and is selected by the 'serviceBus.claimCheck.storeClass' setting.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public interface BlobStore {
+    /**
+     * Used to store a blob. Storing the same content twice is allowed and should return the same reference.
+     *
+     * @param data The content of the blob.
+     * @return The reference under which the blob can be fetched by any instance.
+     * @throws IOException To be handled by the caller.
+     */
+    String put( byte[] data ) throws IOException;
+
+    /**
+     * Used to fetch a stored blob.
+     *
+     * @param reference The reference returned when the blob was stored.
+     * @return The content of the blob.
+     * @throws IOException To be handled by the caller; also thrown when the blob doesn't exist (anymore).
+     */
+    byte[] get( String reference ) throws IOException;
+
+    /**
+     * Used to extend the expiry of a stored blob, e.g. when its reference is sent again without storing the content.
+     * Stores whose blobs don't expire don't need to override it.
+     *
+     * @param reference The reference returned when the blob was stored.
+     * @return 'false' if the blob doesn't exist (anymore), so the caller has to store it again.
+     * @throws IOException To be handled by the caller.
+     */
+    default boolean touch( String reference ) throws IOException {
+        return true;
+    }
+}
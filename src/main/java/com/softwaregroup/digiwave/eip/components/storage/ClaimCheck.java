@@ -0,0 +1,52 @@
+package com.softwaregroup.digiwave.eip.components.storage;
+
+import com.softwaregroup.digiwave.eip.utils.Config;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * A class handling the claim-check configuration: payloads above the size threshold are put in the blob store and
+ * only their reference travels through the message broker.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class ClaimCheck {
+    private static final Config.Setting<Integer> CLAIM_CHECK_THRESHOLD = Config.setting( "serviceBus.claimCheck.threshold", 0 );
+    private static final String BLOB_STORE_CLASS = Config.getSetting( "serviceBus.claimCheck.storeClass", MappedFileBlobStore.class.getName() );
+
+    private static BlobStore blobStore;
+
+    private ClaimCheck() {
+    }
+
+    /**
+     * Used to check if a payload has to be claim-checked.
+     *
+     * @param size The size of the encoded payload in bytes.
+     * @return 'true' if the payload should go to the blob store.
+     */
+    public static boolean isApplicable( int size ) {
+        int threshold = CLAIM_CHECK_THRESHOLD.get();
+        return threshold > 0 && size >= threshold;
+    }
+
+    /**
+     * Used to get the configured blob store. It's created on first use.
+     *
+     * @return The BlobStore instance.
+     */
+    public static synchronized BlobStore getBlobStore() {
+        if ( blobStore == null ) {
+            try {
+                Class<?> blobStoreClass = Class.forName( BLOB_STORE_CLASS );
+                Constructor<?> constructor = blobStoreClass.getConstructor();
+                blobStore = ( BlobStore ) constructor.newInstance();
+            } catch ( ReflectiveOperationException exception ) {
+                throw new IllegalStateException( "Failed to initialize blob store '" + BLOB_STORE_CLASS + "'.", exception );
+            }
+        }
+        return blobStore;
+    }
+}
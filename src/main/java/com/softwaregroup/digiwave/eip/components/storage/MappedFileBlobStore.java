@@ -0,0 +1,184 @@
+package com.softwaregroup.digiwave.eip.components.storage;
+
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BlobStore keeping every blob in its own memory-mapped file. The blobs are content-addressed (the reference is the
+ * SHA-256 of the content), so a payload forwarded through several hops is stored only once. Blobs that were not
+ * stored again or touched for longer than the configured TTL are deleted. Within an instance, the touch of a blob and
+ * the expiry check of the cleaner are done under the same lock, so a blob is never deleted right after it was touched.
+ * NOTE: Point the directory to a shared volume when the microservice instances don't run on the same host.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class MappedFileBlobStore implements BlobStore {
+    private static final Config.Setting<Integer> BLOB_TTL = Config.setting( "serviceBus.claimCheck.ttl", 3600 );
+    private static final long CLEANUP_INTERVAL_SECONDS = 60;
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final Object expiryLock = new Object();
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial( () -> {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        } catch ( NoSuchAlgorithmException exception ) {
+            throw new IllegalStateException( exception );
+        }
+    } );
+
+    public MappedFileBlobStore() throws IOException {
+        directory = Paths.get( Config.getSetting( "serviceBus.claimCheck.directory", "blobs" ) );
+        Files.createDirectories( directory );
+
+        ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "blob-store-cleaner" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        cleaner.scheduleWithFixedDelay( this::deleteExpiredBlobs, CLEANUP_INTERVAL_SECONDS, CLEANUP_INTERVAL_SECONDS, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Used to store a blob. If the same content is already stored, only its expiry is extended.
+     *
+     * @param data The content of the blob.
+     * @return The reference of the blob.
+     * @throws IOException To be handled by the caller.
+     */
+    @Override
+    public String put( byte[] data ) throws IOException {
+        String reference = toHex( digests.get().digest( data ) );
+        Path blobFile = directory.resolve( reference );
+        if ( touchBlob( blobFile ) ) {
+            return reference;
+        }
+
+        // write to a temporary file first, so readers never see a partially written blob:
+        Path tempFile = directory.resolve( reference + "." + UUID.randomUUID() + TEMP_EXTENSION );
+        try ( FileChannel channel = FileChannel.open( tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE ) ) {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, data.length );
+            buffer.put( data );
+            buffer.force();
+        }
+        Files.move( tempFile, blobFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+        return reference;
+    }
+
+    /**
+     * Used to fetch a stored blob.
+     *
+     * @param reference The reference of the blob.
+     * @return The content of the blob.
+     * @throws IOException To be handled by the caller.
+     */
+    @Override
+    public byte[] get( String reference ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( resolve( reference ), StandardOpenOption.READ ) ) {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            byte[] data = new byte[ buffer.remaining() ];
+            buffer.get( data );
+            return data;
+        }
+    }
+
+    /**
+     * Used to extend the expiry of a stored blob.
+     *
+     * @param reference The reference of the blob.
+     * @return 'false' if the blob doesn't exist (anymore).
+     * @throws IOException To be handled by the caller.
+     */
+    @Override
+    public boolean touch( String reference ) throws IOException {
+        return touchBlob( resolve( reference ) );
+    }
+
+    /**
+     * Used to set the modification time of a blob file to now, unless the cleaner has deleted it already.
+     *
+     * @param blobFile The blob file.
+     * @return 'false' if the blob file doesn't exist.
+     * @throws IOException To be handled by the caller.
+     */
+    private boolean touchBlob( Path blobFile ) throws IOException {
+        synchronized ( expiryLock ) {
+            try {
+                Files.setLastModifiedTime( blobFile, FileTime.fromMillis( System.currentTimeMillis() ) );
+                return true;
+            } catch ( NoSuchFileException exception ) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Used to get the file of a blob, rejecting references that point outside of the store directory.
+     *
+     * @param reference The reference of the blob.
+     * @return The blob file.
+     * @throws IOException In case the reference is invalid.
+     */
+    private Path resolve( String reference ) throws IOException {
+        if ( reference.indexOf( '/' ) >= 0 || reference.indexOf( '\\' ) >= 0 || reference.startsWith( "." ) ) {
+            throw new IOException( "Invalid blob reference '" + reference + "'." );
+        }
+        return directory.resolve( reference );
+    }
+
+    /**
+     * Used to delete the blobs (and abandoned temporary files) that have expired.
+     */
+    private void deleteExpiredBlobs() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis( BLOB_TTL.get() );
+        int deleted = 0;
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( directory ) ) {
+            for ( Path blobFile : stream ) {
+                try {
+                    synchronized ( expiryLock ) {
+                        if ( Files.getLastModifiedTime( blobFile ).toMillis() < expiredBefore && Files.deleteIfExists( blobFile ) ) {
+                            deleted++;
+                        }
+                    }
+                } catch ( IOException exception ) {
+                    // the blob was deleted in the meantime (e.g. by another instance sharing the directory)
+                }
+            }
+        } catch ( IOException exception ) {
+            Logger.log( "Failed to clean up the blob store in '" + directory + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+        if ( deleted > 0 ) {
+            Logger.log( "Deleted " + deleted + " expired blobs from '" + directory + "'.", Logger.Severity.DEBUG, Logger.Threads.ESB );
+        }
+    }
+
+    private static String toHex( byte[] bytes ) {
+        char[] hex = new char[ bytes.length * 2 ];
+        for ( int idx = 0; idx < bytes.length; idx++ ) {
+            hex[ idx * 2 ] = HEX_DIGITS[ ( bytes[ idx ] >> 4 ) & 0x0F ];
+            hex[ idx * 2 + 1 ] = HEX_DIGITS[ bytes[ idx ] & 0x0F ];
+        }
+        return new String( hex );
+    }
+}
@@ -8,11 +8,32 @@ package com.softwaregroup.digiwave.eip.exceptions;
  * @since 2019.1.0
  */
 public class ServiceBusException extends Exception {
+    private final boolean retryable;
+
     public ServiceBusException( String message, Throwable cause ) {
         super( message, cause );
+        this.retryable = false;
     }
 
     public ServiceBusException( String message ) {
+        this( message, false );
+    }
+
+    /**
+     * @param message   The detail message.
+     * @param retryable Whether the call may succeed when sent again, e.g. it was rejected due to overload.
+     */
+    public ServiceBusException( String message, boolean retryable ) {
         super( message );
+        this.retryable = retryable;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return 'true' if the failed call may succeed when sent again.
+     */
+    public boolean isRetryable() {
+        return retryable;
     }
 }
@@ -44,7 +44,7 @@ public final class TestExecutor extends ServiceConsumer {
                         if ( result.getException() != null ) {
                             Logger.log( "Scheduled service call result error: " + result.getException(), Logger.Severity.DEBUG, Logger.Threads.ESB );
                         } else {
-                            Logger.log( "Scheduled service call result success: " + result.getPayload().get( "testParam" ), Logger.Severity.DEBUG, Logger.Threads.ESB );
+                            Logger.log( "Scheduled service call result success: " + result.getPayloadView().get( "testParam" ), Logger.Severity.DEBUG, Logger.Threads.ESB );
                         }
                     } );
                 }
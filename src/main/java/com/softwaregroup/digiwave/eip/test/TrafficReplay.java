@@ -0,0 +1,155 @@
+package com.softwaregroup.digiwave.eip.test;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceConsumer;
+import com.softwaregroup.digiwave.eip.components.servicebus.TrafficCapture;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceAddress;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallContext;
+import com.softwaregroup.digiwave.eip.utils.Config;
+import com.softwaregroup.digiwave.eip.utils.Logger;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executable class used to replay captured service call traffic against a running EIP microservice ecosystem.
+ * The requests are re-issued with the original pacing multiplied by the configured speed and the latencies seen
+ * during the replay are compared to the captured ones.
+ * NOTE: To run this MS you need to supply the following ENV variables:
+ * DIGIWAVE_SERVICE_DOMAIN_NAME=trafficReplay
+ * DIGIWAVE_REPLAY_DIRECTORY=<directory with the captured segments>
+ * DIGIWAVE_REPLAY_SPEED=<1 for the original pace, N for N times faster, 0 for max speed>
+ * DIGIWAVE_REPLAY_SIDE=<CALLER to replay the requests sent by the captured instances, PROVIDER to replay the requests they received>
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class TrafficReplay extends ServiceConsumer {
+    private enum Side {
+        CALLER,
+        PROVIDER
+    }
+
+    /**
+     * Entry point for the replay instance.
+     *
+     * @param argv Not used at the moment.
+     */
+    public static void main( String[] argv ) {
+        TrafficReplay trafficReplay = new TrafficReplay();
+        trafficReplay.start().thenRunAsync( () -> {
+            try {
+                trafficReplay.replay();
+            } catch ( Exception exception ) {
+                Logger.log( "Traffic replay failed.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            }
+        } ).join();
+        trafficReplay.stop().join();
+    }
+
+    /**
+     * Used to load the captured frames, replay the requests and report the latencies.
+     *
+     * @throws Exception To be handled by the caller.
+     */
+    private void replay() throws Exception {
+        String directory = Config.getSetting( "replay.directory", "capture" );
+        double speed = Config.getSetting( "replay.speed", 1.0 );
+        Side side = Config.getSetting( "replay.side", Side.CALLER );
+        byte requestType = ( side == Side.CALLER ) ? TrafficCapture.REQUEST_OUT : TrafficCapture.REQUEST_IN;
+        byte responseType = ( side == Side.CALLER ) ? TrafficCapture.RESPONSE_IN : TrafficCapture.RESPONSE_OUT;
+
+        // load the requests and match them with their captured responses:
+        List<TrafficCapture.Frame> requests = new ArrayList<>();
+        Map<String, Long> responseTimestamps = new HashMap<>();
+        TrafficCapture.read( Paths.get( directory ), frame -> {
+            if ( frame.getType() == requestType ) {
+                requests.add( frame );
+            } else if ( frame.getType() == responseType ) {
+                responseTimestamps.put( getTaskID( frame.getServiceCall() ), frame.getTimestamp() );
+            }
+        } );
+        requests.sort( Comparator.comparingLong( TrafficCapture.Frame::getTimestamp ) );
+        Logger.log( "Replaying " + requests.size() + " captured requests from '" + directory + "' at speed " + ( ( speed > 0 ) ? speed + "x" : "max" ) + ".", Logger.Severity.INFO, Logger.Threads.ESB );
+        if ( requests.isEmpty() ) {
+            return;
+        }
+
+        List<Long> capturedLatencies = new ArrayList<>();
+        long[] replayedLatencies = new long[ requests.size() ];
+        CompletableFuture<?>[] replayedCalls = new CompletableFuture<?>[ requests.size() ];
+        long firstTimestamp = requests.get( 0 ).getTimestamp();
+        long replayStart = System.nanoTime();
+        for ( int idx = 0; idx < requests.size(); idx++ ) {
+            TrafficCapture.Frame request = requests.get( idx );
+            ServiceCall serviceCall = request.getServiceCall();
+            Long responseTimestamp = responseTimestamps.get( getTaskID( serviceCall ) );
+            if ( responseTimestamp != null ) {
+                capturedLatencies.add( responseTimestamp - request.getTimestamp() );
+            }
+
+            // keep the original pacing between the requests, scaled by the replay speed:
+            if ( speed > 0 ) {
+                long dueTime = replayStart + ( long ) ( TimeUnit.MICROSECONDS.toNanos( request.getTimestamp() - firstTimestamp ) / speed );
+                long delay = dueTime - System.nanoTime();
+                if ( delay > 0 ) {
+                    LockSupport.parkNanos( delay );
+                }
+            }
+
+            ServiceAddress serviceAddress = new ServiceAddress();
+            serviceAddress.serviceAlias = serviceCall.getDestination().serviceAlias;
+            serviceAddress.serviceDomainName = serviceCall.getDestination().serviceDomainName;
+            serviceAddress.serviceVersion = serviceCall.getDestination().serviceVersion;
+
+            int resultIdx = idx;
+            long callStart = System.nanoTime();
+            replayedCalls[ idx ] = callServiceAsync( serviceAddress, serviceCall.getDestination().serviceParams, new ServiceCallContext() )
+                    .thenAccept( result -> replayedLatencies[ resultIdx ] = TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - callStart ) );
+        }
+        CompletableFuture.allOf( replayedCalls ).join();
+
+        long[] captured = capturedLatencies.stream().mapToLong( Long::longValue ).toArray();
+        Logger.log( "Traffic replay completed in " + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - replayStart ) + " ms.", Logger.Severity.INFO, Logger.Threads.ESB );
+        Logger.log( "Captured latency (us): " + describeLatencies( captured ), Logger.Severity.INFO, Logger.Threads.ESB );
+        Logger.log( "Replayed latency (us): " + describeLatencies( replayedLatencies ), Logger.Severity.INFO, Logger.Threads.ESB );
+    }
+
+    /**
+     * Used to get the ID under which a request and its response are correlated.
+     *
+     * @param serviceCall The captured ServiceCall object.
+     * @return The task ID of the service call.
+     */
+    private static String getTaskID( ServiceCall serviceCall ) {
+        return serviceCall.getServiceCallID() + "." + serviceCall.getLastTaskSeq();
+    }
+
+    /**
+     * Used to summarize a set of latencies.
+     *
+     * @param latencies The latencies to summarize.
+     * @return A short human readable summary.
+     */
+    private static String describeLatencies( long[] latencies ) {
+        if ( latencies.length == 0 ) {
+            return "n/a";
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort( sorted );
+        return "count=" + sorted.length
+                + " p50=" + sorted[ ( int ) ( sorted.length * 0.50 ) ]
+                + " p90=" + sorted[ ( int ) ( sorted.length * 0.90 ) ]
+                + " p99=" + sorted[ ( int ) ( sorted.length * 0.99 ) ]
+                + " max=" + sorted[ sorted.length - 1 ];
+    }
+}
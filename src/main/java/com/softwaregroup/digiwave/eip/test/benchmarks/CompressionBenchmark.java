@@ -0,0 +1,109 @@
+package com.softwaregroup.digiwave.eip.test.benchmarks;
+
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceCallCodec;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.DataObject;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallResult;
+import com.softwaregroup.digiwave.eip.utils.IdGenerator;
+import org.json.simple.JSONArray;
+
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Executable class used to measure the CPU and size trade-off of the frame compression for several payload sizes.
+ * For every payload size bucket and algorithm it reports the compression ratio and the average time to compress and
+ * decompress a serialized ServiceCall frame.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class CompressionBenchmark {
+    private static final int[] PAYLOAD_SIZES = { 1024, 16 * 1024, 128 * 1024, 1024 * 1024 };
+    private static final long MEASUREMENT_NANOS = 1_000_000_000L;
+
+    /**
+     * Entry point for the benchmark.
+     *
+     * @param argv Not used at the moment.
+     */
+    public static void main( String[] argv ) {
+        System.out.println( String.format( "%-10s %-12s %12s %10s %14s %14s", "payload", "algorithm", "frame bytes", "ratio", "compress us", "decompress us" ) );
+        for ( int payloadSize : PAYLOAD_SIZES ) {
+            byte[] frame = ServiceCallCodec.serialize( createServiceCall( payloadSize ) );
+            run( payloadSize, frame, ServiceCallCodec.Compression.DEFLATE, Deflater.BEST_SPEED );
+            run( payloadSize, frame, ServiceCallCodec.Compression.DEFLATE, Deflater.DEFAULT_COMPRESSION );
+            run( payloadSize, frame, ServiceCallCodec.Compression.GZIP, Deflater.BEST_SPEED );
+        }
+    }
+
+    /**
+     * Used to measure a single algorithm against a single frame.
+     *
+     * @param payloadSize The approximate payload size of the frame.
+     * @param frame       The serialized ServiceCall.
+     * @param compression The compression algorithm.
+     * @param level       The compression level.
+     */
+    private static void run( int payloadSize, byte[] frame, ServiceCallCodec.Compression compression, int level ) {
+        // warm-up, so the measurement is done on compiled code:
+        measure( () -> ServiceCallCodec.compress( frame, compression, level ) );
+        ServiceCallCodec.Frame compressed = ServiceCallCodec.compress( frame, compression, level );
+        measure( () -> ServiceCallCodec.decompress( compressed.getData(), compressed.getContentEncoding() ) );
+
+        double compressMicros = measure( () -> ServiceCallCodec.compress( frame, compression, level ) );
+        double decompressMicros = measure( () -> ServiceCallCodec.decompress( compressed.getData(), compressed.getContentEncoding() ) );
+        System.out.println( String.format( "%-10s %-12s %12d %10.2f %14.1f %14.1f",
+                ( payloadSize / 1024 ) + "K", compression + "/" + level, compressed.getData().length,
+                ( double ) frame.length / compressed.getData().length, compressMicros, decompressMicros ) );
+    }
+
+    /**
+     * Used to measure the average execution time of a task.
+     *
+     * @param task The task to measure.
+     * @return The average execution time in microseconds.
+     */
+    private static double measure( Runnable task ) {
+        long iterations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            task.run();
+            iterations++;
+            elapsed = System.nanoTime() - start;
+        } while ( elapsed < MEASUREMENT_NANOS );
+        return elapsed / 1000.0 / iterations;
+    }
+
+    /**
+     * Used to create a ServiceCall with a realistic result payload of roughly the requested size.
+     *
+     * @param payloadSize The approximate payload size in bytes.
+     * @return The new ServiceCall object.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static ServiceCall createServiceCall( int payloadSize ) {
+        Random random = new Random( payloadSize );
+        JSONArray records = new JSONArray();
+        int size = 0;
+        while ( size < payloadSize ) {
+            DataObject record = new DataObject();
+            record.put( "accountID", "ACC-" + random.nextInt( 1_000_000 ) );
+            record.put( "amount", random.nextInt( 100_000 ) / 100.0 );
+            record.put( "currency", random.nextBoolean() ? "EUR" : "BGN" );
+            record.put( "status", random.nextInt( 10 ) < 8 ? "COMPLETED" : "PENDING" );
+            records.add( record );
+            size += record.toJSONString().length();
+        }
+        DataObject payload = new DataObject();
+        payload.put( "records", records );
+
+        ServiceCall serviceCall = new ServiceCall();
+        serviceCall.setServiceCallID( IdGenerator.nextHigh(), IdGenerator.threadNode() );
+        serviceCall.setResult( new ServiceCallResult() );
+        serviceCall.getResult().setPayload( payload );
+        return serviceCall;
+    }
+}
@@ -0,0 +1,156 @@
+package com.softwaregroup.digiwave.eip.test.benchmarks;
+
+import com.softwaregroup.digiwave.eip.utils.IdGenerator;
+import com.softwaregroup.digiwave.eip.utils.LongObjectMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Executable class used to compare the tables correlating the pending service calls with their handlers.
+ * For several numbers of pending calls it reports the heap retained per pending call by the table and its keys (the
+ * handlers themselves are not counted) and the average time to register, look up and remove a call.
+ * The string keys are built the way the task IDs were built before the correlation IDs: the service call ID followed
+ * by the task sequence.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class CorrelationMapBenchmark {
+    private static final int[] PENDING_CALLS = { 10_000, 100_000, 500_000 };
+    private static final long MEASUREMENT_NANOS = 1_000_000_000L;
+    private static final CompletableFuture<Object> HANDLER = new CompletableFuture<>();
+
+    private static Object retained;
+
+    /**
+     * Entry point for the benchmark.
+     *
+     * @param argv Not used at the moment.
+     */
+    public static void main( String[] argv ) {
+        System.out.println( String.format( "%-10s %-14s %16s %18s", "pending", "table", "bytes per call", "put/get/remove ns" ) );
+        for ( int pendingCalls : PENDING_CALLS ) {
+            System.out.println( String.format( "%-10d %-14s %16.1f %18.1f", pendingCalls, "HashMap", measureHeap( () -> fillStringTable( pendingCalls ) ) / pendingCalls, measureStringTable( pendingCalls ) ) );
+            System.out.println( String.format( "%-10d %-14s %16.1f %18.1f", pendingCalls, "LongObjectMap", measureHeap( () -> fillLongTable( pendingCalls ) ) / pendingCalls, measureLongTable( pendingCalls ) ) );
+        }
+    }
+
+    /**
+     * Used to fill a table keyed by strings.
+     *
+     * @param pendingCalls The number of pending calls.
+     * @return The filled table.
+     */
+    private static Map<String, CompletableFuture<Object>> fillStringTable( int pendingCalls ) {
+        Map<String, CompletableFuture<Object>> table = new HashMap<>();
+        for ( int idx = 0; idx < pendingCalls; idx++ ) {
+            table.put( IdGenerator.toString( "TSC-", IdGenerator.nextHigh(), IdGenerator.threadNode() ) + "." + 1, HANDLER );
+        }
+        return table;
+    }
+
+    /**
+     * Used to fill a table keyed by correlation IDs.
+     *
+     * @param pendingCalls The number of pending calls.
+     * @return The filled table.
+     */
+    private static LongObjectMap<CompletableFuture<Object>> fillLongTable( int pendingCalls ) {
+        LongObjectMap<CompletableFuture<Object>> table = new LongObjectMap<>();
+        for ( int idx = 1; idx <= pendingCalls; idx++ ) {
+            table.put( idx, HANDLER );
+        }
+        return table;
+    }
+
+    /**
+     * Used to measure the average time of a call passing through a string table holding a number of pending calls.
+     *
+     * @param pendingCalls The number of pending calls.
+     * @return The average time in nanoseconds.
+     */
+    private static double measureStringTable( int pendingCalls ) {
+        Map<String, CompletableFuture<Object>> table = fillStringTable( pendingCalls );
+        return measure( () -> {
+            String taskID = IdGenerator.toString( "TSC-", IdGenerator.nextHigh(), IdGenerator.threadNode() ) + "." + 1;
+            table.put( taskID, HANDLER );
+            // the response is deserialized, so its task ID is a different string object:
+            String responseTaskID = new String( taskID );
+            if ( table.get( responseTaskID ) != null ) {
+                table.remove( responseTaskID );
+            }
+        } );
+    }
+
+    /**
+     * Used to measure the average time of a call passing through a correlation ID table holding a number of pending
+     * calls.
+     *
+     * @param pendingCalls The number of pending calls.
+     * @return The average time in nanoseconds.
+     */
+    private static double measureLongTable( int pendingCalls ) {
+        LongObjectMap<CompletableFuture<Object>> table = fillLongTable( pendingCalls );
+        long[] lastCorrelationID = { pendingCalls };
+        return measure( () -> {
+            long taskID = ++lastCorrelationID[ 0 ];
+            table.put( taskID, HANDLER );
+            if ( table.get( taskID ) != null ) {
+                table.remove( taskID );
+            }
+        } );
+    }
+
+    /**
+     * Used to measure the heap retained by an object.
+     *
+     * @param factory Creates the object.
+     * @return The retained heap in bytes.
+     */
+    private static double measureHeap( Supplier<Object> factory ) {
+        long before = usedHeap();
+        retained = factory.get();
+        long after = usedHeap();
+        retained = null;
+        return after - before;
+    }
+
+    /**
+     * Used to get the used heap after a full collection.
+     *
+     * @return The used heap in bytes.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int idx = 0; idx < 3; idx++ ) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Used to measure the average execution time of a task after a warm-up.
+     *
+     * @param task The task to measure.
+     * @return The average execution time in nanoseconds.
+     */
+    private static double measure( Runnable task ) {
+        double average = 0;
+        for ( int round = 0; round < 2; round++ ) {
+            long iterations = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                task.run();
+                iterations++;
+                elapsed = System.nanoTime() - start;
+            } while ( elapsed < MEASUREMENT_NANOS );
+            average = ( double ) elapsed / iterations;
+        }
+        return average;
+    }
+}
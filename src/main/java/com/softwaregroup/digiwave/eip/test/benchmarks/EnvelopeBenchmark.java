@@ -0,0 +1,144 @@
+package com.softwaregroup.digiwave.eip.test.benchmarks;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.MessageProperties;
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceCallCodec;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.DataObject;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCall;
+import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceCallResult;
+import com.softwaregroup.digiwave.eip.utils.IdGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executable class used to measure the throughput gain of the envelope batching against a local message broker.
+ * For every batch size, the same number of service calls is published to a temporary queue (as regular messages for
+ * the batch size of 1 and as envelopes otherwise) and consumed with manual acknowledgements, unpacking and
+ * deserializing every call. It reports the broker messages per second, the service calls per second and the speed-up
+ * against the regular messages.
+ * Arguments: [broker host] [service calls per run] [payload bytes]; the defaults are 'localhost', 200000 and 256.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class EnvelopeBenchmark {
+    private static final int[] BATCH_SIZES = { 1, 4, 16, 64 };
+    private static final int PREFETCH_COUNT = 256;
+
+    /**
+     * Entry point for the benchmark.
+     *
+     * @param argv The broker host, the service calls per run and the payload size.
+     * @throws Exception In case the broker can't be reached.
+     */
+    public static void main( String[] argv ) throws Exception {
+        String host = ( argv.length > 0 ) ? argv[ 0 ] : "localhost";
+        int calls = ( argv.length > 1 ) ? Integer.parseInt( argv[ 1 ] ) : 200_000;
+        int payloadSize = ( argv.length > 2 ) ? Integer.parseInt( argv[ 2 ] ) : 256;
+        byte[] frame = ServiceCallCodec.serialize( createServiceCall( payloadSize ) );
+
+        ConnectionFactory connectionFactory = new ConnectionFactory();
+        connectionFactory.setHost( host );
+        try ( Connection connection = connectionFactory.newConnection() ) {
+            // warm-up, so the measurement is done on compiled code:
+            run( connection, frame, Math.min( calls, 20_000 ), 1 );
+            run( connection, frame, Math.min( calls, 20_000 ), BATCH_SIZES[ BATCH_SIZES.length - 1 ] );
+
+            System.out.println( String.format( "%-8s %-8s %14s %14s %10s", "batch", "frame", "messages/s", "calls/s", "speed-up" ) );
+            double baseline = 0;
+            for ( int batchSize : BATCH_SIZES ) {
+                double callsPerSecond = run( connection, frame, calls, batchSize );
+                if ( batchSize == 1 ) {
+                    baseline = callsPerSecond;
+                }
+                System.out.println( String.format( "%-8d %-8d %14.0f %14.0f %10.2f", batchSize, frame.length, callsPerSecond / batchSize, callsPerSecond, callsPerSecond / baseline ) );
+            }
+        }
+    }
+
+    /**
+     * Used to publish and consume the service calls of a single run.
+     *
+     * @param connection The broker connection.
+     * @param frame      The serialized ServiceCall.
+     * @param calls      The number of service calls.
+     * @param batchSize  The number of service calls per message.
+     * @return The consumed service calls per second.
+     * @throws Exception In case the broker fails.
+     */
+    private static double run( Connection connection, byte[] frame, int calls, int batchSize ) throws Exception {
+        List<byte[]> frames = new ArrayList<>( batchSize );
+        for ( int idx = 0; idx < batchSize; idx++ ) {
+            frames.add( frame );
+        }
+        byte[] message = ( batchSize > 1 ) ? ServiceCallCodec.envelope( frames ) : frame;
+        int messages = calls / batchSize;
+
+        Channel consumerChannel = connection.createChannel();
+        Channel publisherChannel = connection.createChannel();
+        try {
+            String queue = consumerChannel.queueDeclare().getQueue();
+            CountDownLatch consumed = new CountDownLatch( messages );
+            consumerChannel.basicQos( PREFETCH_COUNT );
+            consumerChannel.basicConsume( queue, false, new DefaultConsumer( consumerChannel ) {
+                @Override
+                public void handleDelivery( String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body ) throws IOException {
+                    if ( ServiceCallCodec.isEnvelope( body ) ) {
+                        for ( byte[] part : ServiceCallCodec.unpack( body ) ) {
+                            ServiceCallCodec.<ServiceCall>deserialize( part );
+                        }
+                    } else {
+                        ServiceCallCodec.<ServiceCall>deserialize( body );
+                    }
+                    getChannel().basicAck( envelope.getDeliveryTag(), false );
+                    consumed.countDown();
+                }
+            } );
+
+            publisherChannel.confirmSelect();
+            long startNanos = System.nanoTime();
+            for ( int idx = 0; idx < messages; idx++ ) {
+                publisherChannel.basicPublish( "", queue, MessageProperties.PERSISTENT_BASIC, message );
+            }
+            publisherChannel.waitForConfirmsOrDie( TimeUnit.MINUTES.toMillis( 5 ) );
+            consumed.await();
+            long elapsedNanos = System.nanoTime() - startNanos;
+            return ( double ) messages * batchSize / ( elapsedNanos / 1e9 );
+        } finally {
+            publisherChannel.close();
+            consumerChannel.close();
+        }
+    }
+
+    /**
+     * Used to create a ServiceCall with a result payload of roughly the requested size.
+     *
+     * @param payloadSize The approximate payload size in bytes.
+     * @return The new ServiceCall object.
+     */
+    @SuppressWarnings( "unchecked" )
+    private static ServiceCall createServiceCall( int payloadSize ) {
+        StringBuilder value = new StringBuilder( payloadSize );
+        while ( value.length() < payloadSize ) {
+            value.append( "benchmark-" );
+        }
+        DataObject payload = new DataObject();
+        payload.put( "value", value.toString() );
+
+        ServiceCall serviceCall = new ServiceCall();
+        serviceCall.setServiceCallID( IdGenerator.nextHigh(), IdGenerator.threadNode() );
+        serviceCall.setResult( new ServiceCallResult() );
+        serviceCall.getResult().setPayload( payload );
+        return serviceCall;
+    }
+}
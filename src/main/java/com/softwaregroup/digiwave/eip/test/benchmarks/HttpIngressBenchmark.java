@@ -0,0 +1,153 @@
+package com.softwaregroup.digiwave.eip.test.benchmarks;
+
+import com.softwaregroup.digiwave.eip.utils.Metrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executable class used to load test the HTTP ingress connector of a local instance.
+ * Every connection is kept alive and keeps a fixed number of pipelined requests in flight, sending the next request as
+ * soon as a response arrives. After a warm-up, the throughput in requests per second, the latency percentiles and the
+ * number of non-200 responses are reported.
+ * Arguments: [url] [connections] [pipelined requests per connection] [seconds]; the defaults are
+ * 'http://127.0.0.1:8080/echo', 64, 1 and 30. The body of the POST requests can be set with DIGIWAVE_BENCHMARK_BODY.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class HttpIngressBenchmark {
+    private static final long WARM_UP_SECONDS = 5;
+
+    private static final Metrics.Histogram latencies = new Metrics.Histogram();
+    private static final LongAdder responses = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static volatile boolean running = true;
+
+    /**
+     * Entry point for the benchmark.
+     *
+     * @param argv The URL, the connections, the pipelined requests per connection and the duration in seconds.
+     * @throws Exception In case the instance can't be reached.
+     */
+    public static void main( String[] argv ) throws Exception {
+        URI uri = URI.create( ( argv.length > 0 ) ? argv[ 0 ] : "http://127.0.0.1:8080/echo" );
+        int connections = ( argv.length > 1 ) ? Integer.parseInt( argv[ 1 ] ) : 64;
+        int pipelined = ( argv.length > 2 ) ? Integer.parseInt( argv[ 2 ] ) : 1;
+        int seconds = ( argv.length > 3 ) ? Integer.parseInt( argv[ 3 ] ) : 30;
+        String body = ( System.getenv( "DIGIWAVE_BENCHMARK_BODY" ) != null ) ? System.getenv( "DIGIWAVE_BENCHMARK_BODY" ) : "{\"value\":\"benchmark\"}";
+        int port = ( uri.getPort() > 0 ) ? uri.getPort() : 80;
+
+        EventLoopGroup group = new NioEventLoopGroup();
+        try {
+            Bootstrap bootstrap = new Bootstrap()
+                    .group( group )
+                    .channel( NioSocketChannel.class )
+                    .option( ChannelOption.TCP_NODELAY, true )
+                    .handler( new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel( SocketChannel channel ) {
+                            channel.pipeline()
+                                    .addLast( new HttpClientCodec() )
+                                    .addLast( new HttpObjectAggregator( 16 * 1048576 ) )
+                                    .addLast( new LoadHandler( uri, body, pipelined ) );
+                        }
+                    } );
+            List<Channel> channels = new ArrayList<>();
+            for ( int idx = 0; idx < connections; idx++ ) {
+                channels.add( bootstrap.connect( uri.getHost(), port ).sync().channel() );
+            }
+
+            Thread.sleep( TimeUnit.SECONDS.toMillis( WARM_UP_SECONDS ) );
+            latencies.reset();
+            responses.reset();
+            failures.reset();
+            long startNanos = System.nanoTime();
+            Thread.sleep( TimeUnit.SECONDS.toMillis( seconds ) );
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long completed = responses.sum();
+            running = false;
+
+            System.out.println( String.format( "%-12s %-10s %12s %10s %10s %10s %10s", "connections", "pipelined", "requests/s", "p50 us", "p99 us", "p999 us", "failures" ) );
+            System.out.println( String.format( "%-12d %-10d %12.0f %10d %10d %10d %10d", connections, pipelined, completed / ( elapsedNanos / 1e9 ), latencies.getPercentile( 0.5 ), latencies.getPercentile( 0.99 ), latencies.getPercentile( 0.999 ), failures.sum() ) );
+            for ( Channel channel : channels ) {
+                channel.close().awaitUninterruptibly();
+            }
+        } finally {
+            group.shutdownGracefully( 0, 1, TimeUnit.SECONDS );
+        }
+    }
+
+    /**
+     * The handler of a single load connection.
+     */
+    private static final class LoadHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        private final URI uri;
+        private final byte[] body;
+        private final int pipelined;
+        private final ArrayDeque<Long> sentNanos = new ArrayDeque<>();
+
+        private LoadHandler( URI uri, String body, int pipelined ) {
+            this.uri = uri;
+            this.body = body.getBytes( StandardCharsets.UTF_8 );
+            this.pipelined = pipelined;
+        }
+
+        @Override
+        public void channelActive( ChannelHandlerContext ctx ) {
+            for ( int idx = 0; idx < pipelined; idx++ ) {
+                send( ctx );
+            }
+            ctx.flush();
+        }
+
+        @Override
+        protected void channelRead0( ChannelHandlerContext ctx, FullHttpResponse response ) {
+            Long sent = sentNanos.poll();
+            if ( sent != null ) {
+                latencies.record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - sent ) );
+            }
+            responses.increment();
+            if ( !HttpResponseStatus.OK.equals( response.status() ) ) {
+                failures.increment();
+            }
+            if ( running && HttpUtil.isKeepAlive( response ) ) {
+                send( ctx );
+                ctx.flush();
+            }
+        }
+
+        @Override
+        public void exceptionCaught( ChannelHandlerContext ctx, Throwable cause ) {
+            failures.increment();
+            ctx.close();
+        }
+
+        /**
+         * Used to write the next request.
+         *
+         * @param ctx The channel handler context.
+         */
+        private void send( ChannelHandlerContext ctx ) {
+            FullHttpRequest request = new DefaultFullHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, uri.getRawPath(), Unpooled.wrappedBuffer( body ) );
+            request.headers().set( HttpHeaderNames.HOST, uri.getHost() );
+            request.headers().set( HttpHeaderNames.CONTENT_TYPE, "application/json" );
+            HttpUtil.setContentLength( request, body.length );
+            sentNanos.add( System.nanoTime() );
+            ctx.write( request );
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.softwaregroup.digiwave.eip.test.benchmarks;
+
+import com.softwaregroup.digiwave.eip.utils.IdGenerator;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executable class used to compare the throughput and the allocations of the ID generation under contention.
+ * For every thread count it reports the IDs generated per second (over all threads) and the bytes allocated per ID for
+ * the random UUIDs used before and for the IdGenerator, both in binary form and rendered for logging.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class IdGeneratorBenchmark {
+    private static final int[] THREAD_COUNTS = { 1, 4, 16, 64 };
+    private static final long MEASUREMENT_NANOS = 1_000_000_000L;
+
+    private static volatile long sink;
+
+    /**
+     * A single ID generation strategy.
+     */
+    private interface Generator {
+        /**
+         * @return A value derived from the generated ID, so it isn't optimized away.
+         */
+        long generate();
+    }
+
+    /**
+     * Entry point for the benchmark.
+     *
+     * @param argv Not used at the moment.
+     */
+    public static void main( String[] argv ) throws InterruptedException {
+        Generator uuid = () -> ( "TSC-" + UUID.randomUUID().toString() ).length();
+        Generator binary = () -> IdGenerator.nextHigh() ^ IdGenerator.threadNode();
+        Generator rendered = () -> IdGenerator.toString( "TSC-", IdGenerator.nextHigh(), IdGenerator.threadNode() ).length();
+
+        System.out.println( String.format( "%-8s %-12s %16s %14s", "threads", "generator", "IDs per second", "bytes per ID" ) );
+        for ( int threads : THREAD_COUNTS ) {
+            run( threads, "uuid", uuid );
+            run( threads, "binary", binary );
+            run( threads, "rendered", rendered );
+        }
+    }
+
+    /**
+     * Used to measure a single generator with a given number of threads.
+     *
+     * @param threads   The number of threads generating IDs at once.
+     * @param name      The name of the generator.
+     * @param generator The generator.
+     */
+    private static void run( int threads, String name, Generator generator ) throws InterruptedException {
+        // warm-up, so the measurement is done on compiled code:
+        measure( threads, generator );
+        long[] result = measure( threads, generator );
+        System.out.println( String.format( "%-8d %-12s %16d %14.1f", threads, name, result[ 0 ] * 1_000_000_000L / MEASUREMENT_NANOS, ( double ) result[ 1 ] / result[ 0 ] ) );
+    }
+
+    /**
+     * Used to run a generator on several threads at once.
+     *
+     * @param threads   The number of threads.
+     * @param generator The generator.
+     * @return The total number of generated IDs and the total number of allocated bytes.
+     */
+    private static long[] measure( int threads, Generator generator ) throws InterruptedException {
+        com.sun.management.ThreadMXBean threadBean = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        AtomicLong generated = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        CountDownLatch start = new CountDownLatch( 1 );
+        List<Thread> workers = new ArrayList<>();
+        for ( int idx = 0; idx < threads; idx++ ) {
+            Thread worker = new Thread( () -> {
+                try {
+                    start.await();
+                } catch ( InterruptedException exception ) {
+                    return;
+                }
+                long allocatedBefore = threadBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+                long deadline = System.nanoTime() + MEASUREMENT_NANOS;
+                long count = 0;
+                long value = 0;
+                while ( ( count & 0xFF ) != 0 || System.nanoTime() < deadline ) {
+                    value += generator.generate();
+                    count++;
+                }
+                allocated.addAndGet( threadBean.getThreadAllocatedBytes( Thread.currentThread().getId() ) - allocatedBefore );
+                generated.addAndGet( count );
+                sink = value;
+            } );
+            worker.start();
+            workers.add( worker );
+        }
+        start.countDown();
+        for ( Thread worker : workers ) {
+            worker.join();
+        }
+        return new long[]{ generated.get(), allocated.get() };
+    }
+}
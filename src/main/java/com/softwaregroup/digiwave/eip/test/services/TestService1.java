@@ -1,6 +1,7 @@
 package com.softwaregroup.digiwave.eip.test.services;
 
 import com.softwaregroup.digiwave.eip.components.servicebus.Service;
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceEndpoint;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.*;
 
 import java.util.concurrent.CompletableFuture;
@@ -12,6 +13,7 @@ import java.util.concurrent.CompletableFuture;
  * @version 1.0
  * @since 2019.1.0
  */
+@ServiceEndpoint( alias = "service1", version = 1, domain = "testService1" )
 public final class TestService1 implements Service {
     /**
      * It will be called automatically by the EIP framework when the service needs to be executed.
@@ -30,6 +32,6 @@ public final class TestService1 implements Service {
             serviceAddress.serviceVersion = 1;
 
             return callServiceAsync( serviceAddress, serviceParams, serviceCallContext ).join();
-        } ).thenApplyAsync( result -> result );
+        }, serviceCallContext.getExecutor() ).thenApplyAsync( result -> result, serviceCallContext.getExecutor() );
     }
 }
@@ -1,6 +1,7 @@
 package com.softwaregroup.digiwave.eip.test.services;
 
 import com.softwaregroup.digiwave.eip.components.servicebus.Service;
+import com.softwaregroup.digiwave.eip.components.servicebus.ServiceEndpoint;
 import com.softwaregroup.digiwave.eip.components.servicebus.entities.*;
 
 import java.util.concurrent.CompletableFuture;
@@ -12,6 +13,7 @@ import java.util.concurrent.CompletableFuture;
  * @version 1.0
  * @since 2019.1.0
  */
+@ServiceEndpoint( alias = "service3", version = 1, domain = "testService2" )
 public final class TestService3 implements Service {
     /**
      * It will be called automatically by the EIP framework when the service needs to be executed.
@@ -28,6 +30,6 @@ public final class TestService3 implements Service {
             result.setPayload( new DataObject() );
             result.getPayload().put( "testParam", "Inside TestService3 result..." );
             return result;
-        } );
+        }, serviceCallContext.getExecutor() );
     }
 }
@@ -1,6 +1,97 @@
 package com.softwaregroup.digiwave.eip.utils;
 
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typed access to the EIP configuration.
+ * Settings are read from a YAML file (the one referenced by DIGIWAVE_CONFIG_FILE, a local 'application.yml' or the
+ * bundled classpath resource) and can be overridden by ENV variables: 'serviceBus.serviceCallCapacity' is overridden
+ * by DIGIWAVE_SERVICE_BUS_SERVICE_CALL_CAPACITY. When the settings come from a file, the file is watched and any
+ * change is applied without a restart.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
 public final class Config {
+    private static final String CONFIG_FILE_ENV = "DIGIWAVE_CONFIG_FILE";
+    private static final String CONFIG_RESOURCE = "application.yml";
+    private static final String ENV_PREFIX = "DIGIWAVE_";
+    private static final long RELOAD_CHECK_INTERVAL_MS = 2000;
+
+    private static final List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+    private static final Path configFile = locateConfigFile();
+    private static volatile FileTime configFileModified;
+    private static volatile Map<String, Object> settings = loadSettings();
+    private static volatile int generation = 0;
+
+    static {
+        if ( configFile != null ) {
+            ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                Thread thread = new Thread( runnable, "config-watcher" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            watcher.scheduleWithFixedDelay( Config::reloadIfModified, RELOAD_CHECK_INTERVAL_MS, RELOAD_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * A typed handle to a single setting. The lookup is done once per configuration generation, so reading the value
+     * on a hot path costs a volatile read.
+     *
+     * @param <T> The type of the setting, inferred from its default value.
+     */
+    public static final class Setting<T> {
+        private final String name;
+        private final T defaultValue;
+        private volatile T value;
+        private volatile int loadedGeneration = -1;
+
+        private Setting( String name, T defaultValue ) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+        }
+
+        /**
+         * Used to get the current value of the setting.
+         *
+         * @return The configured value or the default one if it's not configured.
+         */
+        public T get() {
+            int currentGeneration = generation;
+            if ( loadedGeneration != currentGeneration ) {
+                value = getSetting( name, defaultValue );
+                loadedGeneration = currentGeneration;
+            }
+            return value;
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The name of the setting.
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
     private Config() {
     }
 
@@ -9,6 +100,143 @@ public final class Config {
     }
 
     public static <T> T getSetting( String name, T defaultValue ) {
+        Object value = settings.get( normalizeName( name ) );
+        if ( value == null ) {
+            return defaultValue;
+        }
+        return convert( name, value, defaultValue );
+    }
+
+    /**
+     * Used to create a typed handle to a setting that follows configuration reloads.
+     *
+     * @param name         The name of the setting (e.g. 'serviceBus.serviceCallCapacity').
+     * @param defaultValue The value to use when the setting is not configured. It also defines the setting's type.
+     * @param <T>          The type of the setting.
+     * @return The setting handle.
+     */
+    public static <T> Setting<T> setting( String name, T defaultValue ) {
+        return new Setting<>( name, defaultValue );
+    }
+
+    /**
+     * Used to register a listener that will be executed every time the configuration is reloaded.
+     *
+     * @param listener The listener to execute.
+     */
+    public static void onReload( Runnable listener ) {
+        reloadListeners.add( listener );
+    }
+
+    private static void reloadIfModified() {
+        try {
+            FileTime modified = Files.getLastModifiedTime( configFile );
+            if ( modified.equals( configFileModified ) ) {
+                return;
+            }
+            settings = loadSettings();
+            generation++;
+            Logger.log( "Configuration reloaded from '" + configFile + "'.", Logger.Severity.INFO, Logger.Threads.ESB );
+            for ( Runnable listener : reloadListeners ) {
+                try {
+                    listener.run();
+                } catch ( Exception exception ) {
+                    Logger.log( "Configuration reload listener failed.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+                }
+            }
+        } catch ( Exception exception ) {
+            Logger.log( "Failed to reload configuration from '" + configFile + "'.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+        }
+    }
+
+    private static Path locateConfigFile() {
+        String fileName = System.getenv( CONFIG_FILE_ENV );
+        Path path = Paths.get( ( fileName != null ) ? fileName : CONFIG_RESOURCE );
+        return Files.isRegularFile( path ) ? path : null;
+    }
+
+    private static Map<String, Object> loadSettings() {
+        Map<String, Object> loaded = new HashMap<>();
+        try {
+            Object document;
+            if ( configFile != null ) {
+                configFileModified = Files.getLastModifiedTime( configFile );
+                try ( InputStream stream = Files.newInputStream( configFile ) ) {
+                    document = new Yaml().load( stream );
+                }
+            } else {
+                try ( InputStream stream = Config.class.getClassLoader().getResourceAsStream( CONFIG_RESOURCE ) ) {
+                    document = ( stream != null ) ? new Yaml().load( stream ) : null;
+                }
+            }
+            if ( document instanceof Map ) {
+                flatten( "", ( Map<?, ?> ) document, loaded );
+            }
+        } catch ( Exception exception ) {
+            // keep the previous settings (if any) when the file is broken:
+            Logger.log( "Failed to load configuration file.", Logger.Severity.ERROR, Logger.Threads.ESB, exception );
+            if ( settings != null ) {
+                return settings;
+            }
+        }
+
+        // ENV variables always take precedence over the configuration file:
+        for ( Map.Entry<String, String> variable : System.getenv().entrySet() ) {
+            if ( variable.getKey().startsWith( ENV_PREFIX ) ) {
+                loaded.put( normalizeName( variable.getKey().substring( ENV_PREFIX.length() ) ), variable.getValue() );
+            }
+        }
+        return Collections.unmodifiableMap( loaded );
+    }
+
+    private static void flatten( String prefix, Map<?, ?> node, Map<String, Object> target ) {
+        for ( Map.Entry<?, ?> entry : node.entrySet() ) {
+            String name = prefix + entry.getKey();
+            if ( entry.getValue() instanceof Map ) {
+                flatten( name + ".", ( Map<?, ?> ) entry.getValue(), target );
+            }
+            target.put( normalizeName( name ), entry.getValue() );
+        }
+    }
+
+    private static String normalizeName( String name ) {
+        StringBuilder normalized = new StringBuilder( name.length() );
+        for ( int idx = 0; idx < name.length(); idx++ ) {
+            char character = name.charAt( idx );
+            if ( character != '.' && character != '_' && character != '-' ) {
+                normalized.append( character );
+            }
+        }
+        return normalized.toString().toLowerCase( Locale.ROOT );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <T> T convert( String name, Object value, T defaultValue ) {
+        try {
+            if ( defaultValue == null || defaultValue.getClass().isInstance( value ) ) {
+                return ( T ) value;
+            }
+            String text = String.valueOf( value ).trim();
+            if ( defaultValue instanceof Integer ) {
+                return ( T ) ( Integer ) ( ( value instanceof Number ) ? ( ( Number ) value ).intValue() : Integer.parseInt( text ) );
+            } else if ( defaultValue instanceof Long ) {
+                return ( T ) ( Long ) ( ( value instanceof Number ) ? ( ( Number ) value ).longValue() : Long.parseLong( text ) );
+            } else if ( defaultValue instanceof Double ) {
+                return ( T ) ( Double ) ( ( value instanceof Number ) ? ( ( Number ) value ).doubleValue() : Double.parseDouble( text ) );
+            } else if ( defaultValue instanceof Boolean ) {
+                return ( T ) Boolean.valueOf( text );
+            } else if ( defaultValue instanceof String ) {
+                return ( T ) text;
+            } else if ( defaultValue instanceof Enum ) {
+                // YAML 1.1 reads an unquoted ON/OFF as a boolean:
+                if ( value instanceof Boolean ) {
+                    text = ( Boolean ) value ? "ON" : "OFF";
+                }
+                return ( T ) Enum.valueOf( ( ( Enum ) defaultValue ).getDeclaringClass(), text.toUpperCase( Locale.ROOT ) );
+            }
+        } catch ( IllegalArgumentException exception ) {
+            Logger.log( "Invalid value '" + value + "' for setting '" + name + "'. Default will be used.", Logger.Severity.WARNING, Logger.Threads.ESB );
+        }
         return defaultValue;
     }
 }
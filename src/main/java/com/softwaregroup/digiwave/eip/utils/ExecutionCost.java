@@ -0,0 +1,227 @@
+package com.softwaregroup.digiwave.eip.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Accumulates the thread CPU time and the allocated heap bytes of a single service execution.
+ * Only the work done inside measure is counted, on whatever thread it runs; an execution continuing on other threads
+ * is covered by running its continuations on an executor wrapped by the same cost. The costs reported by the calls
+ * the execution made are kept apart, so the own cost of a service and the cost of its whole call tree are both known.
+ * NOTE: The allocated bytes are counted only on JVMs supporting com.sun.management.ThreadMXBean (e.g. HotSpot).
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class ExecutionCost {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean allocations = initializeAllocations();
+    private static final boolean CPU_TIME_SUPPORTED = initializeCpuTime();
+
+    private final boolean enabled;
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder nestedCpuNanos = new LongAdder();
+    private final LongAdder nestedAllocatedBytes = new LongAdder();
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    /**
+     * @param enabled Whether the work is measured; a disabled cost stays at zero, but can still be used in its place.
+     */
+    public ExecutionCost( boolean enabled ) {
+        this.enabled = enabled && ( CPU_TIME_SUPPORTED || allocations != null );
+    }
+
+    /**
+     * Used to execute a task on the current thread and add its CPU time and allocated bytes to the cost.
+     *
+     * @param task The task to measure.
+     * @param <T>  The type of the task result.
+     * @return The result of the task.
+     */
+    public <T> T measure( Supplier<T> task ) {
+        if ( !enabled ) {
+            return task.get();
+        }
+        long threadID = Thread.currentThread().getId();
+        long startCpuNanos = currentCpuNanos();
+        long startAllocatedBytes = currentAllocatedBytes( threadID );
+        try {
+            return task.get();
+        } finally {
+            cpuNanos.add( currentCpuNanos() - startCpuNanos );
+            allocatedBytes.add( currentAllocatedBytes( threadID ) - startAllocatedBytes );
+        }
+    }
+
+    /**
+     * Used to execute a task on the current thread and add its CPU time and allocated bytes to the cost.
+     *
+     * @param task The task to measure.
+     */
+    public void measure( Runnable task ) {
+        measure( () -> {
+            task.run();
+            return null;
+        } );
+    }
+
+    /**
+     * Used to wrap an executor, so the tasks it runs (e.g. the async continuations of the execution) are measured too.
+     * NOTE: A task is added once it returns, so a task completing the execution's future is added only after the
+     * waiting thread may have read the cost already; use awaitTasks before reading it.
+     *
+     * @param executor The executor to wrap.
+     * @return The measuring executor.
+     */
+    public Executor wrap( Executor executor ) {
+        if ( !enabled ) {
+            return executor;
+        }
+        return command -> {
+            pendingTasks.incrementAndGet();
+            try {
+                executor.execute( () -> {
+                    try {
+                        measure( command );
+                    } finally {
+                        pendingTasks.decrementAndGet();
+                    }
+                } );
+            } catch ( RuntimeException exception ) {
+                pendingTasks.decrementAndGet();
+                throw exception;
+            }
+        };
+    }
+
+    /**
+     * Used to wait until the tasks of the wrapped executors returned, so their cost is added, but at most a timeout
+     * (e.g. for a task the execution left running in the background).
+     *
+     * @param timeoutMillis The max time to wait in milliseconds.
+     */
+    public void awaitTasks( long timeoutMillis ) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+        while ( pendingTasks.get() > 0 && System.nanoTime() - deadline < 0 ) {
+            LockSupport.parkNanos( 10_000 );
+        }
+    }
+
+    /**
+     * Used to add the cost reported by a call made during the execution.
+     *
+     * @param cpuMicros The CPU time of the call in microseconds.
+     * @param bytes     The bytes allocated by the call.
+     */
+    public void addNested( long cpuMicros, long bytes ) {
+        nestedCpuNanos.add( TimeUnit.MICROSECONDS.toNanos( cpuMicros ) );
+        nestedAllocatedBytes.add( bytes );
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The CPU time of the execution itself in microseconds.
+     */
+    public long getCpuMicros() {
+        return TimeUnit.NANOSECONDS.toMicros( cpuNanos.sum() );
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The bytes allocated by the execution itself.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The CPU time of the execution and of the calls it made in microseconds.
+     */
+    public long getTotalCpuMicros() {
+        return TimeUnit.NANOSECONDS.toMicros( cpuNanos.sum() + nestedCpuNanos.sum() );
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The bytes allocated by the execution and by the calls it made.
+     */
+    public long getTotalAllocatedBytes() {
+        return allocatedBytes.sum() + nestedAllocatedBytes.sum();
+    }
+
+    /**
+     * Used to get the CPU time of the current thread.
+     *
+     * @return The CPU time in nanoseconds or 0 if it's not supported.
+     */
+    private static long currentCpuNanos() {
+        return CPU_TIME_SUPPORTED ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Used to get the bytes allocated by a thread so far.
+     *
+     * @param threadID The ID of the thread.
+     * @return The allocated bytes or 0 if it's not supported.
+     */
+    private static long currentAllocatedBytes( long threadID ) {
+        return ( allocations != null ) ? allocations.getThreadAllocatedBytes( threadID ) : 0;
+    }
+
+    /**
+     * Used to enable the thread CPU time measurement if the JVM supports it.
+     *
+     * @return 'true' if the CPU time of the current thread can be measured.
+     */
+    private static boolean initializeCpuTime() {
+        try {
+            if ( !threads.isCurrentThreadCpuTimeSupported() ) {
+                return false;
+            }
+            if ( !threads.isThreadCpuTimeEnabled() ) {
+                threads.setThreadCpuTimeEnabled( true );
+            }
+            return true;
+        } catch ( UnsupportedOperationException | SecurityException exception ) {
+            Logger.log( "Thread CPU time is not measurable on this JVM.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+            return false;
+        }
+    }
+
+    /**
+     * Used to enable the thread allocation measurement if the JVM supports it.
+     *
+     * @return The extended thread MXBean or 'null' if the allocated bytes can't be measured.
+     */
+    private static com.sun.management.ThreadMXBean initializeAllocations() {
+        if ( !( threads instanceof com.sun.management.ThreadMXBean ) ) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean extended = ( com.sun.management.ThreadMXBean ) threads;
+        try {
+            if ( !extended.isThreadAllocatedMemorySupported() ) {
+                return null;
+            }
+            if ( !extended.isThreadAllocatedMemoryEnabled() ) {
+                extended.setThreadAllocatedMemoryEnabled( true );
+            }
+            return extended;
+        } catch ( UnsupportedOperationException | SecurityException exception ) {
+            Logger.log( "Thread allocations are not measurable on this JVM.", Logger.Severity.WARNING, Logger.Threads.ESB, exception );
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.softwaregroup.digiwave.eip.utils;
+
+import java.security.SecureRandom;
+
+/**
+ * Generates time-ordered 128-bit IDs without any contention between threads.
+ * The high 64 bits hold the milliseconds since 2019-01-01 (44 bits, enough for ~550 years) followed by a 20-bit
+ * sequence within the millisecond; the low 64 bits are a random node drawn once per thread. Every thread keeps its own
+ * clock and sequence, so generating an ID is a few arithmetic operations on thread-local state. The secure random
+ * source is touched only once per thread.
+ * The high bits never go backwards within a thread: if the sequence of a millisecond is exhausted or the clock is
+ * turned back, the next millisecond is borrowed. IDs of different threads differ in their node.
+ * NOTE: An ID is read with two calls (nextHigh() and then threadNode() on the same thread), so no object is created;
+ * the IDs are rendered as strings for logging only.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class IdGenerator {
+    private static final long EPOCH_MILLIS = 1546300800000L;
+    private static final int SEQUENCE_BITS = 20;
+    private static final long SEQUENCE_MASK = ( 1L << SEQUENCE_BITS ) - 1;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final SecureRandom nodeSource = new SecureRandom();
+
+    private static final ThreadLocal<ThreadState> threadStates = ThreadLocal.withInitial( ThreadState::new );
+
+    /**
+     * The generator state of a single thread.
+     */
+    private static final class ThreadState {
+        private final long node;
+        private long lastMillis;
+        private long sequence;
+
+        private ThreadState() {
+            synchronized ( nodeSource ) {
+                node = nodeSource.nextLong();
+            }
+        }
+    }
+
+    private IdGenerator() {
+    }
+
+    /**
+     * Used to generate the high (time-ordered) 64 bits of a new ID.
+     *
+     * @return The high bits; the low bits are the threadNode() of the calling thread.
+     */
+    public static long nextHigh() {
+        ThreadState state = threadStates.get();
+        long millis = System.currentTimeMillis() - EPOCH_MILLIS;
+        if ( millis > state.lastMillis ) {
+            state.lastMillis = millis;
+            state.sequence = 0;
+        } else if ( ++state.sequence > SEQUENCE_MASK ) {
+            state.lastMillis++;
+            state.sequence = 0;
+        }
+        return ( state.lastMillis << SEQUENCE_BITS ) | state.sequence;
+    }
+
+    /**
+     * Used to get the low 64 bits of the IDs generated by the calling thread.
+     *
+     * @return The random node of the calling thread.
+     */
+    public static long threadNode() {
+        return threadStates.get().node;
+    }
+
+    /**
+     * Used to get the creation time of an ID.
+     *
+     * @param high The high bits of the ID.
+     * @return The unix timestamp in milliseconds.
+     */
+    public static long getTimestamp( long high ) {
+        return ( high >>> SEQUENCE_BITS ) + EPOCH_MILLIS;
+    }
+
+    /**
+     * Used to render an ID as a string (the prefix followed by 32 hexadecimal digits), for logging.
+     *
+     * @param prefix The prefix of the ID kind.
+     * @param high   The high bits of the ID.
+     * @param low    The low bits of the ID.
+     * @return The string representation of the ID.
+     */
+    public static String toString( String prefix, long high, long low ) {
+        char[] chars = new char[ prefix.length() + 32 ];
+        prefix.getChars( 0, prefix.length(), chars, 0 );
+        writeHex( chars, prefix.length(), high );
+        writeHex( chars, prefix.length() + 16, low );
+        return new String( chars );
+    }
+
+    /**
+     * Used to write a long as 16 hexadecimal digits.
+     *
+     * @param chars  The destination.
+     * @param offset The position of the first digit.
+     * @param value  The value.
+     */
+    private static void writeHex( char[] chars, int offset, long value ) {
+        for ( int idx = 15; idx >= 0; idx-- ) {
+            chars[ offset + idx ] = HEX_DIGITS[ ( int ) ( value & 0xF ) ];
+            value >>>= 4;
+        }
+    }
+}
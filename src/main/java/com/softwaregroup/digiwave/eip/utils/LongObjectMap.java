@@ -0,0 +1,219 @@
+package com.softwaregroup.digiwave.eip.utils;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive long keys to objects, built on open addressing with linear probing.
+ * The keys and values are kept in two parallel arrays, so an entry costs two array slots instead of an entry object,
+ * a boxed key and the key's own fields. Removal shifts the following entries of the probe sequence back, so there are
+ * no tombstones and the lookups stay short no matter how many entries came and went.
+ * NOTE: The key 0 is reserved to mark the free slots and can't be stored. The map is not thread-safe.
+ *
+ * @param <V> The type of the values.
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class LongObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * Creates an empty map with the default capacity.
+     */
+    public LongObjectMap() {
+        this( MIN_CAPACITY );
+    }
+
+    /**
+     * @param expectedSize The number of entries the map should hold without growing.
+     */
+    public LongObjectMap( int expectedSize ) {
+        allocate( tableSizeFor( expectedSize ) );
+    }
+
+    /**
+     * Used to get the value of a key.
+     *
+     * @param key The key; may not be 0.
+     * @return The value or 'null' if the key is not in the map.
+     */
+    @SuppressWarnings( "unchecked" )
+    public V get( long key ) {
+        for ( int slot = slotOf( key ); keys[ slot ] != 0; slot = ( slot + 1 ) & mask ) {
+            if ( keys[ slot ] == key ) {
+                return ( V ) values[ slot ];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Used to put a new entry or to replace the value of an existing one.
+     *
+     * @param key   The key; may not be 0.
+     * @param value The value; may not be 'null'.
+     * @return The previous value or 'null' if the key was not in the map.
+     */
+    @SuppressWarnings( "unchecked" )
+    public V put( long key, V value ) {
+        if ( key == 0 ) {
+            throw new IllegalArgumentException( "The key 0 is reserved." );
+        }
+        if ( value == null ) {
+            throw new IllegalArgumentException( "The value may not be null." );
+        }
+        int slot = slotOf( key );
+        for ( ; keys[ slot ] != 0; slot = ( slot + 1 ) & mask ) {
+            if ( keys[ slot ] == key ) {
+                V previous = ( V ) values[ slot ];
+                values[ slot ] = value;
+                return previous;
+            }
+        }
+        keys[ slot ] = key;
+        values[ slot ] = value;
+        if ( ++size > resizeThreshold ) {
+            rehash( keys.length << 1 );
+        }
+        return null;
+    }
+
+    /**
+     * Used to remove an entry.
+     *
+     * @param key The key.
+     * @return The removed value or 'null' if the key was not in the map.
+     */
+    @SuppressWarnings( "unchecked" )
+    public V remove( long key ) {
+        for ( int slot = slotOf( key ); keys[ slot ] != 0; slot = ( slot + 1 ) & mask ) {
+            if ( keys[ slot ] == key ) {
+                V previous = ( V ) values[ slot ];
+                size--;
+                shiftBack( slot );
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Used to remove all entries, keeping the allocated capacity.
+     */
+    public void clear() {
+        Arrays.fill( keys, 0 );
+        Arrays.fill( values, null );
+        size = 0;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The number of entries in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Used to check if the map has no entries.
+     *
+     * @return 'true' if the map is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Used to close the gap left by a removed entry: the following entries of the probe sequence that can't be found
+     * past the gap are moved into it, until a free slot is reached.
+     *
+     * @param gap The slot of the removed entry.
+     */
+    private void shiftBack( int gap ) {
+        int slot = gap;
+        while ( true ) {
+            slot = ( slot + 1 ) & mask;
+            long key = keys[ slot ];
+            if ( key == 0 ) {
+                break;
+            }
+            int home = slotOf( key );
+            // the entry moves into the gap unless its home slot lies cyclically in (gap, slot]:
+            if ( ( ( slot - home ) & mask ) >= ( ( slot - gap ) & mask ) ) {
+                keys[ gap ] = key;
+                values[ gap ] = values[ slot ];
+                gap = slot;
+            }
+        }
+        keys[ gap ] = 0;
+        values[ gap ] = null;
+    }
+
+    /**
+     * Used to move all entries into tables of a new capacity.
+     *
+     * @param capacity The new capacity; a power of two.
+     */
+    private void rehash( int capacity ) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate( capacity );
+        for ( int idx = 0; idx < oldKeys.length; idx++ ) {
+            if ( oldKeys[ idx ] != 0 ) {
+                int slot = slotOf( oldKeys[ idx ] );
+                while ( keys[ slot ] != 0 ) {
+                    slot = ( slot + 1 ) & mask;
+                }
+                keys[ slot ] = oldKeys[ idx ];
+                values[ slot ] = oldValues[ idx ];
+            }
+        }
+    }
+
+    /**
+     * Used to allocate empty tables.
+     *
+     * @param capacity The capacity of the tables; a power of two.
+     */
+    private void allocate( int capacity ) {
+        keys = new long[ capacity ];
+        values = new Object[ capacity ];
+        mask = capacity - 1;
+        // keep the load factor at 0.75 at most:
+        resizeThreshold = capacity - ( capacity >>> 2 );
+    }
+
+    /**
+     * Used to get the home slot of a key. The key is spread with the golden ratio, so sequential keys don't form
+     * clusters.
+     *
+     * @param key The key.
+     * @return The index of the home slot.
+     */
+    private int slotOf( long key ) {
+        long hash = key * GOLDEN_RATIO;
+        return ( int ) ( hash ^ ( hash >>> 32 ) ) & mask;
+    }
+
+    /**
+     * Used to get the capacity for a number of entries.
+     *
+     * @param expectedSize The number of entries.
+     * @return The smallest power of two that holds the entries under the max load factor.
+     */
+    private static int tableSizeFor( int expectedSize ) {
+        long minCapacity = Math.max( MIN_CAPACITY, ( long ) Math.ceil( expectedSize / 0.75 ) );
+        if ( minCapacity > ( 1 << 30 ) ) {
+            throw new IllegalArgumentException( "The expected size " + expectedSize + " is too large." );
+        }
+        return Integer.highestOneBit( ( int ) minCapacity - 1 ) << 1;
+    }
+}
@@ -0,0 +1,240 @@
+package com.softwaregroup.digiwave.eip.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An append-only log of binary records, stored in memory-mapped segment files of a fixed size.
+ * Every record is written as: length (int), type (byte), timestamp (long), data (bytes). The unused tail of a segment
+ * is left zeroed, which marks the end of the records in it.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class MappedSegmentLog implements Closeable {
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Byte.BYTES + Long.BYTES;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    private final Path directory;
+    private final String prefix;
+    private final int segmentSize;
+    private int segmentIndex;
+    private Path segmentFile;
+    private MappedByteBuffer segment;
+
+    /**
+     * A visitor receiving the records while reading a log.
+     */
+    public interface RecordVisitor {
+        void visit( byte type, long timestamp, byte[] data );
+    }
+
+    /**
+     * A handler receiving the records while reading a single segment; it may stop the reading at any record.
+     */
+    public interface RecordHandler {
+        /**
+         * @param type      The record type.
+         * @param timestamp The record timestamp.
+         * @param data      The record data.
+         * @return 'false' if the record was not handled and the reading has to stop before it.
+         */
+        boolean handle( byte type, long timestamp, byte[] data );
+    }
+
+    /**
+     * @param directory   The directory where the segment files are stored.
+     * @param prefix      The prefix of the segment file names.
+     * @param segmentSize The size of a single segment file in bytes.
+     * @throws IOException To be handled by the caller.
+     */
+    public MappedSegmentLog( Path directory, String prefix, int segmentSize ) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        Files.createDirectories( directory );
+        List<Path> segments = listSegments( directory, prefix );
+        segmentIndex = segments.isEmpty() ? 0 : parseSegmentIndex( segments.get( segments.size() - 1 ), prefix );
+    }
+
+    /**
+     * Used to append a record to the log. A new segment is started when the current one can't fit the record.
+     *
+     * @param type      The record type; has to be different than zero.
+     * @param timestamp The record timestamp.
+     * @param data      The record data.
+     * @throws IOException To be handled by the caller.
+     */
+    public synchronized void append( byte type, long timestamp, byte[] data ) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + data.length;
+        if ( segment == null || segment.remaining() < recordSize ) {
+            rollSegment( recordSize );
+        }
+        segment.putInt( data.length );
+        segment.put( type );
+        segment.putLong( timestamp );
+        segment.put( data );
+    }
+
+    /**
+     * Used to flush the written records to the storage device.
+     */
+    public synchronized void force() {
+        if ( segment != null ) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Used to flush and release the current segment.
+     */
+    @Override
+    public synchronized void close() {
+        force();
+        segment = null;
+        segmentFile = null;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The segment file that is written to at the moment or 'null' if none is.
+     */
+    public synchronized Path getSegmentFile() {
+        return segmentFile;
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The offset after the last record written to the current segment; the records before it are complete.
+     */
+    public synchronized int getSegmentPosition() {
+        return ( segment != null ) ? segment.position() : 0;
+    }
+
+    /**
+     * Used to read all records of a log in the order they were written.
+     *
+     * @param directory The directory where the segment files are stored.
+     * @param prefix    The prefix of the segment file names. Use an empty prefix to read the segments of all logs.
+     * @param visitor   The visitor that will receive the records.
+     * @throws IOException To be handled by the caller.
+     */
+    public static void read( Path directory, String prefix, RecordVisitor visitor ) throws IOException {
+        for ( Path segmentFile : listSegments( directory, prefix ) ) {
+            readSegment( segmentFile, 0, ( type, timestamp, data ) -> {
+                visitor.visit( type, timestamp, data );
+                return true;
+            } );
+        }
+    }
+
+    /**
+     * Used to read the records of a single segment file, starting at a given offset, until the end of the segment or
+     * the first record the handler did not handle.
+     * NOTE: Read only segments that are no longer written to, e.g. the ones of a closed log.
+     *
+     * @param segmentFile The segment file.
+     * @param offset      The offset of the first record to read; 0 for the start of the segment.
+     * @param handler     The handler that will receive the records.
+     * @return The offset of the record that was not handled or -1 if the end of the segment was reached.
+     * @throws IOException To be handled by the caller.
+     */
+    public static int readSegment( Path segmentFile, int offset, RecordHandler handler ) throws IOException {
+        return readSegment( segmentFile, offset, Integer.MAX_VALUE, handler );
+    }
+
+    /**
+     * Used to read the records of a single segment file between two offsets, until the end offset or the first record
+     * the handler did not handle. The segment that is still written to can be read up to its current position.
+     *
+     * @param segmentFile The segment file.
+     * @param offset      The offset of the first record to read; 0 for the start of the segment.
+     * @param end         The offset after the last record to read (see getSegmentPosition).
+     * @param handler     The handler that will receive the records.
+     * @return The offset of the record that was not handled or -1 if the end offset was reached.
+     * @throws IOException To be handled by the caller.
+     */
+    public static int readSegment( Path segmentFile, int offset, int end, RecordHandler handler ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( segmentFile, StandardOpenOption.READ ) ) {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            buffer.limit( ( int ) Math.min( end, channel.size() ) );
+            buffer.position( offset );
+            while ( buffer.remaining() >= RECORD_HEADER_SIZE ) {
+                int recordOffset = buffer.position();
+                int length = buffer.getInt();
+                byte type = buffer.get();
+                if ( length == END_OF_SEGMENT || type == 0 ) {
+                    break;
+                }
+                long timestamp = buffer.getLong();
+                byte[] data = new byte[ length ];
+                try {
+                    buffer.get( data );
+                } catch ( BufferUnderflowException exception ) {
+                    // torn record at the end of a segment (e.g. after a crash):
+                    break;
+                }
+                if ( !handler.handle( type, timestamp, data ) ) {
+                    return recordOffset;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Used to list the segment files of a log.
+     *
+     * @param directory The directory where the segment files are stored.
+     * @param prefix    The prefix of the segment file names. Use an empty prefix to list the segments of all logs.
+     * @return The segment files in the order they were written.
+     * @throws IOException To be handled by the caller.
+     */
+    public static List<Path> listSegments( Path directory, String prefix ) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if ( Files.isDirectory( directory ) ) {
+            // the whole name is matched, so the segments of a log with a longer prefix (e.g. 'a-b' for 'a') are left out:
+            Pattern fileName = Pattern.compile( ( prefix.isEmpty() ? ".*" : Pattern.quote( prefix ) ) + "-\\d+" + Pattern.quote( SEGMENT_EXTENSION ) );
+            try ( DirectoryStream<Path> stream = Files.newDirectoryStream( directory, path -> fileName.matcher( path.getFileName().toString() ).matches() ) ) {
+                stream.forEach( segments::add );
+            }
+        }
+        Collections.sort( segments );
+        return segments;
+    }
+
+    private void rollSegment( int recordSize ) throws IOException {
+        if ( segment != null ) {
+            if ( segment.remaining() >= Integer.BYTES ) {
+                segment.putInt( END_OF_SEGMENT );
+            }
+            segment.force();
+        }
+        segmentIndex++;
+        Path nextSegmentFile = directory.resolve( String.format( "%s-%08d%s", prefix, segmentIndex, SEGMENT_EXTENSION ) );
+        try ( FileChannel channel = FileChannel.open( nextSegmentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE ) ) {
+            segment = channel.map( FileChannel.MapMode.READ_WRITE, 0, Math.max( segmentSize, recordSize + Integer.BYTES ) );
+        }
+        segmentFile = nextSegmentFile;
+    }
+
+    private static int parseSegmentIndex( Path segmentFile, String prefix ) {
+        String fileName = segmentFile.getFileName().toString();
+        return Integer.parseInt( fileName.substring( prefix.length() + 1, fileName.length() - SEGMENT_EXTENSION.length() ) );
+    }
+}
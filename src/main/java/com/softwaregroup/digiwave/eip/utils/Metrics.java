@@ -0,0 +1,201 @@
+package com.softwaregroup.digiwave.eip.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the runtime metrics of the microservice instance: counters, gauges and latency histograms.
+ * When 'metrics.reportInterval' is set, a snapshot is logged on that interval and the histograms are reset, so the
+ * reported percentiles always describe the last interval.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class Metrics {
+    private static final int REPORT_INTERVAL_SECONDS = Config.getSetting( "metrics.reportInterval", 60 );
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    static {
+        if ( REPORT_INTERVAL_SECONDS > 0 ) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                Thread thread = new Thread( runnable, "metrics-reporter" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            reporter.scheduleAtFixedRate( () -> Logger.log( "Metrics snapshot:", Logger.Severity.INFO, Logger.Threads.ESB, snapshot( true ) ), REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS );
+        }
+    }
+
+    /**
+     * A lock-free latency histogram with log-linear buckets (16 buckets per power of two, i.e. ~6% precision).
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = ( 64 - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Used to record a single value.
+         *
+         * @param value The value to record (negative values are recorded as zero).
+         */
+        public void record( long value ) {
+            buckets.incrementAndGet( getBucketIndex( Math.max( 0, value ) ) );
+            count.increment();
+        }
+
+        /**
+         * Standard getter.
+         *
+         * @return The number of recorded values.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Used to estimate a percentile of the recorded values.
+         *
+         * @param percentile The percentile (between 0 and 1).
+         * @return The lower bound of the bucket containing the percentile or 0 if there are no values.
+         */
+        public long getPercentile( double percentile ) {
+            long total = 0;
+            for ( int idx = 0; idx < BUCKETS; idx++ ) {
+                total += buckets.get( idx );
+            }
+            long rank = ( long ) Math.ceil( total * percentile );
+            long seen = 0;
+            for ( int idx = 0; idx < BUCKETS; idx++ ) {
+                seen += buckets.get( idx );
+                if ( seen >= rank && seen > 0 ) {
+                    return getBucketValue( idx );
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Used to clear all recorded values.
+         */
+        public void reset() {
+            for ( int idx = 0; idx < BUCKETS; idx++ ) {
+                buckets.set( idx, 0 );
+            }
+            count.reset();
+        }
+
+        private static int getBucketIndex( long value ) {
+            if ( value < SUB_BUCKETS ) {
+                return ( int ) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros( value );
+            int subBucket = ( int ) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+            return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long getBucketValue( int index ) {
+            if ( index < SUB_BUCKETS ) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            return ( long ) ( SUB_BUCKETS + index % SUB_BUCKETS ) << ( exponent - SUB_BUCKET_BITS );
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Used to increment a counter by one.
+     *
+     * @param name The name of the counter.
+     */
+    public static void increment( String name ) {
+        add( name, 1 );
+    }
+
+    /**
+     * Used to add to a counter.
+     *
+     * @param name  The name of the counter.
+     * @param delta The value to add.
+     */
+    public static void add( String name, long delta ) {
+        counters.computeIfAbsent( name, key -> new LongAdder() ).add( delta );
+    }
+
+    /**
+     * Used to get the current value of a counter.
+     *
+     * @param name The name of the counter.
+     * @return The value of the counter or 0 if it doesn't exist.
+     */
+    public static long getCount( String name ) {
+        LongAdder counter = counters.get( name );
+        return ( counter != null ) ? counter.sum() : 0;
+    }
+
+    /**
+     * Used to register a gauge, which is evaluated whenever a snapshot is taken.
+     *
+     * @param name  The name of the gauge.
+     * @param gauge The supplier of the gauge value.
+     */
+    public static void registerGauge( String name, LongSupplier gauge ) {
+        gauges.put( name, gauge );
+    }
+
+    /**
+     * Used to get a histogram, creating it on first use.
+     *
+     * @param name The name of the histogram.
+     * @return The histogram.
+     */
+    public static Histogram getHistogram( String name ) {
+        return histograms.computeIfAbsent( name, key -> new Histogram() );
+    }
+
+    /**
+     * Used to record the time elapsed since a start time into a histogram in microseconds.
+     *
+     * @param name       The name of the histogram.
+     * @param startNanos The System.nanoTime() value at the start.
+     */
+    public static void recordLatency( String name, long startNanos ) {
+        getHistogram( name ).record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - startNanos ) );
+    }
+
+    /**
+     * Used to take a snapshot of all metrics. Histograms are reported as count, p50, p99 and p999 in microseconds.
+     *
+     * @param resetHistograms Whether to reset the histograms after taking the snapshot.
+     * @return The metric values ordered by name.
+     */
+    public static Map<String, Object> snapshot( boolean resetHistograms ) {
+        Map<String, Object> snapshot = new TreeMap<>();
+        counters.forEach( ( name, counter ) -> snapshot.put( name, counter.sum() ) );
+        gauges.forEach( ( name, gauge ) -> snapshot.put( name, gauge.getAsLong() ) );
+        histograms.forEach( ( name, histogram ) -> {
+            snapshot.put( name, "count=" + histogram.getCount() + " p50=" + histogram.getPercentile( 0.5 ) + " p99=" + histogram.getPercentile( 0.99 ) + " p999=" + histogram.getPercentile( 0.999 ) );
+            if ( resetHistograms ) {
+                histogram.reset();
+            }
+        } );
+        return snapshot;
+    }
+}
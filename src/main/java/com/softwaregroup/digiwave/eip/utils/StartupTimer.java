@@ -0,0 +1,48 @@
+package com.softwaregroup.digiwave.eip.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long the phases of the microservice start-up took.
+ * Every phase is logged when it completes and kept in the start-up summary, which is logged once the instance is
+ * ready. Phases running in parallel are recorded independently, so their durations may add up to more than the total.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+public final class StartupTimer {
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Used to record a completed start-up phase.
+     *
+     * @param phase      The name of the phase.
+     * @param startNanos The System.nanoTime() value at the start of the phase.
+     */
+    public static void record( String phase, long startNanos ) {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos );
+        synchronized ( phases ) {
+            phases.put( phase, durationMillis );
+        }
+        Logger.log( "Start-up phase '" + phase + "' completed in " + durationMillis + " ms.", Logger.Severity.DEBUG, Logger.Threads.ESB );
+    }
+
+    /**
+     * Used to get all recorded phases.
+     *
+     * @return A human readable list of the phases in the order of completion.
+     */
+    public static String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        synchronized ( phases ) {
+            phases.forEach( ( phase, durationMillis ) -> summary.append( ( summary.length() > 0 ) ? ", " : "" ).append( phase ).append( '=' ).append( durationMillis ).append( "ms" ) );
+        }
+        return summary.toString();
+    }
+}
@@ -9,4 +9,9 @@ public final class Tools {
     public static long getUnixTimestamp() {
         return Instant.now().getEpochSecond();
     }
+
+    public static long getUnixTimestampMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
 }
@@ -0,0 +1,239 @@
+package com.softwaregroup.digiwave.eip.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor generating the ServiceIndex of all classes annotated with ServiceEndpoint.
+ * The generated index creates the services through direct constructor references and is registered for the
+ * ServiceLoader, so the ServiceProvider finds it without scanning the classpath. Every endpoint is validated, so
+ * mistakes (e.g. a duplicate alias and version) fail the build instead of the first call of the service.
+ * The index is written in the first round with endpoints, as a source file created in the last round is not compiled
+ * cleanly; an endpoint showing up in a later round (e.g. a class generated by another processor) fails the build.
+ * NOTE: The processor refers to the framework types by name only, so it doesn't depend on the main source set.
+ *
+ * @author Boris Kostadinov
+ * @version 1.0
+ * @since 2019.1.0
+ */
+@SupportedAnnotationTypes( ServiceEndpointProcessor.SERVICE_ENDPOINT )
+public final class ServiceEndpointProcessor extends AbstractProcessor {
+    static final String SERVICE_ENDPOINT = "com.softwaregroup.digiwave.eip.components.servicebus.ServiceEndpoint";
+    private static final String SERVICE = "com.softwaregroup.digiwave.eip.components.servicebus.Service";
+    private static final String SERVICE_INDEX = "com.softwaregroup.digiwave.eip.components.servicebus.ServiceIndex";
+    private static final String INDEX_CLASS_NAME = "GeneratedServiceIndex";
+
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private String indexPackage;
+    private boolean generated;
+
+    /**
+     * A single validated service endpoint.
+     */
+    private static final class Endpoint {
+        private final String domain;
+        private final String alias;
+        private final int version;
+        private final String className;
+
+        private Endpoint( String domain, String alias, int version, String className ) {
+            this.domain = domain;
+            this.alias = alias;
+            this.version = version;
+            this.className = className;
+        }
+    }
+
+    /**
+     * Standard getter.
+     *
+     * @return The latest supported source version.
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * Used to collect the annotated classes of a round and generate the index once the first of them are known.
+     *
+     * @param annotations The annotation types requested to be processed.
+     * @param roundEnv    The environment of the current round.
+     * @return Always 'true', the annotation is claimed by this processor.
+     */
+    @Override
+    public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ) {
+        TypeElement serviceEndpoint = processingEnv.getElementUtils().getTypeElement( SERVICE_ENDPOINT );
+        if ( serviceEndpoint != null ) {
+            for ( Element element : roundEnv.getElementsAnnotatedWith( serviceEndpoint ) ) {
+                if ( generated ) {
+                    processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "The service index was already generated; service endpoints created by other annotation processors are not supported.", element );
+                    continue;
+                }
+                collectEndpoint( ( TypeElement ) element );
+            }
+        }
+        if ( !generated && !endpoints.isEmpty() && ( roundEnv.processingOver() || !annotations.isEmpty() ) ) {
+            generateIndex();
+            generated = true;
+        }
+        return true;
+    }
+
+    /**
+     * Used to validate an annotated class and add it to the index.
+     *
+     * @param typeElement The annotated class.
+     */
+    private void collectEndpoint( TypeElement typeElement ) {
+        Messager messager = processingEnv.getMessager();
+        Elements elements = processingEnv.getElementUtils();
+        Map<String, Object> values = getAnnotationValues( typeElement );
+        String alias = ( String ) values.get( "alias" );
+        int version = ( Integer ) values.getOrDefault( "version", 1 );
+        String domain = ( String ) values.getOrDefault( "domain", "" );
+        String className = elements.getBinaryName( typeElement ).toString();
+
+        boolean valid = true;
+        if ( typeElement.getKind() != ElementKind.CLASS || typeElement.getModifiers().contains( Modifier.ABSTRACT ) || !typeElement.getModifiers().contains( Modifier.PUBLIC ) ) {
+            messager.printMessage( Diagnostic.Kind.ERROR, "Service endpoints have to be public non-abstract classes.", typeElement );
+            valid = false;
+        }
+        if ( typeElement.getNestingKind().isNested() && !typeElement.getModifiers().contains( Modifier.STATIC ) ) {
+            messager.printMessage( Diagnostic.Kind.ERROR, "Nested service endpoints have to be static.", typeElement );
+            valid = false;
+        }
+        TypeElement service = elements.getTypeElement( SERVICE );
+        if ( service == null || !processingEnv.getTypeUtils().isAssignable( typeElement.asType(), processingEnv.getTypeUtils().erasure( service.asType() ) ) ) {
+            messager.printMessage( Diagnostic.Kind.ERROR, "Service endpoints have to implement " + SERVICE + ".", typeElement );
+            valid = false;
+        }
+        if ( !hasPublicDefaultConstructor( typeElement ) ) {
+            messager.printMessage( Diagnostic.Kind.ERROR, "Service endpoints need a public constructor without arguments.", typeElement );
+            valid = false;
+        }
+        if ( alias == null || alias.trim().isEmpty() ) {
+            messager.printMessage( Diagnostic.Kind.ERROR, "The alias of a service endpoint can't be empty.", typeElement );
+            valid = false;
+        }
+        if ( version < 1 ) {
+            messager.printMessage( Diagnostic.Kind.ERROR, "The version of a service endpoint has to be positive.", typeElement );
+            valid = false;
+        }
+        String key = domain + "/" + alias + "/" + version;
+        if ( valid && endpoints.containsKey( key ) ) {
+            messager.printMessage( Diagnostic.Kind.ERROR, "Service '" + alias + "' version " + version + " is already provided by " + endpoints.get( key ).className + ".", typeElement );
+            valid = false;
+        }
+        if ( valid ) {
+            endpoints.put( key, new Endpoint( domain, alias, version, className ) );
+            if ( indexPackage == null ) {
+                indexPackage = elements.getPackageOf( typeElement ).getQualifiedName().toString();
+            }
+        }
+    }
+
+    /**
+     * Used to read the explicit and default values of the ServiceEndpoint annotation of a class.
+     *
+     * @param typeElement The annotated class.
+     * @return The values by element name.
+     */
+    private Map<String, Object> getAnnotationValues( TypeElement typeElement ) {
+        Map<String, Object> values = new HashMap<>();
+        for ( AnnotationMirror annotationMirror : typeElement.getAnnotationMirrors() ) {
+            if ( ( ( TypeElement ) annotationMirror.getAnnotationType().asElement() ).getQualifiedName().contentEquals( SERVICE_ENDPOINT ) ) {
+                Map<? extends ExecutableElement, ? extends AnnotationValue> elementValues = processingEnv.getElementUtils().getElementValuesWithDefaults( annotationMirror );
+                elementValues.forEach( ( name, value ) -> values.put( name.getSimpleName().toString(), value.getValue() ) );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Used to check if a class can be created by a constructor reference without arguments.
+     *
+     * @param typeElement The annotated class.
+     * @return 'true' if the class has a public constructor without arguments.
+     */
+    private static boolean hasPublicDefaultConstructor( TypeElement typeElement ) {
+        for ( ExecutableElement constructor : ElementFilter.constructorsIn( typeElement.getEnclosedElements() ) ) {
+            if ( constructor.getParameters().isEmpty() && constructor.getModifiers().contains( Modifier.PUBLIC ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Used to write the index class and its ServiceLoader registration.
+     */
+    private void generateIndex() {
+        String indexClassName = ( indexPackage.isEmpty() ? "" : indexPackage + "." ) + INDEX_CLASS_NAME;
+        StringBuilder source = new StringBuilder();
+        if ( !indexPackage.isEmpty() ) {
+            source.append( "package " ).append( indexPackage ).append( ";\n\n" );
+        }
+        source.append( "import " ).append( SERVICE_INDEX ).append( ";\n" )
+                .append( "import com.softwaregroup.digiwave.eip.components.servicebus.entities.ServiceDefinition;\n\n" )
+                .append( "import java.util.Arrays;\n" )
+                .append( "import java.util.List;\n\n" )
+                .append( "/**\n * Generated by ServiceEndpointProcessor, do not edit.\n */\n" )
+                .append( "public final class " ).append( INDEX_CLASS_NAME ).append( " implements ServiceIndex {\n" )
+                .append( "    @Override\n" )
+                .append( "    public List<ServiceDefinition> getServiceDefinitions() {\n" )
+                .append( "        return Arrays.asList(\n" );
+        int count = 0;
+        for ( Endpoint endpoint : endpoints.values() ) {
+            source.append( "                ServiceIndex.define( " ).append( quote( endpoint.domain ) ).append( ", " ).append( quote( endpoint.alias ) ).append( ", " )
+                    .append( endpoint.version ).append( ", " ).append( quote( endpoint.className ) ).append( ", " )
+                    .append( endpoint.className.replace( '$', '.' ) ).append( "::new )" ).append( ( ++count < endpoints.size() ) ? ",\n" : "\n" );
+        }
+        source.append( "        );\n" )
+                .append( "    }\n" )
+                .append( "}\n" );
+
+        try {
+            try ( Writer writer = processingEnv.getFiler().createSourceFile( indexClassName ).openWriter() ) {
+                writer.write( source.toString() );
+            }
+            FileObject registration = processingEnv.getFiler().createResource( StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + SERVICE_INDEX );
+            try ( Writer writer = registration.openWriter() ) {
+                writer.write( indexClassName + "\n" );
+            }
+        } catch ( IOException exception ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "Failed to generate the service index: " + exception.getMessage() );
+        }
+    }
+
+    /**
+     * Used to write a string as a Java literal.
+     *
+     * @param value The string value.
+     * @return The quoted and escaped literal.
+     */
+    private static String quote( String value ) {
+        return "\"" + value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ) + "\"";
+    }
+}